@@ -0,0 +1,2082 @@
+// $ANTLR 2.7.7 (2006-11-01): "parser.g" -> "DecafParser.java"$
+
+package edu.mit.compilers.grammar;
+
+
+import antlr.TokenBuffer;
+import antlr.TokenStreamException;
+import antlr.TokenStreamIOException;
+import antlr.ANTLRException;
+import antlr.LLkParser;
+import antlr.Token;
+import antlr.TokenStream;
+import antlr.RecognitionException;
+import antlr.NoViableAltException;
+import antlr.MismatchedTokenException;
+import antlr.SemanticException;
+import antlr.ParserSharedInputState;
+import antlr.collections.impl.BitSet;
+import antlr.collections.AST;
+import java.util.Hashtable;
+import antlr.ASTFactory;
+import antlr.ASTPair;
+import antlr.collections.impl.ASTArray;
+
+public class DecafParser extends antlr.LLkParser       implements DecafParserTokenTypes
+ {
+
+  // Do our own reporting of errors so the parser can return a non-zero status
+  // if any errors are detected.
+  /** Reports if any errors were reported during parse. */
+  private boolean error;
+
+  @Override
+  public void reportError (RecognitionException ex) {
+    // Print the error via some kind of error reporting mechanism.
+    System.err.println("Parser error: " + ex.getMessage());
+    error = true;
+  }
+  @Override
+  public void reportError (String s) {
+    // Print the error via some kind of error reporting mechanism.
+    System.err.println("Parser error: "+s);
+    error = true;
+  }
+  public boolean getError () {
+    return error;
+  }
+
+  // Selectively turns on debug mode.
+
+  /** Whether to display debug information. */
+  private boolean trace = false;
+
+  public void setTrace(boolean shouldTrace) {
+    trace = shouldTrace;
+  }
+  @Override
+  public void traceIn(String rname) throws TokenStreamException {
+    if (trace) {
+      super.traceIn(rname);
+    }
+  }
+  @Override
+  public void traceOut(String rname) throws TokenStreamException {
+    if (trace) {
+      super.traceOut(rname);
+    }
+  }
+
+protected DecafParser(TokenBuffer tokenBuf, int k) {
+  super(tokenBuf,k);
+  tokenNames = _tokenNames;
+  buildTokenTypeASTClassMap();
+  astFactory = new ASTFactory(getTokenTypeToASTClassMap());
+}
+
+public DecafParser(TokenBuffer tokenBuf) {
+  this(tokenBuf,3);
+}
+
+protected DecafParser(TokenStream lexer, int k) {
+  super(lexer,k);
+  tokenNames = _tokenNames;
+  buildTokenTypeASTClassMap();
+  astFactory = new ASTFactory(getTokenTypeToASTClassMap());
+}
+
+public DecafParser(TokenStream lexer) {
+  this(lexer,3);
+}
+
+public DecafParser(ParserSharedInputState state) {
+  super(state,3);
+  tokenNames = _tokenNames;
+  buildTokenTypeASTClassMap();
+  astFactory = new ASTFactory(getTokenTypeToASTClassMap());
+}
+
+	public final void program() throws RecognitionException, TokenStreamException {
+		
+		traceIn("program");
+		try { // debugging
+			returnAST = null;
+			ASTPair currentAST = new ASTPair();
+			AST program_AST = null;
+			
+			try {      // for error handling
+				{
+				_loop3:
+				do {
+					if ((LA(1)==TK_callout)) {
+						callout_decl();
+						astFactory.addASTChild(currentAST, returnAST);
+					}
+					else {
+						break _loop3;
+					}
+					
+				} while (true);
+				}
+				{
+				_loop5:
+				do {
+					if ((LA(1)==TK_boolean||LA(1)==TK_int) && (LA(2)==ID) && (LA(3)==LBRACKET||LA(3)==SEMICOLON||LA(3)==COMMA)) {
+						field_decl();
+						astFactory.addASTChild(currentAST, returnAST);
+					}
+					else {
+						break _loop5;
+					}
+					
+				} while (true);
+				}
+				{
+				_loop7:
+				do {
+					if ((LA(1)==TK_boolean||LA(1)==TK_int||LA(1)==TK_void)) {
+						method_decl();
+						astFactory.addASTChild(currentAST, returnAST);
+					}
+					else {
+						break _loop7;
+					}
+					
+				} while (true);
+				}
+				match(Token.EOF_TYPE);
+				program_AST = (AST)currentAST.root;
+				program_AST = (AST)astFactory.make( (new ASTArray(2)).add(astFactory.create(PROGRAM,"program")).add(program_AST));
+				currentAST.root = program_AST;
+				currentAST.child = program_AST!=null &&program_AST.getFirstChild()!=null ?
+					program_AST.getFirstChild() : program_AST;
+				currentAST.advanceChildToEnd();
+				program_AST = (AST)currentAST.root;
+			}
+			catch (RecognitionException ex) {
+				reportError(ex);
+				recover(ex,_tokenSet_0);
+			}
+			returnAST = program_AST;
+		} finally { // debugging
+			traceOut("program");
+		}
+	}
+	
+	public final void callout_decl() throws RecognitionException, TokenStreamException {
+		
+		traceIn("callout_decl");
+		try { // debugging
+			returnAST = null;
+			ASTPair currentAST = new ASTPair();
+			AST callout_decl_AST = null;
+			
+			try {      // for error handling
+				AST tmp2_AST = null;
+				tmp2_AST = astFactory.create(LT(1));
+				astFactory.makeASTRoot(currentAST, tmp2_AST);
+				match(TK_callout);
+				AST tmp3_AST = null;
+				tmp3_AST = astFactory.create(LT(1));
+				astFactory.addASTChild(currentAST, tmp3_AST);
+				match(ID);
+				match(SEMICOLON);
+				callout_decl_AST = (AST)currentAST.root;
+			}
+			catch (RecognitionException ex) {
+				reportError(ex);
+				recover(ex,_tokenSet_1);
+			}
+			returnAST = callout_decl_AST;
+		} finally { // debugging
+			traceOut("callout_decl");
+		}
+	}
+	
+	public final void field_decl() throws RecognitionException, TokenStreamException {
+		
+		traceIn("field_decl");
+		try { // debugging
+			returnAST = null;
+			ASTPair currentAST = new ASTPair();
+			AST field_decl_AST = null;
+			
+			try {      // for error handling
+				type();
+				astFactory.addASTChild(currentAST, returnAST);
+				{
+				if ((LA(1)==ID) && (LA(2)==SEMICOLON||LA(2)==COMMA)) {
+					AST tmp5_AST = null;
+					tmp5_AST = astFactory.create(LT(1));
+					astFactory.addASTChild(currentAST, tmp5_AST);
+					match(ID);
+				}
+				else if ((LA(1)==ID) && (LA(2)==LBRACKET)) {
+					AST tmp6_AST = null;
+					tmp6_AST = astFactory.create(LT(1));
+					astFactory.addASTChild(currentAST, tmp6_AST);
+					match(ID);
+					match(LBRACKET);
+					AST tmp8_AST = null;
+					tmp8_AST = astFactory.create(LT(1));
+					astFactory.addASTChild(currentAST, tmp8_AST);
+					match(INT_LITERAL);
+					match(RBRACKET);
+				}
+				else {
+					throw new NoViableAltException(LT(1), getFilename());
+				}
+				
+				}
+				{
+				_loop13:
+				do {
+					if ((LA(1)==COMMA)) {
+						match(COMMA);
+						{
+						if ((LA(1)==ID) && (LA(2)==SEMICOLON||LA(2)==COMMA)) {
+							AST tmp11_AST = null;
+							tmp11_AST = astFactory.create(LT(1));
+							astFactory.addASTChild(currentAST, tmp11_AST);
+							match(ID);
+						}
+						else if ((LA(1)==ID) && (LA(2)==LBRACKET)) {
+							AST tmp12_AST = null;
+							tmp12_AST = astFactory.create(LT(1));
+							astFactory.addASTChild(currentAST, tmp12_AST);
+							match(ID);
+							match(LBRACKET);
+							AST tmp14_AST = null;
+							tmp14_AST = astFactory.create(LT(1));
+							astFactory.addASTChild(currentAST, tmp14_AST);
+							match(INT_LITERAL);
+							match(RBRACKET);
+						}
+						else {
+							throw new NoViableAltException(LT(1), getFilename());
+						}
+						
+						}
+					}
+					else {
+						break _loop13;
+					}
+					
+				} while (true);
+				}
+				match(SEMICOLON);
+				field_decl_AST = (AST)currentAST.root;
+				field_decl_AST = (AST)astFactory.make( (new ASTArray(2)).add(astFactory.create(FIELD_DECL,"field_decl")).add(field_decl_AST));
+				currentAST.root = field_decl_AST;
+				currentAST.child = field_decl_AST!=null &&field_decl_AST.getFirstChild()!=null ?
+					field_decl_AST.getFirstChild() : field_decl_AST;
+				currentAST.advanceChildToEnd();
+				field_decl_AST = (AST)currentAST.root;
+			}
+			catch (RecognitionException ex) {
+				reportError(ex);
+				recover(ex,_tokenSet_2);
+			}
+			returnAST = field_decl_AST;
+		} finally { // debugging
+			traceOut("field_decl");
+		}
+	}
+	
+	public final void method_decl() throws RecognitionException, TokenStreamException {
+		
+		traceIn("method_decl");
+		try { // debugging
+			returnAST = null;
+			ASTPair currentAST = new ASTPair();
+			AST method_decl_AST = null;
+			
+			try {      // for error handling
+				{
+				switch ( LA(1)) {
+				case TK_boolean:
+				case TK_int:
+				{
+					type();
+					astFactory.addASTChild(currentAST, returnAST);
+					break;
+				}
+				case TK_void:
+				{
+					AST tmp17_AST = null;
+					tmp17_AST = astFactory.create(LT(1));
+					astFactory.addASTChild(currentAST, tmp17_AST);
+					match(TK_void);
+					break;
+				}
+				default:
+				{
+					throw new NoViableAltException(LT(1), getFilename());
+				}
+				}
+				}
+				AST tmp18_AST = null;
+				tmp18_AST = astFactory.create(LT(1));
+				astFactory.addASTChild(currentAST, tmp18_AST);
+				match(ID);
+				match(LPAREN);
+				{
+				switch ( LA(1)) {
+				case TK_boolean:
+				case TK_int:
+				{
+					{
+					type();
+					astFactory.addASTChild(currentAST, returnAST);
+					AST tmp20_AST = null;
+					tmp20_AST = astFactory.create(LT(1));
+					astFactory.addASTChild(currentAST, tmp20_AST);
+					match(ID);
+					}
+					{
+					_loop19:
+					do {
+						if ((LA(1)==COMMA)) {
+							match(COMMA);
+							type();
+							astFactory.addASTChild(currentAST, returnAST);
+							AST tmp22_AST = null;
+							tmp22_AST = astFactory.create(LT(1));
+							astFactory.addASTChild(currentAST, tmp22_AST);
+							match(ID);
+						}
+						else {
+							break _loop19;
+						}
+						
+					} while (true);
+					}
+					break;
+				}
+				case RPAREN:
+				{
+					break;
+				}
+				default:
+				{
+					throw new NoViableAltException(LT(1), getFilename());
+				}
+				}
+				}
+				match(RPAREN);
+				block();
+				astFactory.addASTChild(currentAST, returnAST);
+				method_decl_AST = (AST)currentAST.root;
+				method_decl_AST = (AST)astFactory.make( (new ASTArray(2)).add(astFactory.create(METHOD_DECL,"method_decl")).add(method_decl_AST));
+				currentAST.root = method_decl_AST;
+				currentAST.child = method_decl_AST!=null &&method_decl_AST.getFirstChild()!=null ?
+					method_decl_AST.getFirstChild() : method_decl_AST;
+				currentAST.advanceChildToEnd();
+				method_decl_AST = (AST)currentAST.root;
+			}
+			catch (RecognitionException ex) {
+				reportError(ex);
+				recover(ex,_tokenSet_3);
+			}
+			returnAST = method_decl_AST;
+		} finally { // debugging
+			traceOut("method_decl");
+		}
+	}
+	
+	public final void type() throws RecognitionException, TokenStreamException {
+		
+		traceIn("type");
+		try { // debugging
+			returnAST = null;
+			ASTPair currentAST = new ASTPair();
+			AST type_AST = null;
+			
+			try {      // for error handling
+				switch ( LA(1)) {
+				case TK_int:
+				{
+					AST tmp24_AST = null;
+					tmp24_AST = astFactory.create(LT(1));
+					astFactory.addASTChild(currentAST, tmp24_AST);
+					match(TK_int);
+					type_AST = (AST)currentAST.root;
+					break;
+				}
+				case TK_boolean:
+				{
+					AST tmp25_AST = null;
+					tmp25_AST = astFactory.create(LT(1));
+					astFactory.addASTChild(currentAST, tmp25_AST);
+					match(TK_boolean);
+					type_AST = (AST)currentAST.root;
+					break;
+				}
+				default:
+				{
+					throw new NoViableAltException(LT(1), getFilename());
+				}
+				}
+			}
+			catch (RecognitionException ex) {
+				reportError(ex);
+				recover(ex,_tokenSet_4);
+			}
+			returnAST = type_AST;
+		} finally { // debugging
+			traceOut("type");
+		}
+	}
+	
+	public final void block() throws RecognitionException, TokenStreamException {
+		
+		traceIn("block");
+		try { // debugging
+			returnAST = null;
+			ASTPair currentAST = new ASTPair();
+			AST block_AST = null;
+			
+			try {      // for error handling
+				match(LCURLY);
+				{
+				_loop22:
+				do {
+					if ((LA(1)==TK_boolean||LA(1)==TK_int)) {
+						field_decl();
+						astFactory.addASTChild(currentAST, returnAST);
+					}
+					else {
+						break _loop22;
+					}
+					
+				} while (true);
+				}
+				{
+				_loop24:
+				do {
+					if ((_tokenSet_5.member(LA(1)))) {
+						statement();
+						astFactory.addASTChild(currentAST, returnAST);
+					}
+					else {
+						break _loop24;
+					}
+					
+				} while (true);
+				}
+				match(RCURLY);
+				block_AST = (AST)currentAST.root;
+				block_AST = (AST)astFactory.make( (new ASTArray(2)).add(astFactory.create(BLOCK,"block")).add(block_AST));
+				currentAST.root = block_AST;
+				currentAST.child = block_AST!=null &&block_AST.getFirstChild()!=null ?
+					block_AST.getFirstChild() : block_AST;
+				currentAST.advanceChildToEnd();
+				block_AST = (AST)currentAST.root;
+			}
+			catch (RecognitionException ex) {
+				reportError(ex);
+				recover(ex,_tokenSet_6);
+			}
+			returnAST = block_AST;
+		} finally { // debugging
+			traceOut("block");
+		}
+	}
+	
+	public final void statement() throws RecognitionException, TokenStreamException {
+		
+		traceIn("statement");
+		try { // debugging
+			returnAST = null;
+			ASTPair currentAST = new ASTPair();
+			AST statement_AST = null;
+			
+			try {      // for error handling
+				switch ( LA(1)) {
+				case TK_if:
+				{
+					AST tmp28_AST = null;
+					tmp28_AST = astFactory.create(LT(1));
+					astFactory.makeASTRoot(currentAST, tmp28_AST);
+					match(TK_if);
+					match(LPAREN);
+					expr();
+					astFactory.addASTChild(currentAST, returnAST);
+					match(RPAREN);
+					block();
+					astFactory.addASTChild(currentAST, returnAST);
+					{
+					switch ( LA(1)) {
+					case TK_else:
+					{
+						AST tmp31_AST = null;
+						tmp31_AST = astFactory.create(LT(1));
+						astFactory.addASTChild(currentAST, tmp31_AST);
+						match(TK_else);
+						block();
+						astFactory.addASTChild(currentAST, returnAST);
+						break;
+					}
+					case TK_break:
+					case TK_continue:
+					case TK_for:
+					case TK_if:
+					case TK_return:
+					case TK_while:
+					case RCURLY:
+					case ID:
+					{
+						break;
+					}
+					default:
+					{
+						throw new NoViableAltException(LT(1), getFilename());
+					}
+					}
+					}
+					statement_AST = (AST)currentAST.root;
+					break;
+				}
+				case TK_for:
+				{
+					AST tmp32_AST = null;
+					tmp32_AST = astFactory.create(LT(1));
+					astFactory.makeASTRoot(currentAST, tmp32_AST);
+					match(TK_for);
+					match(LPAREN);
+					AST tmp34_AST = null;
+					tmp34_AST = astFactory.create(LT(1));
+					astFactory.addASTChild(currentAST, tmp34_AST);
+					match(ID);
+					match(ASSIGN);
+					expr();
+					astFactory.addASTChild(currentAST, returnAST);
+					match(COMMA);
+					expr();
+					astFactory.addASTChild(currentAST, returnAST);
+					match(RPAREN);
+					block();
+					astFactory.addASTChild(currentAST, returnAST);
+					statement_AST = (AST)currentAST.root;
+					break;
+				}
+				case TK_while:
+				{
+					AST tmp38_AST = null;
+					tmp38_AST = astFactory.create(LT(1));
+					astFactory.makeASTRoot(currentAST, tmp38_AST);
+					match(TK_while);
+					match(LPAREN);
+					expr();
+					astFactory.addASTChild(currentAST, returnAST);
+					match(RPAREN);
+					{
+					switch ( LA(1)) {
+					case COLON:
+					{
+						match(COLON);
+						AST tmp42_AST = null;
+						tmp42_AST = astFactory.create(LT(1));
+						astFactory.addASTChild(currentAST, tmp42_AST);
+						match(INT_LITERAL);
+						break;
+					}
+					case LCURLY:
+					{
+						break;
+					}
+					default:
+					{
+						throw new NoViableAltException(LT(1), getFilename());
+					}
+					}
+					}
+					block();
+					astFactory.addASTChild(currentAST, returnAST);
+					statement_AST = (AST)currentAST.root;
+					break;
+				}
+				case TK_return:
+				{
+					AST tmp43_AST = null;
+					tmp43_AST = astFactory.create(LT(1));
+					astFactory.makeASTRoot(currentAST, tmp43_AST);
+					match(TK_return);
+					{
+					switch ( LA(1)) {
+					case TK_false:
+					case TK_true:
+					case LPAREN:
+					case MINUS:
+					case BANG:
+					case AT:
+					case ID:
+					case CHAR_LITERAL:
+					case INT_LITERAL:
+					{
+						expr();
+						astFactory.addASTChild(currentAST, returnAST);
+						break;
+					}
+					case SEMICOLON:
+					{
+						break;
+					}
+					default:
+					{
+						throw new NoViableAltException(LT(1), getFilename());
+					}
+					}
+					}
+					match(SEMICOLON);
+					statement_AST = (AST)currentAST.root;
+					break;
+				}
+				case TK_break:
+				{
+					AST tmp45_AST = null;
+					tmp45_AST = astFactory.create(LT(1));
+					astFactory.makeASTRoot(currentAST, tmp45_AST);
+					match(TK_break);
+					match(SEMICOLON);
+					statement_AST = (AST)currentAST.root;
+					break;
+				}
+				case TK_continue:
+				{
+					AST tmp47_AST = null;
+					tmp47_AST = astFactory.create(LT(1));
+					astFactory.makeASTRoot(currentAST, tmp47_AST);
+					match(TK_continue);
+					match(SEMICOLON);
+					statement_AST = (AST)currentAST.root;
+					break;
+				}
+				default:
+					if ((LA(1)==ID) && (_tokenSet_7.member(LA(2)))) {
+						location();
+						astFactory.addASTChild(currentAST, returnAST);
+						{
+						switch ( LA(1)) {
+						case ASSIGN:
+						{
+							AST tmp49_AST = null;
+							tmp49_AST = astFactory.create(LT(1));
+							astFactory.makeASTRoot(currentAST, tmp49_AST);
+							match(ASSIGN);
+							break;
+						}
+						case ASSIGN_MINUS:
+						{
+							AST tmp50_AST = null;
+							tmp50_AST = astFactory.create(LT(1));
+							astFactory.makeASTRoot(currentAST, tmp50_AST);
+							match(ASSIGN_MINUS);
+							break;
+						}
+						case ASSIGN_PLUS:
+						{
+							AST tmp51_AST = null;
+							tmp51_AST = astFactory.create(LT(1));
+							astFactory.makeASTRoot(currentAST, tmp51_AST);
+							match(ASSIGN_PLUS);
+							break;
+						}
+						default:
+						{
+							throw new NoViableAltException(LT(1), getFilename());
+						}
+						}
+						}
+						expr();
+						astFactory.addASTChild(currentAST, returnAST);
+						match(SEMICOLON);
+						statement_AST = (AST)currentAST.root;
+					}
+					else if ((LA(1)==ID) && (LA(2)==LPAREN)) {
+						method_call();
+						astFactory.addASTChild(currentAST, returnAST);
+						match(SEMICOLON);
+						statement_AST = (AST)currentAST.root;
+					}
+				else {
+					throw new NoViableAltException(LT(1), getFilename());
+				}
+				}
+			}
+			catch (RecognitionException ex) {
+				reportError(ex);
+				recover(ex,_tokenSet_8);
+			}
+			returnAST = statement_AST;
+		} finally { // debugging
+			traceOut("statement");
+		}
+	}
+	
+	public final void location() throws RecognitionException, TokenStreamException {
+		
+		traceIn("location");
+		try { // debugging
+			returnAST = null;
+			ASTPair currentAST = new ASTPair();
+			AST location_AST = null;
+			
+			try {      // for error handling
+				{
+				if ((LA(1)==ID) && (_tokenSet_9.member(LA(2)))) {
+					AST tmp54_AST = null;
+					tmp54_AST = astFactory.create(LT(1));
+					astFactory.addASTChild(currentAST, tmp54_AST);
+					match(ID);
+				}
+				else if ((LA(1)==ID) && (LA(2)==LBRACKET)) {
+					{
+					AST tmp55_AST = null;
+					tmp55_AST = astFactory.create(LT(1));
+					astFactory.makeASTRoot(currentAST, tmp55_AST);
+					match(ID);
+					match(LBRACKET);
+					expr();
+					astFactory.addASTChild(currentAST, returnAST);
+					match(RBRACKET);
+					}
+				}
+				else {
+					throw new NoViableAltException(LT(1), getFilename());
+				}
+				
+				}
+				location_AST = (AST)currentAST.root;
+				location_AST = (AST)astFactory.make( (new ASTArray(2)).add(astFactory.create(LOCATION,"location")).add(location_AST));
+				currentAST.root = location_AST;
+				currentAST.child = location_AST!=null &&location_AST.getFirstChild()!=null ?
+					location_AST.getFirstChild() : location_AST;
+				currentAST.advanceChildToEnd();
+				location_AST = (AST)currentAST.root;
+			}
+			catch (RecognitionException ex) {
+				reportError(ex);
+				recover(ex,_tokenSet_9);
+			}
+			returnAST = location_AST;
+		} finally { // debugging
+			traceOut("location");
+		}
+	}
+	
+	public final void expr() throws RecognitionException, TokenStreamException {
+		
+		traceIn("expr");
+		try { // debugging
+			returnAST = null;
+			ASTPair currentAST = new ASTPair();
+			AST expr_AST = null;
+			
+			try {      // for error handling
+				or_exp();
+				astFactory.addASTChild(currentAST, returnAST);
+				{
+				_loop42:
+				do {
+					if ((LA(1)==QUESTION)) {
+						AST tmp58_AST = null;
+						tmp58_AST = astFactory.create(LT(1));
+						astFactory.makeASTRoot(currentAST, tmp58_AST);
+						match(QUESTION);
+						expr();
+						astFactory.addASTChild(currentAST, returnAST);
+						match(COLON);
+						or_exp();
+						astFactory.addASTChild(currentAST, returnAST);
+					}
+					else {
+						break _loop42;
+					}
+					
+				} while (true);
+				}
+				expr_AST = (AST)currentAST.root;
+			}
+			catch (RecognitionException ex) {
+				reportError(ex);
+				recover(ex,_tokenSet_10);
+			}
+			returnAST = expr_AST;
+		} finally { // debugging
+			traceOut("expr");
+		}
+	}
+	
+	public final void method_call() throws RecognitionException, TokenStreamException {
+		
+		traceIn("method_call");
+		try { // debugging
+			returnAST = null;
+			ASTPair currentAST = new ASTPair();
+			AST method_call_AST = null;
+			
+			try {      // for error handling
+				method_name();
+				astFactory.addASTChild(currentAST, returnAST);
+				match(LPAREN);
+				{
+				switch ( LA(1)) {
+				case TK_false:
+				case TK_true:
+				case LPAREN:
+				case MINUS:
+				case BANG:
+				case AT:
+				case ID:
+				case CHAR_LITERAL:
+				case STRING_LITERAL:
+				case INT_LITERAL:
+				{
+					callout_arg();
+					astFactory.addASTChild(currentAST, returnAST);
+					{
+					_loop35:
+					do {
+						if ((LA(1)==COMMA)) {
+							match(COMMA);
+							callout_arg();
+							astFactory.addASTChild(currentAST, returnAST);
+						}
+						else {
+							break _loop35;
+						}
+						
+					} while (true);
+					}
+					break;
+				}
+				case RPAREN:
+				{
+					break;
+				}
+				default:
+				{
+					throw new NoViableAltException(LT(1), getFilename());
+				}
+				}
+				}
+				match(RPAREN);
+				method_call_AST = (AST)currentAST.root;
+				method_call_AST = (AST)astFactory.make( (new ASTArray(2)).add(astFactory.create(METHOD_CALL,"method_call")).add(method_call_AST));
+				currentAST.root = method_call_AST;
+				currentAST.child = method_call_AST!=null &&method_call_AST.getFirstChild()!=null ?
+					method_call_AST.getFirstChild() : method_call_AST;
+				currentAST.advanceChildToEnd();
+				method_call_AST = (AST)currentAST.root;
+			}
+			catch (RecognitionException ex) {
+				reportError(ex);
+				recover(ex,_tokenSet_11);
+			}
+			returnAST = method_call_AST;
+		} finally { // debugging
+			traceOut("method_call");
+		}
+	}
+	
+	public final void assign_op() throws RecognitionException, TokenStreamException {
+		
+		traceIn("assign_op");
+		try { // debugging
+			returnAST = null;
+			ASTPair currentAST = new ASTPair();
+			AST assign_op_AST = null;
+			
+			try {      // for error handling
+				switch ( LA(1)) {
+				case ASSIGN:
+				{
+					AST tmp63_AST = null;
+					tmp63_AST = astFactory.create(LT(1));
+					astFactory.addASTChild(currentAST, tmp63_AST);
+					match(ASSIGN);
+					assign_op_AST = (AST)currentAST.root;
+					break;
+				}
+				case ASSIGN_MINUS:
+				{
+					AST tmp64_AST = null;
+					tmp64_AST = astFactory.create(LT(1));
+					astFactory.addASTChild(currentAST, tmp64_AST);
+					match(ASSIGN_MINUS);
+					assign_op_AST = (AST)currentAST.root;
+					break;
+				}
+				case ASSIGN_PLUS:
+				{
+					AST tmp65_AST = null;
+					tmp65_AST = astFactory.create(LT(1));
+					astFactory.addASTChild(currentAST, tmp65_AST);
+					match(ASSIGN_PLUS);
+					assign_op_AST = (AST)currentAST.root;
+					break;
+				}
+				default:
+				{
+					throw new NoViableAltException(LT(1), getFilename());
+				}
+				}
+			}
+			catch (RecognitionException ex) {
+				reportError(ex);
+				recover(ex,_tokenSet_0);
+			}
+			returnAST = assign_op_AST;
+		} finally { // debugging
+			traceOut("assign_op");
+		}
+	}
+	
+	public final void method_name() throws RecognitionException, TokenStreamException {
+		
+		traceIn("method_name");
+		try { // debugging
+			returnAST = null;
+			ASTPair currentAST = new ASTPair();
+			AST method_name_AST = null;
+			
+			try {      // for error handling
+				AST tmp66_AST = null;
+				tmp66_AST = astFactory.create(LT(1));
+				astFactory.addASTChild(currentAST, tmp66_AST);
+				match(ID);
+				method_name_AST = (AST)currentAST.root;
+			}
+			catch (RecognitionException ex) {
+				reportError(ex);
+				recover(ex,_tokenSet_12);
+			}
+			returnAST = method_name_AST;
+		} finally { // debugging
+			traceOut("method_name");
+		}
+	}
+	
+	public final void callout_arg() throws RecognitionException, TokenStreamException {
+		
+		traceIn("callout_arg");
+		try { // debugging
+			returnAST = null;
+			ASTPair currentAST = new ASTPair();
+			AST callout_arg_AST = null;
+			
+			try {      // for error handling
+				switch ( LA(1)) {
+				case TK_false:
+				case TK_true:
+				case LPAREN:
+				case MINUS:
+				case BANG:
+				case AT:
+				case ID:
+				case CHAR_LITERAL:
+				case INT_LITERAL:
+				{
+					expr();
+					astFactory.addASTChild(currentAST, returnAST);
+					callout_arg_AST = (AST)currentAST.root;
+					break;
+				}
+				case STRING_LITERAL:
+				{
+					AST tmp67_AST = null;
+					tmp67_AST = astFactory.create(LT(1));
+					astFactory.addASTChild(currentAST, tmp67_AST);
+					match(STRING_LITERAL);
+					callout_arg_AST = (AST)currentAST.root;
+					break;
+				}
+				default:
+				{
+					throw new NoViableAltException(LT(1), getFilename());
+				}
+				}
+			}
+			catch (RecognitionException ex) {
+				reportError(ex);
+				recover(ex,_tokenSet_13);
+			}
+			returnAST = callout_arg_AST;
+		} finally { // debugging
+			traceOut("callout_arg");
+		}
+	}
+	
+	public final void or_exp() throws RecognitionException, TokenStreamException {
+		
+		traceIn("or_exp");
+		try { // debugging
+			returnAST = null;
+			ASTPair currentAST = new ASTPair();
+			AST or_exp_AST = null;
+			
+			try {      // for error handling
+				and_exp();
+				astFactory.addASTChild(currentAST, returnAST);
+				{
+				_loop45:
+				do {
+					if ((LA(1)==OR)) {
+						AST tmp68_AST = null;
+						tmp68_AST = astFactory.create(LT(1));
+						astFactory.makeASTRoot(currentAST, tmp68_AST);
+						match(OR);
+						and_exp();
+						astFactory.addASTChild(currentAST, returnAST);
+					}
+					else {
+						break _loop45;
+					}
+					
+				} while (true);
+				}
+				or_exp_AST = (AST)currentAST.root;
+			}
+			catch (RecognitionException ex) {
+				reportError(ex);
+				recover(ex,_tokenSet_14);
+			}
+			returnAST = or_exp_AST;
+		} finally { // debugging
+			traceOut("or_exp");
+		}
+	}
+	
+	public final void and_exp() throws RecognitionException, TokenStreamException {
+		
+		traceIn("and_exp");
+		try { // debugging
+			returnAST = null;
+			ASTPair currentAST = new ASTPair();
+			AST and_exp_AST = null;
+			
+			try {      // for error handling
+				eq_exp();
+				astFactory.addASTChild(currentAST, returnAST);
+				{
+				_loop48:
+				do {
+					if ((LA(1)==AND)) {
+						AST tmp69_AST = null;
+						tmp69_AST = astFactory.create(LT(1));
+						astFactory.makeASTRoot(currentAST, tmp69_AST);
+						match(AND);
+						eq_exp();
+						astFactory.addASTChild(currentAST, returnAST);
+					}
+					else {
+						break _loop48;
+					}
+					
+				} while (true);
+				}
+				and_exp_AST = (AST)currentAST.root;
+			}
+			catch (RecognitionException ex) {
+				reportError(ex);
+				recover(ex,_tokenSet_15);
+			}
+			returnAST = and_exp_AST;
+		} finally { // debugging
+			traceOut("and_exp");
+		}
+	}
+	
+	public final void eq_exp() throws RecognitionException, TokenStreamException {
+		
+		traceIn("eq_exp");
+		try { // debugging
+			returnAST = null;
+			ASTPair currentAST = new ASTPair();
+			AST eq_exp_AST = null;
+			
+			try {      // for error handling
+				rel_exp();
+				astFactory.addASTChild(currentAST, returnAST);
+				{
+				_loop52:
+				do {
+					if ((LA(1)==EQUALS||LA(1)==NOT_EQUALS)) {
+						{
+						switch ( LA(1)) {
+						case EQUALS:
+						{
+							AST tmp70_AST = null;
+							tmp70_AST = astFactory.create(LT(1));
+							astFactory.makeASTRoot(currentAST, tmp70_AST);
+							match(EQUALS);
+							break;
+						}
+						case NOT_EQUALS:
+						{
+							AST tmp71_AST = null;
+							tmp71_AST = astFactory.create(LT(1));
+							astFactory.makeASTRoot(currentAST, tmp71_AST);
+							match(NOT_EQUALS);
+							break;
+						}
+						default:
+						{
+							throw new NoViableAltException(LT(1), getFilename());
+						}
+						}
+						}
+						rel_exp();
+						astFactory.addASTChild(currentAST, returnAST);
+					}
+					else {
+						break _loop52;
+					}
+					
+				} while (true);
+				}
+				eq_exp_AST = (AST)currentAST.root;
+			}
+			catch (RecognitionException ex) {
+				reportError(ex);
+				recover(ex,_tokenSet_16);
+			}
+			returnAST = eq_exp_AST;
+		} finally { // debugging
+			traceOut("eq_exp");
+		}
+	}
+	
+	public final void rel_exp() throws RecognitionException, TokenStreamException {
+		
+		traceIn("rel_exp");
+		try { // debugging
+			returnAST = null;
+			ASTPair currentAST = new ASTPair();
+			AST rel_exp_AST = null;
+			
+			try {      // for error handling
+				add_exp();
+				astFactory.addASTChild(currentAST, returnAST);
+				{
+				_loop56:
+				do {
+					if (((LA(1) >= LT && LA(1) <= GTE))) {
+						{
+						switch ( LA(1)) {
+						case LT:
+						{
+							AST tmp72_AST = null;
+							tmp72_AST = astFactory.create(LT(1));
+							astFactory.makeASTRoot(currentAST, tmp72_AST);
+							match(LT);
+							break;
+						}
+						case GT:
+						{
+							AST tmp73_AST = null;
+							tmp73_AST = astFactory.create(LT(1));
+							astFactory.makeASTRoot(currentAST, tmp73_AST);
+							match(GT);
+							break;
+						}
+						case LTE:
+						{
+							AST tmp74_AST = null;
+							tmp74_AST = astFactory.create(LT(1));
+							astFactory.makeASTRoot(currentAST, tmp74_AST);
+							match(LTE);
+							break;
+						}
+						case GTE:
+						{
+							AST tmp75_AST = null;
+							tmp75_AST = astFactory.create(LT(1));
+							astFactory.makeASTRoot(currentAST, tmp75_AST);
+							match(GTE);
+							break;
+						}
+						default:
+						{
+							throw new NoViableAltException(LT(1), getFilename());
+						}
+						}
+						}
+						add_exp();
+						astFactory.addASTChild(currentAST, returnAST);
+					}
+					else {
+						break _loop56;
+					}
+					
+				} while (true);
+				}
+				rel_exp_AST = (AST)currentAST.root;
+			}
+			catch (RecognitionException ex) {
+				reportError(ex);
+				recover(ex,_tokenSet_17);
+			}
+			returnAST = rel_exp_AST;
+		} finally { // debugging
+			traceOut("rel_exp");
+		}
+	}
+	
+	public final void add_exp() throws RecognitionException, TokenStreamException {
+		
+		traceIn("add_exp");
+		try { // debugging
+			returnAST = null;
+			ASTPair currentAST = new ASTPair();
+			AST add_exp_AST = null;
+			
+			try {      // for error handling
+				mul_exp();
+				astFactory.addASTChild(currentAST, returnAST);
+				{
+				_loop60:
+				do {
+					if ((LA(1)==PLUS||LA(1)==MINUS)) {
+						{
+						switch ( LA(1)) {
+						case PLUS:
+						{
+							AST tmp76_AST = null;
+							tmp76_AST = astFactory.create(LT(1));
+							astFactory.makeASTRoot(currentAST, tmp76_AST);
+							match(PLUS);
+							break;
+						}
+						case MINUS:
+						{
+							AST tmp77_AST = null;
+							tmp77_AST = astFactory.create(LT(1));
+							astFactory.makeASTRoot(currentAST, tmp77_AST);
+							match(MINUS);
+							break;
+						}
+						default:
+						{
+							throw new NoViableAltException(LT(1), getFilename());
+						}
+						}
+						}
+						mul_exp();
+						astFactory.addASTChild(currentAST, returnAST);
+					}
+					else {
+						break _loop60;
+					}
+					
+				} while (true);
+				}
+				add_exp_AST = (AST)currentAST.root;
+			}
+			catch (RecognitionException ex) {
+				reportError(ex);
+				recover(ex,_tokenSet_18);
+			}
+			returnAST = add_exp_AST;
+		} finally { // debugging
+			traceOut("add_exp");
+		}
+	}
+	
+	public final void mul_exp() throws RecognitionException, TokenStreamException {
+		
+		traceIn("mul_exp");
+		try { // debugging
+			returnAST = null;
+			ASTPair currentAST = new ASTPair();
+			AST mul_exp_AST = null;
+			
+			try {      // for error handling
+				not_exp();
+				astFactory.addASTChild(currentAST, returnAST);
+				{
+				_loop64:
+				do {
+					if (((LA(1) >= TIMES && LA(1) <= MOD))) {
+						{
+						switch ( LA(1)) {
+						case TIMES:
+						{
+							AST tmp78_AST = null;
+							tmp78_AST = astFactory.create(LT(1));
+							astFactory.makeASTRoot(currentAST, tmp78_AST);
+							match(TIMES);
+							break;
+						}
+						case DIVIDE:
+						{
+							AST tmp79_AST = null;
+							tmp79_AST = astFactory.create(LT(1));
+							astFactory.makeASTRoot(currentAST, tmp79_AST);
+							match(DIVIDE);
+							break;
+						}
+						case MOD:
+						{
+							AST tmp80_AST = null;
+							tmp80_AST = astFactory.create(LT(1));
+							astFactory.makeASTRoot(currentAST, tmp80_AST);
+							match(MOD);
+							break;
+						}
+						default:
+						{
+							throw new NoViableAltException(LT(1), getFilename());
+						}
+						}
+						}
+						not_exp();
+						astFactory.addASTChild(currentAST, returnAST);
+					}
+					else {
+						break _loop64;
+					}
+					
+				} while (true);
+				}
+				mul_exp_AST = (AST)currentAST.root;
+			}
+			catch (RecognitionException ex) {
+				reportError(ex);
+				recover(ex,_tokenSet_19);
+			}
+			returnAST = mul_exp_AST;
+		} finally { // debugging
+			traceOut("mul_exp");
+		}
+	}
+	
+	public final void not_exp() throws RecognitionException, TokenStreamException {
+		
+		traceIn("not_exp");
+		try { // debugging
+			returnAST = null;
+			ASTPair currentAST = new ASTPair();
+			AST not_exp_AST = null;
+			
+			try {      // for error handling
+				switch ( LA(1)) {
+				case BANG:
+				{
+					AST tmp81_AST = null;
+					tmp81_AST = astFactory.create(LT(1));
+					astFactory.makeASTRoot(currentAST, tmp81_AST);
+					match(BANG);
+					not_exp();
+					astFactory.addASTChild(currentAST, returnAST);
+					not_exp_AST = (AST)currentAST.root;
+					break;
+				}
+				case TK_false:
+				case TK_true:
+				case LPAREN:
+				case MINUS:
+				case AT:
+				case ID:
+				case CHAR_LITERAL:
+				case INT_LITERAL:
+				{
+					minus_exp();
+					astFactory.addASTChild(currentAST, returnAST);
+					not_exp_AST = (AST)currentAST.root;
+					break;
+				}
+				default:
+				{
+					throw new NoViableAltException(LT(1), getFilename());
+				}
+				}
+			}
+			catch (RecognitionException ex) {
+				reportError(ex);
+				recover(ex,_tokenSet_11);
+			}
+			returnAST = not_exp_AST;
+		} finally { // debugging
+			traceOut("not_exp");
+		}
+	}
+	
+	public final void minus_exp() throws RecognitionException, TokenStreamException {
+		
+		traceIn("minus_exp");
+		try { // debugging
+			returnAST = null;
+			ASTPair currentAST = new ASTPair();
+			AST minus_exp_AST = null;
+			
+			try {      // for error handling
+				switch ( LA(1)) {
+				case MINUS:
+				{
+					AST tmp82_AST = null;
+					tmp82_AST = astFactory.create(LT(1));
+					astFactory.makeASTRoot(currentAST, tmp82_AST);
+					match(MINUS);
+					minus_exp();
+					astFactory.addASTChild(currentAST, returnAST);
+					minus_exp_AST = (AST)currentAST.root;
+					break;
+				}
+				case TK_false:
+				case TK_true:
+				case LPAREN:
+				case AT:
+				case ID:
+				case CHAR_LITERAL:
+				case INT_LITERAL:
+				{
+					base_expr();
+					astFactory.addASTChild(currentAST, returnAST);
+					minus_exp_AST = (AST)currentAST.root;
+					break;
+				}
+				default:
+				{
+					throw new NoViableAltException(LT(1), getFilename());
+				}
+				}
+			}
+			catch (RecognitionException ex) {
+				reportError(ex);
+				recover(ex,_tokenSet_11);
+			}
+			returnAST = minus_exp_AST;
+		} finally { // debugging
+			traceOut("minus_exp");
+		}
+	}
+	
+	public final void base_expr() throws RecognitionException, TokenStreamException {
+		
+		traceIn("base_expr");
+		try { // debugging
+			returnAST = null;
+			ASTPair currentAST = new ASTPair();
+			AST base_expr_AST = null;
+			
+			try {      // for error handling
+				switch ( LA(1)) {
+				case TK_false:
+				case TK_true:
+				case CHAR_LITERAL:
+				case INT_LITERAL:
+				{
+					literal();
+					astFactory.addASTChild(currentAST, returnAST);
+					base_expr_AST = (AST)currentAST.root;
+					break;
+				}
+				case AT:
+				{
+					AST tmp83_AST = null;
+					tmp83_AST = astFactory.create(LT(1));
+					astFactory.makeASTRoot(currentAST, tmp83_AST);
+					match(AT);
+					AST tmp84_AST = null;
+					tmp84_AST = astFactory.create(LT(1));
+					astFactory.addASTChild(currentAST, tmp84_AST);
+					match(ID);
+					base_expr_AST = (AST)currentAST.root;
+					break;
+				}
+				case LPAREN:
+				{
+					match(LPAREN);
+					expr();
+					astFactory.addASTChild(currentAST, returnAST);
+					match(RPAREN);
+					base_expr_AST = (AST)currentAST.root;
+					break;
+				}
+				default:
+					if ((LA(1)==ID) && (_tokenSet_20.member(LA(2)))) {
+						location();
+						astFactory.addASTChild(currentAST, returnAST);
+						base_expr_AST = (AST)currentAST.root;
+					}
+					else if ((LA(1)==ID) && (LA(2)==LPAREN)) {
+						method_call();
+						astFactory.addASTChild(currentAST, returnAST);
+						base_expr_AST = (AST)currentAST.root;
+					}
+				else {
+					throw new NoViableAltException(LT(1), getFilename());
+				}
+				}
+			}
+			catch (RecognitionException ex) {
+				reportError(ex);
+				recover(ex,_tokenSet_11);
+			}
+			returnAST = base_expr_AST;
+		} finally { // debugging
+			traceOut("base_expr");
+		}
+	}
+	
+	public final void literal() throws RecognitionException, TokenStreamException {
+		
+		traceIn("literal");
+		try { // debugging
+			returnAST = null;
+			ASTPair currentAST = new ASTPair();
+			AST literal_AST = null;
+			
+			try {      // for error handling
+				switch ( LA(1)) {
+				case INT_LITERAL:
+				{
+					AST tmp87_AST = null;
+					tmp87_AST = astFactory.create(LT(1));
+					astFactory.addASTChild(currentAST, tmp87_AST);
+					match(INT_LITERAL);
+					literal_AST = (AST)currentAST.root;
+					break;
+				}
+				case CHAR_LITERAL:
+				{
+					AST tmp88_AST = null;
+					tmp88_AST = astFactory.create(LT(1));
+					astFactory.addASTChild(currentAST, tmp88_AST);
+					match(CHAR_LITERAL);
+					literal_AST = (AST)currentAST.root;
+					break;
+				}
+				case TK_false:
+				case TK_true:
+				{
+					bool_literal();
+					astFactory.addASTChild(currentAST, returnAST);
+					literal_AST = (AST)currentAST.root;
+					break;
+				}
+				default:
+				{
+					throw new NoViableAltException(LT(1), getFilename());
+				}
+				}
+			}
+			catch (RecognitionException ex) {
+				reportError(ex);
+				recover(ex,_tokenSet_11);
+			}
+			returnAST = literal_AST;
+		} finally { // debugging
+			traceOut("literal");
+		}
+	}
+	
+	public final void bin_op() throws RecognitionException, TokenStreamException {
+		
+		traceIn("bin_op");
+		try { // debugging
+			returnAST = null;
+			ASTPair currentAST = new ASTPair();
+			AST bin_op_AST = null;
+			
+			try {      // for error handling
+				switch ( LA(1)) {
+				case PLUS:
+				case MINUS:
+				case TIMES:
+				case DIVIDE:
+				case MOD:
+				{
+					arith_op();
+					astFactory.addASTChild(currentAST, returnAST);
+					bin_op_AST = (AST)currentAST.root;
+					break;
+				}
+				case LT:
+				case GT:
+				case LTE:
+				case GTE:
+				{
+					rel_op();
+					astFactory.addASTChild(currentAST, returnAST);
+					bin_op_AST = (AST)currentAST.root;
+					break;
+				}
+				case EQUALS:
+				case NOT_EQUALS:
+				{
+					eq_op();
+					astFactory.addASTChild(currentAST, returnAST);
+					bin_op_AST = (AST)currentAST.root;
+					break;
+				}
+				case AND:
+				case OR:
+				{
+					cond_op();
+					astFactory.addASTChild(currentAST, returnAST);
+					bin_op_AST = (AST)currentAST.root;
+					break;
+				}
+				default:
+				{
+					throw new NoViableAltException(LT(1), getFilename());
+				}
+				}
+			}
+			catch (RecognitionException ex) {
+				reportError(ex);
+				recover(ex,_tokenSet_0);
+			}
+			returnAST = bin_op_AST;
+		} finally { // debugging
+			traceOut("bin_op");
+		}
+	}
+	
+	public final void arith_op() throws RecognitionException, TokenStreamException {
+		
+		traceIn("arith_op");
+		try { // debugging
+			returnAST = null;
+			ASTPair currentAST = new ASTPair();
+			AST arith_op_AST = null;
+			
+			try {      // for error handling
+				switch ( LA(1)) {
+				case PLUS:
+				{
+					AST tmp89_AST = null;
+					tmp89_AST = astFactory.create(LT(1));
+					astFactory.addASTChild(currentAST, tmp89_AST);
+					match(PLUS);
+					arith_op_AST = (AST)currentAST.root;
+					break;
+				}
+				case MINUS:
+				{
+					AST tmp90_AST = null;
+					tmp90_AST = astFactory.create(LT(1));
+					astFactory.addASTChild(currentAST, tmp90_AST);
+					match(MINUS);
+					arith_op_AST = (AST)currentAST.root;
+					break;
+				}
+				case TIMES:
+				{
+					AST tmp91_AST = null;
+					tmp91_AST = astFactory.create(LT(1));
+					astFactory.addASTChild(currentAST, tmp91_AST);
+					match(TIMES);
+					arith_op_AST = (AST)currentAST.root;
+					break;
+				}
+				case DIVIDE:
+				{
+					AST tmp92_AST = null;
+					tmp92_AST = astFactory.create(LT(1));
+					astFactory.addASTChild(currentAST, tmp92_AST);
+					match(DIVIDE);
+					arith_op_AST = (AST)currentAST.root;
+					break;
+				}
+				case MOD:
+				{
+					AST tmp93_AST = null;
+					tmp93_AST = astFactory.create(LT(1));
+					astFactory.addASTChild(currentAST, tmp93_AST);
+					match(MOD);
+					arith_op_AST = (AST)currentAST.root;
+					break;
+				}
+				default:
+				{
+					throw new NoViableAltException(LT(1), getFilename());
+				}
+				}
+			}
+			catch (RecognitionException ex) {
+				reportError(ex);
+				recover(ex,_tokenSet_0);
+			}
+			returnAST = arith_op_AST;
+		} finally { // debugging
+			traceOut("arith_op");
+		}
+	}
+	
+	public final void rel_op() throws RecognitionException, TokenStreamException {
+		
+		traceIn("rel_op");
+		try { // debugging
+			returnAST = null;
+			ASTPair currentAST = new ASTPair();
+			AST rel_op_AST = null;
+			
+			try {      // for error handling
+				switch ( LA(1)) {
+				case LT:
+				{
+					AST tmp94_AST = null;
+					tmp94_AST = astFactory.create(LT(1));
+					astFactory.addASTChild(currentAST, tmp94_AST);
+					match(LT);
+					rel_op_AST = (AST)currentAST.root;
+					break;
+				}
+				case GT:
+				{
+					AST tmp95_AST = null;
+					tmp95_AST = astFactory.create(LT(1));
+					astFactory.addASTChild(currentAST, tmp95_AST);
+					match(GT);
+					rel_op_AST = (AST)currentAST.root;
+					break;
+				}
+				case LTE:
+				{
+					AST tmp96_AST = null;
+					tmp96_AST = astFactory.create(LT(1));
+					astFactory.addASTChild(currentAST, tmp96_AST);
+					match(LTE);
+					rel_op_AST = (AST)currentAST.root;
+					break;
+				}
+				case GTE:
+				{
+					AST tmp97_AST = null;
+					tmp97_AST = astFactory.create(LT(1));
+					astFactory.addASTChild(currentAST, tmp97_AST);
+					match(GTE);
+					rel_op_AST = (AST)currentAST.root;
+					break;
+				}
+				default:
+				{
+					throw new NoViableAltException(LT(1), getFilename());
+				}
+				}
+			}
+			catch (RecognitionException ex) {
+				reportError(ex);
+				recover(ex,_tokenSet_0);
+			}
+			returnAST = rel_op_AST;
+		} finally { // debugging
+			traceOut("rel_op");
+		}
+	}
+	
+	public final void eq_op() throws RecognitionException, TokenStreamException {
+		
+		traceIn("eq_op");
+		try { // debugging
+			returnAST = null;
+			ASTPair currentAST = new ASTPair();
+			AST eq_op_AST = null;
+			
+			try {      // for error handling
+				switch ( LA(1)) {
+				case EQUALS:
+				{
+					AST tmp98_AST = null;
+					tmp98_AST = astFactory.create(LT(1));
+					astFactory.addASTChild(currentAST, tmp98_AST);
+					match(EQUALS);
+					eq_op_AST = (AST)currentAST.root;
+					break;
+				}
+				case NOT_EQUALS:
+				{
+					AST tmp99_AST = null;
+					tmp99_AST = astFactory.create(LT(1));
+					astFactory.addASTChild(currentAST, tmp99_AST);
+					match(NOT_EQUALS);
+					eq_op_AST = (AST)currentAST.root;
+					break;
+				}
+				default:
+				{
+					throw new NoViableAltException(LT(1), getFilename());
+				}
+				}
+			}
+			catch (RecognitionException ex) {
+				reportError(ex);
+				recover(ex,_tokenSet_0);
+			}
+			returnAST = eq_op_AST;
+		} finally { // debugging
+			traceOut("eq_op");
+		}
+	}
+	
+	public final void cond_op() throws RecognitionException, TokenStreamException {
+		
+		traceIn("cond_op");
+		try { // debugging
+			returnAST = null;
+			ASTPair currentAST = new ASTPair();
+			AST cond_op_AST = null;
+			
+			try {      // for error handling
+				switch ( LA(1)) {
+				case AND:
+				{
+					AST tmp100_AST = null;
+					tmp100_AST = astFactory.create(LT(1));
+					astFactory.addASTChild(currentAST, tmp100_AST);
+					match(AND);
+					cond_op_AST = (AST)currentAST.root;
+					break;
+				}
+				case OR:
+				{
+					AST tmp101_AST = null;
+					tmp101_AST = astFactory.create(LT(1));
+					astFactory.addASTChild(currentAST, tmp101_AST);
+					match(OR);
+					cond_op_AST = (AST)currentAST.root;
+					break;
+				}
+				default:
+				{
+					throw new NoViableAltException(LT(1), getFilename());
+				}
+				}
+			}
+			catch (RecognitionException ex) {
+				reportError(ex);
+				recover(ex,_tokenSet_0);
+			}
+			returnAST = cond_op_AST;
+		} finally { // debugging
+			traceOut("cond_op");
+		}
+	}
+	
+	public final void bool_literal() throws RecognitionException, TokenStreamException {
+		
+		traceIn("bool_literal");
+		try { // debugging
+			returnAST = null;
+			ASTPair currentAST = new ASTPair();
+			AST bool_literal_AST = null;
+			
+			try {      // for error handling
+				switch ( LA(1)) {
+				case TK_true:
+				{
+					AST tmp102_AST = null;
+					tmp102_AST = astFactory.create(LT(1));
+					astFactory.addASTChild(currentAST, tmp102_AST);
+					match(TK_true);
+					bool_literal_AST = (AST)currentAST.root;
+					break;
+				}
+				case TK_false:
+				{
+					AST tmp103_AST = null;
+					tmp103_AST = astFactory.create(LT(1));
+					astFactory.addASTChild(currentAST, tmp103_AST);
+					match(TK_false);
+					bool_literal_AST = (AST)currentAST.root;
+					break;
+				}
+				default:
+				{
+					throw new NoViableAltException(LT(1), getFilename());
+				}
+				}
+			}
+			catch (RecognitionException ex) {
+				reportError(ex);
+				recover(ex,_tokenSet_11);
+			}
+			returnAST = bool_literal_AST;
+		} finally { // debugging
+			traceOut("bool_literal");
+		}
+	}
+	
+	
+	public static final String[] _tokenNames = {
+		"<0>",
+		"EOF",
+		"<2>",
+		"NULL_TREE_LOOKAHEAD",
+		"\"boolean\"",
+		"\"break\"",
+		"\"callout\"",
+		"\"class\"",
+		"\"continue\"",
+		"\"else\"",
+		"\"false\"",
+		"\"for\"",
+		"\"if\"",
+		"\"int\"",
+		"\"return\"",
+		"\"true\"",
+		"\"void\"",
+		"\"while\"",
+		"BLOCK",
+		"FIELD_DECL",
+		"LOCATION",
+		"METHOD_CALL",
+		"METHOD_DECL",
+		"PROGRAM",
+		"LPAREN",
+		"RPAREN",
+		"LCURLY",
+		"RCURLY",
+		"LBRACKET",
+		"RBRACKET",
+		"ASSIGN_PLUS",
+		"ASSIGN_MINUS",
+		"ASSIGN",
+		"PLUS",
+		"MINUS",
+		"TIMES",
+		"DIVIDE",
+		"MOD",
+		"LT",
+		"GT",
+		"LTE",
+		"GTE",
+		"EQUALS",
+		"NOT_EQUALS",
+		"AND",
+		"OR",
+		"BANG",
+		"SEMICOLON",
+		"COMMA",
+		"COLON",
+		"QUESTION",
+		"AT",
+		"an identifier",
+		"WS_",
+		"SL_COMMENT",
+		"CHAR_LITERAL",
+		"STRING_LITERAL",
+		"INT_LITERAL",
+		"ESC",
+		"DIGIT",
+		"HEXDIGIT",
+		"CHAR",
+		"ALPHA",
+		"ALPHA_NUM"
+	};
+	
+	protected void buildTokenTypeASTClassMap() {
+		tokenTypeToASTClassMap=null;
+	};
+	
+	private static final long[] mk_tokenSet_0() {
+		long[] data = { 2L, 0L};
+		return data;
+	}
+	public static final BitSet _tokenSet_0 = new BitSet(mk_tokenSet_0());
+	private static final long[] mk_tokenSet_1() {
+		long[] data = { 73810L, 0L};
+		return data;
+	}
+	public static final BitSet _tokenSet_1 = new BitSet(mk_tokenSet_1());
+	private static final long[] mk_tokenSet_2() {
+		long[] data = { 4503599761815858L, 0L};
+		return data;
+	}
+	public static final BitSet _tokenSet_2 = new BitSet(mk_tokenSet_2());
+	private static final long[] mk_tokenSet_3() {
+		long[] data = { 73746L, 0L};
+		return data;
+	}
+	public static final BitSet _tokenSet_3 = new BitSet(mk_tokenSet_3());
+	private static final long[] mk_tokenSet_4() {
+		long[] data = { 4503599627370496L, 0L};
+		return data;
+	}
+	public static final BitSet _tokenSet_4 = new BitSet(mk_tokenSet_4());
+	private static final long[] mk_tokenSet_5() {
+		long[] data = { 4503599627524384L, 0L};
+		return data;
+	}
+	public static final BitSet _tokenSet_5 = new BitSet(mk_tokenSet_5());
+	private static final long[] mk_tokenSet_6() {
+		long[] data = { 4503599761816370L, 0L};
+		return data;
+	}
+	public static final BitSet _tokenSet_6 = new BitSet(mk_tokenSet_6());
+	private static final long[] mk_tokenSet_7() {
+		long[] data = { 7784628224L, 0L};
+		return data;
+	}
+	public static final BitSet _tokenSet_7 = new BitSet(mk_tokenSet_7());
+	private static final long[] mk_tokenSet_8() {
+		long[] data = { 4503599761742112L, 0L};
+		return data;
+	}
+	public static final BitSet _tokenSet_8 = new BitSet(mk_tokenSet_8());
+	private static final long[] mk_tokenSet_9() {
+		long[] data = { 2181430566191104L, 0L};
+		return data;
+	}
+	public static final BitSet _tokenSet_9 = new BitSet(mk_tokenSet_9());
+	private static final long[] mk_tokenSet_10() {
+		long[] data = { 985162988912640L, 0L};
+		return data;
+	}
+	public static final BitSet _tokenSet_10 = new BitSet(mk_tokenSet_10());
+	private static final long[] mk_tokenSet_11() {
+		long[] data = { 2181423049998336L, 0L};
+		return data;
+	}
+	public static final BitSet _tokenSet_11 = new BitSet(mk_tokenSet_11());
+	private static final long[] mk_tokenSet_12() {
+		long[] data = { 16777216L, 0L};
+		return data;
+	}
+	public static final BitSet _tokenSet_12 = new BitSet(mk_tokenSet_12());
+	private static final long[] mk_tokenSet_13() {
+		long[] data = { 281475010265088L, 0L};
+		return data;
+	}
+	public static final BitSet _tokenSet_13 = new BitSet(mk_tokenSet_13());
+	private static final long[] mk_tokenSet_14() {
+		long[] data = { 2111062895755264L, 0L};
+		return data;
+	}
+	public static final BitSet _tokenSet_14 = new BitSet(mk_tokenSet_14());
+	private static final long[] mk_tokenSet_15() {
+		long[] data = { 2146247267844096L, 0L};
+		return data;
+	}
+	public static final BitSet _tokenSet_15 = new BitSet(mk_tokenSet_15());
+	private static final long[] mk_tokenSet_16() {
+		long[] data = { 2163839453888512L, 0L};
+		return data;
+	}
+	public static final BitSet _tokenSet_16 = new BitSet(mk_tokenSet_16());
+	private static final long[] mk_tokenSet_17() {
+		long[] data = { 2177033593421824L, 0L};
+		return data;
+	}
+	public static final BitSet _tokenSet_17 = new BitSet(mk_tokenSet_17());
+	private static final long[] mk_tokenSet_18() {
+		long[] data = { 2181156762025984L, 0L};
+		return data;
+	}
+	public static final BitSet _tokenSet_18 = new BitSet(mk_tokenSet_18());
+	private static final long[] mk_tokenSet_19() {
+		long[] data = { 2181182531829760L, 0L};
+		return data;
+	}
+	public static final BitSet _tokenSet_19 = new BitSet(mk_tokenSet_19());
+	private static final long[] mk_tokenSet_20() {
+		long[] data = { 2181423318433792L, 0L};
+		return data;
+	}
+	public static final BitSet _tokenSet_20 = new BitSet(mk_tokenSet_20());
+	
+	}
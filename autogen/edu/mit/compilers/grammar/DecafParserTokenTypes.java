@@ -0,0 +1,69 @@
+// $ANTLR 2.7.7 (2006-11-01): "parser.g" -> "DecafParser.java"$
+
+package edu.mit.compilers.grammar;
+
+
+public interface DecafParserTokenTypes {
+	int EOF = 1;
+	int NULL_TREE_LOOKAHEAD = 3;
+	int TK_boolean = 4;
+	int TK_break = 5;
+	int TK_callout = 6;
+	int TK_class = 7;
+	int TK_continue = 8;
+	int TK_else = 9;
+	int TK_false = 10;
+	int TK_for = 11;
+	int TK_if = 12;
+	int TK_int = 13;
+	int TK_return = 14;
+	int TK_true = 15;
+	int TK_void = 16;
+	int TK_while = 17;
+	int BLOCK = 18;
+	int FIELD_DECL = 19;
+	int LOCATION = 20;
+	int METHOD_CALL = 21;
+	int METHOD_DECL = 22;
+	int PROGRAM = 23;
+	int LPAREN = 24;
+	int RPAREN = 25;
+	int LCURLY = 26;
+	int RCURLY = 27;
+	int LBRACKET = 28;
+	int RBRACKET = 29;
+	int ASSIGN_PLUS = 30;
+	int ASSIGN_MINUS = 31;
+	int ASSIGN = 32;
+	int PLUS = 33;
+	int MINUS = 34;
+	int TIMES = 35;
+	int DIVIDE = 36;
+	int MOD = 37;
+	int LT = 38;
+	int GT = 39;
+	int LTE = 40;
+	int GTE = 41;
+	int EQUALS = 42;
+	int NOT_EQUALS = 43;
+	int AND = 44;
+	int OR = 45;
+	int BANG = 46;
+	int SEMICOLON = 47;
+	int COMMA = 48;
+	int COLON = 49;
+	int QUESTION = 50;
+	int AT = 51;
+	int ID = 52;
+	int WS_ = 53;
+	int SL_COMMENT = 54;
+	int CHAR_LITERAL = 55;
+	int STRING_LITERAL = 56;
+	int INT_LITERAL = 57;
+	int ESC = 58;
+	int DIGIT = 59;
+	int HEXDIGIT = 60;
+	int CHAR = 61;
+	int ALPHA = 62;
+	int ALPHA_NUM = 63;
+}
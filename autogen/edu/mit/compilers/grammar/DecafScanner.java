@@ -0,0 +1,1332 @@
+// $ANTLR 2.7.7 (2006-11-01): "scanner.g" -> "DecafScanner.java"$
+
+package edu.mit.compilers.grammar;
+
+import java.io.InputStream;
+import antlr.TokenStreamException;
+import antlr.TokenStreamIOException;
+import antlr.TokenStreamRecognitionException;
+import antlr.CharStreamException;
+import antlr.CharStreamIOException;
+import antlr.ANTLRException;
+import java.io.Reader;
+import java.util.Hashtable;
+import antlr.CharScanner;
+import antlr.InputBuffer;
+import antlr.ByteBuffer;
+import antlr.CharBuffer;
+import antlr.Token;
+import antlr.CommonToken;
+import antlr.RecognitionException;
+import antlr.NoViableAltForCharException;
+import antlr.MismatchedCharException;
+import antlr.TokenStream;
+import antlr.ANTLRHashString;
+import antlr.LexerSharedInputState;
+import antlr.collections.impl.BitSet;
+import antlr.SemanticException;
+@SuppressWarnings("unchecked")
+public class DecafScanner extends antlr.CharScanner implements DecafScannerTokenTypes, TokenStream
+ {
+
+  /** Whether to display debug information. */
+  private boolean trace = false;
+
+  public void setTrace(boolean shouldTrace) {
+    trace = shouldTrace;
+  }
+  @Override
+  public void traceIn(String rname) throws CharStreamException {
+    if (trace) {
+      super.traceIn(rname);
+    }
+  }
+  @Override
+  public void traceOut(String rname) throws CharStreamException {
+    if (trace) {
+      super.traceOut(rname);
+    }
+  }
+public DecafScanner(InputStream in) {
+	this(new ByteBuffer(in));
+}
+public DecafScanner(Reader in) {
+	this(new CharBuffer(in));
+}
+public DecafScanner(InputBuffer ib) {
+	this(new LexerSharedInputState(ib));
+}
+public DecafScanner(LexerSharedInputState state) {
+	super(state);
+	caseSensitiveLiterals = true;
+	setCaseSensitive(true);
+	literals = new Hashtable();
+	literals.put(new ANTLRHashString("boolean", this), new Integer(4));
+	literals.put(new ANTLRHashString("for", this), new Integer(11));
+	literals.put(new ANTLRHashString("if", this), new Integer(12));
+	literals.put(new ANTLRHashString("class", this), new Integer(7));
+	literals.put(new ANTLRHashString("while", this), new Integer(17));
+	literals.put(new ANTLRHashString("break", this), new Integer(5));
+	literals.put(new ANTLRHashString("callout", this), new Integer(6));
+	literals.put(new ANTLRHashString("else", this), new Integer(9));
+	literals.put(new ANTLRHashString("continue", this), new Integer(8));
+	literals.put(new ANTLRHashString("void", this), new Integer(16));
+	literals.put(new ANTLRHashString("true", this), new Integer(15));
+	literals.put(new ANTLRHashString("int", this), new Integer(13));
+	literals.put(new ANTLRHashString("false", this), new Integer(10));
+	literals.put(new ANTLRHashString("return", this), new Integer(14));
+}
+
+public Token nextToken() throws TokenStreamException {
+	Token theRetToken=null;
+tryAgain:
+	for (;;) {
+		Token _token = null;
+		int _ttype = Token.INVALID_TYPE;
+		resetText();
+		try {   // for char stream error handling
+			try {   // for lexical error handling
+				switch ( LA(1)) {
+				case '(':
+				{
+					mLPAREN(true);
+					theRetToken=_returnToken;
+					break;
+				}
+				case ')':
+				{
+					mRPAREN(true);
+					theRetToken=_returnToken;
+					break;
+				}
+				case '{':
+				{
+					mLCURLY(true);
+					theRetToken=_returnToken;
+					break;
+				}
+				case '}':
+				{
+					mRCURLY(true);
+					theRetToken=_returnToken;
+					break;
+				}
+				case '[':
+				{
+					mLBRACKET(true);
+					theRetToken=_returnToken;
+					break;
+				}
+				case ']':
+				{
+					mRBRACKET(true);
+					theRetToken=_returnToken;
+					break;
+				}
+				case '*':
+				{
+					mTIMES(true);
+					theRetToken=_returnToken;
+					break;
+				}
+				case '%':
+				{
+					mMOD(true);
+					theRetToken=_returnToken;
+					break;
+				}
+				case '&':
+				{
+					mAND(true);
+					theRetToken=_returnToken;
+					break;
+				}
+				case '|':
+				{
+					mOR(true);
+					theRetToken=_returnToken;
+					break;
+				}
+				case ';':
+				{
+					mSEMICOLON(true);
+					theRetToken=_returnToken;
+					break;
+				}
+				case ',':
+				{
+					mCOMMA(true);
+					theRetToken=_returnToken;
+					break;
+				}
+				case ':':
+				{
+					mCOLON(true);
+					theRetToken=_returnToken;
+					break;
+				}
+				case '?':
+				{
+					mQUESTION(true);
+					theRetToken=_returnToken;
+					break;
+				}
+				case '@':
+				{
+					mAT(true);
+					theRetToken=_returnToken;
+					break;
+				}
+				case 'A':  case 'B':  case 'C':  case 'D':
+				case 'E':  case 'F':  case 'G':  case 'H':
+				case 'I':  case 'J':  case 'K':  case 'L':
+				case 'M':  case 'N':  case 'O':  case 'P':
+				case 'Q':  case 'R':  case 'S':  case 'T':
+				case 'U':  case 'V':  case 'W':  case 'X':
+				case 'Y':  case 'Z':  case '_':  case 'a':
+				case 'b':  case 'c':  case 'd':  case 'e':
+				case 'f':  case 'g':  case 'h':  case 'i':
+				case 'j':  case 'k':  case 'l':  case 'm':
+				case 'n':  case 'o':  case 'p':  case 'q':
+				case 'r':  case 's':  case 't':  case 'u':
+				case 'v':  case 'w':  case 'x':  case 'y':
+				case 'z':
+				{
+					mID(true);
+					theRetToken=_returnToken;
+					break;
+				}
+				case '\t':  case '\n':  case '\r':  case ' ':
+				{
+					mWS_(true);
+					theRetToken=_returnToken;
+					break;
+				}
+				case '\'':
+				{
+					mCHAR_LITERAL(true);
+					theRetToken=_returnToken;
+					break;
+				}
+				case '"':
+				{
+					mSTRING_LITERAL(true);
+					theRetToken=_returnToken;
+					break;
+				}
+				case '0':  case '1':  case '2':  case '3':
+				case '4':  case '5':  case '6':  case '7':
+				case '8':  case '9':
+				{
+					mINT_LITERAL(true);
+					theRetToken=_returnToken;
+					break;
+				}
+				default:
+					if ((LA(1)=='+') && (LA(2)=='=')) {
+						mASSIGN_PLUS(true);
+						theRetToken=_returnToken;
+					}
+					else if ((LA(1)=='-') && (LA(2)=='=')) {
+						mASSIGN_MINUS(true);
+						theRetToken=_returnToken;
+					}
+					else if ((LA(1)=='<') && (LA(2)=='=')) {
+						mLTE(true);
+						theRetToken=_returnToken;
+					}
+					else if ((LA(1)=='>') && (LA(2)=='=')) {
+						mGTE(true);
+						theRetToken=_returnToken;
+					}
+					else if ((LA(1)=='=') && (LA(2)=='=')) {
+						mEQUALS(true);
+						theRetToken=_returnToken;
+					}
+					else if ((LA(1)=='!') && (LA(2)=='=')) {
+						mNOT_EQUALS(true);
+						theRetToken=_returnToken;
+					}
+					else if ((LA(1)=='/') && (LA(2)=='/')) {
+						mSL_COMMENT(true);
+						theRetToken=_returnToken;
+					}
+					else if ((LA(1)=='=') && (true)) {
+						mASSIGN(true);
+						theRetToken=_returnToken;
+					}
+					else if ((LA(1)=='+') && (true)) {
+						mPLUS(true);
+						theRetToken=_returnToken;
+					}
+					else if ((LA(1)=='-') && (true)) {
+						mMINUS(true);
+						theRetToken=_returnToken;
+					}
+					else if ((LA(1)=='/') && (true)) {
+						mDIVIDE(true);
+						theRetToken=_returnToken;
+					}
+					else if ((LA(1)=='<') && (true)) {
+						mLT(true);
+						theRetToken=_returnToken;
+					}
+					else if ((LA(1)=='>') && (true)) {
+						mGT(true);
+						theRetToken=_returnToken;
+					}
+					else if ((LA(1)=='!') && (true)) {
+						mBANG(true);
+						theRetToken=_returnToken;
+					}
+				else {
+					if (LA(1)==EOF_CHAR) {uponEOF(); _returnToken = makeToken(Token.EOF_TYPE);}
+				else {throw new NoViableAltForCharException((char)LA(1), getFilename(), getLine(), getColumn());}
+				}
+				}
+				if ( _returnToken==null ) continue tryAgain; // found SKIP token
+				_ttype = _returnToken.getType();
+				_ttype = testLiteralsTable(_ttype);
+				_returnToken.setType(_ttype);
+				return _returnToken;
+			}
+			catch (RecognitionException e) {
+				throw new TokenStreamRecognitionException(e);
+			}
+		}
+		catch (CharStreamException cse) {
+			if ( cse instanceof CharStreamIOException ) {
+				throw new TokenStreamIOException(((CharStreamIOException)cse).io);
+			}
+			else {
+				throw new TokenStreamException(cse.getMessage());
+			}
+		}
+	}
+}
+
+	public final void mLPAREN(boolean _createToken) throws RecognitionException, CharStreamException, TokenStreamException {
+		int _ttype; Token _token=null; int _begin=text.length();
+		traceIn("mLPAREN");
+		_ttype = LPAREN;
+		int _saveIndex;
+		try { // debugging
+			
+			match("(");
+			if ( _createToken && _token==null && _ttype!=Token.SKIP ) {
+				_token = makeToken(_ttype);
+				_token.setText(new String(text.getBuffer(), _begin, text.length()-_begin));
+			}
+			_returnToken = _token;
+		} finally { // debugging
+			traceOut("mLPAREN");
+		}
+	}
+	
+	public final void mRPAREN(boolean _createToken) throws RecognitionException, CharStreamException, TokenStreamException {
+		int _ttype; Token _token=null; int _begin=text.length();
+		traceIn("mRPAREN");
+		_ttype = RPAREN;
+		int _saveIndex;
+		try { // debugging
+			
+			match(")");
+			if ( _createToken && _token==null && _ttype!=Token.SKIP ) {
+				_token = makeToken(_ttype);
+				_token.setText(new String(text.getBuffer(), _begin, text.length()-_begin));
+			}
+			_returnToken = _token;
+		} finally { // debugging
+			traceOut("mRPAREN");
+		}
+	}
+	
+	public final void mLCURLY(boolean _createToken) throws RecognitionException, CharStreamException, TokenStreamException {
+		int _ttype; Token _token=null; int _begin=text.length();
+		traceIn("mLCURLY");
+		_ttype = LCURLY;
+		int _saveIndex;
+		try { // debugging
+			
+			match("{");
+			if ( _createToken && _token==null && _ttype!=Token.SKIP ) {
+				_token = makeToken(_ttype);
+				_token.setText(new String(text.getBuffer(), _begin, text.length()-_begin));
+			}
+			_returnToken = _token;
+		} finally { // debugging
+			traceOut("mLCURLY");
+		}
+	}
+	
+	public final void mRCURLY(boolean _createToken) throws RecognitionException, CharStreamException, TokenStreamException {
+		int _ttype; Token _token=null; int _begin=text.length();
+		traceIn("mRCURLY");
+		_ttype = RCURLY;
+		int _saveIndex;
+		try { // debugging
+			
+			match("}");
+			if ( _createToken && _token==null && _ttype!=Token.SKIP ) {
+				_token = makeToken(_ttype);
+				_token.setText(new String(text.getBuffer(), _begin, text.length()-_begin));
+			}
+			_returnToken = _token;
+		} finally { // debugging
+			traceOut("mRCURLY");
+		}
+	}
+	
+	public final void mLBRACKET(boolean _createToken) throws RecognitionException, CharStreamException, TokenStreamException {
+		int _ttype; Token _token=null; int _begin=text.length();
+		traceIn("mLBRACKET");
+		_ttype = LBRACKET;
+		int _saveIndex;
+		try { // debugging
+			
+			match("[");
+			if ( _createToken && _token==null && _ttype!=Token.SKIP ) {
+				_token = makeToken(_ttype);
+				_token.setText(new String(text.getBuffer(), _begin, text.length()-_begin));
+			}
+			_returnToken = _token;
+		} finally { // debugging
+			traceOut("mLBRACKET");
+		}
+	}
+	
+	public final void mRBRACKET(boolean _createToken) throws RecognitionException, CharStreamException, TokenStreamException {
+		int _ttype; Token _token=null; int _begin=text.length();
+		traceIn("mRBRACKET");
+		_ttype = RBRACKET;
+		int _saveIndex;
+		try { // debugging
+			
+			match("]");
+			if ( _createToken && _token==null && _ttype!=Token.SKIP ) {
+				_token = makeToken(_ttype);
+				_token.setText(new String(text.getBuffer(), _begin, text.length()-_begin));
+			}
+			_returnToken = _token;
+		} finally { // debugging
+			traceOut("mRBRACKET");
+		}
+	}
+	
+	public final void mASSIGN_PLUS(boolean _createToken) throws RecognitionException, CharStreamException, TokenStreamException {
+		int _ttype; Token _token=null; int _begin=text.length();
+		traceIn("mASSIGN_PLUS");
+		_ttype = ASSIGN_PLUS;
+		int _saveIndex;
+		try { // debugging
+			
+			match("+=");
+			if ( _createToken && _token==null && _ttype!=Token.SKIP ) {
+				_token = makeToken(_ttype);
+				_token.setText(new String(text.getBuffer(), _begin, text.length()-_begin));
+			}
+			_returnToken = _token;
+		} finally { // debugging
+			traceOut("mASSIGN_PLUS");
+		}
+	}
+	
+	public final void mASSIGN_MINUS(boolean _createToken) throws RecognitionException, CharStreamException, TokenStreamException {
+		int _ttype; Token _token=null; int _begin=text.length();
+		traceIn("mASSIGN_MINUS");
+		_ttype = ASSIGN_MINUS;
+		int _saveIndex;
+		try { // debugging
+			
+			match("-=");
+			if ( _createToken && _token==null && _ttype!=Token.SKIP ) {
+				_token = makeToken(_ttype);
+				_token.setText(new String(text.getBuffer(), _begin, text.length()-_begin));
+			}
+			_returnToken = _token;
+		} finally { // debugging
+			traceOut("mASSIGN_MINUS");
+		}
+	}
+	
+	public final void mASSIGN(boolean _createToken) throws RecognitionException, CharStreamException, TokenStreamException {
+		int _ttype; Token _token=null; int _begin=text.length();
+		traceIn("mASSIGN");
+		_ttype = ASSIGN;
+		int _saveIndex;
+		try { // debugging
+			
+			match("=");
+			if ( _createToken && _token==null && _ttype!=Token.SKIP ) {
+				_token = makeToken(_ttype);
+				_token.setText(new String(text.getBuffer(), _begin, text.length()-_begin));
+			}
+			_returnToken = _token;
+		} finally { // debugging
+			traceOut("mASSIGN");
+		}
+	}
+	
+	public final void mPLUS(boolean _createToken) throws RecognitionException, CharStreamException, TokenStreamException {
+		int _ttype; Token _token=null; int _begin=text.length();
+		traceIn("mPLUS");
+		_ttype = PLUS;
+		int _saveIndex;
+		try { // debugging
+			
+			match("+");
+			if ( _createToken && _token==null && _ttype!=Token.SKIP ) {
+				_token = makeToken(_ttype);
+				_token.setText(new String(text.getBuffer(), _begin, text.length()-_begin));
+			}
+			_returnToken = _token;
+		} finally { // debugging
+			traceOut("mPLUS");
+		}
+	}
+	
+	public final void mMINUS(boolean _createToken) throws RecognitionException, CharStreamException, TokenStreamException {
+		int _ttype; Token _token=null; int _begin=text.length();
+		traceIn("mMINUS");
+		_ttype = MINUS;
+		int _saveIndex;
+		try { // debugging
+			
+			match("-");
+			if ( _createToken && _token==null && _ttype!=Token.SKIP ) {
+				_token = makeToken(_ttype);
+				_token.setText(new String(text.getBuffer(), _begin, text.length()-_begin));
+			}
+			_returnToken = _token;
+		} finally { // debugging
+			traceOut("mMINUS");
+		}
+	}
+	
+	public final void mTIMES(boolean _createToken) throws RecognitionException, CharStreamException, TokenStreamException {
+		int _ttype; Token _token=null; int _begin=text.length();
+		traceIn("mTIMES");
+		_ttype = TIMES;
+		int _saveIndex;
+		try { // debugging
+			
+			match("*");
+			if ( _createToken && _token==null && _ttype!=Token.SKIP ) {
+				_token = makeToken(_ttype);
+				_token.setText(new String(text.getBuffer(), _begin, text.length()-_begin));
+			}
+			_returnToken = _token;
+		} finally { // debugging
+			traceOut("mTIMES");
+		}
+	}
+	
+	public final void mDIVIDE(boolean _createToken) throws RecognitionException, CharStreamException, TokenStreamException {
+		int _ttype; Token _token=null; int _begin=text.length();
+		traceIn("mDIVIDE");
+		_ttype = DIVIDE;
+		int _saveIndex;
+		try { // debugging
+			
+			match("/");
+			if ( _createToken && _token==null && _ttype!=Token.SKIP ) {
+				_token = makeToken(_ttype);
+				_token.setText(new String(text.getBuffer(), _begin, text.length()-_begin));
+			}
+			_returnToken = _token;
+		} finally { // debugging
+			traceOut("mDIVIDE");
+		}
+	}
+	
+	public final void mMOD(boolean _createToken) throws RecognitionException, CharStreamException, TokenStreamException {
+		int _ttype; Token _token=null; int _begin=text.length();
+		traceIn("mMOD");
+		_ttype = MOD;
+		int _saveIndex;
+		try { // debugging
+			
+			match("%");
+			if ( _createToken && _token==null && _ttype!=Token.SKIP ) {
+				_token = makeToken(_ttype);
+				_token.setText(new String(text.getBuffer(), _begin, text.length()-_begin));
+			}
+			_returnToken = _token;
+		} finally { // debugging
+			traceOut("mMOD");
+		}
+	}
+	
+	public final void mLT(boolean _createToken) throws RecognitionException, CharStreamException, TokenStreamException {
+		int _ttype; Token _token=null; int _begin=text.length();
+		traceIn("mLT");
+		_ttype = LT;
+		int _saveIndex;
+		try { // debugging
+			
+			match("<");
+			if ( _createToken && _token==null && _ttype!=Token.SKIP ) {
+				_token = makeToken(_ttype);
+				_token.setText(new String(text.getBuffer(), _begin, text.length()-_begin));
+			}
+			_returnToken = _token;
+		} finally { // debugging
+			traceOut("mLT");
+		}
+	}
+	
+	public final void mGT(boolean _createToken) throws RecognitionException, CharStreamException, TokenStreamException {
+		int _ttype; Token _token=null; int _begin=text.length();
+		traceIn("mGT");
+		_ttype = GT;
+		int _saveIndex;
+		try { // debugging
+			
+			match(">");
+			if ( _createToken && _token==null && _ttype!=Token.SKIP ) {
+				_token = makeToken(_ttype);
+				_token.setText(new String(text.getBuffer(), _begin, text.length()-_begin));
+			}
+			_returnToken = _token;
+		} finally { // debugging
+			traceOut("mGT");
+		}
+	}
+	
+	public final void mLTE(boolean _createToken) throws RecognitionException, CharStreamException, TokenStreamException {
+		int _ttype; Token _token=null; int _begin=text.length();
+		traceIn("mLTE");
+		_ttype = LTE;
+		int _saveIndex;
+		try { // debugging
+			
+			match("<=");
+			if ( _createToken && _token==null && _ttype!=Token.SKIP ) {
+				_token = makeToken(_ttype);
+				_token.setText(new String(text.getBuffer(), _begin, text.length()-_begin));
+			}
+			_returnToken = _token;
+		} finally { // debugging
+			traceOut("mLTE");
+		}
+	}
+	
+	public final void mGTE(boolean _createToken) throws RecognitionException, CharStreamException, TokenStreamException {
+		int _ttype; Token _token=null; int _begin=text.length();
+		traceIn("mGTE");
+		_ttype = GTE;
+		int _saveIndex;
+		try { // debugging
+			
+			match(">=");
+			if ( _createToken && _token==null && _ttype!=Token.SKIP ) {
+				_token = makeToken(_ttype);
+				_token.setText(new String(text.getBuffer(), _begin, text.length()-_begin));
+			}
+			_returnToken = _token;
+		} finally { // debugging
+			traceOut("mGTE");
+		}
+	}
+	
+	public final void mEQUALS(boolean _createToken) throws RecognitionException, CharStreamException, TokenStreamException {
+		int _ttype; Token _token=null; int _begin=text.length();
+		traceIn("mEQUALS");
+		_ttype = EQUALS;
+		int _saveIndex;
+		try { // debugging
+			
+			match("==");
+			if ( _createToken && _token==null && _ttype!=Token.SKIP ) {
+				_token = makeToken(_ttype);
+				_token.setText(new String(text.getBuffer(), _begin, text.length()-_begin));
+			}
+			_returnToken = _token;
+		} finally { // debugging
+			traceOut("mEQUALS");
+		}
+	}
+	
+	public final void mNOT_EQUALS(boolean _createToken) throws RecognitionException, CharStreamException, TokenStreamException {
+		int _ttype; Token _token=null; int _begin=text.length();
+		traceIn("mNOT_EQUALS");
+		_ttype = NOT_EQUALS;
+		int _saveIndex;
+		try { // debugging
+			
+			match("!=");
+			if ( _createToken && _token==null && _ttype!=Token.SKIP ) {
+				_token = makeToken(_ttype);
+				_token.setText(new String(text.getBuffer(), _begin, text.length()-_begin));
+			}
+			_returnToken = _token;
+		} finally { // debugging
+			traceOut("mNOT_EQUALS");
+		}
+	}
+	
+	public final void mAND(boolean _createToken) throws RecognitionException, CharStreamException, TokenStreamException {
+		int _ttype; Token _token=null; int _begin=text.length();
+		traceIn("mAND");
+		_ttype = AND;
+		int _saveIndex;
+		try { // debugging
+			
+			match("&&");
+			if ( _createToken && _token==null && _ttype!=Token.SKIP ) {
+				_token = makeToken(_ttype);
+				_token.setText(new String(text.getBuffer(), _begin, text.length()-_begin));
+			}
+			_returnToken = _token;
+		} finally { // debugging
+			traceOut("mAND");
+		}
+	}
+	
+	public final void mOR(boolean _createToken) throws RecognitionException, CharStreamException, TokenStreamException {
+		int _ttype; Token _token=null; int _begin=text.length();
+		traceIn("mOR");
+		_ttype = OR;
+		int _saveIndex;
+		try { // debugging
+			
+			match("||");
+			if ( _createToken && _token==null && _ttype!=Token.SKIP ) {
+				_token = makeToken(_ttype);
+				_token.setText(new String(text.getBuffer(), _begin, text.length()-_begin));
+			}
+			_returnToken = _token;
+		} finally { // debugging
+			traceOut("mOR");
+		}
+	}
+	
+	public final void mBANG(boolean _createToken) throws RecognitionException, CharStreamException, TokenStreamException {
+		int _ttype; Token _token=null; int _begin=text.length();
+		traceIn("mBANG");
+		_ttype = BANG;
+		int _saveIndex;
+		try { // debugging
+			
+			match("!");
+			if ( _createToken && _token==null && _ttype!=Token.SKIP ) {
+				_token = makeToken(_ttype);
+				_token.setText(new String(text.getBuffer(), _begin, text.length()-_begin));
+			}
+			_returnToken = _token;
+		} finally { // debugging
+			traceOut("mBANG");
+		}
+	}
+	
+	public final void mSEMICOLON(boolean _createToken) throws RecognitionException, CharStreamException, TokenStreamException {
+		int _ttype; Token _token=null; int _begin=text.length();
+		traceIn("mSEMICOLON");
+		_ttype = SEMICOLON;
+		int _saveIndex;
+		try { // debugging
+			
+			match(";");
+			if ( _createToken && _token==null && _ttype!=Token.SKIP ) {
+				_token = makeToken(_ttype);
+				_token.setText(new String(text.getBuffer(), _begin, text.length()-_begin));
+			}
+			_returnToken = _token;
+		} finally { // debugging
+			traceOut("mSEMICOLON");
+		}
+	}
+	
+	public final void mCOMMA(boolean _createToken) throws RecognitionException, CharStreamException, TokenStreamException {
+		int _ttype; Token _token=null; int _begin=text.length();
+		traceIn("mCOMMA");
+		_ttype = COMMA;
+		int _saveIndex;
+		try { // debugging
+			
+			match(",");
+			if ( _createToken && _token==null && _ttype!=Token.SKIP ) {
+				_token = makeToken(_ttype);
+				_token.setText(new String(text.getBuffer(), _begin, text.length()-_begin));
+			}
+			_returnToken = _token;
+		} finally { // debugging
+			traceOut("mCOMMA");
+		}
+	}
+	
+	public final void mCOLON(boolean _createToken) throws RecognitionException, CharStreamException, TokenStreamException {
+		int _ttype; Token _token=null; int _begin=text.length();
+		traceIn("mCOLON");
+		_ttype = COLON;
+		int _saveIndex;
+		try { // debugging
+			
+			match(":");
+			if ( _createToken && _token==null && _ttype!=Token.SKIP ) {
+				_token = makeToken(_ttype);
+				_token.setText(new String(text.getBuffer(), _begin, text.length()-_begin));
+			}
+			_returnToken = _token;
+		} finally { // debugging
+			traceOut("mCOLON");
+		}
+	}
+	
+	public final void mQUESTION(boolean _createToken) throws RecognitionException, CharStreamException, TokenStreamException {
+		int _ttype; Token _token=null; int _begin=text.length();
+		traceIn("mQUESTION");
+		_ttype = QUESTION;
+		int _saveIndex;
+		try { // debugging
+			
+			match("?");
+			if ( _createToken && _token==null && _ttype!=Token.SKIP ) {
+				_token = makeToken(_ttype);
+				_token.setText(new String(text.getBuffer(), _begin, text.length()-_begin));
+			}
+			_returnToken = _token;
+		} finally { // debugging
+			traceOut("mQUESTION");
+		}
+	}
+	
+	public final void mAT(boolean _createToken) throws RecognitionException, CharStreamException, TokenStreamException {
+		int _ttype; Token _token=null; int _begin=text.length();
+		traceIn("mAT");
+		_ttype = AT;
+		int _saveIndex;
+		try { // debugging
+			
+			match("@");
+			if ( _createToken && _token==null && _ttype!=Token.SKIP ) {
+				_token = makeToken(_ttype);
+				_token.setText(new String(text.getBuffer(), _begin, text.length()-_begin));
+			}
+			_returnToken = _token;
+		} finally { // debugging
+			traceOut("mAT");
+		}
+	}
+	
+	public final void mID(boolean _createToken) throws RecognitionException, CharStreamException, TokenStreamException {
+		int _ttype; Token _token=null; int _begin=text.length();
+		traceIn("mID");
+		_ttype = ID;
+		int _saveIndex;
+		try { // debugging
+			
+			mALPHA(false);
+			{
+			_loop31:
+			do {
+				if ((_tokenSet_0.member(LA(1)))) {
+					mALPHA_NUM(false);
+				}
+				else {
+					break _loop31;
+				}
+				
+			} while (true);
+			}
+			if ( _createToken && _token==null && _ttype!=Token.SKIP ) {
+				_token = makeToken(_ttype);
+				_token.setText(new String(text.getBuffer(), _begin, text.length()-_begin));
+			}
+			_returnToken = _token;
+		} finally { // debugging
+			traceOut("mID");
+		}
+	}
+	
+	protected final void mALPHA(boolean _createToken) throws RecognitionException, CharStreamException, TokenStreamException {
+		int _ttype; Token _token=null; int _begin=text.length();
+		traceIn("mALPHA");
+		_ttype = ALPHA;
+		int _saveIndex;
+		try { // debugging
+			
+			switch ( LA(1)) {
+			case 'a':  case 'b':  case 'c':  case 'd':
+			case 'e':  case 'f':  case 'g':  case 'h':
+			case 'i':  case 'j':  case 'k':  case 'l':
+			case 'm':  case 'n':  case 'o':  case 'p':
+			case 'q':  case 'r':  case 's':  case 't':
+			case 'u':  case 'v':  case 'w':  case 'x':
+			case 'y':  case 'z':
+			{
+				matchRange('a','z');
+				break;
+			}
+			case 'A':  case 'B':  case 'C':  case 'D':
+			case 'E':  case 'F':  case 'G':  case 'H':
+			case 'I':  case 'J':  case 'K':  case 'L':
+			case 'M':  case 'N':  case 'O':  case 'P':
+			case 'Q':  case 'R':  case 'S':  case 'T':
+			case 'U':  case 'V':  case 'W':  case 'X':
+			case 'Y':  case 'Z':
+			{
+				matchRange('A','Z');
+				break;
+			}
+			case '_':
+			{
+				match('_');
+				break;
+			}
+			default:
+			{
+				throw new NoViableAltForCharException((char)LA(1), getFilename(), getLine(), getColumn());
+			}
+			}
+			if ( _createToken && _token==null && _ttype!=Token.SKIP ) {
+				_token = makeToken(_ttype);
+				_token.setText(new String(text.getBuffer(), _begin, text.length()-_begin));
+			}
+			_returnToken = _token;
+		} finally { // debugging
+			traceOut("mALPHA");
+		}
+	}
+	
+	protected final void mALPHA_NUM(boolean _createToken) throws RecognitionException, CharStreamException, TokenStreamException {
+		int _ttype; Token _token=null; int _begin=text.length();
+		traceIn("mALPHA_NUM");
+		_ttype = ALPHA_NUM;
+		int _saveIndex;
+		try { // debugging
+			
+			switch ( LA(1)) {
+			case 'A':  case 'B':  case 'C':  case 'D':
+			case 'E':  case 'F':  case 'G':  case 'H':
+			case 'I':  case 'J':  case 'K':  case 'L':
+			case 'M':  case 'N':  case 'O':  case 'P':
+			case 'Q':  case 'R':  case 'S':  case 'T':
+			case 'U':  case 'V':  case 'W':  case 'X':
+			case 'Y':  case 'Z':  case '_':  case 'a':
+			case 'b':  case 'c':  case 'd':  case 'e':
+			case 'f':  case 'g':  case 'h':  case 'i':
+			case 'j':  case 'k':  case 'l':  case 'm':
+			case 'n':  case 'o':  case 'p':  case 'q':
+			case 'r':  case 's':  case 't':  case 'u':
+			case 'v':  case 'w':  case 'x':  case 'y':
+			case 'z':
+			{
+				mALPHA(false);
+				break;
+			}
+			case '0':  case '1':  case '2':  case '3':
+			case '4':  case '5':  case '6':  case '7':
+			case '8':  case '9':
+			{
+				mDIGIT(false);
+				break;
+			}
+			default:
+			{
+				throw new NoViableAltForCharException((char)LA(1), getFilename(), getLine(), getColumn());
+			}
+			}
+			if ( _createToken && _token==null && _ttype!=Token.SKIP ) {
+				_token = makeToken(_ttype);
+				_token.setText(new String(text.getBuffer(), _begin, text.length()-_begin));
+			}
+			_returnToken = _token;
+		} finally { // debugging
+			traceOut("mALPHA_NUM");
+		}
+	}
+	
+	public final void mWS_(boolean _createToken) throws RecognitionException, CharStreamException, TokenStreamException {
+		int _ttype; Token _token=null; int _begin=text.length();
+		traceIn("mWS_");
+		_ttype = WS_;
+		int _saveIndex;
+		try { // debugging
+			
+			{
+			switch ( LA(1)) {
+			case ' ':
+			{
+				match(' ');
+				break;
+			}
+			case '\t':
+			{
+				match('\t');
+				break;
+			}
+			case '\n':  case '\r':
+			{
+				{
+				if ((LA(1)=='\r') && (LA(2)=='\n')) {
+					match("\r\n");
+				}
+				else if ((LA(1)=='\r') && (true)) {
+					match('\r');
+				}
+				else if ((LA(1)=='\n')) {
+					match('\n');
+					newline();
+				}
+				else {
+					throw new NoViableAltForCharException((char)LA(1), getFilename(), getLine(), getColumn());
+				}
+				
+				}
+				break;
+			}
+			default:
+			{
+				throw new NoViableAltForCharException((char)LA(1), getFilename(), getLine(), getColumn());
+			}
+			}
+			}
+			_ttype = Token.SKIP;
+			if ( _createToken && _token==null && _ttype!=Token.SKIP ) {
+				_token = makeToken(_ttype);
+				_token.setText(new String(text.getBuffer(), _begin, text.length()-_begin));
+			}
+			_returnToken = _token;
+		} finally { // debugging
+			traceOut("mWS_");
+		}
+	}
+	
+	public final void mSL_COMMENT(boolean _createToken) throws RecognitionException, CharStreamException, TokenStreamException {
+		int _ttype; Token _token=null; int _begin=text.length();
+		traceIn("mSL_COMMENT");
+		_ttype = SL_COMMENT;
+		int _saveIndex;
+		try { // debugging
+			
+			match("//");
+			{
+			_loop37:
+			do {
+				if ((_tokenSet_1.member(LA(1)))) {
+					matchNot('\n');
+				}
+				else {
+					break _loop37;
+				}
+				
+			} while (true);
+			}
+			match('\n');
+			_ttype = Token.SKIP; newline();
+			if ( _createToken && _token==null && _ttype!=Token.SKIP ) {
+				_token = makeToken(_ttype);
+				_token.setText(new String(text.getBuffer(), _begin, text.length()-_begin));
+			}
+			_returnToken = _token;
+		} finally { // debugging
+			traceOut("mSL_COMMENT");
+		}
+	}
+	
+	public final void mCHAR_LITERAL(boolean _createToken) throws RecognitionException, CharStreamException, TokenStreamException {
+		int _ttype; Token _token=null; int _begin=text.length();
+		traceIn("mCHAR_LITERAL");
+		_ttype = CHAR_LITERAL;
+		int _saveIndex;
+		try { // debugging
+			
+			match('\'');
+			mCHAR(false);
+			match('\'');
+			if ( _createToken && _token==null && _ttype!=Token.SKIP ) {
+				_token = makeToken(_ttype);
+				_token.setText(new String(text.getBuffer(), _begin, text.length()-_begin));
+			}
+			_returnToken = _token;
+		} finally { // debugging
+			traceOut("mCHAR_LITERAL");
+		}
+	}
+	
+	protected final void mCHAR(boolean _createToken) throws RecognitionException, CharStreamException, TokenStreamException {
+		int _ttype; Token _token=null; int _begin=text.length();
+		traceIn("mCHAR");
+		_ttype = CHAR;
+		int _saveIndex;
+		try { // debugging
+			
+			switch ( LA(1)) {
+			case '\\':
+			{
+				mESC(false);
+				break;
+			}
+			case ' ':  case '!':
+			{
+				matchRange(' ','!');
+				break;
+			}
+			case '#':  case '$':  case '%':  case '&':
+			{
+				matchRange('#','&');
+				break;
+			}
+			case '(':  case ')':  case '*':  case '+':
+			case ',':  case '-':  case '.':  case '/':
+			case '0':  case '1':  case '2':  case '3':
+			case '4':  case '5':  case '6':  case '7':
+			case '8':  case '9':  case ':':  case ';':
+			case '<':  case '=':  case '>':  case '?':
+			case '@':  case 'A':  case 'B':  case 'C':
+			case 'D':  case 'E':  case 'F':  case 'G':
+			case 'H':  case 'I':  case 'J':  case 'K':
+			case 'L':  case 'M':  case 'N':  case 'O':
+			case 'P':  case 'Q':  case 'R':  case 'S':
+			case 'T':  case 'U':  case 'V':  case 'W':
+			case 'X':  case 'Y':  case 'Z':  case '[':
+			{
+				matchRange('(','[');
+				break;
+			}
+			case ']':  case '^':  case '_':  case '`':
+			case 'a':  case 'b':  case 'c':  case 'd':
+			case 'e':  case 'f':  case 'g':  case 'h':
+			case 'i':  case 'j':  case 'k':  case 'l':
+			case 'm':  case 'n':  case 'o':  case 'p':
+			case 'q':  case 'r':  case 's':  case 't':
+			case 'u':  case 'v':  case 'w':  case 'x':
+			case 'y':  case 'z':  case '{':  case '|':
+			case '}':  case '~':
+			{
+				matchRange(']','~');
+				break;
+			}
+			default:
+			{
+				throw new NoViableAltForCharException((char)LA(1), getFilename(), getLine(), getColumn());
+			}
+			}
+			if ( _createToken && _token==null && _ttype!=Token.SKIP ) {
+				_token = makeToken(_ttype);
+				_token.setText(new String(text.getBuffer(), _begin, text.length()-_begin));
+			}
+			_returnToken = _token;
+		} finally { // debugging
+			traceOut("mCHAR");
+		}
+	}
+	
+	public final void mSTRING_LITERAL(boolean _createToken) throws RecognitionException, CharStreamException, TokenStreamException {
+		int _ttype; Token _token=null; int _begin=text.length();
+		traceIn("mSTRING_LITERAL");
+		_ttype = STRING_LITERAL;
+		int _saveIndex;
+		try { // debugging
+			
+			match('"');
+			{
+			_loop41:
+			do {
+				if ((_tokenSet_2.member(LA(1)))) {
+					mCHAR(false);
+				}
+				else {
+					break _loop41;
+				}
+				
+			} while (true);
+			}
+			match('"');
+			if ( _createToken && _token==null && _ttype!=Token.SKIP ) {
+				_token = makeToken(_ttype);
+				_token.setText(new String(text.getBuffer(), _begin, text.length()-_begin));
+			}
+			_returnToken = _token;
+		} finally { // debugging
+			traceOut("mSTRING_LITERAL");
+		}
+	}
+	
+	public final void mINT_LITERAL(boolean _createToken) throws RecognitionException, CharStreamException, TokenStreamException {
+		int _ttype; Token _token=null; int _begin=text.length();
+		traceIn("mINT_LITERAL");
+		_ttype = INT_LITERAL;
+		int _saveIndex;
+		try { // debugging
+			
+			if ((LA(1)=='0') && (LA(2)=='x')) {
+				match("0x");
+				mHEXDIGIT(false);
+				{
+				_loop46:
+				do {
+					if ((_tokenSet_3.member(LA(1)))) {
+						mHEXDIGIT(false);
+					}
+					else {
+						break _loop46;
+					}
+					
+				} while (true);
+				}
+			}
+			else if (((LA(1) >= '0' && LA(1) <= '9')) && (true)) {
+				mDIGIT(false);
+				{
+				_loop44:
+				do {
+					if (((LA(1) >= '0' && LA(1) <= '9'))) {
+						mDIGIT(false);
+					}
+					else {
+						break _loop44;
+					}
+					
+				} while (true);
+				}
+			}
+			else {
+				throw new NoViableAltForCharException((char)LA(1), getFilename(), getLine(), getColumn());
+			}
+			
+			if ( _createToken && _token==null && _ttype!=Token.SKIP ) {
+				_token = makeToken(_ttype);
+				_token.setText(new String(text.getBuffer(), _begin, text.length()-_begin));
+			}
+			_returnToken = _token;
+		} finally { // debugging
+			traceOut("mINT_LITERAL");
+		}
+	}
+	
+	protected final void mDIGIT(boolean _createToken) throws RecognitionException, CharStreamException, TokenStreamException {
+		int _ttype; Token _token=null; int _begin=text.length();
+		traceIn("mDIGIT");
+		_ttype = DIGIT;
+		int _saveIndex;
+		try { // debugging
+			
+			matchRange('0','9');
+			if ( _createToken && _token==null && _ttype!=Token.SKIP ) {
+				_token = makeToken(_ttype);
+				_token.setText(new String(text.getBuffer(), _begin, text.length()-_begin));
+			}
+			_returnToken = _token;
+		} finally { // debugging
+			traceOut("mDIGIT");
+		}
+	}
+	
+	protected final void mHEXDIGIT(boolean _createToken) throws RecognitionException, CharStreamException, TokenStreamException {
+		int _ttype; Token _token=null; int _begin=text.length();
+		traceIn("mHEXDIGIT");
+		_ttype = HEXDIGIT;
+		int _saveIndex;
+		try { // debugging
+			
+			switch ( LA(1)) {
+			case '0':  case '1':  case '2':  case '3':
+			case '4':  case '5':  case '6':  case '7':
+			case '8':  case '9':
+			{
+				mDIGIT(false);
+				break;
+			}
+			case 'a':  case 'b':  case 'c':  case 'd':
+			case 'e':  case 'f':
+			{
+				matchRange('a','f');
+				break;
+			}
+			case 'A':  case 'B':  case 'C':  case 'D':
+			case 'E':  case 'F':
+			{
+				matchRange('A','F');
+				break;
+			}
+			default:
+			{
+				throw new NoViableAltForCharException((char)LA(1), getFilename(), getLine(), getColumn());
+			}
+			}
+			if ( _createToken && _token==null && _ttype!=Token.SKIP ) {
+				_token = makeToken(_ttype);
+				_token.setText(new String(text.getBuffer(), _begin, text.length()-_begin));
+			}
+			_returnToken = _token;
+		} finally { // debugging
+			traceOut("mHEXDIGIT");
+		}
+	}
+	
+	protected final void mESC(boolean _createToken) throws RecognitionException, CharStreamException, TokenStreamException {
+		int _ttype; Token _token=null; int _begin=text.length();
+		traceIn("mESC");
+		_ttype = ESC;
+		int _saveIndex;
+		try { // debugging
+			
+			match('\\');
+			{
+			switch ( LA(1)) {
+			case 'n':
+			{
+				match('n');
+				break;
+			}
+			case '"':
+			{
+				match('"');
+				break;
+			}
+			case 't':
+			{
+				match('t');
+				break;
+			}
+			case '\'':
+			{
+				match('\'');
+				break;
+			}
+			case '\\':
+			{
+				match('\\');
+				break;
+			}
+			default:
+			{
+				throw new NoViableAltForCharException((char)LA(1), getFilename(), getLine(), getColumn());
+			}
+			}
+			}
+			if ( _createToken && _token==null && _ttype!=Token.SKIP ) {
+				_token = makeToken(_ttype);
+				_token.setText(new String(text.getBuffer(), _begin, text.length()-_begin));
+			}
+			_returnToken = _token;
+		} finally { // debugging
+			traceOut("mESC");
+		}
+	}
+	
+	
+	private static final long[] mk_tokenSet_0() {
+		long[] data = { 287948901175001088L, 576460745995190270L, 0L, 0L};
+		return data;
+	}
+	public static final BitSet _tokenSet_0 = new BitSet(mk_tokenSet_0());
+	private static final long[] mk_tokenSet_1() {
+		long[] data = { -1025L, -1L, 0L, 0L};
+		return data;
+	}
+	public static final BitSet _tokenSet_1 = new BitSet(mk_tokenSet_1());
+	private static final long[] mk_tokenSet_2() {
+		long[] data = { -571230650368L, 9223372036854775807L, 0L, 0L};
+		return data;
+	}
+	public static final BitSet _tokenSet_2 = new BitSet(mk_tokenSet_2());
+	private static final long[] mk_tokenSet_3() {
+		long[] data = { 287948901175001088L, 541165879422L, 0L, 0L};
+		return data;
+	}
+	public static final BitSet _tokenSet_3 = new BitSet(mk_tokenSet_3());
+	
+	}
@@ -0,0 +1,325 @@
+package edu.mit.compilers.bench;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import edu.mit.compilers.CompilationSession;
+import edu.mit.compilers.tools.CompilerStats;
+import edu.mit.compilers.tools.CompilerStats.Phase;
+
+/**
+ * Benchmarks every phase of the compiler over a corpus of Decaf programs.
+ *
+ * Every iteration compiles the program from scratch in a new CompilationSession with all
+ * optimizations on (the passes rewrite the flow graph, so nothing can be reused between
+ * iterations) and times each phase with CompilerStats. Warmup iterations are thrown away. For
+ * every (input, phase) pair it reports the mean, standard deviation and a 99% confidence interval
+ * of the wall time, and the mean allocation.
+ *
+ * A phase that runs more than once in a compile, such as a second DCE, is kept apart from the
+ * first run under its name plus "#2", "#3" and so on.
+ *
+ * Results can be written as JSON, and compared against an earlier JSON run: a phase is reported
+ * as a regression when Welch's t-test says it got slower with 99% confidence and by more than 5%.
+ * The comparison fails if no phase of this run can be compared with the baseline.
+ *
+ * Usage: PhaseBenchmark [--warmup=N] [--iterations=N] [--jobs=N] [--json=out.json]
+ *                       [--baseline=old.json] <file or directory>...
+ */
+public class PhaseBenchmark {
+    private static final double Z_99 = 2.576;
+    private static final double MIN_SLOWDOWN = 1.05;
+    // Two-sided 99% critical values of Student's t, by degrees of freedom.
+    private static final int[] T_DF = {1, 2, 3, 4, 5, 6, 7, 8, 9, 10, 12, 15, 20, 30, 60};
+    private static final double[] T_99 = {63.657, 9.925, 5.841, 4.604, 4.032, 3.707, 3.499, 3.355, 3.250,
+            3.169, 3.055, 2.947, 2.845, 2.750, 2.660};
+
+    private int warmup = 3;
+    private int iterations = 10;
+    private int jobs = 1;
+    private String jsonFile;
+    private String baselineFile;
+    private List<File> inputs = new ArrayList<File>();
+    // input -> phase -> samples
+    private Map<String, Map<String, Samples>> results = new LinkedHashMap<String, Map<String, Samples>>();
+
+    private static class Samples {
+        List<Long> nanos = new ArrayList<Long>();
+        List<Long> bytes = new ArrayList<Long>();
+
+        double mean() {
+            double sum = 0;
+            for (long n : nanos) {
+                sum += n;
+            }
+            return sum / nanos.size();
+        }
+
+        double stddev() {
+            if (nanos.size() < 2) {
+                return 0;
+            }
+            double mean = mean();
+            double sum = 0;
+            for (long n : nanos) {
+                sum += (n - mean) * (n - mean);
+            }
+            return Math.sqrt(sum / (nanos.size() - 1));
+        }
+
+        double meanBytes() {
+            double sum = 0;
+            for (long b : bytes) {
+                sum += b;
+            }
+            return sum / bytes.size();
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        PhaseBenchmark bench = new PhaseBenchmark();
+        for (String arg : args) {
+            if (arg.startsWith("--warmup=")) {
+                bench.warmup = Integer.parseInt(arg.substring(9));
+            } else if (arg.startsWith("--iterations=")) {
+                bench.iterations = Integer.parseInt(arg.substring(13));
+            } else if (arg.startsWith("--jobs=")) {
+                bench.jobs = Integer.parseInt(arg.substring(7));
+            } else if (arg.startsWith("--json=")) {
+                bench.jsonFile = nonEmpty(arg.substring(7));
+            } else if (arg.startsWith("--baseline=")) {
+                bench.baselineFile = nonEmpty(arg.substring(11));
+            } else {
+                bench.addInput(new File(arg));
+            }
+        }
+        if (bench.inputs.isEmpty() || bench.iterations < 1) {
+            System.err.println("Usage: PhaseBenchmark [--warmup=N] [--iterations=N] [--jobs=N] [--json=out.json] "
+                    + "[--baseline=old.json] <file or directory>...");
+            System.exit(2);
+        }
+        bench.run();
+        bench.printReport(System.out);
+        if (bench.jsonFile != null) {
+            bench.writeJson(bench.jsonFile);
+        }
+        if (bench.baselineFile != null && bench.compareWithBaseline(bench.baselineFile, System.out) != 0) {
+            System.exit(1);
+        }
+    }
+
+    private static String nonEmpty(String value) {
+        return value.isEmpty() ? null : value;
+    }
+
+    private void addInput(File file) {
+        if (file.isDirectory()) {
+            File[] children = file.listFiles();
+            Arrays.sort(children);
+            for (File child : children) {
+                if (child.getName().endsWith(".dcf")) {
+                    inputs.add(child);
+                }
+            }
+        } else {
+            inputs.add(file);
+        }
+    }
+
+    private void run() throws Exception {
+        PrintStream nullOut = new PrintStream(new OutputStream() {
+            @Override
+            public void write(int b) {
+            }
+        });
+        for (File input : inputs) {
+            Map<String, Samples> phases = new LinkedHashMap<String, Samples>();
+            System.out.println("Benchmarking " + input.getPath());
+            for (int i = 0; i < warmup + iterations; i++) {
+                CompilerStats stats = compile(input, nullOut);
+                if (i < warmup) {
+                    continue;
+                }
+                Map<String, Integer> occurrences = new HashMap<String, Integer>();
+                for (Phase phase : stats.getPhases()) {
+                    Integer seen = occurrences.get(phase.getName());
+                    int occurrence = seen == null ? 1 : seen + 1;
+                    occurrences.put(phase.getName(), occurrence);
+                    String key = occurrence == 1 ? phase.getName() : phase.getName() + "#" + occurrence;
+                    Samples samples = phases.get(key);
+                    if (samples == null) {
+                        samples = new Samples();
+                        phases.put(key, samples);
+                    }
+                    samples.nanos.add(phase.getWallNanos());
+                    samples.bytes.add(phase.getAllocatedBytes());
+                }
+            }
+            results.put(input.getPath(), phases);
+        }
+    }
+
+    /**
+     * Compiles the input like Main with --opt=all --stats, in a session of its own whose
+     * assembly, progress messages and report all go to nullOut.
+     * @return the per-phase measurements of the compile.
+     */
+    private CompilerStats compile(File input, PrintStream nullOut) throws Exception {
+        CompilationSession session = CompilationSession.fromArgs(new String[] {
+                "--target=assembly", "--opt=all", "--stats", "--jobs=" + jobs, input.getPath()});
+        session.setConsole(nullOut, nullOut);
+        InputStream in = new FileInputStream(input);
+        try {
+            if (session.compile(in, nullOut) != 0) {
+                throw new RuntimeException("Could not compile " + input);
+            }
+        } finally {
+            in.close();
+        }
+        return session.getStats();
+    }
+
+    private void printReport(PrintStream out) {
+        out.println();
+        out.println(String.format("%-44s %-14s %11s %11s %11s %14s", "input", "phase", "mean ms", "sd ms",
+                "99% ci ms", "alloc bytes"));
+        for (Map.Entry<String, Map<String, Samples>> input : results.entrySet()) {
+            for (Map.Entry<String, Samples> phase : input.getValue().entrySet()) {
+                Samples samples = phase.getValue();
+                double halfWidth = Z_99 * samples.stddev() / Math.sqrt(samples.nanos.size());
+                out.println(String.format("%-44s %-14s %11.3f %11.3f %11.3f %14.0f", input.getKey(), phase.getKey(),
+                        samples.mean() / 1e6, samples.stddev() / 1e6, halfWidth / 1e6, samples.meanBytes()));
+            }
+        }
+    }
+
+    /**
+     * Critical value for the largest tabulated degrees of freedom not above df, so it errs on
+     * the side of not reporting a regression.
+     */
+    private static double criticalT(double df) {
+        double critical = T_99[0];
+        for (int i = 0; i < T_DF.length; i++) {
+            if (T_DF[i] <= df) {
+                critical = T_99[i];
+            }
+        }
+        return df > 120 ? Z_99 : critical;
+    }
+
+    /**
+     * One result object per line, so compareWithBaseline can read it back without a JSON library.
+     */
+    private void writeJson(String fileName) throws IOException {
+        PrintStream ps = new PrintStream(new FileOutputStream(fileName));
+        ps.println("{\"iterations\": " + iterations + ", \"warmup\": " + warmup + ", \"results\": [");
+        boolean first = true;
+        for (Map.Entry<String, Map<String, Samples>> input : results.entrySet()) {
+            for (Map.Entry<String, Samples> phase : input.getValue().entrySet()) {
+                Samples samples = phase.getValue();
+                ps.print(first ? "" : ",\n");
+                first = false;
+                ps.print(String.format(Locale.ROOT, "{\"input\": \"%s\", \"phase\": \"%s\", \"n\": %d, "
+                        + "\"meanNanos\": %.1f, \"sdNanos\": %.1f, \"meanAllocatedBytes\": %.1f}",
+                        input.getKey().replace("\\", "\\\\").replace("\"", "\\\""), phase.getKey(),
+                        samples.nanos.size(), samples.mean(), samples.stddev(), samples.meanBytes()));
+            }
+        }
+        ps.println();
+        ps.println("]}");
+        ps.close();
+    }
+
+    /**
+     * Phases missing from the baseline, and lines of it that look like results but can't be read,
+     * are reported but don't fail the comparison on their own.
+     * @return number of (input, phase) pairs that got significantly slower than in the baseline,
+     * or -1 if none of them could be compared with it.
+     */
+    private int compareWithBaseline(String fileName, PrintStream out) throws IOException {
+        Pattern line = Pattern.compile("\"input\": \"(.*)\", \"phase\": \"(.*)\", \"n\": (\\d+), "
+                + "\"meanNanos\": ([-0-9.E]+), \"sdNanos\": ([-0-9.E]+)");
+        int regressions = 0;
+        int compared = 0;
+        int lineNumber = 0;
+        Set<String> inBaseline = new HashSet<String>();
+        out.println();
+        out.println("Comparing with " + fileName);
+        BufferedReader reader = new BufferedReader(new FileReader(fileName));
+        try {
+            String text;
+            while ((text = reader.readLine()) != null) {
+                lineNumber++;
+                Matcher m = line.matcher(text);
+                if (!m.find()) {
+                    if (text.contains("\"phase\":")) {
+                        out.println("WARNING: can't read line " + lineNumber + " of " + fileName);
+                    }
+                    continue;
+                }
+                String input = m.group(1).replace("\\\"", "\"").replace("\\\\", "\\");
+                inBaseline.add(input + "\n" + m.group(2));
+                Map<String, Samples> phases = results.get(input);
+                if (phases == null || !phases.containsKey(m.group(2))) {
+                    continue;
+                }
+                compared++;
+                Samples now = phases.get(m.group(2));
+                int oldN = Integer.parseInt(m.group(3));
+                double oldMean = Double.parseDouble(m.group(4));
+                double oldSd = Double.parseDouble(m.group(5));
+                double oldVar = oldSd * oldSd / oldN;
+                double newVar = now.stddev() * now.stddev() / now.nanos.size();
+                double standardError = Math.sqrt(oldVar + newVar);
+                double t = standardError == 0 ? 0 : (now.mean() - oldMean) / standardError;
+                // Welch-Satterthwaite degrees of freedom
+                double df = (oldVar + newVar) * (oldVar + newVar)
+                        / (oldVar * oldVar / Math.max(1, oldN - 1)
+                                + newVar * newVar / Math.max(1, now.nanos.size() - 1));
+                if (t > criticalT(df) && now.mean() > oldMean * MIN_SLOWDOWN) {
+                    regressions++;
+                    out.println(String.format("REGRESSION %-44s %-14s %.3f ms -> %.3f ms (t = %.1f)", input,
+                            m.group(2), oldMean / 1e6, now.mean() / 1e6, t));
+                }
+            }
+        } finally {
+            reader.close();
+        }
+        if (inBaseline.isEmpty()) {
+            out.println("No results could be read from " + fileName + ", so nothing was compared.");
+            return -1;
+        }
+        for (Map.Entry<String, Map<String, Samples>> input : results.entrySet()) {
+            for (String phase : input.getValue().keySet()) {
+                if (!inBaseline.contains(input.getKey() + "\n" + phase)) {
+                    out.println(String.format("WARNING: %s %s is not in the baseline", input.getKey(), phase));
+                }
+            }
+        }
+        if (compared == 0) {
+            out.println("None of the phases are in " + fileName + ", so nothing was compared.");
+            return -1;
+        }
+        out.println(regressions == 0 ? "No significant regressions in " + compared + " compared phase(s)."
+                : regressions + " significant regression(s) in " + compared + " compared phase(s).");
+        return regressions;
+    }
+}
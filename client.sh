@@ -0,0 +1,37 @@
+#!/bin/bash
+# Thin client for a compiler started with `run.sh --server`: sends the working
+# directory and command line to the server and replays its output and exit
+# status, without starting a JVM. `client.sh --stop` shuts the server down.
+# Exits with 111 when there is no server to talk to, or when the server asks
+# for the compile to be run locally.
+
+server_file=${DECAF_SERVER_FILE:-$HOME/.decaf-server}
+read -r port token < "$server_file" 2>/dev/null || exit 111
+{ exec 3<>"/dev/tcp/127.0.0.1/$port"; } 2>/dev/null || exit 111
+
+{
+  printf 'decaf-compile 1 %s\n' "$token"
+  if [ "$1" = "--stop" ]; then
+    printf 'stop\n'
+  else
+    printf 'cwd %s\n' "$PWD"
+    for arg in "$@"; do
+      printf 'arg %s\n' "$arg"
+    done
+    printf 'end\n'
+  fi
+} >&3
+
+status=111
+while IFS= read -r line <&3; do
+  case "$line" in
+    "out "*)  printf '%s\n' "${line#out }" ;;
+    "out+ "*) printf '%s' "${line#out+ }" ;;
+    "err "*)  printf '%s\n' "${line#err }" >&2 ;;
+    "err+ "*) printf '%s' "${line#err+ }" >&2 ;;
+    "exit "*) status=${line#exit }; break ;;
+    *)        break ;;
+  esac
+done
+exec 3<&-
+exit $status
@@ -1,3 +1,11 @@
 #!/bin/sh
 gitroot=$(git rev-parse --show-toplevel)
+# Compile on the running --server, if there is one.
+if [ -f "${DECAF_SERVER_FILE:-$HOME/.decaf-server}" ] && [ "$1" != "--server" ] && [ "${1#--server=}" = "$1" ]; then
+  $gitroot/client.sh "$@"
+  status=$?
+  if [ $status -ne 111 ]; then
+    exit $status
+  fi
+fi
 java -jar $gitroot/dist/Compiler.jar "$@"
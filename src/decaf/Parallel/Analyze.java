@@ -142,7 +142,7 @@ public class Analyze {
     int numVars = firstIndex.length - 1;
 
     if (indexLookup.size() == 0) {
-      distance.distanceExists = firstIndex[numVars] == secondIndex[numVars];
+      distance.distanceExists = firstIndex[numVars].equals(secondIndex[numVars]);
 
       if (distance.distanceExists)
         distance.distance = new Integer[numVars];
@@ -0,0 +1,609 @@
+package edu.mit.compilers;
+
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+
+import antlr.ANTLRException;
+import antlr.ASTFactory;
+import antlr.Token;
+import antlr.collections.AST;
+import edu.mit.compilers.ast.CommonASTWithLines;
+import edu.mit.compilers.codegen.InstructionScheduler;
+import edu.mit.compilers.codegen.Peephole;
+import edu.mit.compilers.controlflow.Assembler;
+import edu.mit.compilers.controlflow.BoundsCheckElimination;
+import edu.mit.compilers.controlflow.ControlflowContext;
+import edu.mit.compilers.controlflow.GenerateFlow;
+import edu.mit.compilers.controlflow.LoopInvariantCodeMotion;
+import edu.mit.compilers.controlflow.LoopParallelization;
+import edu.mit.compilers.controlflow.LoopUnrolling;
+import edu.mit.compilers.controlflow.LoopVectorization;
+import edu.mit.compilers.controlflow.MethodScheduler;
+import edu.mit.compilers.controlflow.Optimizer;
+import edu.mit.compilers.controlflow.START;
+import edu.mit.compilers.controlflow.StrengthReduction;
+import edu.mit.compilers.grammar.DecafParser;
+import edu.mit.compilers.grammar.DecafParserTokenTypes;
+import edu.mit.compilers.grammar.DecafScanner;
+import edu.mit.compilers.grammar.DecafScannerTokenTypes;
+import edu.mit.compilers.ir.IRMaker;
+import edu.mit.compilers.ir.IR_FieldDecl;
+import edu.mit.compilers.ir.IR_MethodDecl;
+import edu.mit.compilers.ir.IR_Node;
+import edu.mit.compilers.regalloc.AssignRegisters;
+import edu.mit.compilers.regalloc.Coloring;
+import edu.mit.compilers.regalloc.CountUses;
+import edu.mit.compilers.regalloc.GenReachingDefs;
+import edu.mit.compilers.regalloc.GraphNode;
+import edu.mit.compilers.regalloc.InterferenceGraph;
+import edu.mit.compilers.regalloc.IteratedCoalescing;
+import edu.mit.compilers.regalloc.LinearScan;
+import edu.mit.compilers.regalloc.LiveRangeSplitting;
+import edu.mit.compilers.regalloc.Web;
+import edu.mit.compilers.tools.CLI;
+import edu.mit.compilers.tools.CLI.Action;
+import edu.mit.compilers.tools.CompilerStats;
+import edu.mit.compilers.tools.CompilerStats.Phase;
+
+/**
+ * Everything one compilation needs: the parsed options, the stats, the method scheduler and
+ * the streams progress messages go to. Nothing about a compile is kept in statics, so any number
+ * of sessions can run in the same JVM, one after another or at the same time on different threads.
+ *
+ * A session compiles a single input; make a new one for every file.
+ */
+public class CompilationSession {
+
+    /**
+     * Optimization names understood by --opt, in the order of CLI.opts.
+     */
+    public static final String[] OPTIMIZATIONS = {"dce", "dlr", "cse", "regalloc", "bce", "sr", "licm", "unroll",
+        "parallel", "vectorize", "peephole", "sched"};
+
+    private final CLI options;
+    private final CompilerStats stats;
+    private PrintStream out = System.out;
+    private PrintStream err = System.err;
+    private File workingDirectory;
+
+    /**
+     * @param options : parsed command line, see CLI.parse.
+     */
+    public CompilationSession(CLI options) {
+        this.options = options;
+        this.stats = new CompilerStats(options.stats, options.infile);
+    }
+
+    /**
+     * @param args : command line, as given to Main.
+     */
+    public static CompilationSession fromArgs(String[] args) {
+        return new CompilationSession(CLI.parse(args, OPTIMIZATIONS));
+    }
+
+    public CLI getOptions() {
+        return options;
+    }
+
+    public CompilerStats getStats() {
+        return stats;
+    }
+
+    /**
+     * Sends the progress messages, error messages and the --stats report somewhere other than
+     * System.out and System.err.
+     */
+    public void setConsole(PrintStream out, PrintStream err) {
+        this.out = out;
+        this.err = err;
+    }
+
+    /**
+     * Resolves the relative file names of the options (input, output, a.s and the stats file)
+     * against the given directory instead of the JVM's, e.g. the client's directory in --server mode.
+     */
+    public void setWorkingDirectory(File workingDirectory) {
+        this.workingDirectory = workingDirectory;
+    }
+
+    private File resolve(String fileName) {
+        File file = new File(fileName);
+        if (workingDirectory == null || file.isAbsolute()) {
+            return file;
+        }
+        return new File(workingDirectory, fileName);
+    }
+
+    /**
+     * Compiles options.infile (stdin if there is none) into options.outfile, or stdout for the
+     * scanner and a.s for assembly, then prints and writes the stats if they were asked for.
+     * @return exit status: 0 on success, 1 on a parse or semantic error.
+     */
+    public int run() throws IOException, ANTLRException {
+        InputStream input = options.infile == null ? System.in : new FileInputStream(resolve(options.infile));
+        PrintStream output = null;
+        boolean ownOutput = false;
+        if (options.outfile != null) {
+            output = new PrintStream(new FileOutputStream(resolve(options.outfile)));
+            ownOutput = true;
+        } else if (options.target == Action.SCAN) {
+            output = System.out;
+        } else if (options.target == Action.ASSEMBLY || options.target == Action.DEFAULT) {
+            output = new PrintStream(new FileOutputStream(resolve("a.s")));
+            ownOutput = true;
+        }
+        try {
+            return compile(input, output);
+        } finally {
+            if (ownOutput) {
+                output.close();
+            }
+            if (input != System.in) {
+                input.close();
+            }
+        }
+    }
+
+    /**
+     * Compiles the program read from input up to options.target, writing the tokens or the
+     * assembly to output.
+     * @param input : Decaf source.
+     * @param output : where the scanner or assembly output goes; unused for the other targets.
+     * @return exit status: 0 on success, 1 on a parse or semantic error.
+     */
+    public int compile(InputStream input, PrintStream output) throws IOException, ANTLRException {
+        MethodScheduler scheduler = new MethodScheduler(options.jobs);
+        stats.addWorkers(scheduler);
+        try {
+            int status = compile(input, output, scheduler);
+            stats.printReport(err);
+            if (options.statsFile != null) {
+                stats.writeJson(resolve(options.statsFile).getPath());
+            }
+            return status;
+        } finally {
+            scheduler.shutdown();
+        }
+    }
+
+    private int compile(InputStream input, PrintStream output, MethodScheduler scheduler)
+            throws IOException, ANTLRException {
+        if (options.target == Action.SCAN) {
+            scan(input, output);
+            return 0;
+        }
+        // =============== PARSE =================
+        Phase parsePhase = stats.begin("parse");
+        DecafScanner scanner = new DecafScanner(new DataInputStream(input));
+        DecafParser parser = new DecafParser(scanner);
+        parser.setTrace(options.debug);
+        ASTFactory factory = new ASTFactory();
+        factory.setASTNodeClass(CommonASTWithLines.class);
+        parser.setASTFactory(factory);
+        parser.program();
+        stats.end(parsePhase);
+        if (parser.getError()) {
+            out.println("Parse error");
+            return 1;
+        }
+        if (options.target == Action.PARSE) {
+            return 0;
+        }
+        // =============== BUILD AST =================
+        AST ast = parser.getAST();
+        Phase irPhase = stats.begin("ir");
+        IRMaker irMaker = new IRMaker();
+        IR_Node root = irMaker.make(ast);
+        stats.end(irPhase);
+        if (!irMaker.isValid()) {
+            out.println("symantic error.");
+            return 1;
+        }
+        if (options.target == Action.INTER) {
+            return 0;
+        }
+        if (options.target != Action.ASSEMBLY && options.target != Action.DEFAULT) {
+            err.println("Unrecognized command");
+            return 0;
+        }
+        // =============== GENERATE ASSEMBLY =================
+        boolean optimize = false;
+        for (boolean optEnabled : options.opts) {
+            if (optEnabled) {
+                optimize = true;
+                break;
+            }
+        }
+        ControlflowContext context;
+        if (!optimize) {
+            // =============== DIRECT TO ASSEMBLY =================
+            Phase codegenPhase = stats.begin("codegen");
+            context = Assembler.generateProgram(root, scheduler);
+            stats.end(codegenPhase);
+            stats.count(codegenPhase, "instructions", context.ins.size());
+        } else {
+            context = optimize(root, scheduler);
+            if (options.opts[10]) {
+                peephole(context);
+            }
+            if (options.opts[11]) {
+                schedule(context);
+            }
+        }
+        Phase emitPhase = stats.begin("emit");
+        context.printInstructions(output);
+        output.flush();
+        stats.end(emitPhase);
+        return 0;
+    }
+
+    private void scan(InputStream input, PrintStream output) throws ANTLRException {
+        DecafScanner scanner = new DecafScanner(new DataInputStream(input));
+        scanner.setTrace(options.debug);
+        Token token;
+        boolean done = false;
+        while (!done) {
+            try {
+                for (token = scanner.nextToken();
+                     token.getType() != DecafParserTokenTypes.EOF;
+                     token = scanner.nextToken()) {
+                    String type = "";
+                    String text = token.getText();
+                    switch (token.getType()) {
+                    case DecafScannerTokenTypes.ID:
+                        type = " IDENTIFIER";
+                        break;
+                    case DecafScannerTokenTypes.STRING_LITERAL:
+                        type = " STRINGLITERAL";
+                        break;
+                    case DecafScannerTokenTypes.CHAR_LITERAL:
+                        type = " CHARLITERAL";
+                        break;
+                    case DecafScannerTokenTypes.TK_true:
+                    case DecafScannerTokenTypes.TK_false:
+                        type = " BOOLEANLITERAL";
+                        break;
+                    case DecafScannerTokenTypes.INT_LITERAL:
+                        type = " INTLITERAL";
+                        break;
+                    }
+                    output.println(token.getLine() + type + " " + text);
+                }
+                done = true;
+            } catch (Exception e) {
+                // print the error:
+                err.println(options.infile + " " + e);
+                scanner.consume();
+            }
+        }
+        output.flush();
+    }
+
+    /**
+     * Low-level IR, the optimizations selected in options.opts, and code generation.
+     */
+    private ControlflowContext optimize(IR_Node root, MethodScheduler scheduler) {
+        // =============== GENERATE LOW-LEVEL IR =================
+        out.println("Generating low-level IR.");
+        ControlflowContext context = new ControlflowContext();
+        List<IR_MethodDecl> callouts = new ArrayList<IR_MethodDecl>();
+        List<IR_FieldDecl> globals = new ArrayList<IR_FieldDecl>();
+        HashMap<String, START> flowNodes = new HashMap<String, START>();
+        Phase flowPhase = stats.begin("flow");
+        GenerateFlow.generateProgram(root, context, callouts, globals, flowNodes);
+        stats.end(flowPhase);
+        stats.countFlow(flowPhase, "after", flowNodes.values());
+        Phase prepassPhase = stats.begin("symbols");
+        context = Assembler.generateProgram(root, scheduler);
+        stats.end(prepassPhase);
+        Optimizer optimizer = new Optimizer(context, callouts, globals, flowNodes, scheduler);
+        //{"dce", "dlr", "cse", "regalloc", "bce", "sr", "licm", "unroll", "parallel", "vectorize", "peephole", "sched"}
+        if (options.opts[0]) {
+            // DCE
+            Phase dcePhase = beginPass("dce", flowNodes);
+            int livenessBefore = optimizer.getLivenessIterations();
+            boolean anythingRemoved = optimizer.applyDCE(new ArrayList<START>(flowNodes.values()));
+            stats.count(dcePhase, "livenessIterations", optimizer.getLivenessIterations() - livenessBefore);
+            endPass(dcePhase, flowNodes);
+            if (anythingRemoved) {
+                out.println("DCE has been executed, and something was removed.");
+            } else {
+                out.println("DCE has been executed, and nothing was removed.");
+            }
+        }
+        if (options.opts[1]) {
+            // DLR
+            //boolean anyDeadLoops =  optimizer.applyDLR(new ArrayList<START>(flowNodes.values()));
+        }
+        LoopParallelization parallel = null;
+        if (options.opts[8]) {
+            // Before the other loop passes, so the workers get them too
+            Phase parallelPhase = beginPass("parallel", flowNodes);
+            parallel = new LoopParallelization(optimizer, flowNodes, globals, options.threads);
+            parallel.run();
+            stats.count(parallelPhase, "loops", parallel.getLoopsParallelized());
+            stats.count(parallelPhase, "guards", parallel.getGuardsAdded());
+            endPass(parallelPhase, flowNodes);
+            out.println("Parallelization moved " + parallel.getLoopsParallelized() + " loops into workers for "
+                    + options.threads + " threads.");
+        }
+        LoopVectorization vectorize = null;
+        if (options.opts[9]) {
+            // Marked before unrolling and SR, which leave the marked loops alone
+            Phase markPhase = beginPass("vectorize-mark", flowNodes);
+            vectorize = new LoopVectorization(optimizer, new ArrayList<START>(flowNodes.values()), globals);
+            vectorize.markLoops();
+            stats.count(markPhase, "loopsMarked", vectorize.getLoopsMarked());
+            endPass(markPhase, flowNodes);
+        }
+        if (options.opts[7]) {
+            // Unrolling before CSE, so it can share what the copies of a body compute
+            Phase unrollPhase = beginPass("unroll", flowNodes);
+            LoopUnrolling unroll = new LoopUnrolling(optimizer, new ArrayList<START>(flowNodes.values()),
+                    globals, options.unroll);
+            unroll.run();
+            stats.count(unrollPhase, "loopsUnrolled", unroll.getLoopsUnrolled());
+            stats.count(unrollPhase, "copies", unroll.getCopiesAdded());
+            endPass(unrollPhase, flowNodes);
+            out.println("Unrolling made " + unroll.getCopiesAdded() + " copies of the bodies of "
+                    + unroll.getLoopsUnrolled() + " loops.");
+        }
+        if (options.opts[2]) {
+            //CSE
+            Phase csePhase = beginPass("cse", flowNodes);
+            int cseBefore = optimizer.getCSEIterations();
+            boolean anyChanges = optimizer.applyCSE(new ArrayList<START>(flowNodes.values()));
+            stats.count(csePhase, "worklistIterations", optimizer.getCSEIterations() - cseBefore);
+            endPass(csePhase, flowNodes);
+            if (options.opts[0]) {
+                if (anyChanges) {
+                    out.println("CSE has been executed, and something was eliminated. Now running DCE for cleanup.");
+                } else {
+                    out.println("CSE has been executed, and nothing was eliminated. Now running DCE for cleanup.");
+                }
+                Phase cleanupPhase = beginPass("dce-cleanup", flowNodes);
+                int livenessBefore = optimizer.getLivenessIterations();
+                optimizer.applyDCE(new ArrayList<START>(flowNodes.values()));
+                stats.count(cleanupPhase, "livenessIterations", optimizer.getLivenessIterations() - livenessBefore);
+                endPass(cleanupPhase, flowNodes);
+            } else {
+                if (anyChanges) {
+                    out.println("CSE has been executed, and something was eliminated. DCE disabled, so no cleanup.");
+                } else {
+                    out.println("CSE has been executed, and nothing was eliminated. DCE disabled, so no cleanup.");
+                }
+            }
+        }
+        if (options.opts[4]) {
+            // Bounds check elimination, after CSE so it sees the indices codegen will compute
+            Phase bcePhase = beginPass("bce", flowNodes);
+            BoundsCheckElimination bce = new BoundsCheckElimination(flowNodes.values(), globals);
+            bce.run();
+            stats.count(bcePhase, "checksRemoved", bce.getChecksRemoved());
+            stats.count(bcePhase, "checksGuarded", bce.getChecksGuarded());
+            stats.count(bcePhase, "rangeGuards", bce.getGuardsAdded());
+            endPass(bcePhase, flowNodes);
+            out.println("BCE removed " + bce.getChecksRemoved() + " bounds checks and guarded "
+                    + bce.getChecksGuarded() + " more.");
+        }
+        if (options.opts[5]) {
+            // Strength reduction, after BCE so it still sees the indices as written
+            Phase srPhase = beginPass("sr", flowNodes);
+            StrengthReduction sr = new StrengthReduction(optimizer, new ArrayList<START>(flowNodes.values()), globals);
+            sr.run();
+            stats.count(srPhase, "expressionsReduced", sr.getExpressionsReduced());
+            stats.count(srPhase, "variablesAdded", sr.getVariablesAdded());
+            stats.count(srPhase, "inductionVarsRemoved", sr.getInductionVarsRemoved());
+            endPass(srPhase, flowNodes);
+            out.println("SR replaced " + sr.getExpressionsReduced() + " expressions with "
+                    + sr.getVariablesAdded() + " new variables and removed "
+                    + sr.getInductionVarsRemoved() + " induction variables.");
+            if (options.opts[0]) {
+                // the multiplications SR took out of the loops may leave dead temps behind
+                Phase cleanupPhase = beginPass("dce-post-sr", flowNodes);
+                int livenessBefore = optimizer.getLivenessIterations();
+                optimizer.applyDCE(new ArrayList<START>(flowNodes.values()));
+                stats.count(cleanupPhase, "livenessIterations", optimizer.getLivenessIterations() - livenessBefore);
+                endPass(cleanupPhase, flowNodes);
+            }
+        }
+        if (options.opts[6]) {
+            // LICM last, so BCE and SR still see the loops as written and it can move what SR set up
+            Phase licmPhase = beginPass("licm", flowNodes);
+            LoopInvariantCodeMotion licm = new LoopInvariantCodeMotion(optimizer,
+                    new ArrayList<START>(flowNodes.values()), globals);
+            licm.run();
+            stats.count(licmPhase, "assignmentsHoisted", licm.getAssignmentsHoisted());
+            stats.count(licmPhase, "expressionsHoisted", licm.getExpressionsHoisted());
+            stats.count(licmPhase, "preheaders", licm.getPreheadersAdded());
+            endPass(licmPhase, flowNodes);
+            out.println("LICM moved " + licm.getAssignmentsHoisted() + " assignments and "
+                    + licm.getExpressionsHoisted() + " expressions into " + licm.getPreheadersAdded()
+                    + " loop preheaders.");
+        }
+        if (vectorize != null) {
+            // Last, so the plans match the code that is generated
+            Phase vectorizePhase = beginPass("vectorize", flowNodes);
+            vectorize.run();
+            stats.count(vectorizePhase, "loopsVectorized", vectorize.getLoopsVectorized());
+            endPass(vectorizePhase, flowNodes);
+            out.println("Vectorization gave " + vectorize.getLoopsVectorized() + " of "
+                    + vectorize.getLoopsMarked() + " marked loops a vector loop.");
+        }
+        if (!options.opts[3]) {
+            Phase codegenPhase = stats.begin("codegen");
+            context = Assembler.generateProgram(callouts, globals, flowNodes, scheduler);
+            if (parallel != null) {
+                context.addIns(parallel.generateRunners(context));
+            }
+            stats.end(codegenPhase);
+            stats.count(codegenPhase, "instructions", context.ins.size());
+            return context;
+        }
+        // Register allocation
+        out.println("Running Register Allocation");
+        Phase usesPhase = stats.begin("count-uses");
+        CountUses uses = new CountUses(globals, flowNodes);
+        uses.run();
+        stats.end(usesPhase);
+        HashMap<IR_FieldDecl, Double> fieldDeclToSpillCost = uses.getFieldDeclToSpillCost();
+        HashSet<GraphNode> assignments;
+        HashSet<GraphNode> spillNodes;
+        if (options.regalloc.equals("linear")) {
+            Phase livenessPhase = stats.begin("liveness");
+            int livenessBefore = optimizer.getLivenessIterations();
+            optimizer.generateLivenessMap(new ArrayList<START>(flowNodes.values()), true);
+            stats.end(livenessPhase);
+            stats.count(livenessPhase, "iterations", optimizer.getLivenessIterations() - livenessBefore);
+            Phase scanPhase = stats.begin("linear-scan");
+            LinearScan scan = new LinearScan(globals, flowNodes, fieldDeclToSpillCost);
+            assignments = new HashSet<GraphNode>(scan.run());
+            spillNodes = new HashSet<GraphNode>(scan.getSpilledNodes());
+            stats.end(scanPhase);
+            stats.count(scanPhase, "points", scan.getPointCount());
+            stats.count(scanPhase, "intervals", scan.getIntervalCount());
+            stats.count(scanPhase, "acrossCalls", scan.getAcrossCallCount());
+            stats.count(scanPhase, "spilled", spillNodes.size());
+            return generateAllocated(assignments, spillNodes, callouts, globals, flowNodes, parallel, scheduler);
+        }
+        Phase rdPhase = stats.begin("reaching-defs");
+        GenReachingDefs genRDs = new GenReachingDefs(globals, flowNodes, scheduler);
+        HashMap<START, HashSet<Web>> websForEachMethod = genRDs.run();
+        stats.end(rdPhase);
+        stats.count(rdPhase, "iterations", genRDs.getIterations());
+        if (stats.isEnabled()) {
+            int webs = 0;
+            for (HashSet<Web> methodWebs : websForEachMethod.values()) {
+                webs += methodWebs.size();
+            }
+            stats.count(rdPhase, "webs", webs);
+        }
+        Phase livenessPhase = stats.begin("liveness");
+        int livenessBefore = optimizer.getLivenessIterations();
+        optimizer.generateLivenessMap(new ArrayList<START>(flowNodes.values()), true);
+        stats.end(livenessPhase);
+        stats.count(livenessPhase, "iterations", optimizer.getLivenessIterations() - livenessBefore);
+        Phase igPhase = stats.begin("interference");
+        boolean irc = options.regalloc.equals("irc");
+        InterferenceGraph ig = new InterferenceGraph(globals, flowNodes, websForEachMethod);
+        ig.setTrackMoves(irc);
+        ig.buildGraph();
+        stats.end(igPhase);
+        stats.count(igPhase, "graphNodes", ig.getNodes().size());
+        stats.count(igPhase, "edges", ig.getEdgeCount());
+        stats.count(igPhase, "acrossCalls", ig.getAcrossCallCount());
+        Phase coloringPhase = stats.begin("coloring");
+        if (irc) {
+            IteratedCoalescing coalescing = new IteratedCoalescing(ig, fieldDeclToSpillCost);
+            assignments = new HashSet<GraphNode>(coalescing.run());
+            spillNodes = new HashSet<GraphNode>(coalescing.getSpilledNodes());
+            stats.count(coloringPhase, "moves", ig.getMoves().size());
+            stats.count(coloringPhase, "coalesced", coalescing.getCoalescedMoves());
+            stats.count(coloringPhase, "constrained", coalescing.getConstrainedMoves());
+            stats.count(coloringPhase, "frozen", coalescing.getFrozenMoves());
+            out.println("Coalesced " + coalescing.getCoalescedMoves() + " of " + ig.getMoves().size() + " copies.");
+        } else {
+            Coloring coloring = new Coloring(ig, fieldDeclToSpillCost);
+            assignments = new HashSet<GraphNode>(coloring.run());
+            spillNodes = new HashSet<GraphNode>(coloring.getSpilledNodes());
+        }
+        stats.end(coloringPhase);
+        stats.count(coloringPhase, "spilled", spillNodes.size());
+        return generateAllocated(assignments, spillNodes, callouts, globals, flowNodes, parallel, scheduler);
+    }
+
+    /**
+     * Splits the variables an allocator left in memory at the loops using them, then generates
+     * the program with the registers it assigned, and the runners of the parallelized loops.
+     */
+    private ControlflowContext generateAllocated(HashSet<GraphNode> assignments, HashSet<GraphNode> spillNodes,
+            List<IR_MethodDecl> callouts, List<IR_FieldDecl> globals, HashMap<String, START> flowNodes,
+            LoopParallelization parallel, MethodScheduler scheduler) {
+        Phase splitPhase = stats.begin("split");
+        LiveRangeSplitting splitting = new LiveRangeSplitting(globals, flowNodes);
+        splitting.run();
+        stats.end(splitPhase);
+        stats.count(splitPhase, "loops", splitting.getLoopsSplit());
+        stats.count(splitPhase, "variables", splitting.getVariablesSplit());
+        out.println("Split " + splitting.getVariablesSplit() + " variables at " + splitting.getLoopsSplit()
+                + " loops.");
+        Phase codegenPhase = stats.begin("codegen");
+        ControlflowContext context = AssignRegisters.generateProgram(assignments, spillNodes, callouts, globals,
+                flowNodes, scheduler);
+        if (parallel != null) {
+            context.addIns(parallel.generateRunners(context));
+        }
+        stats.end(codegenPhase);
+        stats.count(codegenPhase, "instructions", context.ins.size());
+        return context;
+    }
+
+    /**
+     * Runs the peephole rules over the generated instructions, instead of the hack printing does.
+     */
+    private void peephole(ControlflowContext context) {
+        Phase peepholePhase = stats.begin("peephole");
+        stats.count(peepholePhase, "before", context.ins.size());
+        Peephole peephole = new Peephole();
+        int rewrites = peephole.run(context.ins);
+        context.setPeepholeApplied();
+        stats.end(peepholePhase);
+        stats.count(peepholePhase, "after", context.ins.size());
+        stats.count(peepholePhase, "passes", peephole.getPasses());
+        StringBuilder report = new StringBuilder();
+        for (Map.Entry<String, Integer> hit : peephole.getHits().entrySet()) {
+            stats.count(peepholePhase, hit.getKey(), hit.getValue());
+            if (hit.getValue() > 0) {
+                report.append(report.length() == 0 ? ": " : ", ");
+                report.append(hit.getKey() + " " + hit.getValue());
+            }
+        }
+        out.println("Peephole made " + rewrites + " rewrites in " + peephole.getPasses() + " passes" + report + ".");
+    }
+
+    /**
+     * Reorders the instructions within each basic block. Runs last, after whatever
+     * cleanup the instructions get, since that only matches them in generated order.
+     */
+    private void schedule(ControlflowContext context) {
+        context.cleanUp();
+        Phase schedPhase = stats.begin("sched");
+        InstructionScheduler sched = new InstructionScheduler();
+        sched.run(context.ins);
+        stats.end(schedPhase);
+        stats.count(schedPhase, "blocks", sched.getBlocks());
+        stats.count(schedPhase, "moved", sched.getMoved());
+        stats.count(schedPhase, "cyclesBefore", sched.getCyclesBefore());
+        stats.count(schedPhase, "cyclesAfter", sched.getCyclesAfter());
+        out.println("Scheduling moved " + sched.getMoved() + " instructions in " + sched.getBlocks()
+                + " blocks, estimated cycles " + sched.getCyclesBefore() + " -> " + sched.getCyclesAfter() + ".");
+    }
+
+    /**
+     * Starts timing an optimization pass and records the IR size it starts from.
+     */
+    private Phase beginPass(String name, HashMap<String, START> flowNodes) {
+        Phase phase = stats.begin(name);
+        stats.countFlow(phase, "before", flowNodes.values());
+        stats.resetClock(phase); // don't charge the counting walk to the pass
+        return phase;
+    }
+
+    /**
+     * Stops timing an optimization pass and records the IR size it left behind.
+     */
+    private void endPass(Phase phase, HashMap<String, START> flowNodes) {
+        stats.end(phase);
+        stats.countFlow(phase, "after", flowNodes.values());
+    }
+}
@@ -0,0 +1,349 @@
+package edu.mit.compilers;
+
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketException;
+import java.net.URISyntaxException;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.security.SecureRandom;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import edu.mit.compilers.tools.CLI;
+
+/**
+ * Long-lived compiler for --server mode, so a batch of compiles pays for JVM startup, class loading
+ * and JIT warmup once instead of once per file.
+ *
+ * The server listens on a loopback TCP port and writes "<port> <token>" to a file only its owner
+ * can read ($DECAF_SERVER_FILE, or ~/.decaf-server). client.sh, which run.sh uses whenever that file
+ * exists, reads it, sends its working directory and command line, and replays what comes back, so
+ * a compile through the server behaves like running the jar: same output, same files, same exit
+ * status. Every request gets its own CompilationSession on a worker thread.
+ *
+ * Protocol, one line per item. The client sends
+ *     decaf-compile 1 <token>
+ *     cwd <directory>
+ *     arg <argument>        (once per argument)
+ *     end
+ * or "stop" instead of cwd/arg/end to shut the server down. The server answers with any number of
+ *     out <line>  /  err <line>      a line of stdout / stderr
+ *     out+ <text> /  err+ <text>     trailing text without a newline
+ * followed by "exit <status>", or just "fallback" if the client should run the jar itself: reading
+ * from stdin, --target=about (which exits the JVM), or the jar having been rebuilt since the server
+ * started.
+ */
+public class CompileServer {
+    static final String PROTOCOL = "decaf-compile 1";
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    private final ServerSocket serverSocket;
+    private final File serverFile;
+    private final String token;
+    private final ExecutorService workers;
+    private final File jar;
+    private final long jarModified;
+    private final RoutingStream systemOut = new RoutingStream(System.out);
+    private final RoutingStream systemErr = new RoutingStream(System.err);
+    private volatile boolean running = true;
+
+    /**
+     * Sends System.out and System.err of a request thread to that request's client; the passes
+     * that print directly (e.g. IRMaker's semantic errors) don't know about the session.
+     * Threads that aren't serving a request print to the server's own console.
+     */
+    private static class RoutingStream extends OutputStream {
+        private final OutputStream fallback;
+        private final ThreadLocal<OutputStream> target = new ThreadLocal<OutputStream>();
+
+        RoutingStream(OutputStream fallback) {
+            this.fallback = fallback;
+        }
+
+        private OutputStream current() {
+            OutputStream out = target.get();
+            return out == null ? fallback : out;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            current().write(b);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            current().write(b, off, len);
+        }
+
+        @Override
+        public void flush() throws IOException {
+            current().flush();
+        }
+    }
+
+    /**
+     * One of the client's two streams. Bytes are passed through as they are, a line at a time,
+     * behind the tag that tells the client where to print them.
+     */
+    private static class ClientStream extends OutputStream {
+        private final OutputStream socketOut;
+        private final byte[] tag;
+        private final byte[] partialTag;
+        private final ByteArrayOutputStream line = new ByteArrayOutputStream();
+
+        ClientStream(OutputStream socketOut, String tag) {
+            this.socketOut = socketOut;
+            this.tag = (tag + " ").getBytes(UTF8);
+            this.partialTag = (tag + "+ ").getBytes(UTF8);
+        }
+
+        @Override
+        public synchronized void write(int b) throws IOException {
+            if (b == '\n') {
+                send(tag);
+            } else {
+                line.write(b);
+            }
+        }
+
+        /**
+         * Sends what is left of the last line without adding a newline.
+         */
+        @Override
+        public synchronized void close() throws IOException {
+            if (line.size() > 0) {
+                send(partialTag);
+            }
+        }
+
+        private void send(byte[] lineTag) throws IOException {
+            synchronized (socketOut) {
+                socketOut.write(lineTag);
+                line.writeTo(socketOut);
+                socketOut.write('\n');
+            }
+            line.reset();
+        }
+    }
+
+    /**
+     * @param port : port to listen on, 0 for any free one.
+     * @param serverFile : where to publish the port and token for clients.
+     */
+    public CompileServer(int port, File serverFile) throws IOException {
+        this.serverSocket = new ServerSocket(port, 50, InetAddress.getLoopbackAddress());
+        this.serverFile = serverFile;
+        this.token = newToken();
+        this.workers = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors());
+        this.jar = jarFile();
+        this.jarModified = jar == null ? 0 : jar.lastModified();
+    }
+
+    /**
+     * Usage: Compiler.jar --server[=<port>]
+     */
+    public static void main(String[] args) throws IOException {
+        int port = 0;
+        for (String arg : args) {
+            if (arg.startsWith("--server=")) {
+                port = Integer.parseInt(arg.substring(9));
+            } else if (!arg.equals("--server")) {
+                CLI.printUsage("Unexpected argument for --server: " + arg);
+                throw new IllegalArgumentException(arg);
+            }
+        }
+        CompileServer server = new CompileServer(port, defaultServerFile());
+        server.serve();
+    }
+
+    public static File defaultServerFile() {
+        String fileName = System.getenv("DECAF_SERVER_FILE");
+        if (fileName == null || fileName.isEmpty()) {
+            return new File(System.getProperty("user.home"), ".decaf-server");
+        }
+        return new File(fileName);
+    }
+
+    /**
+     * Publishes the server file and accepts requests until a client sends "stop".
+     */
+    public void serve() throws IOException {
+        System.setOut(new PrintStream(systemOut, true));
+        System.setErr(new PrintStream(systemErr, true));
+        publish();
+        System.err.println("Compile server listening on port " + serverSocket.getLocalPort());
+        try {
+            while (running) {
+                final Socket client;
+                try {
+                    client = serverSocket.accept();
+                } catch (SocketException e) {
+                    break; // closed by stop()
+                }
+                workers.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        handle(client);
+                    }
+                });
+            }
+        } finally {
+            stop();
+            workers.shutdown();
+        }
+    }
+
+    private synchronized void stop() {
+        running = false;
+        serverFile.delete();
+        try {
+            serverSocket.close();
+        } catch (IOException e) {
+            // already closed
+        }
+    }
+
+    private void publish() throws IOException {
+        serverFile.delete();
+        Files.createFile(serverFile.toPath(),
+                PosixFilePermissions.asFileAttribute(PosixFilePermissions.fromString("rw-------")));
+        PrintStream ps = new PrintStream(serverFile);
+        ps.println(serverSocket.getLocalPort() + " " + token);
+        ps.close();
+        serverFile.deleteOnExit();
+    }
+
+    private void handle(Socket client) {
+        try {
+            BufferedReader in = new BufferedReader(new InputStreamReader(client.getInputStream(), UTF8));
+            OutputStream socketOut = new BufferedOutputStream(client.getOutputStream());
+            String header = in.readLine();
+            if (header == null || !header.equals(PROTOCOL + " " + token)) {
+                return;
+            }
+            String line = in.readLine();
+            if ("stop".equals(line)) {
+                stop();
+                socketOut.write("exit 0\n".getBytes(UTF8));
+                socketOut.flush();
+                return;
+            }
+            File cwd = null;
+            List<String> args = new ArrayList<String>();
+            for (; line != null && !line.equals("end"); line = in.readLine()) {
+                if (line.startsWith("cwd ")) {
+                    cwd = new File(line.substring(4));
+                } else if (line.startsWith("arg ")) {
+                    args.add(line.substring(4));
+                }
+            }
+            String[] argArray = args.toArray(new String[args.size()]);
+            if (line == null || cwd == null || needsLocalJVM(argArray) || jarChanged()) {
+                socketOut.write("fallback\n".getBytes(UTF8));
+                socketOut.flush();
+                return;
+            }
+            ClientStream out = new ClientStream(socketOut, "out");
+            ClientStream err = new ClientStream(socketOut, "err");
+            int status = compile(argArray, cwd, out, err);
+            out.close();
+            err.close();
+            socketOut.write(("exit " + status + "\n").getBytes(UTF8));
+            socketOut.flush();
+        } catch (IOException e) {
+            System.err.println("Compile server: " + e);
+        } finally {
+            try {
+                client.close();
+            } catch (IOException e) {
+                // nothing left to tell the client
+            }
+        }
+    }
+
+    /**
+     * Same as Main.main, with the console going to the client.
+     */
+    private int compile(String[] args, File cwd, OutputStream out, OutputStream err) {
+        PrintStream outStream = new PrintStream(out, true);
+        PrintStream errStream = new PrintStream(err, true);
+        systemOut.target.set(outStream);
+        systemErr.target.set(errStream);
+        CLI options = null;
+        try {
+            options = CLI.parse(args, CompilationSession.OPTIMIZATIONS);
+            CompilationSession session = new CompilationSession(options);
+            session.setConsole(outStream, errStream);
+            session.setWorkingDirectory(cwd);
+            return session.run();
+        } catch (Exception e) {
+            errStream.println((options == null ? null : options.infile) + " " + e);
+            e.printStackTrace(errStream);
+            return 0;
+        } finally {
+            outStream.flush();
+            errStream.flush();
+            systemOut.target.remove();
+            systemErr.target.remove();
+        }
+    }
+
+    /**
+     * Requests the server can't serve the way the jar would: input from stdin, and
+     * --target=about, which calls System.exit.
+     */
+    private static boolean needsLocalJVM(String[] args) {
+        boolean hasInput = false;
+        for (int i = 0; i < args.length; i++) {
+            String arg = args[i];
+            if (arg.equalsIgnoreCase("--target=about")
+                    || (arg.equals("-t") && i + 1 < args.length && args[i + 1].equalsIgnoreCase("about"))) {
+                return true;
+            }
+            if (arg.equals("-o") || arg.equals("-t") || arg.equals("-O") || arg.equals("-j")) {
+                i++;
+            } else if (!arg.startsWith("-")) {
+                hasInput = true;
+            }
+        }
+        return !hasInput;
+    }
+
+    private boolean jarChanged() {
+        return jar != null && jar.lastModified() != jarModified;
+    }
+
+    private static File jarFile() {
+        try {
+            File file = new File(CompileServer.class.getProtectionDomain().getCodeSource().getLocation().toURI());
+            return file.isFile() ? file : null;
+        } catch (URISyntaxException e) {
+            return null;
+        } catch (SecurityException e) {
+            return null;
+        }
+    }
+
+    private static String newToken() {
+        byte[] bytes = new byte[16];
+        new SecureRandom().nextBytes(bytes);
+        StringBuilder hex = new StringBuilder();
+        for (byte b : bytes) {
+            hex.append(String.format("%02x", b));
+        }
+        return hex.toString();
+    }
+}
@@ -1,45 +1,17 @@
 package edu.mit.compilers;
 
-import java.io.DataInputStream;
-import java.io.FileOutputStream;
-import java.io.InputStream;
-import java.io.PrintStream;
-import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.HashMap;
-import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 
-import antlr.ASTFactory;
-import antlr.Token;
 import antlr.collections.AST;
-import edu.mit.compilers.ast.CommonASTWithLines;
-import edu.mit.compilers.controlflow.Assembler;
 import edu.mit.compilers.controlflow.Branch;
 import edu.mit.compilers.controlflow.Codeblock;
-import edu.mit.compilers.controlflow.ControlflowContext;
 import edu.mit.compilers.controlflow.FlowNode;
-import edu.mit.compilers.controlflow.GenerateFlow;
-import edu.mit.compilers.controlflow.Optimizer;
 import edu.mit.compilers.controlflow.START;
-import edu.mit.compilers.grammar.DecafParser;
-import edu.mit.compilers.grammar.DecafParserTokenTypes;
-import edu.mit.compilers.grammar.DecafScanner;
-import edu.mit.compilers.grammar.DecafScannerTokenTypes;
-import edu.mit.compilers.ir.IRMaker;
 import edu.mit.compilers.ir.IR_FieldDecl;
-import edu.mit.compilers.ir.IR_MethodDecl;
-import edu.mit.compilers.ir.IR_Node;
-import edu.mit.compilers.regalloc.AssignRegisters;
-import edu.mit.compilers.regalloc.Coloring;
-import edu.mit.compilers.regalloc.CountUses;
-import edu.mit.compilers.regalloc.GenReachingDefs;
-import edu.mit.compilers.regalloc.GraphNode;
-import edu.mit.compilers.regalloc.InterferenceGraph;
-import edu.mit.compilers.regalloc.Web;
 import edu.mit.compilers.tools.CLI;
-import edu.mit.compilers.tools.CLI.Action;
 
 class Main {
 	
@@ -130,213 +102,21 @@ class Main {
   }
   
   public static void main(String[] args) {
+    CLI options = null;
     try {
-      String[] optimizations = {"dce", "dlr", "cse", "regalloc"};
-      CLI.parse(args, optimizations);
-      InputStream inputStream = args.length == 0 ?
-          System.in : new java.io.FileInputStream(CLI.infile);
-      if (CLI.target == Action.SCAN) {
-        PrintStream outputStream = CLI.outfile == null ? System.out : new java.io.PrintStream(new java.io.FileOutputStream(CLI.outfile));
-        DecafScanner scanner =
-            new DecafScanner(new DataInputStream(inputStream));
-        scanner.setTrace(CLI.debug);
-        Token token;
-        boolean done = false;
-        while (!done) {
-          try {
-            for (token = scanner.nextToken();
-                 token.getType() != DecafParserTokenTypes.EOF;
-                 token = scanner.nextToken()) {
-              String type = "";
-              String text = token.getText();
-              switch (token.getType()) {
-               case DecafScannerTokenTypes.ID:
-	             type = " IDENTIFIER";
-	             break;
-               case DecafScannerTokenTypes.STRING_LITERAL:
-            	 type = " STRINGLITERAL";
-                 break;
-               case DecafScannerTokenTypes.CHAR_LITERAL:
-            	 type = " CHARLITERAL";
-            	 break;
-               case DecafScannerTokenTypes.TK_true:
-               case DecafScannerTokenTypes.TK_false:
-            	 type = " BOOLEANLITERAL";
-            	 break;
-               case DecafScannerTokenTypes.INT_LITERAL:
-            	 type = " INTLITERAL";
-            	 break;
-              }
-              outputStream.println(token.getLine() + type + " " + text);
-            }
-            done = true;
-          } catch(Exception e) {
-            // print the error:
-            System.err.println(CLI.infile + " " + e);
-            scanner.consume();
-          }
-        }
-        outputStream.close();
-      } else {
-    	  // =============== PARSE =================
-    	  DecafScanner scanner = new DecafScanner(new DataInputStream(inputStream));
-    	  DecafParser parser = new DecafParser(scanner);
-    	  parser.setTrace(CLI.debug);
-        
-    	  ASTFactory factory = new ASTFactory();                         
-    	  factory.setASTNodeClass(CommonASTWithLines.class);
-    	  parser.setASTFactory(factory);
-        
-    	  parser.program();
-    	  if (parser.getError()) {
-    		  System.out.println("Parse error");
-    		  System.exit(1);
-    	  }
-    	  if (CLI.target == Action.PARSE) {
-    		  // Stop.
-    	  } 
-    	  else {
-    		  // =============== BUILD AST =================
-	    	  AST ast = parser.getAST();
-	    	  // printAst(ast,0);
-	    	  IRMaker ir_maker = new IRMaker();
-	    	  IR_Node root = ir_maker.make(ast);
-	    	  if ( !ir_maker.isValid() ) {
-	    		  System.out.println("symantic error.");
-	    	      System.exit(1);
-	    	  }
-	    	  if (CLI.target == Action.INTER) {
-	    		  // Stop.
-	    	  }
-	    	  else {
-	    		  if (CLI.target == Action.ASSEMBLY || CLI.target == Action.DEFAULT) {
-		    		  // =============== GENERATE ASSEMBLY =================
-			    	  String outFile = "a.s";
-			    	  if (CLI.outfile != null) {
-			    		  outFile = CLI.outfile;
-			    	  }
-			    	  boolean optimize = false;
-			    	  for(boolean optEnabled : CLI.opts){
-			    		  if(optEnabled){
-			    			  optimize = true;
-			    			  break;
-			    		  }
-			    	  }
-			    	  if (!optimize) {
-			    		  // =============== DIRECT TO ASSEMBLY =================
-			    		  //CodegenContext context = new CodegenContext();
-			    		  //Codegen.generateProgram(root, context);
-			    	      ControlflowContext context = Assembler.generateProgram(root);
-				    	  PrintStream ps = new PrintStream(new FileOutputStream(outFile));
-				    	  context.printInstructions(ps);
-				    	  ps.close();
-			    	  } else {
-			    		  // Optimizations turned on.
-			    		  // =============== GENERATE LOW-LEVEL IR =================
-			    		  System.out.println("Generating low-level IR.");
-			    		  ControlflowContext context = new ControlflowContext();
-			    		  List<IR_MethodDecl> callouts = new ArrayList<IR_MethodDecl>(); // type IR_MethodDecl
-			    		  List<IR_FieldDecl> globals = new ArrayList<IR_FieldDecl>();  // type IR_FieldDecl
-			    		  HashMap<String, START> flowNodes = new HashMap<String, START>();
-			    		  GenerateFlow.generateProgram(root, context, callouts, globals, flowNodes);
-			    		  context = Assembler.generateProgram(root);
-			    		  // Print things for debugging purposes.
-			    		  /*
-			    		  System.out.println("\nCallouts:");
-						  for (IR_Node callout : callouts) {
-							  System.out.println(((IR_MethodDecl) callout).getName());
-						  }
-						  System.out.println("\nGlobal vars:");
-						  for (IR_Node global : globals) {
-							  System.out.println(((IR_FieldDecl) global).getName());
-						  }
-						  System.out.println("\nMethods:");
-						  for (String s : flowNodes.keySet()) {
-							  System.out.println(s);
-						  }
-						  System.out.println("");
-						  // Traverse all FlowNodes and print them.
-						  printIR(flowNodes);
-						  */
-						  Optimizer optimizer = new Optimizer(context, callouts, globals, flowNodes);
-						  //{"dce", "dlr", "cse", "regalloc"}
-				    	  if (CLI.opts[0]) {
-				    		  // DCE
-				    		  boolean anythingRemoved = optimizer.applyDCE(new ArrayList<START>(flowNodes.values()));
-				    		  if(anythingRemoved){
-				    			  System.out.println("DCE has been executed, and something was removed.");
-				    		  }
-				    		  else{
-				    			  System.out.println("DCE has been executed, and nothing was removed.");
-				    		  }
-				    	  } 
-				    	  if (CLI.opts[1]){
-				    		  // DLR
-							  //boolean anyDeadLoops =  optimizer.applyDLR(new ArrayList<START>(flowNodes.values()));
-				    	  }
-				    	  if(CLI.opts[2]){
-				    		  //CSE
-				    		  boolean anyChanges = optimizer.applyCSE(new ArrayList<START>(flowNodes.values()));
-				    		  if(CLI.opts[0]){
-				    			  if(anyChanges){
-				    				  System.out.println("CSE has been executed, and something was eliminated. Now running DCE for cleanup.");
-				    			  }
-				    			  else{
-				    				  System.out.println("CSE has been executed, and nothing was eliminated. Now running DCE for cleanup.");
-				    			  }
-				    			  optimizer.applyDCE(new ArrayList<START>(flowNodes.values()));
-				    		  }
-				    		  else{
-				    			  if(anyChanges){
-				    				  System.out.println("CSE has been executed, and something was eliminated. DCE disabled, so no cleanup.");
-				    			  }
-				    			  else{
-				    				  System.out.println("CSE has been executed, and nothing was eliminated. DCE disabled, so no cleanup.");
-				    			  }
-				    		  }
-				    	  }
-				    	  if (CLI.opts[3]) {
-							  // Register allocation
-				    		  System.out.println("Running Register Allocation");
-				    		  //System.out.println("\nCounting uses\n===================================");
-				    		  CountUses uses = new CountUses(globals, flowNodes);
-				    		  uses.run();
-				    		  HashMap<IR_FieldDecl, Double> fieldDeclToSpillCost = uses.getFieldDeclToSpillCost();
-				    		  //System.out.println("Spill cost: " + uses.getFieldDeclToSpillCost());
-				    		  //System.out.println("\nGenerating Reaching Definitions\n===================================");
-				    		  GenReachingDefs genRDs = new GenReachingDefs(globals, flowNodes);
-				    		  HashMap<START, HashSet<Web>> websForEachMethod = genRDs.run();
-				    		  //System.out.println("\nBuilding Interference Graph\n===================================");
-							  InterferenceGraph ig = new InterferenceGraph(globals, flowNodes, websForEachMethod);
-							  optimizer.generateLivenessMap(new ArrayList<START>(flowNodes.values()), true);
-							  ig.buildGraph();
-							  //System.out.println("\nColoring nodes\n===================================");
-							  Coloring coloring = new Coloring(ig, 4, fieldDeclToSpillCost);
-							  HashSet<GraphNode> assignments = new HashSet<GraphNode>(coloring.run());
-							  HashSet<GraphNode> spillNodes = new HashSet<GraphNode>(coloring.getSpilledNodes());
-							  //System.out.println("\n====================\nNumber of spilled nodes: " + spillNodes.size());
-							  //System.out.println("\nGenerating Assembly for program\n===================================");
-							  context = AssignRegisters.generateProgram(assignments, spillNodes, callouts, globals, flowNodes);
-						  } else {
-							  context = Assembler.generateProgram(callouts, globals, flowNodes);
-						  }
-				    	  PrintStream ps = new PrintStream(new FileOutputStream(outFile));
-				    	  context.printInstructions(ps);
-                          //ps.close();
-			    	  }
-			    	  
-		    	  }
-	    		  else {
-	    			  System.err.println("Unrecognized command");
-	    		  }
-	    	  }
-    	  }
+      if (args.length > 0 && args[0].startsWith("--server")) {
+        CompileServer.main(args);
+        return;
+      }
+      options = CLI.parse(args, CompilationSession.OPTIMIZATIONS);
+      int status = new CompilationSession(options).run();
+      if (status != 0) {
+        System.exit(status);
       }
     } catch(Exception e) {
       // print the error:
-      System.err.println(CLI.infile+" "+e);
+      System.err.println((options == null ? null : options.infile)+" "+e);
       e.printStackTrace();
-    } finally {
     }
   }
 }
@@ -66,9 +66,9 @@ public abstract class CFGNode {
 			LocLabel tlabel = new LocLabel(t.getLabel());
 			LocLabel flabel = new LocLabel(f.getLabel());
 			
-			ins.add(new Instruction("cmpq", zero, r10));
-			ins.add(new Instruction("je", flabel));
-			ins.add(new Instruction("jmp", tlabel));
+			ins.add(new Instruction(Opcode.CMPQ, zero, r10));
+			ins.add(new Instruction(Opcode.JE, flabel));
+			ins.add(new Instruction(Opcode.JMP, tlabel));
 			if(!f.generated){
 				ins.addAll(f.codegen(context));
 			}
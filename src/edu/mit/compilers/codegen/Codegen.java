@@ -51,16 +51,16 @@ public class Codegen {
 		context.incScope();
 
 		Instruction tmpIns;
-		context.addIns(new Instruction(".type",new LocLabel(name),new LocLabel("@function")));
-		context.addIns(new Instruction(".text"));
-		context.addIns(new Instruction(".global", new LocLabel(name)));
+		context.addIns(new Instruction(Opcode.TYPE,new LocLabel(name),new LocLabel("@function")));
+		context.addIns(new Instruction(Opcode.TEXT));
+		context.addIns(new Instruction(Opcode.GLOBAL, new LocLabel(name)));
 		tmpIns = Instruction.labelInstruction(name);
 		context.addIns(tmpIns);
 		
 		LocReg rbp = new LocReg(Regs.RBP);
 		LocReg rsp = new LocReg(Regs.RSP);
-		context.addIns(new Instruction("pushq", rbp));		
-		context.addIns(new Instruction("movq", rsp, rbp ));
+		context.addIns(new Instruction(Opcode.PUSHQ, rbp));		
+		context.addIns(new Instruction(Opcode.MOVQ, rsp, rbp ));
 		
 		long localArgSize = 0;
 		//instructions for potentially saving arguments.
@@ -89,7 +89,7 @@ public class Codegen {
 
 		//instructions for entering a function.
 		LocLiteral loc= new LocLiteral(context.maxLocalSize + localArgSize );
-		context.addIns(new Instruction("subq", loc, rsp));
+		context.addIns(new Instruction(Opcode.SUBQ, loc, rsp));
 
 		//write instructions for function body.
 		context.addIns(blockIns);
@@ -108,12 +108,12 @@ public class Codegen {
 		}
 		if(needReturn){
 			if(decl.getRetType()==Type.VOID){
-				context.addIns(new Instruction("leave"));
-				context.addIns(new Instruction("ret"));
+				context.addIns(new Instruction(Opcode.LEAVE));
+				context.addIns(new Instruction(Opcode.RET));
 			}else{
-				context.addIns(new Instruction("movq", 
+				context.addIns(new Instruction(Opcode.MOVQ, 
 						new LocLiteral(CodegenConst.ERR_FUN_RET), new LocReg(Regs.RDI)));
-				context.addIns(new Instruction("call", new LocLabel("exit")));
+				context.addIns(new Instruction(Opcode.CALL, new LocLabel("exit")));
 			}
 		}
 	}
@@ -148,16 +148,16 @@ public class Codegen {
 			String ll = context.genLabel();
 			LocLabel jmpLabel = new LocLabel(ll);
 			LocLiteral zero = new LocLiteral(0);
-			ins.add(new Instruction("movq", zero,rax));
+			ins.add(new Instruction(Opcode.MOVQ, zero,rax));
 			ins.add(Instruction.labelInstruction(ll));
-			ins.add(new Instruction("movq", zero, new LocArray(loc, rax, CodegenConst.INT_SIZE)));
-			ins.add(new Instruction("addq", new LocLiteral(1), rax));
-			ins.add(new Instruction("cmpq", lenLoc, rax));
-			ins.add(new Instruction("jl", jmpLabel));
+			ins.add(new Instruction(Opcode.MOVQ, zero, new LocArray(loc, rax, CodegenConst.INT_SIZE)));
+			ins.add(new Instruction(Opcode.ADDQ, new LocLiteral(1), rax));
+			ins.add(new Instruction(Opcode.CMPQ, lenLoc, rax));
+			ins.add(new Instruction(Opcode.JL, jmpLabel));
 			
 		}
 		else{
-			ins.add(new Instruction("movq", new LocLiteral(0), loc));
+			ins.add(new Instruction(Opcode.MOVQ, new LocLiteral(0), loc));
 		}
 		return ins;
 	}
@@ -206,7 +206,7 @@ public class Codegen {
 			LocReg r10 = new LocReg(Regs.R10);
 			ins = generateExpr(negation.getExpr(), context);
 			ins.addAll(context.pop(r10)); //Get whatever that expr was off stack
-			ins.add(new Instruction("negq", r10)); //negate it
+			ins.add(new Instruction(Opcode.NEGQ, r10)); //negate it
 			ins.addAll(context.push(r10)); //push it back to stack
 			return ins;
 		}else if (expr instanceof IR_Ternary){
@@ -247,7 +247,7 @@ public class Codegen {
 					int_literal.getValue()<Integer.MIN_VALUE ){
 				LocReg rax = new LocReg(Regs.RAX);
 				ins = new ArrayList<Instruction>(2);
-				ins.add(new Instruction("movabsq",new LocLiteral(int_literal.getValue()),rax));
+				ins.add(new Instruction(Opcode.MOVABSQ,new LocLiteral(int_literal.getValue()),rax));
 				ins.addAll(context.push(rax));
 				
 			}else{
@@ -275,10 +275,10 @@ public class Codegen {
 		
 		ins.addAll(generateExpr(ternary.getCondition(), context)); //Get result of conditional onto the stack by resolving it. 
 		ins.addAll(context.pop(r10)); //pop result into r10.
-		ins.add(new Instruction("cmp", new LocLiteral(1L), r10)); //Compare r10 against truth
-		ins.add(new Instruction("jne", new LocLabel(labelForFalse))); //If result isn't equal, r10 is 0, meaning we take the false branch.
+		ins.add(new Instruction(Opcode.CMPQ, new LocLiteral(1L), r10)); //Compare r10 against truth
+		ins.add(new Instruction(Opcode.JNE, new LocLabel(labelForFalse))); //If result isn't equal, r10 is 0, meaning we take the false branch.
 		ins.addAll(trueInstructs); //If we don't jump, resolve the true branch 
-		ins.add(new Instruction("jmp", new LocLabel(labelForDone))); //jump to being done
+		ins.add(new Instruction(Opcode.JMP, new LocLabel(labelForDone))); //jump to being done
 		ins.add(Instruction.labelInstruction(labelForFalse)); //If we jump, we jump here.
 		ins.addAll(falseInstructs); //Resolve the false branch. 
 		ins.add(Instruction.labelInstruction(labelForDone)); //This is where we'd jump to if we resolved the true version, which skips over the whole false branch. 
@@ -304,9 +304,9 @@ public class Codegen {
 				
 				if(index_int.getValue() >= len){
 					//statically throw error
-					ins.add(new Instruction("movq", 
+					ins.add(new Instruction(Opcode.MOVQ, 
 							new LocLiteral(CodegenConst.ERR_ARRAY_BOUND), new LocReg(Regs.RDI)));
-					ins.add(new Instruction("call", new LocLabel("exit")));
+					ins.add(new Instruction(Opcode.CALL, new LocLabel("exit")));
 				}
 				
 			} else {
@@ -315,10 +315,10 @@ public class Codegen {
 				//must not use r11 or r10 here since in assign, they may be used
 				LocReg rax = new LocReg(Regs.RAX);
 				// saves offset at R11
-				ins.add(new Instruction("popq", rax));
+				ins.add(new Instruction(Opcode.POPQ, rax));
 				loc_array = new LocArray(d.getLocation(), rax, CodegenConst.INT_SIZE);
-				ins.add(new Instruction("cmpq", new LocLiteral(len), rax));
-				ins.add(new Instruction("jge", new LocLabel(context.getArrayBoundLabel())));
+				ins.add(new Instruction(Opcode.CMPQ, new LocLiteral(len), rax));
+				ins.add(new Instruction(Opcode.JGE, new LocLabel(context.getArrayBoundLabel())));
 			}
 			return loc_array;
 		default:
@@ -346,16 +346,16 @@ public class Codegen {
 		ins.addAll(context.pop(r10));
 		
 		if(!(op == Ops.DIVIDE || op==Ops.MOD)){
-			String cmd = "";
+			Opcode cmd = null;
 			switch (op){ //PLUS, MINUS, TIMES
 			case PLUS:
-				cmd = "addq";
+				cmd = Opcode.ADDQ;
 				break;
 			case MINUS:
-				cmd = "subq";
+				cmd = Opcode.SUBQ;
 				break;
 			case TIMES:
-				cmd = "imulq";
+				cmd = Opcode.IMULQ;
 				break;
 			default:
 				break;
@@ -366,11 +366,11 @@ public class Codegen {
 			LocReg rdx = new LocReg(Regs.RDX);
 			LocReg rax = new LocReg(Regs.RAX);
 			ins.addAll(context.push(rdx));
-			ins.add(new Instruction("movq", r10, rax));
-			ins.add(new Instruction("cqto"));
-			ins.add(new Instruction("idivq", r11));//Divide rdx:rax by r11 contents - i.e divide lhs by rhs.
+			ins.add(new Instruction(Opcode.MOVQ, r10, rax));
+			ins.add(new Instruction(Opcode.CQTO));
+			ins.add(new Instruction(Opcode.IDIVQ, r11));//Divide rdx:rax by r11 contents - i.e divide lhs by rhs.
 			if(op==Ops.MOD){
-				ins.add(new Instruction("movq", rdx, rax));
+				ins.add(new Instruction(Opcode.MOVQ, rdx, rax));
 			}
 			ins.addAll(context.pop(rdx));
 			ins.addAll(context.push(rax));			
@@ -389,34 +389,34 @@ public class Codegen {
 		ins.addAll(generateExpr(right, context));
 		ins.addAll(context.pop(r11));
 		ins.addAll(context.pop(r10));
-		String cmd = "";
+		Opcode cmd = null;
 		switch(op){
 		case GT:
-			cmd = "setg";
+			cmd = Opcode.SETG;
 			break;
 		case GTE:
-			cmd = "setge";
+			cmd = Opcode.SETGE;
 			break;
 		case EQUALS:
-			cmd = "sete";
+			cmd = Opcode.SETE;
 			break;
 		case NOT_EQUALS:
-			cmd = "setne";
+			cmd = Opcode.SETNE;
 			break;
 		case LT:
-			cmd = "setl";
+			cmd = Opcode.SETL;
 			break;
 		case LTE:
-			cmd = "setle";
+			cmd = Opcode.SETLE;
 			break;
 		default:
 			return null; //Irrecoverable, can't compare with an incorrect op
 		}
-		ins.add(new Instruction("cmpq", r11,r10));
+		ins.add(new Instruction(Opcode.CMPQ, r11,r10));
 		LocReg al = new LocReg(Regs.AL);
 		ins.add(new Instruction(cmd, al));
 		//zero bit extension
-		ins.add(new Instruction("movzbq", al, r10));
+		ins.add(new Instruction(Opcode.MOVZBQ, al, r10));
 		ins.addAll(context.push(r10));
 		return ins;
 	}
@@ -437,14 +437,14 @@ public class Codegen {
 		List<Instruction> ins = cfg.codegen(context);
 
 		ins.add(Instruction.labelInstruction(tLabel));
-		ins.add(new Instruction("pushq", one));
+		ins.add(new Instruction(Opcode.PUSHQ, one));
 		LocLabel end = new LocLabel(endLabel);
-		ins.add(new Instruction("jmp",  end));
+		ins.add(new Instruction(Opcode.JMP,  end));
 		ins.add(Instruction.labelInstruction(fLabel));
-		ins.add(new Instruction("pushq", zero));
+		ins.add(new Instruction(Opcode.PUSHQ, zero));
 
 		ins.add(Instruction.labelInstruction(endLabel));
-		ins.add(new Instruction("nop"));
+		ins.add(new Instruction(Opcode.NOP));
 		return ins;
 	}
 	
@@ -505,22 +505,22 @@ public class Codegen {
 		LocationMem dst= generateVarLoc(lhs, context, ins);
 		ins.addAll(context.pop(r10));
 		if(op != Ops.ASSIGN){
-			String cmd = null;
+			Opcode cmd = null;
 			switch(op){
 			case ASSIGN_PLUS:
-				cmd = "addq";
+				cmd = Opcode.ADDQ;
 				break;
 			case ASSIGN_MINUS:
-				cmd = "subq";
+				cmd = Opcode.SUBQ;
 				break;
 			default:
 				break;
 			}
-			ins.add(new Instruction("movq", dst, r11));
+			ins.add(new Instruction(Opcode.MOVQ, dst, r11));
 			ins.add(new Instruction(cmd, r10, r11));
-			ins.add(new Instruction("movq", r11, dst));
+			ins.add(new Instruction(Opcode.MOVQ, r11, dst));
 		}else{
-			ins.add(new Instruction("movq", r10, dst));
+			ins.add(new Instruction(Opcode.MOVQ, r10, dst));
 		}
 		return ins;
 	}
@@ -555,14 +555,14 @@ public class Codegen {
 		if(decl.getType() == Type.CALLOUT){
 			//# of floating point registers is stored in rax
 			//need to zero it for callouts.
-			ins.add(new Instruction("movq", new LocLiteral(0),  new LocReg(Regs.RAX)));			
+			ins.add(new Instruction(Opcode.MOVQ, new LocLiteral(0),  new LocReg(Regs.RAX)));			
 		}
-		ins.add(new Instruction("call ", new LocLabel(call.getName()) ));
+		ins.add(new Instruction(Opcode.CALL, new LocLabel(call.getName()) ));
 		
 		//pop all arguments on the stack
 		if(args.size()>CodegenConst.N_REG_ARG){
 			long stackArgSize = CodegenConst.INT_SIZE * (args.size()-CodegenConst.N_REG_ARG);
-			ins.add(new Instruction("addq", new LocLiteral(stackArgSize), new LocReg(Regs.RSP)));
+			ins.add(new Instruction(Opcode.ADDQ, new LocLiteral(stackArgSize), new LocReg(Regs.RSP)));
 		}
 		return ins;
 	}
@@ -581,10 +581,10 @@ public class Codegen {
 		stIns.addAll(generateExpr(if_st.getExpr(), context));
 		LocReg r10 = new LocReg(Regs.R10);
 		stIns.addAll(context.pop(r10));
-		stIns.add(new Instruction("cmp", new LocLiteral(1L), r10));
-		stIns.add(new Instruction("je", new LocLabel(labelForTrue)));
+		stIns.add(new Instruction(Opcode.CMPQ, new LocLiteral(1L), r10));
+		stIns.add(new Instruction(Opcode.JE, new LocLabel(labelForTrue)));
 		stIns.addAll(falseInstructs);
-		stIns.add(new Instruction("jmp", new LocLabel(labelForEnd)));
+		stIns.add(new Instruction(Opcode.JMP, new LocLabel(labelForEnd)));
 		stIns.add(Instruction.labelInstruction(labelForTrue));
 		stIns.addAll(trueInstructs);
 		stIns.add(Instruction.labelInstruction(labelForEnd));
@@ -601,7 +601,7 @@ public class Codegen {
 		LocationMem loopVar = generateVarLoc(for_st.getVar(), context, stIns);
         stIns.addAll(generateExpr(for_st.getStart(), context));
         stIns.addAll(context.pop(r10));
-        stIns.add(new Instruction("movq", r10, loopVar));
+        stIns.add(new Instruction(Opcode.MOVQ, r10, loopVar));
         
         stIns.addAll(generateExpr(for_st.getEnd(), context));
         // Start of loop
@@ -611,14 +611,14 @@ public class Codegen {
 		stIns.addAll(generateExpr(for_st.getVar(), context));
 		stIns.addAll(context.pop(r10));  // loop var
 		stIns.addAll(context.pop(r11));  // end
-		stIns.add(new Instruction("cmp", r10, r11));
-		stIns.add(new Instruction("jle", new LocLabel(labelForEnd)));
+		stIns.add(new Instruction(Opcode.CMPQ, r10, r11));
+		stIns.add(new Instruction(Opcode.JLE, new LocLabel(labelForEnd)));
 		stIns.addAll(context.push(r11));
 		stIns.addAll(generateBlock(for_st.getBlock(), context));
 //end of loop to increment loop var
 		stIns.add(Instruction.labelInstruction(labelForInc));
-		stIns.add(new Instruction("add", new LocLiteral(1L), loopVar));
-		stIns.add(new Instruction("jmp", new LocLabel(labelForStart)));
+		stIns.add(new Instruction(Opcode.ADDQ, new LocLiteral(1L), loopVar));
+		stIns.add(new Instruction(Opcode.JMP, new LocLabel(labelForStart)));
 		
 		stIns.add(Instruction.labelInstruction(labelForEnd));
 //		stIns.addAll(context.pop(r11));
@@ -646,21 +646,21 @@ public class Codegen {
 		stIns.add(Instruction.labelInstruction(labelForStart));
 		stIns.addAll(generateExpr(while_st.getExpr(), context));
 		stIns.addAll(context.pop(r10));
-		stIns.add(new Instruction("cmp", new LocLiteral(0L), r10));
-		stIns.add(new Instruction("je", new LocLabel(labelPopTmp)));
+		stIns.add(new Instruction(Opcode.CMPQ, new LocLiteral(0L), r10));
+		stIns.add(new Instruction(Opcode.JE, new LocLabel(labelPopTmp)));
 		
 		if(hasBound){
 			stIns.addAll(context.pop(r10));  // loops count
 			stIns.addAll(context.pop(r11));  // max loops
-			stIns.add(new Instruction("cmp", r10, r11));
-			stIns.add(new Instruction("je", new LocLabel(labelForEnd)));
-			stIns.add(new Instruction("add", new LocLiteral(1L), r10));  // increment loop count
+			stIns.add(new Instruction(Opcode.CMPQ, r10, r11));
+			stIns.add(new Instruction(Opcode.JE, new LocLabel(labelForEnd)));
+			stIns.add(new Instruction(Opcode.ADDQ, new LocLiteral(1L), r10));  // increment loop count
 			stIns.addAll(context.push(r11));
 			stIns.addAll(context.push(r10));
 		}
 		
 		stIns.addAll(generateBlock(while_st.getBlock(), context));
-		stIns.add(new Instruction("jmp", new LocLabel(labelForStart)));
+		stIns.add(new Instruction(Opcode.JMP, new LocLabel(labelForStart)));
 		
 		// End loop here
 		if(hasBound){
@@ -676,13 +676,13 @@ public class Codegen {
 	
 	public static List<Instruction> generateBreak(IR_Break break_st, CodegenContext context) {
 		List<Instruction> stIns = new ArrayList<Instruction>();
-		stIns.add(new Instruction("jmp", new LocLabel(context.getInnermostEnd())));
+		stIns.add(new Instruction(Opcode.JMP, new LocLabel(context.getInnermostEnd())));
 		return stIns;
 	}
 
 	public static List<Instruction> generateContinue(IR_Continue continue_st, CodegenContext context) {
 		List<Instruction> stIns = new ArrayList<Instruction>();
-		stIns.add(new Instruction("jmp", new LocLabel(context.getInnermostStart())));
+		stIns.add(new Instruction(Opcode.JMP, new LocLabel(context.getInnermostStart())));
 		return stIns;
 	}
 	
@@ -693,11 +693,11 @@ public class Codegen {
 		if (expr != null) {
 			LocReg r10 = new LocReg(Regs.R10);
 			stIns = generateExpr(expr, context);
-			stIns.add(new Instruction("pop", r10));
-			stIns.add(new Instruction("mov", r10, new LocReg(Regs.RAX)));
+			stIns.add(new Instruction(Opcode.POPQ, r10));
+			stIns.add(new Instruction(Opcode.MOVQ, r10, new LocReg(Regs.RAX)));
 		}
-		stIns.add(new Instruction("leave"));
-		stIns.add(new Instruction("ret"));
+		stIns.add(new Instruction(Opcode.LEAVE));
+		stIns.add(new Instruction(Opcode.RET));
 		return stIns;
 	}
 	
@@ -726,7 +726,7 @@ public class Codegen {
 		ArrayList<Instruction> ins=new ArrayList<Instruction>();
 		if(idx<CodegenConst.N_REG_ARG){
 			LocationMem argDst = argLoc(idx);
-			ins.add(new Instruction("movq", argSrc, argDst));
+			ins.add(new Instruction(Opcode.MOVQ, argSrc, argDst));
 		}else{
 			ins.addAll(context.push(argSrc));
 		}
@@ -151,9 +151,9 @@ public class CodegenContext {
 		//if needs array bound checking
 		if(arrayBoundLabel != null){
 			ins.add(Instruction.labelInstruction(arrayBoundLabel));
-			ins.add(new Instruction("movq", 
+			ins.add(new Instruction(Opcode.MOVQ, 
 					new LocLiteral(CodegenConst.ERR_ARRAY_BOUND), new LocReg(Regs.RDI)));
-			ins.add(new Instruction("call", new LocLabel("exit")));
+			ins.add(new Instruction(Opcode.CALL, new LocLabel("exit")));
 		}
 		
 		for(int ii = 0;ii<ins.size();ii++){
@@ -221,7 +221,7 @@ public class CodegenContext {
 	 */
 	public List<Instruction> push(LocationMem loc){
 		ArrayList<Instruction> il = new ArrayList<Instruction>();
-		il.add(new Instruction("pushq", loc));
+		il.add(new Instruction(Opcode.PUSHQ, loc));
 		rsp.setValue(rsp.getValue() - CodegenConst.INT_SIZE);
 		return il;
 	}
@@ -231,7 +231,7 @@ public class CodegenContext {
 	 */
 	public List<Instruction> pop(LocationMem loc){
 		ArrayList<Instruction> il = new ArrayList<Instruction>();
-		il.add(new Instruction("popq", loc));
+		il.add(new Instruction(Opcode.POPQ, loc));
 		rsp.setValue(rsp.getValue() + CodegenConst.INT_SIZE);
 		return il;
 	}
@@ -1,18 +1,20 @@
 package edu.mit.compilers.codegen;
 
-import java.util.ArrayList;
-
 /**@brief an assembly instruction
- * 
+ *
  * @author desaic
  *
  */
 public class Instruction {
-	
-	public String cmd;
-	
-	public ArrayList<LocationMem> args;
-	
+
+	/**@brief null for a label.
+	 */
+	public Opcode op;
+
+	/**@brief operands in AT&T order. The ones past op.operandCount() are null.
+	 */
+	private LocationMem arg1, arg2, arg3;
+
 	/**@brief jump labels
 	 */
 	public String label;
@@ -22,52 +24,119 @@ public class Instruction {
 		ii.label = l;
 		return ii;
 	}
-	
+
 	public Instruction(){
 		label="";
-		cmd = null;
-		args = null;	
+		op = null;
 	}
 
-	public Instruction(String c){
+	public Instruction(Opcode o){
 		label="";
-		cmd = c;
-		args = new ArrayList<LocationMem> ();	
+		op = o;
+		checkArgs(0);
 	}
-	
-	public Instruction(String c, LocationMem a1){
+
+	public Instruction(Opcode o, LocationMem a1){
 		label="";
-		cmd = c;
-		args = new ArrayList<LocationMem> ();
-		args.add(a1);
+		op = o;
+		arg1 = a1;
+		checkArgs(1);
 	}
-	
-	public Instruction(String c, LocationMem a1, LocationMem a2){
+
+	public Instruction(Opcode o, LocationMem a1, LocationMem a2){
 		label="";
-		cmd = c;
-		args = new ArrayList<LocationMem> ();
-		args.add(a1);
-		args.add(a2);
+		op = o;
+		arg1 = a1;
+		arg2 = a2;
+		checkArgs(2);
 	}
-	
+
+	/**@brief for the SSE instructions taking an immediate as well,
+	 * like pshufd $imm, src, dst.
+	 */
+	public Instruction(Opcode o, LocationMem a1, LocationMem a2, LocationMem a3){
+		label="";
+		op = o;
+		arg1 = a1;
+		arg2 = a2;
+		arg3 = a3;
+		checkArgs(3);
+	}
+
+	/**@brief the same instruction with other operands, e.g. renamed labels.
+	 */
+	public Instruction(Instruction ii, LocationMem[] args){
+		label = ii.label;
+		op = ii.op;
+		if(args.length > 0){
+			arg1 = args[0];
+		}
+		if(args.length > 1){
+			arg2 = args[1];
+		}
+		if(args.length > 2){
+			arg3 = args[2];
+		}
+		if(op != null){
+			checkArgs(args.length);
+		}
+	}
+
+	private void checkArgs(int count){
+		if(count != op.operandCount()){
+			throw new RuntimeException(op + " takes " + op.operandCount() + " operands, not " + count);
+		}
+	}
+
+	/**@brief number of operands, 0 for a label.
+	 */
+	public int argCount(){
+		return op == null ? 0 : op.operandCount();
+	}
+
+	/**@brief operand ii, counting from 0.
+	 */
+	public LocationMem arg(int ii){
+		switch(ii){
+		case 0:
+			return arg1;
+		case 1:
+			return arg2;
+		case 2:
+			return arg3;
+		default:
+			throw new IndexOutOfBoundsException("No operand " + ii);
+		}
+	}
+
+	/**@brief the operands, in a new array.
+	 */
+	public LocationMem[] args(){
+		LocationMem[] args = new LocationMem[argCount()];
+		for(int ii = 0; ii < args.length; ii++){
+			args[ii] = arg(ii);
+		}
+		return args;
+	}
+
 	public String toString(){
 		StringBuilder sb = new StringBuilder();
 		if(label.length()>0){
 			sb.append(label+":");
-			if(cmd != null){
+			if(op != null){
 				sb.append("\n");
 			}
 		}
-		if(cmd != null){
-			sb.append("\t"+cmd+" ");
-			for(int ii = 0; ii<args.size();ii++){
-				sb.append(args.get(ii).toString());
-				if(ii<args.size()-1){
+		if(op != null){
+			sb.append("\t"+op.mnemonic()+" ");
+			for(int ii = 0; ii<argCount();ii++){
+				sb.append(arg(ii).toString());
+				if(ii<argCount()-1){
 					sb.append(", ");
 				}
 			}
 		}
 		return sb.toString();
 	}
-	
+
 }
@@ -0,0 +1,382 @@
+package edu.mit.compilers.codegen;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import edu.mit.compilers.codegen.LocationMem.LocType;
+
+/**@brief list scheduler for the basic blocks of the generated instructions.
+ *
+ * Blocks end at labels, directives, jumps, calls and returns, which stay where they are. The
+ * instructions between them are reordered along a dependence graph built from what their
+ * opcodes read and write: registers, the flags and memory. Every reader of a value stays after
+ * its writer, every writer after the readers and writers before it, so each block leaves the
+ * same registers, flags and memory behind. Among the instructions that are ready, the one with
+ * the longest chain of latencies behind it goes first, so a load or a multiplication starts
+ * early and the instructions that don't need its result fill the wait. Ties keep the original
+ * order.
+ *
+ * Memory is told apart only by name: two globals never overlap, nor do stack slots at different
+ * offsets from rbp or a global and the stack. Stack arrays, rsp relative addresses and the
+ * 16 byte SSE accesses are taken to overlap anything on the stack, and so is any change of rsp,
+ * so nothing is stored below the stack pointer.
+ *
+ * The machine model is one instruction per cycle, with the latencies of Opcode.Latency and
+ * Opcode.LOAD_CYCLES more for reading memory. It is only used to rank instructions and to
+ * report how many cycles the blocks take before and after.
+ */
+public class InstructionScheduler {
+
+	private static final int XMM_BASE = Regs.values().length;
+	private static final int FLAGS = XMM_BASE + LocXmm.COUNT;
+	private static final int RESOURCES = FLAGS + 1;
+
+	/**@brief a memory access. Global names the symbol, or is null for the stack, where slot
+	 * is the offset from rbp or ANY_SLOT.
+	 */
+	private static class Access {
+		final String global;
+		final long slot;
+		final boolean write;
+
+		Access(String global, long slot, boolean write){
+			this.global = global;
+			this.slot = slot;
+			this.write = write;
+		}
+
+		boolean overlaps(Access other){
+			if(global != null || other.global != null){
+				return global != null && global.equals(other.global);
+			}
+			return slot == ANY_SLOT || other.slot == ANY_SLOT || slot == other.slot;
+		}
+	}
+
+	private static final long ANY_SLOT = Long.MIN_VALUE;
+
+	/**@brief what one instruction uses and its place in the graph.
+	 */
+	private static class Node {
+		final Instruction ins;
+		final int index;
+		final List<Integer> reads = new ArrayList<Integer>();
+		final List<Integer> writes = new ArrayList<Integer>();
+		final List<Access> accesses = new ArrayList<Access>();
+		final List<Node> succs = new ArrayList<Node>();
+		final List<Integer> succLatency = new ArrayList<Integer>();
+		int latency;
+		int height;
+		int preds;
+		int ready;
+
+		Node(Instruction ins, int index){
+			this.ins = ins;
+			this.index = index;
+		}
+
+		void addSucc(Node succ, int lat){
+			succs.add(succ);
+			succLatency.add(lat);
+			succ.preds++;
+		}
+	}
+
+	private int blocks = 0;
+	private int moved = 0;
+	private long cyclesBefore = 0;
+	private long cyclesAfter = 0;
+
+	/**@brief reorders ins in place.
+	 */
+	public void run(List<Instruction> ins){
+		List<Instruction> out = new ArrayList<Instruction>(ins.size());
+		int start = 0;
+		for(int ii = 0; ii <= ins.size(); ii++){
+			if(ii == ins.size() || isBarrier(ins.get(ii))){
+				out.addAll(schedule(ins.subList(start, ii)));
+				if(ii < ins.size()){
+					out.add(ins.get(ii));
+				}
+				start = ii + 1;
+			}
+		}
+		for(int ii = 0; ii < ins.size(); ii++){
+			if(ins.get(ii) != out.get(ii)){
+				moved++;
+			}
+		}
+		ins.clear();
+		ins.addAll(out);
+	}
+
+	/**@brief blocks of two instructions or more.
+	 */
+	public int getBlocks(){
+		return blocks;
+	}
+
+	/**@brief instructions that ended up somewhere else.
+	 */
+	public int getMoved(){
+		return moved;
+	}
+
+	/**@brief estimated cycles of all the blocks as generated.
+	 */
+	public long getCyclesBefore(){
+		return cyclesBefore;
+	}
+
+	/**@brief estimated cycles of all the blocks as scheduled.
+	 */
+	public long getCyclesAfter(){
+		return cyclesAfter;
+	}
+
+	private static boolean isBarrier(Instruction ii){
+		if(ii.op == null || ii.label.length() > 0){
+			return true;
+		}
+		return ii.op.isDirective() || ii.op.isBranch() || ii.op.getKind() == Opcode.Kind.CALL;
+	}
+
+	private List<Instruction> schedule(List<Instruction> block){
+		if(block.size() < 2){
+			return block;
+		}
+		blocks++;
+		List<Node> nodes = buildGraph(block);
+		for(int ii = nodes.size() - 1; ii >= 0; ii--){
+			Node node = nodes.get(ii);
+			node.height = node.latency;
+			for(int ss = 0; ss < node.succs.size(); ss++){
+				node.height = Math.max(node.height, node.succLatency.get(ss) + node.succs.get(ss).height);
+			}
+		}
+		cyclesBefore += inOrderCycles(nodes);
+
+		List<Instruction> result = new ArrayList<Instruction>(block.size());
+		List<Node> candidates = new ArrayList<Node>();
+		for(Node node : nodes){
+			if(node.preds == 0){
+				candidates.add(node);
+			}
+		}
+		int cycle = 0;
+		int end = 0;
+		while(!candidates.isEmpty()){
+			Node best = null;
+			int earliest = Integer.MAX_VALUE;
+			for(Node node : candidates){
+				earliest = Math.min(earliest, node.ready);
+				if(node.ready <= cycle && (best == null || node.height > best.height
+						|| node.height == best.height && node.index < best.index)){
+					best = node;
+				}
+			}
+			if(best == null){
+				// nothing can start yet, wait for the first one that can
+				cycle = earliest;
+				continue;
+			}
+			candidates.remove(best);
+			result.add(best.ins);
+			end = Math.max(end, cycle + best.latency);
+			for(int ss = 0; ss < best.succs.size(); ss++){
+				Node succ = best.succs.get(ss);
+				succ.ready = Math.max(succ.ready, cycle + best.succLatency.get(ss));
+				if(--succ.preds == 0){
+					candidates.add(succ);
+				}
+			}
+			cycle++;
+		}
+		cyclesAfter += Math.max(end, cycle);
+		return result;
+	}
+
+	/**@brief cycles the block takes in its original order.
+	 */
+	private static int inOrderCycles(List<Node> nodes){
+		int[] ready = new int[nodes.size()];
+		int cycle = 0;
+		int end = 0;
+		for(Node node : nodes){
+			cycle = Math.max(cycle, ready[node.index]);
+			end = Math.max(end, cycle + node.latency);
+			for(int ss = 0; ss < node.succs.size(); ss++){
+				int succ = node.succs.get(ss).index;
+				ready[succ] = Math.max(ready[succ], cycle + node.succLatency.get(ss));
+			}
+			cycle++;
+		}
+		return Math.max(end, cycle);
+	}
+
+	private static List<Node> buildGraph(List<Instruction> block){
+		List<Node> nodes = new ArrayList<Node>();
+		Node[] lastWriter = new Node[RESOURCES];
+		List<List<Node>> readers = new ArrayList<List<Node>>();
+		for(int rr = 0; rr < RESOURCES; rr++){
+			readers.add(new ArrayList<Node>());
+		}
+		for(int ii = 0; ii < block.size(); ii++){
+			Node node = new Node(block.get(ii), ii);
+			collectUses(node);
+			for(int res : node.reads){
+				if(lastWriter[res] != null){
+					lastWriter[res].addSucc(node, lastWriter[res].latency);
+				}
+			}
+			for(int res : node.writes){
+				for(Node reader : readers.get(res)){
+					if(reader != node){
+						reader.addSucc(node, 0);
+					}
+				}
+				if(lastWriter[res] != null){
+					lastWriter[res].addSucc(node, 0);
+				}
+				lastWriter[res] = node;
+				readers.get(res).clear();
+			}
+			for(int res : node.reads){
+				if(lastWriter[res] != node){
+					readers.get(res).add(node);
+				}
+			}
+			for(Node earlier : nodes){
+				for(Access a : earlier.accesses){
+					for(Access b : node.accesses){
+						if((a.write || b.write) && a.overlaps(b)){
+							earlier.addSucc(node, a.write && !b.write ? earlier.latency : 0);
+						}
+					}
+				}
+			}
+			nodes.add(node);
+		}
+		return nodes;
+	}
+
+	/**@brief fills in the registers, flags and memory node.ins reads and writes, and its latency.
+	 */
+	private static void collectUses(Node node){
+		Instruction ii = node.ins;
+		Opcode op = ii.op;
+		boolean vector = false;
+		for(int aa = 0; aa < ii.argCount(); aa++){
+			vector |= ii.arg(aa).getType() == LocType.XMM_LOC;
+		}
+		boolean loads = false;
+		for(int aa = 0; aa < ii.argCount(); aa++){
+			LocationMem arg = ii.arg(aa);
+			int reg = register(arg);
+			if(reg >= 0){
+				if(op.reads(aa) || isPartial(arg)){
+					node.reads.add(reg);
+				}
+				if(op.writes(aa)){
+					node.writes.add(reg);
+				}
+				continue;
+			}
+			Access access = access(arg, op.writes(aa), vector);
+			if(access != null){
+				addressRegisters(arg, node.reads);
+				if(op.reads(aa)){
+					node.accesses.add(new Access(access.global, access.slot, false));
+					loads = true;
+				}
+				if(op.writes(aa)){
+					node.accesses.add(access);
+				}
+			}
+		}
+		for(Regs r : op.getImplicitReads()){
+			node.reads.add(family(r).ordinal());
+		}
+		for(Regs r : op.getImplicitWrites()){
+			node.writes.add(family(r).ordinal());
+		}
+		if(op.readsFlags()){
+			node.reads.add(FLAGS);
+		}
+		if(op.writesFlags()){
+			node.writes.add(FLAGS);
+		}
+		if(op == Opcode.PUSHQ){
+			node.accesses.add(new Access(null, ANY_SLOT, true));
+		}else if(op == Opcode.POPQ){
+			node.accesses.add(new Access(null, ANY_SLOT, false));
+			loads = true;
+		}
+		if(node.writes.contains(Regs.RSP.ordinal())){
+			// keeps stores above the stack pointer
+			node.accesses.add(new Access(null, ANY_SLOT, true));
+		}
+		node.latency = op.getLatency().cycles + (loads ? Opcode.LOAD_CYCLES : 0);
+	}
+
+	/**@brief resource number of a register operand, -1 for anything else.
+	 */
+	private static int register(LocationMem loc){
+		if(loc instanceof LocReg){
+			return family(((LocReg) loc).reg).ordinal();
+		}else if(loc instanceof LocXmm){
+			return XMM_BASE + ((LocXmm) loc).index;
+		}
+		return -1;
+	}
+
+	/**@brief writing al or eax leaves the rest of rax to the instructions before.
+	 */
+	private static boolean isPartial(LocationMem loc){
+		return loc instanceof LocReg && family(((LocReg) loc).reg) != ((LocReg) loc).reg;
+	}
+
+	private static Regs family(Regs r){
+		if(r == Regs.AL || r == Regs.EAX){
+			return Regs.RAX;
+		}
+		return r;
+	}
+
+	/**@brief the memory loc names, or null if it isn't memory.
+	 */
+	private static Access access(LocationMem loc, boolean write, boolean vector){
+		if(loc instanceof LocLabel){
+			String label = ((LocLabel) loc).label;
+			// $label is the address, not what is there
+			return label.startsWith("$") ? null : new Access(label, 0, write);
+		}else if(loc instanceof LocStack){
+			return new Access(null, vector ? ANY_SLOT : loc.getValue(), write);
+		}else if(loc instanceof LocRelStack){
+			return new Access(null, ANY_SLOT, write);
+		}else if(loc instanceof LocArray){
+			LocArray element = (LocArray) loc;
+			if(element.array instanceof LocLabel){
+				return new Access(((LocLabel) element.array).label, 0, write);
+			}
+			boolean exact = !vector && element.offset.getType() == LocType.LITERAL_LOC;
+			long slot = element.array.getValue() + element.itemSize * element.offset.getValue();
+			return new Access(null, exact ? slot : ANY_SLOT, write);
+		}
+		return null;
+	}
+
+	private static void addressRegisters(LocationMem loc, List<Integer> reads){
+		if(loc instanceof LocStack){
+			reads.add(Regs.RBP.ordinal());
+		}else if(loc instanceof LocRelStack){
+			reads.add(Regs.RSP.ordinal());
+		}else if(loc instanceof LocArray){
+			addressRegisters(((LocArray) loc).array, reads);
+			int reg = register(((LocArray) loc).offset);
+			if(reg >= 0){
+				reads.add(reg);
+			}
+		}
+	}
+}
@@ -0,0 +1,25 @@
+package edu.mit.compilers.codegen;
+
+/**@brief one of the 16 SSE registers, %xmm0 to %xmm15.
+ * Each holds two 64 bit lanes for the packed instructions.
+ */
+public class LocXmm extends LocationMem{
+	public static final int COUNT = 16;
+	public int index;
+	public LocXmm(int i){
+		index = i;
+	}
+	public String toString(){
+		return "%xmm" + index;
+	}
+	public LocType getType(){
+		return LocType.XMM_LOC;
+	}
+	
+	public boolean equals(LocationMem other){
+		if(!(other instanceof LocXmm)){
+			return false;
+		}
+		return ((LocXmm)other).index == index;
+	}
+}
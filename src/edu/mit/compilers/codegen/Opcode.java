@@ -0,0 +1,248 @@
+package edu.mit.compilers.codegen;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**@brief the instructions and directives the code generators emit, with what each one
+ * reads and writes, so later passes can look at instructions without parsing mnemonics.
+ *
+ * Operand roles are given per operand in AT&T order: 'r' read, 'w' written, 'x' read and
+ * written. A memory operand always reads the registers of its address, whatever its role.
+ * Registers used without being operands, like rax and rdx for idivq, are the implicit ones.
+ */
+public enum Opcode {
+	MOVQ("movq", "rw", Kind.PLAIN, Flags.NONE, Latency.MOVE),
+	MOVABSQ("movabsq", "rw", Kind.PLAIN, Flags.NONE, Latency.MOVE),
+	MOVZBQ("movzbq", "rw", Kind.PLAIN, Flags.NONE, Latency.MOVE),
+	XCHGQ("xchgq", "xx", Kind.PLAIN, Flags.NONE, Latency.ALU),
+	PUSHQ("pushq", "r", Kind.PLAIN, Flags.NONE, Latency.MOVE,
+			new Regs[]{Regs.RSP}, new Regs[]{Regs.RSP}),
+	POPQ("popq", "w", Kind.PLAIN, Flags.NONE, Latency.MOVE,
+			new Regs[]{Regs.RSP}, new Regs[]{Regs.RSP}),
+
+	ADDQ("addq", "rx", Kind.PLAIN, Flags.WRITES, Latency.ALU),
+	SUBQ("subq", "rx", Kind.PLAIN, Flags.WRITES, Latency.ALU),
+	ANDQ("andq", "rx", Kind.PLAIN, Flags.WRITES, Latency.ALU),
+	NEGQ("negq", "x", Kind.PLAIN, Flags.WRITES, Latency.ALU),
+	SHLQ("shlq", "rx", Kind.PLAIN, Flags.WRITES, Latency.ALU),
+	IMULQ("imulq", "rx", Kind.PLAIN, Flags.WRITES, Latency.MULTIPLY),
+	/**@brief sign extends rax into rdx for idivq.*/
+	CQTO("cqto", "", Kind.PLAIN, Flags.NONE, Latency.ALU,
+			new Regs[]{Regs.RAX}, new Regs[]{Regs.RDX}),
+	IDIVQ("idivq", "r", Kind.PLAIN, Flags.WRITES, Latency.DIVIDE,
+			new Regs[]{Regs.RAX, Regs.RDX}, new Regs[]{Regs.RAX, Regs.RDX}),
+	CMPQ("cmpq", "rr", Kind.PLAIN, Flags.WRITES, Latency.ALU),
+	CMPL("cmpl", "rr", Kind.PLAIN, Flags.WRITES, Latency.ALU),
+	TESTQ("testq", "rr", Kind.PLAIN, Flags.WRITES, Latency.ALU),
+
+	SETE("sete", "w", Kind.PLAIN, Flags.READS, Latency.ALU),
+	SETNE("setne", "w", Kind.PLAIN, Flags.READS, Latency.ALU),
+	SETL("setl", "w", Kind.PLAIN, Flags.READS, Latency.ALU),
+	SETLE("setle", "w", Kind.PLAIN, Flags.READS, Latency.ALU),
+	SETG("setg", "w", Kind.PLAIN, Flags.READS, Latency.ALU),
+	SETGE("setge", "w", Kind.PLAIN, Flags.READS, Latency.ALU),
+
+	JMP("jmp", "r", Kind.JUMP, Flags.NONE, Latency.BRANCH),
+	JE("je", "r", Kind.CONDITIONAL_JUMP, Flags.READS, Latency.BRANCH),
+	JNE("jne", "r", Kind.CONDITIONAL_JUMP, Flags.READS, Latency.BRANCH),
+	JL("jl", "r", Kind.CONDITIONAL_JUMP, Flags.READS, Latency.BRANCH),
+	JLE("jle", "r", Kind.CONDITIONAL_JUMP, Flags.READS, Latency.BRANCH),
+	JG("jg", "r", Kind.CONDITIONAL_JUMP, Flags.READS, Latency.BRANCH),
+	JGE("jge", "r", Kind.CONDITIONAL_JUMP, Flags.READS, Latency.BRANCH),
+	JAE("jae", "r", Kind.CONDITIONAL_JUMP, Flags.READS, Latency.BRANCH),
+	JO("jo", "r", Kind.CONDITIONAL_JUMP, Flags.READS, Latency.BRANCH),
+	/**@brief reads the argument registers and clobbers the ones the callee may change, and
+	 * all the %xmm registers.*/
+	CALL("call", "r", Kind.CALL, Flags.WRITES, Latency.CALL,
+			new Regs[]{Regs.RDI, Regs.RSI, Regs.RDX, Regs.RCX, Regs.R8, Regs.R9, Regs.RAX, Regs.RSP},
+			new Regs[]{Regs.RAX, Regs.RCX, Regs.RDX, Regs.RSI, Regs.RDI, Regs.R8, Regs.R9, Regs.R10, Regs.R11}),
+	RET("ret", "", Kind.RETURN, Flags.NONE, Latency.BRANCH,
+			new Regs[]{Regs.RAX, Regs.RSP}, new Regs[]{Regs.RSP}),
+	LEAVE("leave", "", Kind.PLAIN, Flags.NONE, Latency.MOVE,
+			new Regs[]{Regs.RBP}, new Regs[]{Regs.RSP, Regs.RBP}),
+	NOP("nop", "", Kind.PLAIN, Flags.NONE, Latency.ALU),
+
+	MOVDQU("movdqu", "rw", Kind.PLAIN, Flags.NONE, Latency.MOVE),
+	MOVDQA("movdqa", "rw", Kind.PLAIN, Flags.NONE, Latency.MOVE),
+	PADDQ("paddq", "rx", Kind.PLAIN, Flags.NONE, Latency.VECTOR),
+	PSUBQ("psubq", "rx", Kind.PLAIN, Flags.NONE, Latency.VECTOR),
+	PXOR("pxor", "rx", Kind.PLAIN, Flags.NONE, Latency.VECTOR),
+	PSLLQ("psllq", "rx", Kind.PLAIN, Flags.NONE, Latency.VECTOR),
+	PSRLQ("psrlq", "rx", Kind.PLAIN, Flags.NONE, Latency.VECTOR),
+	PSLLDQ("pslldq", "rx", Kind.PLAIN, Flags.NONE, Latency.VECTOR),
+	PMULUDQ("pmuludq", "rx", Kind.PLAIN, Flags.NONE, Latency.VECTOR_MULTIPLY),
+	PSHUFD("pshufd", "rrw", Kind.PLAIN, Flags.NONE, Latency.VECTOR),
+
+	GLOBAL(".global", "r", Kind.DIRECTIVE, Flags.NONE, Latency.NONE),
+	TEXT(".text", "", Kind.DIRECTIVE, Flags.NONE, Latency.NONE),
+	TYPE(".type", "rr", Kind.DIRECTIVE, Flags.NONE, Latency.NONE);
+
+	/**@brief how an instruction passes control on.
+	 */
+	public enum Kind {
+		/**@brief falls through to the next instruction.*/
+		PLAIN,
+		JUMP, CONDITIONAL_JUMP, CALL, RETURN,
+		/**@brief not an instruction at all, e.g. .text.*/
+		DIRECTIVE
+	}
+
+	/**@brief what an instruction does to the condition flags. Writing means leaving them
+	 * defined or not, so nothing can rely on the flags from before it.
+	 */
+	public enum Flags {
+		NONE, READS, WRITES
+	}
+
+	/**@brief rough cycles until the result can be used, for recent x86-64 cores. A memory
+	 * operand adds LOAD_CYCLES when it is read.
+	 */
+	public enum Latency {
+		NONE(0), MOVE(1), ALU(1), MULTIPLY(3), DIVIDE(40), BRANCH(1), CALL(5), VECTOR(1),
+		VECTOR_MULTIPLY(5);
+
+		public final int cycles;
+
+		private Latency(int cycles){
+			this.cycles = cycles;
+		}
+	}
+
+	/**@brief extra cycles for reading a memory operand, an L1 hit.
+	 */
+	public static final int LOAD_CYCLES = 4;
+
+	private final String mnemonic;
+	private final String roles;
+	private final Kind kind;
+	private final Flags flags;
+	private final Latency latency;
+	private final Regs[] implicitReads;
+	private final Regs[] implicitWrites;
+
+	private Opcode(String mnemonic, String roles, Kind kind, Flags flags, Latency latency){
+		this(mnemonic, roles, kind, flags, latency, null, null);
+	}
+
+	private Opcode(String mnemonic, String roles, Kind kind, Flags flags, Latency latency,
+			Regs[] implicitReads, Regs[] implicitWrites){
+		this.mnemonic = mnemonic;
+		this.roles = roles;
+		this.kind = kind;
+		this.flags = flags;
+		this.latency = latency;
+		this.implicitReads = implicitReads == null ? new Regs[0] : implicitReads;
+		this.implicitWrites = implicitWrites == null ? new Regs[0] : implicitWrites;
+	}
+
+	public String mnemonic(){
+		return mnemonic;
+	}
+
+	public int operandCount(){
+		return roles.length();
+	}
+
+	/**@brief whether operand ii is read; for memory operands, the memory itself.
+	 */
+	public boolean reads(int ii){
+		return roles.charAt(ii) != 'w';
+	}
+
+	/**@brief whether operand ii is written.
+	 */
+	public boolean writes(int ii){
+		return roles.charAt(ii) != 'r';
+	}
+
+	public Regs[] getImplicitReads(){
+		return implicitReads.clone();
+	}
+
+	public Regs[] getImplicitWrites(){
+		return implicitWrites.clone();
+	}
+
+	public boolean implicitlyReads(Regs r){
+		return contains(implicitReads, r);
+	}
+
+	public boolean implicitlyWrites(Regs r){
+		return contains(implicitWrites, r);
+	}
+
+	private static boolean contains(Regs[] regs, Regs r){
+		for(Regs reg : regs){
+			if(reg == r){
+				return true;
+			}
+		}
+		return false;
+	}
+
+	public Kind getKind(){
+		return kind;
+	}
+
+	public boolean readsFlags(){
+		return flags == Flags.READS;
+	}
+
+	public boolean writesFlags(){
+		return flags == Flags.WRITES;
+	}
+
+	/**@brief jmp or any conditional jump.
+	 */
+	public boolean isJump(){
+		return kind == Kind.JUMP || kind == Kind.CONDITIONAL_JUMP;
+	}
+
+	/**@brief whether control may go somewhere other than the next instruction.
+	 */
+	public boolean isBranch(){
+		return kind == Kind.JUMP || kind == Kind.CONDITIONAL_JUMP || kind == Kind.RETURN;
+	}
+
+	public boolean isDirective(){
+		return kind == Kind.DIRECTIVE;
+	}
+
+	public Latency getLatency(){
+		return latency;
+	}
+
+	private static final Map<String, Opcode> BY_MNEMONIC = new HashMap<String, Opcode>();
+	static{
+		for(Opcode op : values()){
+			BY_MNEMONIC.put(op.mnemonic, op);
+		}
+	}
+
+	/**@brief the opcode printed as mnemonic.
+	 * @throws RuntimeException if there is none.
+	 */
+	public static Opcode fromMnemonic(String mnemonic){
+		Opcode op = BY_MNEMONIC.get(mnemonic);
+		if(op == null){
+			throw new RuntimeException("Unknown instruction " + mnemonic);
+		}
+		return op;
+	}
+
+	/**@brief the conditional jump on condition code cc, as in "j" + cc.
+	 */
+	public static Opcode jump(String cc){
+		return fromMnemonic("j" + cc);
+	}
+
+	/**@brief the setcc on condition code cc.
+	 */
+	public static Opcode set(String cc){
+		return fromMnemonic("set" + cc);
+	}
+
+	public String toString(){
+		return mnemonic;
+	}
+}
@@ -0,0 +1,471 @@
+package edu.mit.compilers.codegen;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import edu.mit.compilers.codegen.LocationMem.LocType;
+
+/**@brief peephole optimizer over the generated instructions.
+ *
+ * Every rule looks at a window of consecutive instructions, none of them a label or a
+ * directive, and says what replaces them. Passes slide the windows over the whole list, taking
+ * the first rule that matches at each position, until a pass changes nothing. A rule may look
+ * at the rest of the list to make sure its rewrite is safe, e.g. that nothing reads the flags
+ * it drops, but a pass never sees the changes it made itself.
+ *
+ * The rules, by name:
+ * add-zero: add or subtract 0, when nothing reads the flags.
+ * self-move: movq x, x.
+ * redundant-move: movq a, b followed by movq b, a or by movq a, b again.
+ * push-pop: a push right after a pop of the same place, or the other way round, becomes a
+ * movq or nothing. A pop followed by a load from the stack swaps with it, which brings the
+ * pops and pushes around a call together when only loads are left between them.
+ * dead-compare: a cmp or test whose flags nothing reads.
+ * compare-zero: cmpq $0, reg becomes testq reg, reg.
+ * jump-to-next: a jump to a label right after it.
+ * jump-threading: a jump to a jmp goes straight to where that jmp goes.
+ * unreachable: code after a jmp or ret up to the next label.
+ * multiply-shift: imulq by a power of two becomes shlq, when nothing reads the flags.
+ */
+public class Peephole {
+
+	/**@brief a pattern of size instructions and its rewrite.
+	 */
+	public static abstract class Rule {
+		public final String name;
+		public final int size;
+
+		Rule(String name, int size){
+			this.name = name;
+			this.size = size;
+		}
+
+		/**@brief
+		 * @param ins : instructions of the current pass.
+		 * @param at : first instruction of the window, ins[at, at + size).
+		 * @return instructions replacing the window, or null if the rule doesn't apply there.
+		 */
+		abstract List<Instruction> apply(List<Instruction> ins, int at);
+	}
+
+	/**@brief most instructions flagsDead looks at.
+	 */
+	private static final int FLAGS_SEARCH = 32;
+
+	private final List<Rule> rules;
+	private final int[] hits;
+	private int passes = 0;
+
+	/**@brief position of every label in the instructions of the current pass.
+	 */
+	private Map<String, Integer> labels = new HashMap<String, Integer>();
+
+	public Peephole(){
+		rules = new ArrayList<Rule>();
+		rules.add(addZero());
+		rules.add(selfMove());
+		rules.add(redundantMove());
+		rules.add(pushPop());
+		rules.add(deadCompare());
+		rules.add(compareZero());
+		rules.add(jumpToNext());
+		rules.add(jumpThreading());
+		rules.add(unreachable());
+		rules.add(multiplyShift());
+		hits = new int[rules.size()];
+	}
+
+	/**@brief rewrites ins in place until no rule matches anywhere.
+	 * @return number of rewrites made.
+	 */
+	public int run(List<Instruction> ins){
+		int total = 0;
+		boolean changed = true;
+		while(changed){
+			changed = false;
+			passes++;
+			indexLabels(ins);
+			List<Instruction> out = new ArrayList<Instruction>(ins.size());
+			int ii = 0;
+			while(ii < ins.size()){
+				int matched = -1;
+				List<Instruction> replacement = null;
+				for(int rr = 0; rr < rules.size() && matched < 0; rr++){
+					Rule rule = rules.get(rr);
+					if(plainWindow(ins, ii, rule.size)){
+						replacement = rule.apply(ins, ii);
+						if(replacement != null){
+							matched = rr;
+						}
+					}
+				}
+				if(matched < 0){
+					out.add(ins.get(ii));
+					ii++;
+				}else{
+					out.addAll(replacement);
+					ii += rules.get(matched).size;
+					hits[matched]++;
+					total++;
+					changed = true;
+				}
+			}
+			ins.clear();
+			ins.addAll(out);
+		}
+		return total;
+	}
+
+	/**@brief hit count of every rule, in the order they are tried.
+	 */
+	public Map<String, Integer> getHits(){
+		Map<String, Integer> result = new LinkedHashMap<String, Integer>();
+		for(int ii = 0; ii < rules.size(); ii++){
+			result.put(rules.get(ii).name, hits[ii]);
+		}
+		return result;
+	}
+
+	/**@brief passes made over the instructions, the last of which changed nothing.
+	 */
+	public int getPasses(){
+		return passes;
+	}
+
+	private void indexLabels(List<Instruction> ins){
+		labels.clear();
+		for(int ii = 0; ii < ins.size(); ii++){
+			if(ins.get(ii).label.length() > 0){
+				labels.put(ins.get(ii).label, ii);
+			}
+		}
+	}
+
+	/**@brief whether ins[at, at + size) are all instructions, no labels or directives.
+	 */
+	private static boolean plainWindow(List<Instruction> ins, int at, int size){
+		if(at + size > ins.size()){
+			return false;
+		}
+		for(int ii = at; ii < at + size; ii++){
+			if(!isPlain(ins.get(ii))){
+				return false;
+			}
+		}
+		return true;
+	}
+
+	private static boolean isPlain(Instruction ii){
+		return ii.op != null && ii.label.length() == 0 && !ii.op.isDirective();
+	}
+
+	private static boolean isJump(Instruction ii){
+		return ii.op != null && ii.op.isJump() && ii.arg(0) instanceof LocLabel;
+	}
+
+	private static String target(Instruction jump){
+		return ((LocLabel) jump.arg(0)).label;
+	}
+
+	/**@brief whether the flags are certain to be overwritten, or not to matter, before anything
+	 * from ins[from] on reads them. Follows the code through labels and jmps, gives up at a
+	 * conditional jump or after FLAGS_SEARCH instructions.
+	 */
+	private boolean flagsDead(List<Instruction> ins, int from){
+		int ii = from;
+		for(int steps = 0; steps < FLAGS_SEARCH && ii < ins.size(); steps++){
+			Instruction next = ins.get(ii);
+			if(next.op == null){
+				// whatever else jumps here doesn't matter, this path falls through
+				ii++;
+				continue;
+			}
+			if(next.op.isDirective() || next.op.readsFlags()){
+				return false;
+			}
+			if(next.op.writesFlags() || next.op == Opcode.RET){
+				return true;
+			}
+			if(next.op == Opcode.JMP){
+				Integer at = labels.get(target(next));
+				if(at == null){
+					return false;
+				}
+				ii = at;
+			}else{
+				ii++;
+			}
+		}
+		return false;
+	}
+
+	private static boolean isMemory(LocationMem loc){
+		LocType type = loc.getType();
+		return type == LocType.STACK_LOC || type == LocType.ARRAY_LOC || type == LocType.LABEL_LOC;
+	}
+
+	private static boolean hasXmm(Instruction ii){
+		for(int jj = 0; jj < ii.argCount(); jj++){
+			if(ii.arg(jj).getType() == LocType.XMM_LOC){
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**@brief the 64 bit register that r is part of.
+	 */
+	private static Regs family(Regs r){
+		if(r == Regs.AL || r == Regs.EAX){
+			return Regs.RAX;
+		}
+		return r;
+	}
+
+	/**@brief whether the value or the address of loc depends on register reg.
+	 */
+	private static boolean mentions(LocationMem loc, LocationMem reg){
+		if(!(reg instanceof LocReg)){
+			return false;
+		}
+		Regs r = family(((LocReg) reg).reg);
+		if(loc instanceof LocReg){
+			return family(((LocReg) loc).reg) == r;
+		}else if(loc instanceof LocArray){
+			return mentions(((LocArray) loc).array, reg) || mentions(((LocArray) loc).offset, reg);
+		}else if(loc instanceof LocStack){
+			return r == Regs.RBP;
+		}else if(loc instanceof LocRelStack){
+			return r == Regs.RSP;
+		}
+		return false;
+	}
+
+	private static boolean isMove(Instruction ii){
+		return ii.op == Opcode.MOVQ && !hasXmm(ii);
+	}
+
+	private static List<Instruction> nothing(){
+		return Collections.emptyList();
+	}
+
+	private Rule addZero(){
+		return new Rule("add-zero", 1){
+			List<Instruction> apply(List<Instruction> ins, int at){
+				Instruction ii = ins.get(at);
+				if(ii.op != Opcode.ADDQ && ii.op != Opcode.SUBQ){
+					return null;
+				}
+				if(!ii.arg(0).equals(new LocLiteral(0)) || !flagsDead(ins, at + 1)){
+					return null;
+				}
+				return nothing();
+			}
+		};
+	}
+
+	private Rule selfMove(){
+		return new Rule("self-move", 1){
+			List<Instruction> apply(List<Instruction> ins, int at){
+				Instruction ii = ins.get(at);
+				if(!isMove(ii) || !ii.arg(0).equals(ii.arg(1))){
+					return null;
+				}
+				return nothing();
+			}
+		};
+	}
+
+	private Rule redundantMove(){
+		return new Rule("redundant-move", 2){
+			List<Instruction> apply(List<Instruction> ins, int at){
+				Instruction first = ins.get(at);
+				Instruction second = ins.get(at + 1);
+				if(!isMove(first) || !isMove(second)){
+					return null;
+				}
+				LocationMem a = first.arg(0);
+				LocationMem b = first.arg(1);
+				// after the first move b holds a, unless a was found through b
+				if(mentions(a, b)){
+					return null;
+				}
+				boolean back = second.arg(0).equals(b) && second.arg(1).equals(a);
+				boolean again = second.arg(0).equals(a) && second.arg(1).equals(b);
+				if(!back && !again){
+					return null;
+				}
+				return Collections.singletonList(first);
+			}
+		};
+	}
+
+	private Rule pushPop(){
+		return new Rule("push-pop", 2){
+			List<Instruction> apply(List<Instruction> ins, int at){
+				Instruction first = ins.get(at);
+				Instruction second = ins.get(at + 1);
+				if(first.op == Opcode.PUSHQ && second.op == Opcode.POPQ){
+					LocationMem x = first.arg(0);
+					LocationMem y = second.arg(0);
+					if(x.equals(y)){
+						return nothing();
+					}
+					if(isMemory(x) && isMemory(y)){
+						return null;
+					}
+					return Collections.singletonList(new Instruction(Opcode.MOVQ, x, y));
+				}else if(first.op == Opcode.POPQ && second.op == Opcode.PUSHQ){
+					// the value stays on the stack, and x gets a copy
+					LocationMem x = first.arg(0);
+					if(!x.equals(second.arg(0)) || !(x instanceof LocReg)
+							|| family(((LocReg) x).reg) == Regs.RSP){
+						return null;
+					}
+					return Collections.singletonList(new Instruction(Opcode.MOVQ, new LocRelStack(0), x));
+				}else if(first.op == Opcode.POPQ && isMove(second) && second.arg(0) instanceof LocRelStack){
+					// reading the stack first moves the pop towards a push of the same register
+					LocationMem x = first.arg(0);
+					LocationMem y = second.arg(1);
+					if(!(x instanceof LocReg) || !(y instanceof LocReg) || mentions(x, y)
+							|| family(((LocReg) x).reg) == Regs.RSP || family(((LocReg) y).reg) == Regs.RSP){
+						return null;
+					}
+					LocRelStack slot = new LocRelStack(second.arg(0).getValue() + CodegenConst.INT_SIZE);
+					List<Instruction> result = new ArrayList<Instruction>();
+					result.add(new Instruction(Opcode.MOVQ, slot, y));
+					result.add(first);
+					return result;
+				}
+				return null;
+			}
+		};
+	}
+
+	private Rule deadCompare(){
+		return new Rule("dead-compare", 1){
+			List<Instruction> apply(List<Instruction> ins, int at){
+				Opcode op = ins.get(at).op;
+				if(op != Opcode.CMPQ && op != Opcode.CMPL && op != Opcode.TESTQ){
+					return null;
+				}
+				if(!flagsDead(ins, at + 1)){
+					return null;
+				}
+				return nothing();
+			}
+		};
+	}
+
+	private Rule compareZero(){
+		return new Rule("compare-zero", 1){
+			List<Instruction> apply(List<Instruction> ins, int at){
+				Instruction ii = ins.get(at);
+				if(ii.op != Opcode.CMPQ || !ii.arg(0).equals(new LocLiteral(0)) || !(ii.arg(1) instanceof LocReg)){
+					return null;
+				}
+				// same flags as far as any jcc or setcc can tell
+				return Collections.singletonList(new Instruction(Opcode.TESTQ, ii.arg(1), ii.arg(1)));
+			}
+		};
+	}
+
+	private Rule jumpToNext(){
+		return new Rule("jump-to-next", 1){
+			List<Instruction> apply(List<Instruction> ins, int at){
+				Instruction jump = ins.get(at);
+				if(!isJump(jump)){
+					return null;
+				}
+				for(int ii = at + 1; ii < ins.size() && ins.get(ii).op == null; ii++){
+					if(ins.get(ii).label.equals(target(jump))){
+						return nothing();
+					}
+				}
+				return null;
+			}
+		};
+	}
+
+	private Rule jumpThreading(){
+		return new Rule("jump-threading", 1){
+			List<Instruction> apply(List<Instruction> ins, int at){
+				Instruction jump = ins.get(at);
+				if(!isJump(jump)){
+					return null;
+				}
+				Set<String> seen = new HashSet<String>();
+				String label = target(jump);
+				seen.add(label);
+				while(true){
+					Instruction next = firstAfter(ins, label);
+					if(next == null || next.op != Opcode.JMP || !isJump(next)){
+						break;
+					}
+					label = target(next);
+					if(!seen.add(label)){
+						// the jumps go round in a circle
+						return null;
+					}
+				}
+				if(label.equals(target(jump))){
+					return null;
+				}
+				return Collections.singletonList(new Instruction(jump.op, new LocLabel(label)));
+			}
+		};
+	}
+
+	/**@brief the first instruction at label, or null if the label isn't in this list.
+	 */
+	private Instruction firstAfter(List<Instruction> ins, String label){
+		Integer at = labels.get(label);
+		if(at == null){
+			return null;
+		}
+		for(int ii = at; ii < ins.size(); ii++){
+			if(ins.get(ii).op != null){
+				return ins.get(ii);
+			}
+		}
+		return null;
+	}
+
+	private Rule unreachable(){
+		return new Rule("unreachable", 1){
+			List<Instruction> apply(List<Instruction> ins, int at){
+				// only reachable by falling through the instructions before it, back to a label
+				for(int ii = at - 1; ii >= 0 && isPlain(ins.get(ii)); ii--){
+					Opcode previous = ins.get(ii).op;
+					if(previous == Opcode.JMP || previous == Opcode.RET){
+						return nothing();
+					}
+				}
+				return null;
+			}
+		};
+	}
+
+	private Rule multiplyShift(){
+		return new Rule("multiply-shift", 1){
+			List<Instruction> apply(List<Instruction> ins, int at){
+				Instruction ii = ins.get(at);
+				if(ii.op != Opcode.IMULQ || !(ii.arg(0) instanceof LocLiteral)){
+					return null;
+				}
+				long factor = ii.arg(0).getValue();
+				if(factor <= 1 || Long.bitCount(factor) != 1 || !flagsDead(ins, at + 1)){
+					return null;
+				}
+				LocLiteral shift = new LocLiteral(Long.numberOfTrailingZeros(factor));
+				return Collections.singletonList(new Instruction(Opcode.SHLQ, shift, ii.arg(1)));
+			}
+		};
+	}
+}
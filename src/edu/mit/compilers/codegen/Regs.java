@@ -8,7 +8,9 @@ public enum Regs {
 	R12("%r12"), R13("%r13"), R14("%r14"), R15("%r15"),
 	RIP("%rip"),
 	/**@brieflower bits of rax. used for comparison.*/
-	AL("%al");
+	AL("%al"),
+	/**@brief lower half of rax. pthread calls return an int in it.*/
+	EAX("%eax");
 	
 
 private final String text;
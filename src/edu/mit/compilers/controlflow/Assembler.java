@@ -17,6 +17,7 @@ import edu.mit.compilers.codegen.LocReg;
 import edu.mit.compilers.codegen.LocRelStack;
 import edu.mit.compilers.codegen.LocStack;
 import edu.mit.compilers.codegen.LocationMem;
+import edu.mit.compilers.codegen.Opcode;
 import edu.mit.compilers.codegen.Regs;
 import edu.mit.compilers.controlflow.Branch.BranchType;
 import edu.mit.compilers.controlflow.Expression.ExpressionType;
@@ -55,6 +56,10 @@ public class Assembler {
     }
 
     public static ControlflowContext generateProgram(IR_Node root) {
+        return generateProgram(root, MethodScheduler.sequential());
+    }
+
+    public static ControlflowContext generateProgram(IR_Node root, MethodScheduler scheduler) {
         ControlflowContext context = new ControlflowContext();
         List<IR_MethodDecl> callouts = new ArrayList<IR_MethodDecl>();
         List<IR_FieldDecl> globals = new ArrayList<IR_FieldDecl> ();
@@ -62,19 +67,33 @@ public class Assembler {
 
         // populate the various internal data structures
         GenerateFlow.generateProgram(root, context, callouts, globals, methods);
-        context = new ControlflowContext();
-        setUp(context, callouts, globals, methods);
-        for (Map.Entry<String, START> entry : methods.entrySet()) {
-            generateMethodDecl(entry, context);
-        }
-        return context;
+        return generateProgram(callouts, globals, methods, scheduler);
     }
     
-    public static ControlflowContext generateProgram(List<IR_MethodDecl> callouts, List<IR_FieldDecl> globals, Map<String, START> methods){
-        ControlflowContext context = new ControlflowContext();
+    public static ControlflowContext generateProgram(List<IR_MethodDecl> callouts, List<IR_FieldDecl> globals, Map<String, START> methods){
+        return generateProgram(callouts, globals, methods, MethodScheduler.sequential());
+    }
+
+    /**
+     * Generates each method in a context forked from the program's, on the given scheduler,
+     * then merges them back in the iteration order of methods. The result is the same as
+     * generating the methods one after another.
+     */
+    public static ControlflowContext generateProgram(List<IR_MethodDecl> callouts, List<IR_FieldDecl> globals,
+            Map<String, START> methods, MethodScheduler scheduler){
+        final ControlflowContext context = new ControlflowContext();
         setUp(context, callouts, globals, methods);
-        for (Map.Entry<String, START> entry : methods.entrySet()) {
-            generateMethodDecl(entry, context);
+        List<ControlflowContext> generated = scheduler.map(new ArrayList<Map.Entry<String, START>>(methods.entrySet()),
+                new MethodScheduler.MethodTask<Map.Entry<String, START>, ControlflowContext>() {
+            @Override
+            public ControlflowContext run(Map.Entry<String, START> method) {
+                ControlflowContext methodContext = context.forkMethod();
+                generateMethodDecl(method, methodContext);
+                return methodContext;
+            }
+        });
+        for (ControlflowContext methodContext : generated) {
+            context.mergeMethod(methodContext);
         }
         return context;
     }
@@ -97,16 +116,16 @@ public class Assembler {
         context.incScope(false);
 
         Instruction tmpIns;
-        context.addIns(new Instruction(".type",new LocLabel(name),new LocLabel("@function")));
-        context.addIns(new Instruction(".text"));
-        context.addIns(new Instruction(".global", new LocLabel(name)));
+        context.addIns(new Instruction(Opcode.TYPE,new LocLabel(name),new LocLabel("@function")));
+        context.addIns(new Instruction(Opcode.TEXT));
+        context.addIns(new Instruction(Opcode.GLOBAL, new LocLabel(name)));
         tmpIns = Instruction.labelInstruction(name);
         context.addIns(tmpIns);
 
         LocReg rbp = new LocReg(Regs.RBP);
         LocReg rsp = new LocReg(Regs.RSP);
-        context.addIns(new Instruction("pushq", rbp));      
-        context.addIns(new Instruction("movq", rsp, rbp ));
+        context.addIns(new Instruction(Opcode.PUSHQ, rbp));      
+        context.addIns(new Instruction(Opcode.MOVQ, rsp, rbp ));
 
         //instructions for potentially saving arguments.
         ArrayList<Instruction> argIns = new ArrayList<Instruction>();
@@ -190,18 +209,21 @@ public class Assembler {
         if (begin.getIsBreak()) {
             ins.addAll(context.decScopeToLoop());
         }
-        ins.add(new Instruction("jmp", new LocLabel(child.getLabel())));
+        ins.add(new Instruction(Opcode.JMP, new LocLabel(child.getLabel())));
         return ins;
     }
 
     private static List<Instruction> generateBranch(Branch begin, ControlflowContext context, boolean isVoid) {
         List<Instruction> ins = new ArrayList<Instruction>();
-        LocReg r10 = new LocReg(Regs.R10);
+        List<Instruction> guards = null;
+        String checkedLabel = null;
+        if (begin.getType() == BranchType.FOR && !begin.getRangeGuards().isEmpty()) {
+            // range guards from BoundsCheckElimination, checked once on entry
+            checkedLabel = context.genLabel();
+            guards = BoundsCheckElimination.generateGuards(begin, checkedLabel, selector(context));
+        }
         ins.add(Instruction.labelInstruction(begin.getLabel()));
-        ins.addAll(generateExpression(begin.getExpr(), context));
-        ins.addAll(context.pop(r10));
-        ins.add(new Instruction("cmp", new LocLiteral(0L), r10));
-        ins.add(new Instruction("je", new LocLabel(begin.getFalseBranch().getLabel())));
+        selector(context).generateBranch(begin.getExpr(), begin.getFalseBranch().getLabel(), ins);
 
         if (begin.getType() == BranchType.IF) {
             // make True branch - either ends at end or when hitting a if with two ends or an unpaired NOp
@@ -234,7 +256,7 @@ public class Assembler {
                     endBranch = (NoOp) next;
                     if (firstNode) {
                         needCleanup = false;
-                        ins.add(new Instruction("jmp", new LocLabel(endBranch.getLabel())));
+                        ins.add(new Instruction(Opcode.JMP, new LocLabel(endBranch.getLabel())));
                         break;
                     }
                 } else if (next instanceof END) {
@@ -297,7 +319,7 @@ public class Assembler {
             }
             if (endBranch != null) {
                 ins.add(Instruction.labelInstruction(endBranch.getLabel()));
-                ins.add(new Instruction("jmp", new LocLabel(endBranch.getChildren().get(0).getLabel())));
+                ins.add(new Instruction(Opcode.JMP, new LocLabel(endBranch.getChildren().get(0).getLabel())));
             }
             context.decScopeWithSideEffects();
 
@@ -339,6 +361,12 @@ public class Assembler {
             }
             ins.add(Instruction.labelInstruction(begin.getFalseBranch().getLabel()));
             context.decScopeWithSideEffects();
+            if (begin.getVectorPlan() != null) {
+                ins = LoopVectorization.generateVectorLoop(begin, ins, selector(context), context);
+            }
+            if (guards != null) {
+                ins = BoundsCheckElimination.versionLoop(begin, ins, guards, checkedLabel, context);
+            }
         } else if (begin.getType() == BranchType.WHILE) {
             FlowNode next;
             if (begin.getIsLimitedWhile()) {
@@ -346,10 +374,7 @@ public class Assembler {
                 ins.addAll(generateNode(incrementer, context, isVoid));
                 Branch innerWhile = (Branch) incrementer.getChildren().get(0);
                 ins.add(Instruction.labelInstruction(innerWhile.getLabel()));
-                ins.addAll(generateExpression(innerWhile.getExpr(), context));
-                ins.addAll(context.pop(r10));
-                ins.add(new Instruction("cmp", new LocLiteral(0L), r10));
-                ins.add(new Instruction("je", new LocLabel(begin.getFalseBranch().getLabel())));
+                selector(context).generateBranch(innerWhile.getExpr(), begin.getFalseBranch().getLabel(), ins);
                 next = innerWhile.getTrueBranch().getChildren().get(0);
             } else {
                 next = begin.getTrueBranch().getChildren().get(0);
@@ -396,20 +421,18 @@ public class Assembler {
         Expression expr = next.getReturnExpression();
         // We only have instructions to add if return value is not void.
         if (expr == null && !isVoid) {
-            stIns.add(new Instruction("movq", 
+            stIns.add(new Instruction(Opcode.MOVQ, 
                     new LocLiteral(CodegenConst.ERR_FUN_RET), new LocReg(Regs.RDI)));
-            stIns.add(new Instruction("call", new LocLabel("exit")));
+            stIns.add(new Instruction(Opcode.CALL, new LocLabel("exit")));
             return stIns;
         }
         if (expr != null) {
-            LocReg r10 = new LocReg(Regs.R10);
-            stIns.addAll(generateExpression(expr, context));
-            stIns.add(new Instruction("pop", r10));
-            stIns.add(new Instruction("mov", r10, new LocReg(Regs.RAX)));
+            LocationMem value = selector(context).evaluateOperand(expr, stIns);
+            stIns.add(new Instruction(Opcode.MOVQ, value, new LocReg(Regs.RAX)));
         }
-        stIns.add(new Instruction("movq", new LocReg(Regs.RBP), new LocReg(Regs.RSP)));
-        stIns.add(new Instruction("leave"));
-        stIns.add(new Instruction("ret"));
+        stIns.add(new Instruction(Opcode.MOVQ, new LocReg(Regs.RBP), new LocReg(Regs.RSP)));
+        stIns.add(new Instruction(Opcode.LEAVE));
+        stIns.add(new Instruction(Opcode.RET));
         return stIns;
     }
 
@@ -470,276 +493,23 @@ public class Assembler {
         return target;
     }
 
-    public static List<Instruction> generateExpression(Expression expr, ControlflowContext context) {
-        List<Instruction> ins = new ArrayList<Instruction>();
-
-        if (expr instanceof MethodCall) {
-            ins = generateCall((MethodCall) expr, context);
-            LocReg rax = new LocReg(Regs.RAX);
-            ins.addAll(context.push(rax));
-            return ins;
-        }else if (expr instanceof AddExpr || expr instanceof MultExpr || expr instanceof DivExpr || expr instanceof ModExpr){
-            ins = generateArithExpr(expr, context);
-            return ins;
-        } else if(expr instanceof CompExpr){
-            CompExpr compare = (CompExpr) expr;
-            ins = generateCompareOp(compare, context);
-            return ins;
-        } else if ((expr instanceof CondExpr) || (expr instanceof NotExpr)) {
-            ins = generateCondOp(expr, context);
-            return ins;
-        } else if (expr instanceof EqExpr){
-            EqExpr eq= (EqExpr) expr;
-            ins = generateEqOp(eq, context);
-            return ins;
-        } else if (expr instanceof NegateExpr) {
-            NegateExpr negation = (NegateExpr) expr;
-            LocReg r10 = new LocReg(Regs.R10);
-            ins = generateExpression(negation.getExpression(), context);
-            ins.addAll(context.pop(r10)); //Get whatever that expr was off stack
-            ins.add(new Instruction("negq", r10)); //negate it
-            ins.addAll(context.push(r10)); //push it back to stack
-            return ins;
-        } else if (expr instanceof Ternary){
-            Ternary ternary = (Ternary)expr;
-            ins = generateTernaryOp(ternary, context);
-            return ins;
-        }else if(expr instanceof Var){
-            Var var = (Var) expr;
-            ins = generateVarExpr(var, context);
-            return ins;
-        } else if (expr instanceof IntLit || expr instanceof BoolLit) {
-            ins = generateLiteral(expr, context);
-            return ins;
-        } else {
-            System.err.println("Unexpected Node type passed to generateExpr: " + expr.getClass().getSimpleName());
-            System.err.println("The node passed in was of type " + expr.getExprType().toString());
-        }
-        ins = null; 
-
-
-
-        return ins;
-    }
-
-    private static List<Instruction> generateLiteral(Expression expr,
-            ControlflowContext context) {
-        List<Instruction> ins = new ArrayList<Instruction>();
-
-        if (expr instanceof IntLit) {
-            IntLit int_literal = (IntLit) expr;
-            if(int_literal.getValue()>Integer.MAX_VALUE || 
-                    int_literal.getValue()<Integer.MIN_VALUE ){
-                LocReg rax = new LocReg(Regs.RAX);
-                ins.add(new Instruction("movabsq",new LocLiteral(int_literal.getValue()),rax));
-                ins.addAll(context.push(rax));
-
-            }else{
-                ins.addAll(context.push(new LocLiteral(int_literal.getValue())));
-            }
-        } 
-        else if (expr instanceof BoolLit) {
-            BoolLit bool_literal = (BoolLit) expr;
-            if (bool_literal.getTruthValue()) {
-                ins = context.push(new LocLiteral(CodegenConst.BOOL_TRUE));
-            } else {
-                ins = context.push(new LocLiteral(CodegenConst.BOOL_FALSE));
-            }
-        }
-        return ins;
-    }
-
-    private static List<Instruction>  generateVarExpr(Var var,
-            ControlflowContext context) {
-        List<Instruction> ins = new ArrayList<Instruction>();
-        LocationMem loc = generateVarLoc(var, context, ins);
-        ins.addAll(context.push(loc));
-        return ins;
-    }
-
-    private static List<Instruction> generateTernaryOp(Ternary ternary,
-            ControlflowContext context) {
-        List<Instruction> ins = new ArrayList<Instruction>();
-        LocReg r10 = new LocReg(Regs.R10);
-        String labelForFalse = context.genLabel();
-        String labelForDone = context.genLabel();
-        List<Instruction> trueInstructs = generateExpression(ternary.getTrueBranch(), context);
-        List<Instruction> falseInstructs = generateExpression(ternary.getFalseBranch(), context);
-
-        ins.addAll(generateExpression(ternary.getTernaryCondition(), context)); //Get result of conditional onto the stack by resolving it. 
-        ins.addAll(context.pop(r10)); //pop result into r10.
-        ins.add(new Instruction("cmp", new LocLiteral(1L), r10)); //Compare r10 against truth
-        ins.add(new Instruction("jne", new LocLabel(labelForFalse))); //If result isn't equal, r10 is 0, meaning we take the false branch.
-        ins.addAll(trueInstructs); //If we don't jump, resolve the true branch 
-        ins.add(new Instruction("jmp", new LocLabel(labelForDone))); //jump to being done
-        ins.add(Instruction.labelInstruction(labelForFalse)); //If we jump, we jump here.
-        ins.addAll(falseInstructs); //Resolve the false branch. 
-        ins.add(Instruction.labelInstruction(labelForDone)); //This is where we'd jump to if we resolved the true version, which skips over the whole false branch. 
-        return ins; //We're done, return the list.
-    }
-
-    private static List<Instruction> generateEqOp(EqExpr eq,
-            ControlflowContext context) {
-        List<Instruction> ins = new ArrayList<Instruction>();
-        LocReg r10 = new LocReg(Regs.R10);
-        LocReg r11 = new LocReg(Regs.R11);
-        ins.addAll(generateExpression(eq.getLeftSide(), context));
-        ins.addAll(generateExpression(eq.getRightSide(), context));
-        ins.addAll(context.pop(r10));
-        ins.addAll(context.pop(r11));
-        ins.add(new Instruction("cmp", r10, r11));
-        ins.add(new Instruction("mov", new LocLiteral(0L), r11));
-        ins.add(new Instruction("mov", new LocLiteral(1L), r10));
-        String op = eq.getOperator() == Ops.EQUALS ? "cmove" : "cmovne";
-        ins.add(new Instruction(op, r10, r11));
-        ins.addAll(context.push(r11));
-        return ins;
-    }
-
-    private static List<Instruction> generateCondOp(Expression expr,
-            ControlflowContext context) {
-        LocLiteral zero = new LocLiteral(0);
-        LocLiteral one = new LocLiteral(1);
-
-        String tLabel = context.genLabel();
-        String fLabel = context.genLabel();
-
-        ShortCircuitNode.SCLabel t = new ShortCircuitNode.SCLabel(tLabel);
-        ShortCircuitNode.SCLabel f = new ShortCircuitNode.SCLabel(fLabel);
-        String endLabel = context.genLabel();
-
-        ShortCircuitNode cfg = ShortCircuitNode.shortCircuit(expr, t, f);
-
-        List<Instruction> ins = cfg.codegen(context, false);
-
-        ins.add(Instruction.labelInstruction(tLabel));
-        ins.add(new Instruction("pushq", one));
-        LocLabel end = new LocLabel(endLabel);
-        ins.add(new Instruction("jmp",  end));
-        ins.add(Instruction.labelInstruction(fLabel));
-        ins.add(new Instruction("pushq", zero));
-
-        ins.add(Instruction.labelInstruction(endLabel));
-        ins.add(new Instruction("nop"));
-        return ins;
-    }
-
-    private static List<Instruction> generateCompareOp(CompExpr compare,
-            ControlflowContext context) {
-        List<Instruction> ins = new ArrayList<Instruction>();
-        Ops op = compare.getOperator();
-        Expression left = compare.getLeftSide();
-        Expression right = compare.getRightSide();
-        LocReg r10 = new LocReg(Regs.R10);
-        LocReg r11 = new LocReg(Regs.R11);
-        ins.addAll(generateExpression(left,context));
-        ins.addAll(generateExpression(right, context));
-        ins.addAll(context.pop(r11));
-        ins.addAll(context.pop(r10));
-        String cmd = "";
-        switch(op){
-        case GT:
-            cmd = "setg";
-            break;
-        case GTE:
-            cmd = "setge";
-            break;
-        case EQUALS:
-            cmd = "sete";
-            break;
-        case NOT_EQUALS:
-            cmd = "setne";
-            break;
-        case LT:
-            cmd = "setl";
-            break;
-        case LTE:
-            cmd = "setle";
-            break;
-        default:
-            throw new RuntimeException("called generateCompareOp without valid compare op - op was " + compare.getOperator());
-        }
-        ins.add(new Instruction("cmpq", r11,r10));
-        LocReg al = new LocReg(Regs.AL);
-        ins.add(new Instruction(cmd, al));
-        //zero bit extension
-        ins.add(new Instruction("movzbq", al, r10));
-        ins.addAll(context.push(r10));
-        return ins;
-    }
-
-    private static List<Instruction> generateArithExpr(Expression expr,
-            ControlflowContext context) {
-        List<Instruction> ins = new ArrayList<Instruction>();
-        Ops op;
-        Expression left, right;
-        LocReg r10 = new LocReg(Regs.R10);
-        LocReg r11 = new LocReg(Regs.R11);
-        if (expr instanceof AddExpr) {
-            AddExpr add = (AddExpr) expr;
-            op = add.getOperator();
-            left = add.getLeftSide();
-            right = add.getRightSide();
-        } else if (expr instanceof MultExpr) {
-            MultExpr mult = (MultExpr) expr;
-            op = mult.getOperator();
-            left = mult.getLeftSide();
-            right = mult.getRightSide();
-        } else if (expr instanceof DivExpr) {
-            DivExpr div = (DivExpr) expr;
-            op = div.getOperator();
-            left = div.getLeftSide();
-            right = div.getRightSide();
-        } else {
-            ModExpr mod = (ModExpr) expr;
-            op = mod.getOperator();
-            left = mod.getLeftSide();
-            right = mod.getRightSide();
-        }
-        ins.addAll(generateExpression(left,context));
-        ins.addAll(generateExpression(right, context));
-        ins.addAll(context.pop(r11));
-        ins.addAll(context.pop(r10));
-
-        if(!(op == Ops.DIVIDE || op==Ops.MOD)){
-            String cmd = "";
-            switch (op){ //PLUS, MINUS, TIMES
-            case PLUS:
-                cmd = "addq";
-                break;
-            case MINUS:
-                cmd = "subq";
-                break;
-            case TIMES:
-                cmd = "imulq";
-                break;
-            default:
-                throw new RuntimeException("mistakes were made - should have been plus/minus/times in generateArithExpr of assembler");
-            }
-            ins.add(new Instruction(cmd, r11, r10));
-            ins.addAll(context.push(r10));
-        }else{
-            LocReg rdx = new LocReg(Regs.RDX);
-            LocReg rax = new LocReg(Regs.RAX);
-            ins.addAll(context.push(rdx));
-            ins.add(new Instruction("movq", r10, rax));
-            ins.add(new Instruction("cqto"));
-            ins.add(new Instruction("idivq", r11));//Divide rdx:rax by r11 contents - i.e divide lhs by rhs.
-            if(op==Ops.MOD){
-                ins.add(new Instruction("movq", rdx, rax));
+    /**
+     * Expression selector for one statement, branch or return, making calls with generateCall.
+     */
+    private static ExpressionSelector selector(ControlflowContext context) {
+        return new ExpressionSelector(context) {
+            @Override
+            public List<Instruction> generateCall(MethodCall call) {
+                return Assembler.generateCall(call, context, this);
             }
-            ins.addAll(context.pop(rdx));
-            ins.addAll(context.push(rax));          
-        }
-        return ins;
+        };
     }
-
     private static List<Instruction> generateStatement(Statement stat, ControlflowContext context) {
         List<Instruction> ins = new ArrayList<Instruction>();
         if (stat instanceof Assignment) {
             ins.addAll(generateAssign((Assignment) stat, context));
         } else if (stat instanceof MethodCallStatement) {
-            ins.addAll(generateCall(((MethodCallStatement) stat).getMethodCall(), context));
+            ins.addAll(selector(context).generateCall(((MethodCallStatement) stat).getMethodCall()));
         } else if (stat instanceof Declaration) {
             ins.addAll(generateFieldDecl((Declaration) stat, context));
         } else {
@@ -753,34 +523,15 @@ public class Assembler {
         Ops op = assign.getOperator();
         Var lhs = assign.getDestVar();
         Expression rhs = assign.getValue();
+        ExpressionSelector selector = selector(context);
 
-        ins.addAll(generateExpression(rhs,context));
-        LocReg r10 = new LocReg(Regs.R10);
-        LocReg r11 = new LocReg(Regs.R11);
-        LocationMem dst= generateVarLoc(lhs, context, ins);
-        ins.addAll(context.pop(r10));
-        if(op != Ops.ASSIGN){
-            String cmd = null;
-            switch(op){
-            case ASSIGN_PLUS:
-                cmd = "addq";
-                break;
-            case ASSIGN_MINUS:
-                cmd = "subq";
-                break;
-            default:
-                break;
-            }
-            ins.add(new Instruction("movq", dst, r11));
-            ins.add(new Instruction(cmd, r10, r11));
-            ins.add(new Instruction("movq", r11, dst));
-        }else{
-            ins.add(new Instruction("movq", r10, dst));
-        }
+        LocationMem value = selector.evaluateSource(rhs, lhs, ins);
+        LocationMem dst = selector.location(lhs, ins);
+        selector.store(op, value, dst, ins);
         return ins;
     }
-
-    private static List<Instruction> generateCall(MethodCall call, ControlflowContext context) {
+    private static List<Instruction> generateCall(MethodCall call, ControlflowContext context,
+            ExpressionSelector selector) {
         ArrayList<Instruction> ins = new ArrayList<Instruction>();
         List<Expression> args = call.getArguments();
         for(int ii = 0; ii < args.size(); ii++){
@@ -795,7 +546,7 @@ public class Assembler {
                     context.stringLiterals.put(ss, idx);
                 }
             }else{
-                List<Instruction> exprIns = generateExpression(arg, context);
+                List<Instruction> exprIns = selector.generateExpression(arg);
                 ins.addAll(exprIns);
             }
         }
@@ -805,7 +556,7 @@ public class Assembler {
             LocationMem argSrc;
             if (arg.getExprType() == ExpressionType.STRING_LIT){
                 Long idx = context.stringLiterals.get(((StringLit) arg).getValue());
-                argSrc = new LocLabel("$" + ControlflowContext.StringLiteralLoc(idx));
+                argSrc = new LocLabel("$" + context.stringLiteralLabel(idx));
             } else {
                 argSrc = new LocRelStack(offset);
                 offset = offset + CodegenConst.INT_SIZE;
@@ -819,9 +570,13 @@ public class Assembler {
         if(call.getIsCallout()){
             //# of floating point registers is stored in rax
             //need to zero it for callouts.
-            ins.add(new Instruction("movq", new LocLiteral(0),  new LocReg(Regs.RAX)));         
+            ins.add(new Instruction(Opcode.MOVQ, new LocLiteral(0),  new LocReg(Regs.RAX)));         
+        }
+        if (call.getIsCallout() && args.size() <= CodegenConst.N_REG_ARG) {
+            ins.addAll(context.alignedCall(call.getMethodName()));
+        } else {
+            ins.add(new Instruction(Opcode.CALL, new LocLabel(call.getMethodName())));
         }
-        ins.add(new Instruction("call ", new LocLabel(call.getMethodName()) ));
 
         //pop all arguments on the stack (Strings aren't pushed to stack in first place)
         for (int ii = args.size() - 1; ii >= 0; ii--) {
@@ -855,7 +610,7 @@ public class Assembler {
         }
         LocStack loc = context.allocLocal(size);
         LocLiteral sizeLoc= new LocLiteral(size);
-        ins.add(new Instruction("subq", sizeLoc, new LocReg(Regs.RSP)));
+        ins.add(new Instruction(Opcode.SUBQ, sizeLoc, new LocReg(Regs.RSP)));
         d.setLocation(loc);
         context.putSymbol(name, d);
         if(type == Type.INTARR || type == Type.BOOLARR){
@@ -865,62 +620,20 @@ public class Assembler {
             String ll = context.genLabel();
             LocLabel jmpLabel = new LocLabel(ll);
             LocLiteral zero = new LocLiteral(0);
-            ins.add(new Instruction("movq", zero,rax));
+            ins.add(new Instruction(Opcode.MOVQ, zero,rax));
             ins.add(Instruction.labelInstruction(ll));
-            ins.add(new Instruction("movq", zero, new LocArray(loc, rax, CodegenConst.INT_SIZE)));
-            ins.add(new Instruction("addq", new LocLiteral(1), rax));
-            ins.add(new Instruction("cmpq", lenLoc, rax));
-            ins.add(new Instruction("jl", jmpLabel));
+            ins.add(new Instruction(Opcode.MOVQ, zero, new LocArray(loc, rax, CodegenConst.INT_SIZE)));
+            ins.add(new Instruction(Opcode.ADDQ, new LocLiteral(1), rax));
+            ins.add(new Instruction(Opcode.CMPQ, lenLoc, rax));
+            ins.add(new Instruction(Opcode.JL, jmpLabel));
 
         }
         else{
-            ins.add(new Instruction("movq", new LocLiteral(0), loc));
+            ins.add(new Instruction(Opcode.MOVQ, new LocLiteral(0), loc));
         }
         return ins;
     }
 
-    private static LocationMem generateVarLoc(Var var, ControlflowContext context, List<Instruction> ins) {
-        Descriptor d = context.findSymbol(var.getName());
-        switch (d.getIR().getType()) {
-        case INT:
-        case BOOL:
-            return d.getLocation();
-        case INTARR:
-        case BOOLARR:
-            // should be safe, since var is a Var, and the descriptor of a Var should have an IR_Var
-            Expression index = var.getIndex();
-            IR_FieldDecl decl = (IR_FieldDecl)d.getIR();
-            LocArray loc_array = null;
-            long len = decl.getLength().getValue();
-            if (index.getExprType() == ExpressionType.INT_LIT) {
-                IntLit index_int = (IntLit) var.getIndex();
-                loc_array = new LocArray(d.getLocation(), 
-                        new LocLiteral(index_int.getValue()), CodegenConst.INT_SIZE);
-
-                if(index_int.getValue() >= len || index_int.getValue() < 0){
-                    //statically throw error
-                    ins.add(new Instruction("jmp", new LocLabel(context.getArrayBoundLabel())));
-                }
-
-            } else {
-                // evaluate index and push index location to stack
-                ins.addAll(generateExpression(index, context));
-                //must not use r11 or r10 here since in assign, they may be used
-                LocReg rax = new LocReg(Regs.RAX);
-                // saves offset at R11
-                ins.add(new Instruction("popq", rax));
-                loc_array = new LocArray(d.getLocation(), rax, CodegenConst.INT_SIZE);
-                ins.add(new Instruction("cmpq", new LocLiteral(len), rax));
-                ins.add(new Instruction("jge", new LocLabel(context.getArrayBoundLabel())));
-                ins.add(new Instruction("cmpq", new LocLiteral(0L), rax));
-                ins.add(new Instruction("jl", new LocLabel(context.getArrayBoundLabel())));
-            }
-            return loc_array;
-        default:
-            return null;
-        }
-    }
-
     /**@brief registers used for function arguments.
      * 
      */
@@ -945,7 +658,7 @@ public class Assembler {
         ArrayList<Instruction> ins=new ArrayList<Instruction>();
         if(idx<CodegenConst.N_REG_ARG){
             LocationMem argDst = argLoc(idx);
-            ins.add(new Instruction("movq", argSrc, argDst));
+            ins.add(new Instruction(Opcode.MOVQ, argSrc, argDst));
         }else{
             ins.addAll(context.push(argSrc));
         }
@@ -1,5 +1,7 @@
 package edu.mit.compilers.controlflow;
 
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
@@ -7,97 +9,200 @@ import java.util.Set;
 
 import edu.mit.compilers.ir.IR_FieldDecl;
 
+/**
+ * Dense liveness bitvector over the IR_FieldDecls of a single method.
+ * Every IR_FieldDecl is numbered once when the first vector for a method is built;
+ * all copies share that numbering, so each bit is just a position in a packed long[].
+ * Union, difference and equality all work one 64-bit word at a time.
+ */
 public class Bitvector {
-	private Map<IR_FieldDecl, Integer> vector = new HashMap<IR_FieldDecl, Integer>();
-	
+	private static final int WORD_BITS = 64;
+
+	private final Numbering numbering;
+	private long[] words;
+
+	/**
+	 * Shared IR_FieldDecl -> bit index assignment for every vector derived from the same method.
+	 * It can grow if someone sets a bit for a decl that was not seen when the method was scanned;
+	 * vectors that are shorter than the numbering treat the missing words as zeros.
+	 */
+	private static class Numbering {
+		private Map<IR_FieldDecl, Integer> indices = new HashMap<IR_FieldDecl, Integer>();
+		private List<IR_FieldDecl> decls = new ArrayList<IR_FieldDecl>();
+
+		int indexOf(IR_FieldDecl decl) {
+			Integer index = indices.get(decl);
+			return index == null ? -1 : index;
+		}
+
+		int addDecl(IR_FieldDecl decl) {
+			int index = indexOf(decl);
+			if (index < 0) {
+				index = decls.size();
+				indices.put(decl, index);
+				decls.add(decl);
+			}
+			return index;
+		}
+
+		int size() {
+			return decls.size();
+		}
+	}
+
+	/**
+	 * Numbers every IR_FieldDecl in the set and creates an all-zero vector over them.
+	 * @param allFieldDecls : every variable that may be tracked in this method.
+	 */
 	public Bitvector(Set<IR_FieldDecl> allFieldDecls){
+		this.numbering = new Numbering();
 		for (IR_FieldDecl var : allFieldDecls){
-			this.vector.put(var, 0); //initialize everything to 0s  
+			numbering.addDecl(var);
 		}
+		this.words = new long[wordsFor(numbering.size())]; //initialize everything to 0s
 	}
-	
-	public Bitvector(Map<IR_FieldDecl, Integer> startingVector){
-		this.vector = startingVector;
-	}
-	
+
 	public Bitvector(Bitvector vectorToCopy){
-		this.vector = vectorToCopy.copyVectorMap();
+		this.numbering = vectorToCopy.numbering;
+		this.words = vectorToCopy.words.clone();
 	}
-	
-	public void setVectorVal(IR_FieldDecl variable, int value){
-		this.vector.put(variable, value);
+
+	private static int wordsFor(int bits) {
+		return (bits + WORD_BITS - 1) / WORD_BITS;
+	}
+
+	private void ensureCapacity(int wordCount) {
+		if (words.length < wordCount) {
+			words = Arrays.copyOf(words, wordCount);
+		}
 	}
-	
-	public Map<IR_FieldDecl, Integer> getVectorMap(){
-		return this.vector;
+
+	public void setVectorVal(IR_FieldDecl variable, int value){
+		int index = numbering.addDecl(variable);
+		ensureCapacity(index / WORD_BITS + 1);
+		if (value == 0) {
+			words[index / WORD_BITS] &= ~(1L << index);
+		} else {
+			words[index / WORD_BITS] |= 1L << index;
+		}
 	}
-	
+
+	/**
+	 * Returns 1 if the variable is live, 0 if it is not, and null if the variable was never numbered for this method.
+	 */
 	public Integer get(IR_FieldDecl variableName){
-		return this.vector.get(variableName);
+		int index = numbering.indexOf(variableName);
+		if (index < 0) {
+			return null;
+		}
+		return isSet(index) ? 1 : 0;
 	}
-		
+
+	private boolean isSet(int index) {
+		int word = index / WORD_BITS;
+		return word < words.length && (words[word] & (1L << index)) != 0;
+	}
+
 	/**
-	 * Makes absolutely certain to
-	 * deep copy the IR_FieldDecl, Integer map that I use to track bit vectors.
-	 * These are immutables so this is overkill, but whatever.
-	 * @param liveVector : The bitvector map we want to copy.
+	 * Lists every IR_FieldDecl whose bit is currently 1, in numbering order.
 	 */
-	public Map<IR_FieldDecl, Integer> copyVectorMap(){
-		Map<IR_FieldDecl, Integer> vectorCopy = new HashMap<IR_FieldDecl, Integer>();
-		for (IR_FieldDecl key : vector.keySet()){
-			vectorCopy.put(key,vector.get(key));
+	public List<IR_FieldDecl> getLiveFieldDecls(){
+		List<IR_FieldDecl> live = new ArrayList<IR_FieldDecl>();
+		for (int i = 0; i < words.length; i++) {
+			long word = words[i];
+			while (word != 0) {
+				int bit = Long.numberOfTrailingZeros(word);
+				live.add(numbering.decls.get(i * WORD_BITS + bit));
+				word &= word - 1;
+			}
 		}
-		return vectorCopy;
+		return live;
 	}
-	
+
 	public Bitvector copyBitvector(){
-		Map<IR_FieldDecl, Integer> mapCopy = copyVectorMap();
-		return new Bitvector(mapCopy);
+		return new Bitvector(this);
 	}
-	
+
+	/**
+	 * Overwrites this vector with the contents of another vector from the same method, reusing this vector's storage.
+	 * @param other : Bitvector to copy from.
+	 */
+	public void copyFrom(Bitvector other){
+		ensureCapacity(other.words.length);
+		System.arraycopy(other.words, 0, words, 0, other.words.length);
+		Arrays.fill(words, other.words.length, words.length, 0L);
+	}
+
 	public boolean compareBitvectorEquality(Bitvector other){
-		Map<IR_FieldDecl, Integer> otherMap = other.getVectorMap();
-		for (IR_FieldDecl key : otherMap.keySet()){
-			if (!otherMap.get(key).equals(vector.get(key))){
+		long[] shorter = words.length <= other.words.length ? words : other.words;
+		long[] longer = shorter == words ? other.words : words;
+		for (int i = 0; i < shorter.length; i++) {
+			if (shorter[i] != longer[i]) {
+				return false;
+			}
+		}
+		for (int i = shorter.length; i < longer.length; i++) {
+			if (longer[i] != 0) {
 				return false;
 			}
 		}
 		return true;
 	}
+
+	/**
+	 * In place union: this = this | other.
+	 * @param other : Bitvector from the same method.
+	 * @return true if any bit of this vector changed.
+	 */
+	public boolean unionInPlace(Bitvector other){
+		ensureCapacity(other.words.length);
+		long changed = 0;
+		for (int i = 0; i < other.words.length; i++) {
+			long merged = words[i] | other.words[i];
+			changed |= merged ^ words[i];
+			words[i] = merged;
+		}
+		return changed != 0;
+	}
+
+	/**
+	 * In place difference: this = this & ~other.
+	 * @param other : Bitvector from the same method.
+	 * @return true if any bit of this vector changed.
+	 */
+	public boolean differenceInPlace(Bitvector other){
+		int common = Math.min(words.length, other.words.length);
+		long changed = 0;
+		for (int i = 0; i < common; i++) {
+			long remaining = words[i] & ~other.words[i];
+			changed |= remaining ^ words[i];
+			words[i] = remaining;
+		}
+		return changed != 0;
+	}
+
 	/**
 	 * Simple helper method for computing the unison of bitvectors.
-	 * It starts with an all zero bitvector, and scans through all the vectors that need to be unisoned; 
-	 * If an entry in one of the scanned vectors is one, the originally all-zero bitvector is updated to have a 1 in that position.
+	 * It starts with a copy of the current values and ORs in the vector of every child, a word at a time.
 	 * Thus, once iteration is finished, if any vector in the set for unification had a one in a given position, the final bitvector will have a one
 	 * in that position, otherwise, it will have a zero. This is correct behavior.
-	 * 
+	 *
 	 * @param children : List<FlowNode> of the children for the current FlowNode. Since we walk backwards, need children, not parents.
-	 * @param vectorStorage : The Map<FlowNode, Map<IR_FieldDecl, Integer>> we use to keep track of the bit vector for a given FlowNode at exit of that node. 
-	 * @param Set<IR_FieldDecl> allVars : List of all Var names in the program, so we can easily initialize the all-zero bitvector. 
+	 * @param vectorStorageOUT : The Map<FlowNode, Bitvector> we use to keep track of the bit vector for a given FlowNode at exit of that node.
+	 * @param currentValues : Bitvector the result starts from. It is not modified.
 	 */
 	public static Bitvector childVectorUnison(List<FlowNode> children, Map<FlowNode, Bitvector> vectorStorageOUT, Bitvector currentValues) {
-		Map<IR_FieldDecl, Integer> nextMap;
 		Bitvector finalMap = currentValues.copyBitvector(); //make new bit vector copy of what you currently care about
 		for(int i = 0; i < children.size(); i++){ //For all children of this node
-			nextMap = vectorStorageOUT.get(children.get(i)).getVectorMap(); //get their map from storage
-			for(IR_FieldDecl key : nextMap.keySet()){ //iterate through the keys in the map
-				if(nextMap.get(key).equals(1)){ //if we find a key with a value of one
-					finalMap.setVectorVal(key, 1); //put 1 in the finalMap in that location. 
-				}
-			}
+			finalMap.unionInPlace(vectorStorageOUT.get(children.get(i)));
 		}
-		return finalMap; //Any map that had a 1 for a var will have set a 1 for the corresponding place in finalMap; everything else will be 0 as intended.
+		return finalMap;
 	}
-	
+
 	public Bitvector vectorUnison(Bitvector other){
-		Bitvector currentCopy = new Bitvector(this.copyVectorMap());
-		Map<IR_FieldDecl, Integer> otherMap = other.getVectorMap();
-		for (IR_FieldDecl key : otherMap.keySet()){
-			if(otherMap.get(key).equals(1)){
-				currentCopy.setVectorVal(key, 1);
-			}
-		}
+		Bitvector currentCopy = copyBitvector();
+		currentCopy.unionInPlace(other);
 		return currentCopy;
 	}
-	
+
 }
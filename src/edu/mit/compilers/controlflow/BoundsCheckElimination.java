@@ -0,0 +1,416 @@
+package edu.mit.compilers.controlflow;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import edu.mit.compilers.codegen.Instruction;
+import edu.mit.compilers.codegen.LocLabel;
+import edu.mit.compilers.codegen.LocationMem;
+import edu.mit.compilers.codegen.Opcode;
+import edu.mit.compilers.controlflow.InductionAnalysis.Affine;
+import edu.mit.compilers.controlflow.InductionAnalysis.Loop;
+import edu.mit.compilers.ir.IR_FieldDecl;
+import edu.mit.compilers.ir.Ops;
+
+/**
+ * Removes array bounds checks whose index is known to stay in range inside a FOR loop.
+ *
+ * Inside the body of "for (i = start, end)", i only takes values from its value on entry up
+ * to end - 1, as long as i is changed by nothing but the increments GenerateFlow puts on the
+ * back edges and end doesn't change while the loop runs. Every array index in the body is
+ * written, where possible, as an affine form c0 + c1*x1 + ... over i and variables the loop
+ * doesn't assign (assignments earlier in the same Codeblock are substituted), so the lowest
+ * and highest index the loop can use are affine forms too, evaluated once before the loop.
+ *
+ * If both ends are constants and in bounds, the check is dropped. Otherwise the conditions
+ * "highest < length" and "lowest >= 0" become range guards of the loop, together with bounds
+ * on the variables involved so none of these forms can overflow. Guards with the same variable
+ * part are merged, so image[r*2193 + c*3 + 0..2] costs two guards for the whole loop.
+ *
+ * The code generators then version guarded loops: the guards are checked at the loop entry,
+ * and the loop is emitted twice, once without the guarded checks for when all guards hold and
+ * once unchanged for when any of them fails. A failing guard only picks the checked copy, so an
+ * out of bounds access still fails at the same point, after the same side effects.
+ */
+public class BoundsCheckElimination {
+    /**
+     * Loops bigger than this are not versioned, to keep nested versioned loops from blowing up
+     * the code size.
+     */
+    private static final int MAX_VERSIONED_INSTRUCTIONS = 4000;
+
+    private final Collection<START> methods;
+    private final InductionAnalysis analysis;
+    private int checksRemoved = 0;
+    private int checksGuarded = 0;
+    private int guardsAdded = 0;
+    /** guards collected for each loop, until emitGuards turns them into range guards */
+    private final Map<Loop, Guards> loopGuards = new HashMap<Loop, Guards>();
+
+    /**
+     * The merged conditions of one FOR loop.
+     */
+    private static class Guards {
+        final LinkedHashMap<String, Affine> upper = new LinkedHashMap<String, Affine>();
+        final Map<String, Long> upperLength = new HashMap<String, Long>();
+        final LinkedHashMap<String, Affine> lower = new LinkedHashMap<String, Affine>();
+        boolean endGuarded = false;
+    }
+
+    /**
+     * The decision for one array element, shared by every place the same Var object is used.
+     */
+    private static class Access {
+        Loop loop;
+        boolean inBounds;
+        final List<Affine> upper = new ArrayList<Affine>();
+        final List<Affine> lower = new ArrayList<Affine>();
+        long length;
+        boolean needsEnd;
+    }
+
+    /**
+     * @param methods : START nodes of the methods.
+     * @param globals : global variables, which calls can change.
+     */
+    public BoundsCheckElimination(Collection<START> methods, List<IR_FieldDecl> globals) {
+        this.methods = methods;
+        this.analysis = new InductionAnalysis(globals);
+    }
+
+    /**
+     * Marks the array elements whose bounds checks can go and adds range guards to the loops
+     * that need them.
+     * @return true if any check was removed or guarded.
+     */
+    public boolean run() {
+        for (START method : methods) {
+            runMethod(method);
+        }
+        return checksRemoved + checksGuarded > 0;
+    }
+
+    /**
+     * Array elements whose check is gone for good.
+     */
+    public int getChecksRemoved() {
+        return checksRemoved;
+    }
+
+    /**
+     * Array elements whose check is left out whenever their loop's range guards hold.
+     */
+    public int getChecksGuarded() {
+        return checksGuarded;
+    }
+
+    public int getGuardsAdded() {
+        return guardsAdded;
+    }
+
+    private void runMethod(START method) {
+        List<FlowNode> nodes = InductionAnalysis.collectNodes(method);
+        List<Loop> loops = new ArrayList<Loop>();
+        Map<FlowNode, Loop> innermost = new HashMap<FlowNode, Loop>();
+        for (FlowNode node : nodes) {
+            if (node instanceof Branch && ((Branch) node).getType() == Branch.BranchType.FOR) {
+                Loop loop = analysis.analyzeLoop((Branch) node);
+                loops.add(loop);
+                loopGuards.put(loop, new Guards());
+                for (FlowNode member : loop.region) {
+                    Loop current = innermost.get(member);
+                    if (current == null || current.region.size() > loop.region.size()) {
+                        innermost.put(member, loop);
+                    }
+                }
+            }
+        }
+        // Decide for every array element in the method, including those outside loops, since
+        // optimizations can leave the same Var object in more than one place.
+        Map<Var, Access> accesses = new IdentityHashMap<Var, Access>();
+        List<Var> order = new ArrayList<Var>();
+        for (FlowNode node : nodes) {
+            Loop loop = innermost.get(node);
+            if (node instanceof Codeblock) {
+                Codeblock block = (Codeblock) node;
+                List<Statement> statements = block.getStatements();
+                for (int i = 0; i < statements.size(); i++) {
+                    Statement st = statements.get(i);
+                    if (st instanceof Assignment) {
+                        Assignment assign = (Assignment) st;
+                        visitAccesses(assign.getDestVar(), loop, block, i, accesses, order);
+                        visitAccesses(assign.getValue(), loop, block, i, accesses, order);
+                    } else if (st instanceof MethodCallStatement) {
+                        visitAccesses(((MethodCallStatement) st).getMethodCall(), loop, block, i, accesses, order);
+                    }
+                }
+            } else if (node instanceof Branch) {
+                visitAccesses(((Branch) node).getExpr(), loop, null, 0, accesses, order);
+            } else if (node instanceof END) {
+                Expression ret = ((END) node).getReturnExpression();
+                if (ret != null) {
+                    visitAccesses(ret, loop, null, 0, accesses, order);
+                }
+            }
+        }
+        for (Var var : order) {
+            Access access = accesses.get(var);
+            if (access.inBounds) {
+                var.setIndexInBounds(true);
+                checksRemoved++;
+            } else if (access.loop != null) {
+                var.setIndexGuard(access.loop.branch);
+                addGuards(access);
+                checksGuarded++;
+            }
+        }
+        for (Loop loop : loops) {
+            emitGuards(loop);
+        }
+    }
+
+
+    private void visitAccesses(Expression expr, Loop loop, Codeblock block, int position,
+            Map<Var, Access> accesses, List<Var> order) {
+        if (expr instanceof Var) {
+            Var var = (Var) expr;
+            if (!var.isArray()) {
+                return;
+            }
+            visitAccesses(var.getIndex(), loop, block, position, accesses, order);
+            if (var.getIndex() instanceof IntLit) {
+                return;
+            }
+            Access access = analyzeAccess(var, loop, block, position);
+            Access previous = accesses.get(var);
+            if (previous == null) {
+                accesses.put(var, access);
+                order.add(var);
+            } else if (previous.inBounds != access.inBounds || previous.loop != access.loop) {
+                previous.inBounds = false;
+                previous.loop = null;
+            } else {
+                previous.upper.addAll(access.upper);
+                previous.lower.addAll(access.lower);
+                previous.needsEnd |= access.needsEnd;
+            }
+        } else if (expr instanceof BinExpr) {
+            visitAccesses(((BinExpr) expr).getLeftSide(), loop, block, position, accesses, order);
+            visitAccesses(((BinExpr) expr).getRightSide(), loop, block, position, accesses, order);
+        } else if (expr instanceof NotExpr) {
+            visitAccesses(((NotExpr) expr).getUnresolvedExpression(), loop, block, position, accesses, order);
+        } else if (expr instanceof NegateExpr) {
+            visitAccesses(((NegateExpr) expr).getExpression(), loop, block, position, accesses, order);
+        } else if (expr instanceof Ternary) {
+            Ternary tern = (Ternary) expr;
+            visitAccesses(tern.getTernaryCondition(), loop, block, position, accesses, order);
+            visitAccesses(tern.getTrueBranch(), loop, block, position, accesses, order);
+            visitAccesses(tern.getFalseBranch(), loop, block, position, accesses, order);
+        } else if (expr instanceof MethodCall) {
+            for (Expression arg : ((MethodCall) expr).getArguments()) {
+                visitAccesses(arg, loop, block, position, accesses, order);
+            }
+        }
+    }
+
+    /**
+     * Works out the range of one array index in its innermost FOR loop.
+     */
+    private Access analyzeAccess(Var var, Loop loop, Codeblock block, int position) {
+        Access access = new Access();
+        if (loop == null || !loop.valid) {
+            return access;
+        }
+        Affine index = analysis.valueOf(var.getIndex(), loop, block, position);
+        if (index == null) {
+            return access;
+        }
+        IR_FieldDecl induction = loop.inductionDecl();
+        long step = index.coefficient(induction);
+        Affine first = analysis.entryValue(index, loop);
+        Affine last = first;
+        if (step != 0) {
+            if (loop.end == null) {
+                return access;
+            }
+            Affine endMinusOne = loop.end.plus(Affine.constant(-1), 1);
+            Affine atEnd = endMinusOne == null ? null : index.substitute(induction, endMinusOne);
+            last = atEnd == null ? null : analysis.entryValue(atEnd, loop);
+        }
+        if (first == null || last == null) {
+            return access;
+        }
+        Affine low = step < 0 ? last : first;
+        Affine high = step < 0 ? first : last;
+        long length = ((IR_FieldDecl) var.getVarDescriptor().getIR()).getLength().getValue();
+        boolean lowProven = low.isConstant() && low.constant >= 0;
+        boolean highProven = high.isConstant() && high.constant < length;
+        if ((low.isConstant() && !lowProven) || (high.isConstant() && !highProven)) {
+            // fails on every iteration, or the loop never runs; leave it checked
+            return access;
+        }
+        if (step != 0 && loop.end.isConstant() && Math.abs(loop.end.constant) > InductionAnalysis.MAX_SYMBOL) {
+            return access;
+        }
+        if (lowProven && highProven) {
+            access.inBounds = true;
+            return access;
+        }
+        access.loop = loop;
+        access.length = length;
+        access.needsEnd = step != 0;
+        if (!highProven) {
+            access.upper.add(high);
+        }
+        if (!lowProven) {
+            access.lower.add(low);
+        }
+        return access;
+    }
+
+    /**
+     * Merges the conditions of one array element into its loop's guards.
+     */
+    private void addGuards(Access access) {
+        Guards loop = loopGuards.get(access.loop);
+        loop.endGuarded |= access.needsEnd;
+        for (Affine high : access.upper) {
+            String key = access.length + " " + analysis.termKey(high);
+            Affine current = loop.upper.get(key);
+            if (current == null || current.constant < high.constant) {
+                loop.upper.put(key, high);
+                loop.upperLength.put(key, access.length);
+            }
+        }
+        for (Affine low : access.lower) {
+            String key = analysis.termKey(low);
+            Affine current = loop.lower.get(key);
+            if (current == null || current.constant > low.constant) {
+                loop.lower.put(key, low);
+            }
+        }
+    }
+
+    /**
+     * Turns the merged conditions of a loop into range guards: bounds on the variables first,
+     * so the index ranges checked after them can't overflow.
+     */
+    private void emitGuards(Loop loop) {
+        Guards guards = loopGuards.get(loop);
+        if (guards.upper.isEmpty() && guards.lower.isEmpty()) {
+            return;
+        }
+        long max = InductionAnalysis.MAX_SYMBOL;
+        Set<IR_FieldDecl> bounded = new HashSet<IR_FieldDecl>();
+        List<Affine> forms = new ArrayList<Affine>(guards.upper.values());
+        forms.addAll(guards.lower.values());
+        if (guards.endGuarded) {
+            forms.add(loop.end);
+        }
+        for (Affine form : forms) {
+            for (IR_FieldDecl decl : form.terms.keySet()) {
+                if (bounded.add(decl)) {
+                    addGuard(loop, new CompExpr(analysis.symbolVar(decl), Ops.LTE, new IntLit(max)));
+                    addGuard(loop, new CompExpr(analysis.symbolVar(decl), Ops.GTE, new IntLit(-max)));
+                }
+            }
+        }
+        // an end like "cols - 1" is bounded by the guards on its variable already
+        if (guards.endGuarded && !loop.end.isConstant() && !loop.end.isUnitSymbol()) {
+            addGuard(loop, new CompExpr(analysis.toExpression(loop.end), Ops.LTE, new IntLit(max)));
+            addGuard(loop, new CompExpr(analysis.toExpression(loop.end), Ops.GTE, new IntLit(-max)));
+        }
+        for (Map.Entry<String, Affine> high : guards.upper.entrySet()) {
+            addGuard(loop, new CompExpr(analysis.toExpression(high.getValue()), Ops.LT,
+                    new IntLit(guards.upperLength.get(high.getKey()))));
+        }
+        for (Affine low : guards.lower.values()) {
+            addGuard(loop, new CompExpr(analysis.toExpression(low), Ops.GTE, new IntLit(0)));
+        }
+    }
+
+    private void addGuard(Loop loop, Expression guard) {
+        loop.branch.addRangeGuard(guard);
+        guardsAdded++;
+    }
+
+    /**
+     * Instructions checking the range guards of loop before it is entered, jumping to
+     * checkedLabel if any of them fails.
+     */
+    public static List<Instruction> generateGuards(Branch loop, String checkedLabel, ExpressionSelector selector) {
+        List<Instruction> ins = new ArrayList<Instruction>();
+        for (Expression guard : loop.getRangeGuards()) {
+            selector.generateBranch(guard, checkedLabel, ins);
+        }
+        return ins;
+    }
+
+    /**
+     * Versions a guarded loop. loopIns is the code of the loop, starting with the label of its
+     * Branch and ending with the label of its exit. The result checks the guards at the Branch's
+     * label and runs a copy of the loop without the checks they cover if they all hold, or the
+     * loop as it was, renamed to start at checkedLabel, if one of them fails.
+     * @param loop : the FOR Branch.
+     * @param loopIns : instructions of the loop.
+     * @param guards : instructions from generateGuards.
+     * @param checkedLabel : label the guards jump to when they fail.
+     * @param context : context the loop was generated in.
+     */
+    public static List<Instruction> versionLoop(Branch loop, List<Instruction> loopIns, List<Instruction> guards,
+            String checkedLabel, ControlflowContext context) {
+        if (loopIns.size() > MAX_VERSIONED_INSTRUCTIONS) {
+            return loopIns;
+        }
+        String exitLabel = loop.getFalseBranch().getLabel();
+        HashMap<String, String> fastLabels = new HashMap<String, String>();
+        for (Instruction ii : loopIns) {
+            if (ii.label.length() > 0) {
+                fastLabels.put(ii.label, context.genLabel());
+            }
+        }
+        HashMap<String, String> checkedLabels = new HashMap<String, String>();
+        checkedLabels.put(loop.getLabel(), checkedLabel);
+
+        List<Instruction> ins = new ArrayList<Instruction>();
+        ins.add(Instruction.labelInstruction(loop.getLabel()));
+        ins.addAll(guards);
+        for (Instruction ii : loopIns) {
+            if (context.getCheckGuard(ii) != loop) {
+                ins.add(copy(ii, fastLabels));
+            }
+        }
+        ins.add(new Instruction(Opcode.JMP, new LocLabel(exitLabel)));
+        for (Instruction ii : loopIns) {
+            ins.add(copy(ii, checkedLabels));
+        }
+        return ins;
+    }
+
+    /**
+     * Copies an instruction with the labels it defines or refers to renamed.
+     */
+    static Instruction copy(Instruction ii, Map<String, String> renamed) {
+        LocationMem[] args = ii.args();
+        for (int jj = 0; jj < args.length; jj++) {
+            if (args[jj] instanceof LocLabel) {
+                args[jj] = new LocLabel(rename(((LocLabel) args[jj]).label, renamed));
+            }
+        }
+        Instruction result = new Instruction(ii, args);
+        result.label = rename(ii.label, renamed);
+        return result;
+    }
+
+    private static String rename(String label, Map<String, String> renamed) {
+        String newLabel = renamed.get(label);
+        return newLabel == null ? label : newLabel;
+    }
+}
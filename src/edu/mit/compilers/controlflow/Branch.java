@@ -2,8 +2,12 @@ package edu.mit.compilers.controlflow;
 
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 
+import edu.mit.compilers.codegen.Regs;
+import edu.mit.compilers.ir.IR_FieldDecl;
 import edu.mit.compilers.regalloc.GraphNode;
 
 /**
@@ -21,6 +25,9 @@ public class Branch extends FlowNode {
 	private List<FlowNode> parents = new ArrayList<FlowNode>();
 	private BranchType type;
 	private boolean isLimitedWhile;
+	private List<Expression> rangeGuards = new ArrayList<Expression>();
+	private LoopVectorization.Plan vectorPlan;
+	private Map<IR_FieldDecl, Regs> splitRegisters = new LinkedHashMap<IR_FieldDecl, Regs>();
 	
 	public enum BranchType {
 		IF, FOR, WHILE
@@ -171,6 +178,44 @@ public class Branch extends FlowNode {
 	    return isLimitedWhile;
 	}
 	
+	/**
+	 * Conditions checked once before a FOR loop is entered. When they all hold, the array
+	 * indices marked with this loop as their guard are in bounds for every iteration.
+	 * @return rangeGuards : List<Expression> of conditions, empty if the loop has none.
+	 */
+	public List<Expression> getRangeGuards() {
+	    return rangeGuards;
+	}
+	
+	public void addRangeGuard(Expression guard) {
+	    rangeGuards.add(guard);
+	}
+	
+	/**
+	 * How LoopVectorization runs two iterations of this FOR loop at a time in front of it.
+	 * @return vectorPlan : the plan, or null if the loop isn't vectorized.
+	 */
+	public LoopVectorization.Plan getVectorPlan() {
+	    return vectorPlan;
+	}
+	
+	public void setVectorPlan(LoopVectorization.Plan plan) {
+	    vectorPlan = plan;
+	}
+	
+	/**
+	 * Variables in memory everywhere else that LiveRangeSplitting keeps in a register inside
+	 * this FOR or WHILE loop, loaded when the loop is entered and stored when it is left.
+	 * @return splitRegisters : register of each variable, empty if the loop has none.
+	 */
+	public Map<IR_FieldDecl, Regs> getSplitRegisters() {
+	    return splitRegisters;
+	}
+	
+	public void addSplitRegister(IR_FieldDecl decl, Regs reg) {
+	    splitRegisters.put(decl, reg);
+	}
+	
 	/**
 	 * Reset the visited flag of this FlowNode and its children.
 	 * 
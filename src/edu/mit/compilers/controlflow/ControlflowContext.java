@@ -15,8 +15,10 @@ import edu.mit.compilers.codegen.Instruction;
 import edu.mit.compilers.codegen.LocLabel;
 import edu.mit.compilers.codegen.LocLiteral;
 import edu.mit.compilers.codegen.LocReg;
+import edu.mit.compilers.codegen.LocRelStack;
 import edu.mit.compilers.codegen.LocStack;
 import edu.mit.compilers.codegen.LocationMem;
+import edu.mit.compilers.codegen.Opcode;
 import edu.mit.compilers.codegen.Regs;
 import edu.mit.compilers.ir.IR_FieldDecl;
 import edu.mit.compilers.ir.IR_Literal.IR_IntLiteral;
@@ -57,7 +59,25 @@ public class ControlflowContext {
      */
     private LocStack rsp;
 
+    /**@brief set once ins have been cleaned up, by Peephole or by cleanUp(), so printing
+     * doesn't run instructionEfficiencyHack over them again.
+     */
+    private boolean cleanedUp = false;
+
     private String arrayBoundLabel;
+
+    /**@brief bounds checks that the fast copy of a versioned FOR loop leaves out,
+     * with the loop whose range guards make them redundant.
+     */
+    private HashMap<Instruction, Branch> guardedChecks;
+
+    /**@brief prefixes of the jump and string literal labels handed out by this context.
+     * Contexts made by forkMethod use private prefixes until mergeMethod renumbers them.
+     */
+    private String labelPrefix = ".L";
+    private String stringLiteralPrefix = ".LC";
+    private static final String FORKED_LABEL_PREFIX = ".Lm";
+    private static final String FORKED_STRING_LITERAL_PREFIX = ".LCm";
     
     ArrayList<Boolean> isLoop;
 
@@ -66,6 +86,7 @@ public class ControlflowContext {
         ins = new ArrayList<Instruction>();
         symbol = new SymbolTable<Descriptor>();
         loopScope = new Stack<Branch>();
+        guardedChecks = new HashMap<Instruction, Branch>();
         symbol.incScope();
         rsp = new LocStack();
         numLabels = 0;
@@ -101,6 +122,12 @@ public class ControlflowContext {
         return ".LC"+idx;
     }
 
+    /**@brief label of string literal idx, for instructions generated with this context.
+     */
+    public String stringLiteralLabel(long idx){
+        return stringLiteralPrefix+idx;
+    }
+
     /**@brief initializes rsp, maxLocalSize and localVarSize.
      */
     public void enterFun(){
@@ -159,7 +186,7 @@ public class ControlflowContext {
     
     public Instruction decScopeIdempotent(){
         long locals = localVarSize.get(localVarSize.size() - 1);
-        Instruction instr = new Instruction("addq", new LocLiteral(locals), new LocReg(Regs.RSP));
+        Instruction instr = new Instruction(Opcode.ADDQ, new LocLiteral(locals), new LocReg(Regs.RSP));
         return instr;
         
     }
@@ -171,7 +198,7 @@ public class ControlflowContext {
         while (!done) {
             done = isLoop.get(i);
             long locals = localVarSize.get(i);
-            Instruction instr = new Instruction("addq", new LocLiteral(locals), new LocReg(Regs.RSP));
+            Instruction instr = new Instruction(Opcode.ADDQ, new LocLiteral(locals), new LocReg(Regs.RSP));
             dealloc.add(instr);
             i--;
         }
@@ -183,7 +210,7 @@ public class ControlflowContext {
      * @return String for the label.
      */
     public String genLabel(){
-        String label = ".L"+numLabels;
+        String label = labelPrefix+numLabels;
         numLabels++;
         return label;
     }
@@ -194,7 +221,7 @@ public class ControlflowContext {
      */
     public List<Instruction> push(LocationMem loc){
         ArrayList<Instruction> il = new ArrayList<Instruction>();
-        il.add(new Instruction("pushq", loc));
+        il.add(new Instruction(Opcode.PUSHQ, loc));
         rsp.setValue(rsp.getValue() - CodegenConst.INT_SIZE);
         return il;
     }
@@ -204,11 +231,28 @@ public class ControlflowContext {
      */
     public List<Instruction> pop(LocationMem loc){
         ArrayList<Instruction> il = new ArrayList<Instruction>();
-        il.add(new Instruction("popq", loc));
+        il.add(new Instruction(Opcode.POPQ, loc));
         rsp.setValue(rsp.getValue() + CodegenConst.INT_SIZE);
         return il;
     }
 
+    /**@brief Call a callout with %rsp aligned to 16 bytes, as the ABI asks for.
+     * Declarations inside blocks and pushed temporaries move %rsp 8 bytes at a time, so
+     * the alignment isn't known here. The old %rsp is pushed twice; after rounding %rsp
+     * down, one of the copies is at 8(%rsp) to restore it from. Only for calls that pass
+     * all their arguments in registers.
+     * @param name : the callout.
+     */
+    public List<Instruction> alignedCall(String name){
+        ArrayList<Instruction> il = new ArrayList<Instruction>();
+        il.add(new Instruction(Opcode.PUSHQ, new LocReg(Regs.RSP)));
+        il.add(new Instruction(Opcode.PUSHQ, new LocRelStack(0)));
+        il.add(new Instruction(Opcode.ANDQ, new LocLiteral(-16), new LocReg(Regs.RSP)));
+        il.add(new Instruction(Opcode.CALL, new LocLabel(name)));
+        il.add(new Instruction(Opcode.MOVQ, new LocRelStack(CodegenConst.INT_SIZE), new LocReg(Regs.RSP)));
+        return il;
+    }
+
     // Returns the Branch object for the innermost loop we are in. Used for continue/break.
     public Branch getInnermostLoop() {
         return loopScope.peek();
@@ -278,14 +322,15 @@ public class ControlflowContext {
         //if needs array bound checking
         if(arrayBoundLabel != null){
             ins.add(Instruction.labelInstruction(arrayBoundLabel));
-            ins.add(new Instruction("movq", 
+            ins.add(new Instruction(Opcode.MOVQ, 
                     new LocLiteral(CodegenConst.ERR_ARRAY_BOUND), new LocReg(Regs.RDI)));
-            ins.add(new Instruction("call", new LocLabel("exit")));
+            ins.add(new Instruction(Opcode.CALL, new LocLabel("exit")));
         }
         
         
-        instructionEfficiencyHack(ins);
-        instructionEfficiencyHack(ins);
+        if(!cleanedUp){
+            cleanUp();
+        }
         
         for(int ii = 0;ii<ins.size();ii++){
             ps.println(ins.get(ii));
@@ -307,20 +352,20 @@ public class ControlflowContext {
     	Iterator<Instruction> scanner = ins.iterator();
     	while(scanner.hasNext()){
     		Instruction currentInstruction = scanner.next();
-    		String currentIns = currentInstruction.cmd;
+    		Opcode currentIns = currentInstruction.op;
     		if(currentIns == null){continue;}
-    		if(!currentIns.startsWith("ad") && !currentIns.startsWith("su")){continue;}
-    		if(currentInstruction.args.get(0).equals(new LocLiteral(0))){scanner.remove();}
+    		if(currentIns != Opcode.ADDQ && currentIns != Opcode.SUBQ){continue;}
+    		if(currentInstruction.arg(0).equals(new LocLiteral(0))){scanner.remove();}
     	}
     	
     	instructionsToDelete = new HashSet<Instruction>();
     	for(int ii = 0; ii < ins.size()-2; ii++){
     		Instruction currentInstruction = ins.get(ii);
-    		String currentIns = currentInstruction.cmd;
-    		if(currentIns == null || !currentIns.startsWith("j")){continue;}
+    		Opcode currentIns = currentInstruction.op;
+    		if(currentIns == null || !currentIns.isJump()){continue;}
     		Instruction nextInstruction = ins.get(ii+1);
     		if(nextInstruction.label.equals("")){continue;}
-    		if(((LocLabel)currentInstruction.args.get(0)).label.equals(nextInstruction.label)){
+    		if(((LocLabel)currentInstruction.arg(0)).label.equals(nextInstruction.label)){
     			instructionsToDelete.add(currentInstruction);
     			ii++;
     		}
@@ -335,17 +380,17 @@ public class ControlflowContext {
 		LocReg r11 = new LocReg(Regs.R11);
     	for(int ii = 0; ii < ins.size()-2; ii++){
     		Instruction currentInstruction = ins.get(ii);
-    		String currentIns = currentInstruction.cmd;
-    		if(currentIns == null || !currentIns.startsWith("movq")){continue;}
+    		Opcode currentIns = currentInstruction.op;
+    		if(currentIns == null || currentIns != Opcode.MOVQ){continue;}
     		Instruction nextInstruction = ins.get(ii+1);
-    		String nextIns = nextInstruction.cmd;
-    		if(nextIns == null || !nextIns.startsWith("movq")){continue;}
+    		Opcode nextIns = nextInstruction.op;
+    		if(nextIns == null || nextIns != Opcode.MOVQ){continue;}
     		//have proven both are move instructions.
-    		LocationMem locationBA = currentInstruction.args.get(1);
-    		LocationMem locationBB = nextInstruction.args.get(0);
+    		LocationMem locationBA = currentInstruction.arg(1);
+    		LocationMem locationBB = nextInstruction.arg(0);
     		if(!locationBA.equals(locationBB)){continue;}
     		if(!(locationBA == r10) && !(locationBA == r11)){continue;}
-    		ins.set(ii, new Instruction("movq", currentInstruction.args.get(0), nextInstruction.args.get(1)));
+    		ins.set(ii, new Instruction(Opcode.MOVQ, currentInstruction.arg(0), nextInstruction.arg(1)));
     		instructionsToDelete.add(nextInstruction);
     		ii++;
     	}
@@ -355,109 +400,89 @@ public class ControlflowContext {
     	}
     	
     	instructionsToDelete = new HashSet<Instruction>();
+    	//pop x; push x leaves the saved value in x, so those pairs turn into loads from the stack
+    	HashMap<Instruction, List<Instruction>> reloads = new HashMap<Instruction, List<Instruction>>();
     	for(int ii = 0; ii < ins.size()-2; ii++){
     		Instruction currentInstruction = ins.get(ii);
-    		String currentIns = currentInstruction.cmd;
+    		Opcode currentIns = currentInstruction.op;
     		if(currentIns == null || instructionsToDelete.contains(currentInstruction)){continue;}
     		Instruction nextInstruction = ins.get(ii+1);
-    		String nextIns = nextInstruction.cmd;
+    		Opcode nextIns = nextInstruction.op;
     		if(nextIns == null || instructionsToDelete.contains(nextInstruction)){continue;}
-    		if(currentIns.startsWith("pu")){ //efficiency hack; check pu instead of full push
-    			if(!nextIns.startsWith("po")){ //same as above, po vs pop
-    				continue;
-    			}
-    		}
-    		else if(currentIns.startsWith("po")){
-    			if(!nextIns.startsWith("pu")){
-    				continue;
-    			}
-    		}
-    		else{continue;}
+    		if(!isPushPopPair(currentIns, nextIns, currentIns)){continue;}
     		//By this point, we've proved these are push and pop instructions,
     		//so check that they push and pop the same location. 
-    		LocationMem loc1 = currentInstruction.args.get(0);
-    		LocationMem loc2 = nextInstruction.args.get(0);
-    		if(loc1.equals(loc2)){
-    			instructionsToDelete.add(currentInstruction);
-    			instructionsToDelete.add(nextInstruction);
-    			//infinite search horizon logic
-    			int leftBound = ii - 1;
-    			int rightBound = ii+2;
-    			if(leftBound < 0 || rightBound >= ins.size()){continue;}
-    			while(true){
-    				boolean needToBreak = false;
-    				Instruction leftInst = ins.get(leftBound); //left instruction
-    					while(instructionsToDelete.contains(leftInst)){
-    						leftBound-=1;
-    						if(leftBound < 0){
-    							needToBreak = true; 
-    							break;
-    						}
-    						leftInst = ins.get(leftBound);
-    					}
-    				if(needToBreak){break;}
-    				String leftCmd = leftInst.cmd; //left command
-    				if(leftCmd == null){break;}
-    				Instruction rightInst = ins.get(rightBound);
-    					while(instructionsToDelete.contains(rightInst)){
-    						rightBound+=1;
-    						if(rightBound >= ins.size()){
-    							needToBreak = true;
-    							break;
-    						}
-    						rightInst = ins.get(rightBound);
-    					}
-    				if(needToBreak){break;}
-    				String rightCmd = rightInst.cmd;
-    				if(rightCmd == null){break;}
-    				if(leftCmd.startsWith("pu")){ 
-    	    			if(!rightCmd.startsWith("po")){ break;}
-    	    		}
-    	    		else if(leftCmd.startsWith("po")){
-    	    			if(!rightCmd.startsWith("pu")){break;}
-    	    		}
-    	    		else{break;}
-    				LocationMem locL = leftInst.args.get(0);
-    	    		LocationMem locR = rightInst.args.get(0);
-    	    		if(locL.equals(locR)){
-    	    			instructionsToDelete.add(leftInst);
-    	    			instructionsToDelete.add(rightInst);
-    	    			leftBound-=1;
-    	    			rightBound+=1;
-    	    			if(leftBound < 0 || rightBound >= ins.size()){break;}
-    	    		}
-    	    		else{ break;}
+    		LocationMem loc1 = currentInstruction.arg(0);
+    		LocationMem loc2 = nextInstruction.arg(0);
+    		if(!loc1.equals(loc2)){continue;}
+    		boolean popFirst = currentIns == Opcode.POPQ;
+    		if(popFirst && !(loc1 instanceof LocReg)){continue;}
+    		instructionsToDelete.add(currentInstruction);
+    		instructionsToDelete.add(nextInstruction);
+    		//registers popped, innermost first
+    		List<LocationMem> popped = new ArrayList<LocationMem>();
+    		popped.add(loc1);
+    		//infinite search horizon logic, over pairs of the same kind
+    		int leftBound = ii - 1;
+    		int rightBound = ii+2;
+    		while(leftBound >= 0 && rightBound < ins.size()){
+    			Instruction leftInst = ins.get(leftBound);
+    			Instruction rightInst = ins.get(rightBound);
+    			if(instructionsToDelete.contains(leftInst)){break;}
+    			if(!isPushPopPair(leftInst.op, rightInst.op, currentIns)){break;}
+    			LocationMem locL = leftInst.arg(0);
+    			if(!locL.equals(rightInst.arg(0))){break;}
+    			if(popFirst && (!(locL instanceof LocReg) || popped.contains(locL))){break;}
+    			instructionsToDelete.add(leftInst);
+    			instructionsToDelete.add(rightInst);
+    			popped.add(locL);
+    			leftBound-=1;
+    			rightBound+=1;
+    		}
+    		if(popFirst){
+    			List<Instruction> loads = new ArrayList<Instruction>();
+    			for(int jj = popped.size()-1; jj >= 0; jj--){
+    				long offset = (popped.size()-1-jj) * CodegenConst.INT_SIZE;
+    				loads.add(new Instruction(Opcode.MOVQ, new LocRelStack(offset), popped.get(jj)));
     			}
+    			reloads.put(currentInstruction, loads);
     		}
-    		else{continue;}
+    		ii = rightBound - 1;
     	}
 
-    	for (Instruction redundantMovement : instructionsToDelete){
-    		ins.remove(redundantMovement);
+    	ArrayList<Instruction> kept = new ArrayList<Instruction>(ins.size());
+    	for (Instruction instruction : ins){
+    		if(reloads.containsKey(instruction)){
+    			kept.addAll(reloads.get(instruction));
+    		}else if(!instructionsToDelete.contains(instruction)){
+    			kept.add(instruction);
+    		}
     	}
+    	ins.clear();
+    	ins.addAll(kept);
     	
     	instructionsToDelete = new HashSet<Instruction>();
     	
     	//Now do combination logic: push x pop y --> moveq x y
     	for(int ii = 0; ii < ins.size()-2; ii++){
     		Instruction currentInstruction = ins.get(ii);
-    		String currentIns = currentInstruction.cmd;
+    		Opcode currentIns = currentInstruction.op;
     		if(currentIns == null || instructionsToDelete.contains(currentInstruction)){continue;}
     		Instruction nextInstruction = ins.get(ii+1);
-    		String nextIns = nextInstruction.cmd;
+    		Opcode nextIns = nextInstruction.op;
     		if(nextIns == null){continue;}
-    		if(currentIns.startsWith("pu")){
-    			if(!nextIns.startsWith("po")){ //It's gotta be pupo!
+    		if(currentIns == Opcode.PUSHQ){
+    			if(nextIns != Opcode.POPQ){ //It's gotta be pupo!
     				continue;
     			}
     		}
     		else{continue;}
     		//By this point, we've proved these are push and pop instructions,
     		//so check that they push and pop different locations! 
-    		LocationMem loc1 = currentInstruction.args.get(0);
-    		LocationMem loc2 = nextInstruction.args.get(0);
+    		LocationMem loc1 = currentInstruction.arg(0);
+    		LocationMem loc2 = nextInstruction.arg(0);
     		if(!(loc1.equals(loc2))){
-    			ins.set(ii, new Instruction("movq", loc1, loc2));
+    			ins.set(ii, new Instruction(Opcode.MOVQ, loc1, loc2));
     			instructionsToDelete.add(nextInstruction);
     			//search infinitely in both directions for hidden replacements if possible.
     			int leftBound = ii - 1;
@@ -477,7 +502,7 @@ public class ControlflowContext {
     						leftInst = ins.get(leftBound);
     					}
     				if(needToBreak){break;}
-    				String leftCmd = leftInst.cmd; //left command
+    				Opcode leftCmd = leftInst.op; //left command
     				if(leftCmd == null){break;}
     				Instruction rightInst = ins.get(rightBound);
     					while(instructionsToDelete.contains(rightInst)){
@@ -489,16 +514,16 @@ public class ControlflowContext {
     						rightInst = ins.get(rightBound);
     					}
     				if(needToBreak){break;}
-    				String rightCmd = rightInst.cmd;
+    				Opcode rightCmd = rightInst.op;
     				if(rightCmd == null){break;}
-    				if(leftCmd.startsWith("pu")){ 
-    	    			if(!rightCmd.startsWith("po")){ break;}
+    				if(leftCmd == Opcode.PUSHQ){ 
+    	    			if(rightCmd != Opcode.POPQ){ break;}
     	    		}
     	    		else{ break;}
-    				LocationMem locL = leftInst.args.get(0);
-    	    		LocationMem locR = rightInst.args.get(0);
+    				LocationMem locL = leftInst.arg(0);
+    	    		LocationMem locR = rightInst.arg(0);
     	    		if(!locL.equals(locR)){
-    	    			ins.set(leftBound, new Instruction("movq", locL, locR));
+    	    			ins.set(leftBound, new Instruction(Opcode.MOVQ, locL, locR));
     	    			instructionsToDelete.add(rightInst);
     	    			leftBound-=1;
     	    			rightBound+=1;
@@ -524,6 +549,29 @@ public class ControlflowContext {
         // will eventually clear out unneeded labels
     }
 
+    /**@brief whether first, second are a push and a pop in the order kind says:
+     * pushq then popq for PUSHQ, popq then pushq for POPQ.
+     */
+    private static boolean isPushPopPair(Opcode first, Opcode second, Opcode kind){
+        if(kind == Opcode.PUSHQ){
+            return first == Opcode.PUSHQ && second == Opcode.POPQ;
+        }
+        return first == Opcode.POPQ && second == Opcode.PUSHQ;
+    }
+
+    public void setPeepholeApplied(){
+        cleanedUp = true;
+    }
+
+    /**@brief runs instructionEfficiencyHack now rather than when printing, for passes
+     * that rearrange ins and would hide the patterns it looks for.
+     */
+    public void cleanUp(){
+        instructionEfficiencyHack(ins);
+        instructionEfficiencyHack(ins);
+        cleanedUp = true;
+    }
+
     public String getArrayBoundLabel(){
         if(arrayBoundLabel == null){
             arrayBoundLabel = genLabel();
@@ -531,4 +579,83 @@ public class ControlflowContext {
         return arrayBoundLabel;
     }
 
+    /**@brief records an instruction of a bounds check made redundant by the range guards of loop.
+     */
+    public void addGuardedCheck(Instruction check, Branch loop){
+        guardedChecks.put(check, loop);
+    }
+
+    /**@brief the FOR loop whose range guards make this instruction redundant, or null.
+     */
+    public Branch getCheckGuard(Instruction ii){
+        return guardedChecks.get(ii);
+    }
+
+    /**@brief context for generating a single method on its own, possibly on another thread.
+     * It starts with the global symbols of this context, but numbers its labels and string
+     * literals privately until it is merged back with mergeMethod.
+     */
+    public ControlflowContext forkMethod(){
+        ControlflowContext method = new ControlflowContext();
+        method.symbol.getTable(0).putAll(symbol.getTable(0));
+        method.labelPrefix = FORKED_LABEL_PREFIX;
+        method.stringLiteralPrefix = FORKED_STRING_LITERAL_PREFIX;
+        return method;
+    }
+
+    /**@brief appends the instructions of a context made by forkMethod.
+     * Its labels and string literals get the numbers they would have had if the method had
+     * been generated in this context directly, so merging the methods in the order they would
+     * have been generated gives exactly the same assembly.
+     * @param method context returned by forkMethod, after generating the method in it.
+     */
+    public void mergeMethod(ControlflowContext method){
+        HashMap<String, String> renamed = new HashMap<String, String>();
+        for(int ii = 0; ii < method.numLabels; ii++){
+            String label = method.labelPrefix + ii;
+            if(label.equals(method.arrayBoundLabel)){
+                // shared by all methods, only numbered the first time it is needed
+                renamed.put(label, getArrayBoundLabel());
+            } else {
+                renamed.put(label, genLabel());
+            }
+        }
+        String literals[] = new String[method.stringLiterals.size()];
+        for(String k: method.stringLiterals.keySet()){
+            literals[method.stringLiterals.get(k).intValue()] = k;
+        }
+        for(int ii = 0; ii < literals.length; ii++){
+            Long idx = stringLiterals.get(literals[ii]);
+            if(idx == null){
+                idx = (long) stringLiterals.size();
+                stringLiterals.put(literals[ii], idx);
+            }
+            renamed.put(method.stringLiteralLabel(ii), stringLiteralLabel(idx));
+        }
+        for(Instruction ii : method.ins){
+            ii.label = renameLabel(ii.label, renamed);
+            for(int jj = 0; jj < ii.argCount(); jj++){
+                LocationMem arg = ii.arg(jj);
+                if(arg instanceof LocLabel){
+                    LocLabel label = (LocLabel) arg;
+                    label.label = renameLabel(label.label, renamed);
+                }
+            }
+        }
+        ins.addAll(method.ins);
+    }
+
+    /**
+     * @return the new name of label, keeping a leading '$' for immediates.
+     * Labels that were not renamed (globals, FlowNode labels) are returned as they are.
+     */
+    private static String renameLabel(String label, HashMap<String, String> renamed){
+        boolean immediate = label.startsWith("$");
+        String newLabel = renamed.get(immediate ? label.substring(1) : label);
+        if(newLabel == null){
+            return label;
+        }
+        return immediate ? "$" + newLabel : newLabel;
+    }
+
 }
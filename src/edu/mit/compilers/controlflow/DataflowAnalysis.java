@@ -0,0 +1,172 @@
+package edu.mit.compilers.controlflow;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+
+/**
+ * Generic monotone dataflow solver over the FlowNodes of one method.
+ *
+ * Subclasses pick a direction and own their IN/OUT storage; the solver only decides
+ * which node to evaluate next. Every node starts on a priority worklist ordered by
+ * reverse postorder (postorder for backward problems), so in the usual case each
+ * loop body is evaluated about once per loop nesting level before the fixpoint is reached.
+ *
+ * Predecessors are derived from getChildren() rather than getParents(), since
+ * the child links are what the code generator actually follows.
+ */
+public abstract class DataflowAnalysis {
+
+	public enum Direction {
+		FORWARD, BACKWARD
+	};
+
+	private List<FlowNode> reversePostorder;
+	private int iterations = 0;
+
+	/**
+	 * Direction in which facts flow: FORWARD meets over parents, BACKWARD meets over children.
+	 */
+	protected abstract Direction getDirection();
+
+	/**
+	 * Called once for every node before solving starts. Set up the node's input and output here.
+	 * @param node : FlowNode reachable from the method START.
+	 */
+	protected abstract void initialize(FlowNode node);
+
+	/**
+	 * Recompute the input of a node as the meet of its predecessors' outputs.
+	 * @param node : FlowNode whose input is being recomputed.
+	 * @param predecessors : predecessors in the direction of the analysis (children for BACKWARD).
+	 * @param boundary : true for the method START in a forward problem, or a node without children in a backward one.
+	 */
+	protected abstract void meet(FlowNode node, List<FlowNode> predecessors, boolean boundary);
+
+	/**
+	 * Apply the transfer function of a node to its input.
+	 * @param node : FlowNode being evaluated.
+	 * @return true if the output of the node changed.
+	 */
+	protected abstract boolean transfer(FlowNode node);
+
+	/**
+	 * Runs the analysis on one method until no output changes.
+	 * @param methodStart : START of the method to analyze.
+	 * @return number of node evaluations it took to reach the fixpoint.
+	 */
+	public int solve(START methodStart) {
+		reversePostorder = computeReversePostorder(methodStart);
+		int size = reversePostorder.size();
+		Map<FlowNode, Integer> order = new HashMap<FlowNode, Integer>();
+		for (int i = 0; i < size; i++) {
+			order.put(reversePostorder.get(i), i);
+		}
+		List<List<FlowNode>> parents = new ArrayList<List<FlowNode>>();
+		for (int i = 0; i < size; i++) {
+			parents.add(new ArrayList<FlowNode>());
+		}
+		List<List<FlowNode>> children = new ArrayList<List<FlowNode>>();
+		for (FlowNode node : reversePostorder) {
+			List<FlowNode> nodeChildren = new ArrayList<FlowNode>();
+			for (FlowNode child : node.getChildren()) {
+				if (child != null && !nodeChildren.contains(child)) {
+					nodeChildren.add(child);
+					parents.get(order.get(child)).add(node);
+				}
+			}
+			children.add(nodeChildren);
+		}
+		boolean forward = getDirection() == Direction.FORWARD;
+		List<List<FlowNode>> predecessors = forward ? parents : children;
+		List<List<FlowNode>> successors = forward ? children : parents;
+
+		for (FlowNode node : reversePostorder) {
+			initialize(node);
+		}
+		// Forward problems pop in reverse postorder, backward problems in postorder.
+		PriorityQueue<Integer> worklist = new PriorityQueue<Integer>(Math.max(1, size));
+		boolean[] queued = new boolean[size];
+		for (int i = 0; i < size; i++) {
+			worklist.add(forward ? i : size - 1 - i);
+			queued[i] = true;
+		}
+		iterations = 0;
+		while (!worklist.isEmpty()) {
+			int priority = worklist.poll();
+			int index = forward ? priority : size - 1 - priority;
+			queued[index] = false;
+			iterations++;
+			FlowNode node = reversePostorder.get(index);
+			List<FlowNode> preds = predecessors.get(index);
+			boolean boundary = forward ? node == methodStart : preds.isEmpty();
+			meet(node, preds, boundary);
+			if (transfer(node)) {
+				for (FlowNode succ : successors.get(index)) {
+					int succIndex = order.get(succ);
+					if (!queued[succIndex]) {
+						queued[succIndex] = true;
+						worklist.add(forward ? succIndex : size - 1 - succIndex);
+					}
+				}
+			}
+		}
+		return iterations;
+	}
+
+	/**
+	 * Nodes of the last solved method in reverse postorder.
+	 */
+	public List<FlowNode> getReversePostorder() {
+		return reversePostorder;
+	}
+
+	/**
+	 * Number of node evaluations the last call to solve needed.
+	 */
+	public int getIterations() {
+		return iterations;
+	}
+
+	/**
+	 * Iterative depth first search that lists every node reachable from methodStart in reverse postorder.
+	 * Does not touch the visited flags of the FlowNodes.
+	 * @param methodStart : START of the method.
+	 * @return List<FlowNode> in reverse postorder, methodStart first.
+	 */
+	public static List<FlowNode> computeReversePostorder(START methodStart) {
+		List<FlowNode> postorder = new ArrayList<FlowNode>();
+		Map<FlowNode, Boolean> seen = new HashMap<FlowNode, Boolean>();
+		List<FlowNode> nodeStack = new ArrayList<FlowNode>();
+		List<List<FlowNode>> childStack = new ArrayList<List<FlowNode>>();
+		List<Integer> positionStack = new ArrayList<Integer>();
+		seen.put(methodStart, true);
+		nodeStack.add(methodStart);
+		childStack.add(methodStart.getChildren());
+		positionStack.add(0);
+		while (!nodeStack.isEmpty()) {
+			int top = nodeStack.size() - 1;
+			List<FlowNode> nodeChildren = childStack.get(top);
+			int position = positionStack.get(top);
+			if (position < nodeChildren.size()) {
+				positionStack.set(top, position + 1);
+				FlowNode child = nodeChildren.get(position);
+				if (child != null && !seen.containsKey(child)) {
+					seen.put(child, true);
+					nodeStack.add(child);
+					childStack.add(child.getChildren());
+					positionStack.add(0);
+				}
+			} else {
+				postorder.add(nodeStack.remove(top));
+				childStack.remove(top);
+				positionStack.remove(top);
+			}
+		}
+		Collections.reverse(postorder);
+		return postorder;
+	}
+}
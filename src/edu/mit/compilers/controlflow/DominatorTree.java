@@ -0,0 +1,242 @@
+package edu.mit.compilers.controlflow;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Immediate dominator tree of one method, built with the Cooper-Harvey-Kennedy
+ * iterative algorithm over reverse postorder.
+ *
+ * After construction every node gets a preorder/postorder interval from a walk of the tree,
+ * so "does A dominate B" is two integer compares. Dominance frontiers are computed
+ * on first request and cached.
+ */
+public class DominatorTree {
+	private START methodStart;
+	private List<FlowNode> reversePostorder;
+	private Map<FlowNode, Integer> order = new HashMap<FlowNode, Integer>();
+	private List<List<Integer>> predecessors = new ArrayList<List<Integer>>();
+	private int[] idom;
+	private List<List<FlowNode>> treeChildren = new ArrayList<List<FlowNode>>();
+	private int[] preorder;
+	private int[] postorder;
+	private Map<FlowNode, Set<FlowNode>> frontiers;
+
+	/**
+	 * Builds the dominator tree for every node reachable from methodStart.
+	 * @param methodStart : START of the method.
+	 */
+	public DominatorTree(START methodStart) {
+		this.methodStart = methodStart;
+		this.reversePostorder = DataflowAnalysis.computeReversePostorder(methodStart);
+		int size = reversePostorder.size();
+		for (int i = 0; i < size; i++) {
+			order.put(reversePostorder.get(i), i);
+			predecessors.add(new ArrayList<Integer>());
+			treeChildren.add(new ArrayList<FlowNode>());
+		}
+		for (int i = 0; i < size; i++) {
+			for (FlowNode child : reversePostorder.get(i).getChildren()) {
+				Integer childIndex = child == null ? null : order.get(child);
+				if (childIndex != null && !predecessors.get(childIndex).contains(i)) {
+					predecessors.get(childIndex).add(i);
+				}
+			}
+		}
+		computeImmediateDominators();
+		numberTree();
+	}
+
+	private void computeImmediateDominators() {
+		int size = reversePostorder.size();
+		idom = new int[size];
+		for (int i = 0; i < size; i++) {
+			idom[i] = -1;
+		}
+		idom[0] = 0;
+		boolean changed = true;
+		while (changed) {
+			changed = false;
+			for (int b = 1; b < size; b++) {
+				int newIdom = -1;
+				for (int p : predecessors.get(b)) {
+					if (idom[p] == -1) {
+						continue; // not processed yet
+					}
+					newIdom = newIdom == -1 ? p : intersect(p, newIdom);
+				}
+				if (idom[b] != newIdom) {
+					idom[b] = newIdom;
+					changed = true;
+				}
+			}
+		}
+		for (int b = 1; b < size; b++) {
+			treeChildren.get(idom[b]).add(reversePostorder.get(b));
+		}
+	}
+
+	/**
+	 * Walks both fingers up the partially built tree until they meet.
+	 * Indices are reverse postorder numbers, so a larger index is further from the root.
+	 */
+	private int intersect(int finger1, int finger2) {
+		while (finger1 != finger2) {
+			while (finger1 > finger2) {
+				finger1 = idom[finger1];
+			}
+			while (finger2 > finger1) {
+				finger2 = idom[finger2];
+			}
+		}
+		return finger1;
+	}
+
+	/**
+	 * Assigns preorder and postorder numbers with an iterative walk of the tree.
+	 */
+	private void numberTree() {
+		int size = reversePostorder.size();
+		preorder = new int[size];
+		postorder = new int[size];
+		int preCounter = 0;
+		int postCounter = 0;
+		List<Integer> nodeStack = new ArrayList<Integer>();
+		List<Integer> positionStack = new ArrayList<Integer>();
+		nodeStack.add(0);
+		positionStack.add(0);
+		preorder[0] = preCounter++;
+		while (!nodeStack.isEmpty()) {
+			int top = nodeStack.size() - 1;
+			int node = nodeStack.get(top);
+			int position = positionStack.get(top);
+			List<FlowNode> kids = treeChildren.get(node);
+			if (position < kids.size()) {
+				positionStack.set(top, position + 1);
+				int kid = order.get(kids.get(position));
+				preorder[kid] = preCounter++;
+				nodeStack.add(kid);
+				positionStack.add(0);
+			} else {
+				postorder[node] = postCounter++;
+				nodeStack.remove(top);
+				positionStack.remove(top);
+			}
+		}
+	}
+
+	public START getMethodStart() {
+		return methodStart;
+	}
+
+	/**
+	 * Every node reachable from the method START, in reverse postorder.
+	 */
+	public List<FlowNode> getNodes() {
+		return reversePostorder;
+	}
+
+	/**
+	 * Returns whether the node is reachable from the method START (and so is in the tree).
+	 */
+	public boolean contains(FlowNode node) {
+		return order.containsKey(node);
+	}
+
+	/**
+	 * Immediate dominator of a node, or null for the method START.
+	 */
+	public FlowNode getImmediateDominator(FlowNode node) {
+		int index = order.get(node);
+		if (index == 0) {
+			return null;
+		}
+		return reversePostorder.get(idom[index]);
+	}
+
+	/**
+	 * Reachable predecessors of a node, taken from the child links of the CFG.
+	 */
+	public List<FlowNode> getPredecessors(FlowNode node) {
+		List<FlowNode> preds = new ArrayList<FlowNode>();
+		for (int p : predecessors.get(order.get(node))) {
+			preds.add(reversePostorder.get(p));
+		}
+		return preds;
+	}
+
+	/**
+	 * Nodes whose immediate dominator is the given node.
+	 */
+	public List<FlowNode> getTreeChildren(FlowNode node) {
+		return Collections.unmodifiableList(treeChildren.get(order.get(node)));
+	}
+
+	/**
+	 * Returns whether a dominates b. Every node dominates itself. Runs in constant time.
+	 */
+	public boolean dominates(FlowNode a, FlowNode b) {
+		Integer aIndex = order.get(a);
+		Integer bIndex = order.get(b);
+		if (aIndex == null || bIndex == null) {
+			return false;
+		}
+		return preorder[aIndex] <= preorder[bIndex] && postorder[bIndex] <= postorder[aIndex];
+	}
+
+	public boolean strictlyDominates(FlowNode a, FlowNode b) {
+		return a != b && dominates(a, b);
+	}
+
+	/**
+	 * All dominators of a node, from the node itself up to the method START.
+	 */
+	public Set<FlowNode> getDominators(FlowNode node) {
+		Set<FlowNode> dominators = new LinkedHashSet<FlowNode>();
+		int index = order.get(node);
+		dominators.add(node);
+		while (index != 0) {
+			index = idom[index];
+			dominators.add(reversePostorder.get(index));
+		}
+		return dominators;
+	}
+
+	/**
+	 * Dominance frontier of a node: the nodes where its dominance stops.
+	 */
+	public Set<FlowNode> getDominanceFrontier(FlowNode node) {
+		if (frontiers == null) {
+			computeDominanceFrontiers();
+		}
+		return frontiers.get(node);
+	}
+
+	private void computeDominanceFrontiers() {
+		frontiers = new HashMap<FlowNode, Set<FlowNode>>();
+		for (FlowNode node : reversePostorder) {
+			frontiers.put(node, new LinkedHashSet<FlowNode>());
+		}
+		for (int b = 0; b < reversePostorder.size(); b++) {
+			List<Integer> preds = predecessors.get(b);
+			if (preds.size() < 2) {
+				continue;
+			}
+			for (int p : preds) {
+				int runner = p;
+				while (runner != idom[b]) {
+					frontiers.get(reversePostorder.get(runner)).add(reversePostorder.get(b));
+					if (runner == 0) {
+						break;
+					}
+					runner = idom[runner];
+				}
+			}
+		}
+	}
+}
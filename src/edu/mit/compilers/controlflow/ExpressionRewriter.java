@@ -0,0 +1,138 @@
+package edu.mit.compilers.controlflow;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import edu.mit.compilers.ir.Ops;
+
+/**
+ * Rebuilds statements and expressions with some of their subexpressions replaced.
+ *
+ * Nothing is changed in place, since expressions can be shared with code elsewhere in the
+ * method: only the nodes on the way to a replacement are copied, and an expression that
+ * doesn't change comes back as the same object. An array element that gets a new index
+ * keeps what BoundsCheckElimination decided for it.
+ */
+public abstract class ExpressionRewriter {
+
+    /**
+     * Called on every subexpression, outermost first, before looking inside it.
+     * @param expr : the subexpression.
+     * @return what expr is replaced by, or null to look inside expr instead.
+     */
+    protected abstract Expression replace(Expression expr);
+
+    /**
+     * @param st : statement to rewrite.
+     * @return st with its expressions rewritten, or st itself if nothing changed.
+     */
+    public Statement rewrite(Statement st) {
+        if (st instanceof Assignment) {
+            Assignment assign = (Assignment) st;
+            Var dest = rewriteVar(assign.getDestVar());
+            Expression value = rewrite(assign.getValue());
+            if (dest != assign.getDestVar() || value != assign.getValue()) {
+                return new Assignment(dest, assign.getOperator(), value);
+            }
+        } else if (st instanceof MethodCallStatement) {
+            MethodCall call = ((MethodCallStatement) st).getMethodCall();
+            Expression rewritten = rewrite(call);
+            if (rewritten != call) {
+                return new MethodCallStatement((MethodCall) rewritten);
+            }
+        }
+        return st;
+    }
+
+    /**
+     * @param expr : expression to rewrite.
+     * @return expr with its subexpressions rewritten, or expr itself if nothing changed.
+     */
+    public Expression rewrite(Expression expr) {
+        Expression replacement = replace(expr);
+        if (replacement != null) {
+            return replacement;
+        }
+        if (expr instanceof Var) {
+            return rewriteVar((Var) expr);
+        } else if (expr instanceof BinExpr) {
+            BinExpr bin = (BinExpr) expr;
+            Expression left = rewrite(bin.getLeftSide());
+            Expression right = rewrite(bin.getRightSide());
+            if (left == bin.getLeftSide() && right == bin.getRightSide()) {
+                return expr;
+            }
+            return rebuild(bin, left, right);
+        } else if (expr instanceof NotExpr) {
+            Expression inner = ((NotExpr) expr).getUnresolvedExpression();
+            Expression rewritten = rewrite(inner);
+            return rewritten == inner ? expr : new NotExpr(rewritten);
+        } else if (expr instanceof NegateExpr) {
+            Expression inner = ((NegateExpr) expr).getExpression();
+            Expression rewritten = rewrite(inner);
+            return rewritten == inner ? expr : new NegateExpr(rewritten);
+        } else if (expr instanceof Ternary) {
+            Ternary tern = (Ternary) expr;
+            Expression cond = rewrite(tern.getTernaryCondition());
+            Expression ifTrue = rewrite(tern.getTrueBranch());
+            Expression ifFalse = rewrite(tern.getFalseBranch());
+            if (cond == tern.getTernaryCondition() && ifTrue == tern.getTrueBranch()
+                    && ifFalse == tern.getFalseBranch()) {
+                return expr;
+            }
+            return new Ternary(cond, ifTrue, ifFalse);
+        } else if (expr instanceof MethodCall) {
+            MethodCall call = (MethodCall) expr;
+            List<Expression> args = new ArrayList<Expression>();
+            boolean changed = false;
+            for (Expression arg : call.getArguments()) {
+                Expression rewritten = rewrite(arg);
+                changed |= rewritten != arg;
+                args.add(rewritten);
+            }
+            return changed ? new MethodCall(call.getMethodName(), args, call.getIsCallout()) : expr;
+        }
+        return expr;
+    }
+
+    /**
+     * @param var : a variable, possibly an array element.
+     * @return var with its index rewritten, or var itself if nothing changed.
+     */
+    public Var rewriteVar(Var var) {
+        if (!var.isArray()) {
+            return var;
+        }
+        Expression index = rewrite(var.getIndex());
+        if (index == var.getIndex()) {
+            return var;
+        }
+        Var element = new Var(var.getVarDescriptor(), index);
+        element.setIndexInBounds(var.isIndexInBounds());
+        element.setIndexGuard(var.getIndexGuard());
+        return element;
+    }
+
+    /**
+     * A copy of bin with new sides.
+     */
+    static Expression rebuild(BinExpr bin, Expression left, Expression right) {
+        Ops op = bin.getOperator();
+        if (bin instanceof AddExpr) {
+            return new AddExpr(left, op, right);
+        } else if (bin instanceof MultExpr) {
+            return new MultExpr(left, op, right);
+        } else if (bin instanceof DivExpr) {
+            return new DivExpr(left, op, right);
+        } else if (bin instanceof ModExpr) {
+            return new ModExpr(left, op, right);
+        } else if (bin instanceof CompExpr) {
+            return new CompExpr(left, op, right);
+        } else if (bin instanceof EqExpr) {
+            return new EqExpr(left, op, right);
+        } else if (bin instanceof CondExpr) {
+            return new CondExpr(left, op, right);
+        }
+        throw new RuntimeException("Unknown binary expression " + bin.getClass().getSimpleName());
+    }
+}
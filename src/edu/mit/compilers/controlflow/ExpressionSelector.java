@@ -0,0 +1,609 @@
+package edu.mit.compilers.controlflow;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import edu.mit.compilers.codegen.CodegenConst;
+import edu.mit.compilers.codegen.Descriptor;
+import edu.mit.compilers.codegen.Instruction;
+import edu.mit.compilers.codegen.LocArray;
+import edu.mit.compilers.codegen.LocLabel;
+import edu.mit.compilers.codegen.LocLiteral;
+import edu.mit.compilers.codegen.LocReg;
+import edu.mit.compilers.codegen.LocationMem;
+import edu.mit.compilers.codegen.LocationMem.LocType;
+import edu.mit.compilers.codegen.Opcode;
+import edu.mit.compilers.codegen.Regs;
+import edu.mit.compilers.ir.IR_FieldDecl;
+import edu.mit.compilers.ir.Ops;
+
+/**
+ * Instruction selection for expression trees, shared by Assembler and AssignRegisters.
+ *
+ * Expressions are evaluated into scratch registers instead of on the stack. Operands of a binary
+ * operator are ordered by their Sethi-Ullman number, so the side that needs more registers is
+ * evaluated first, and leaves (32 bit literals, scalar variables, array elements at a constant
+ * index) are used as instruction operands without being loaded. The stack is only used to spill
+ * an operand when every scratch register is taken, and to keep live scratch registers across a
+ * method call.
+ *
+ * The scratch registers are the caller-saved ones that don't hold anything between statements:
+ * call arguments are moved into their registers after all of them have been evaluated, and rax
+ * and rdx are left out for idivq, setcc and return values. Register allocation keeps some of them
+ * for variables and passes the rest.
+ *
+ * A selector is made per statement, branch or return; the back ends override how a call is made
+ * and, for register allocation, where a scalar variable lives.
+ */
+public abstract class ExpressionSelector {
+
+    private static final Regs[] SCRATCH = {Regs.R10, Regs.R11, Regs.RCX, Regs.RSI,
+        Regs.RDI, Regs.R8, Regs.R9};
+
+    /**
+     * Sethi-Ullman number given to anything containing a call, so calls are evaluated while
+     * as few registers as possible have to be saved around them.
+     */
+    private static final int CALL_NEED = SCRATCH.length + 1;
+
+    protected final ControlflowContext context;
+    private final Regs[] scratch;
+    private final boolean[] busy;
+
+    public ExpressionSelector(ControlflowContext context) {
+        this(context, SCRATCH);
+    }
+
+    /**
+     * @param scratch : caller-saved registers free to use within a statement, at least two.
+     */
+    public ExpressionSelector(ControlflowContext context, Regs[] scratch) {
+        this.context = context;
+        this.scratch = scratch;
+        this.busy = new boolean[scratch.length];
+    }
+
+    /**
+     * Instructions for a method call, leaving the return value in rax. Arguments should be
+     * evaluated with this selector; no scratch register is live when this is called.
+     */
+    public abstract List<Instruction> generateCall(MethodCall call);
+
+    /**
+     * Location of a variable that isn't an array. Defaults to its stack slot or global label.
+     * @param var : scalar variable being read or written.
+     * @param ins : instructions, in case finding the location needs any.
+     */
+    protected LocationMem scalarLocation(Var var, List<Instruction> ins) {
+        return context.findSymbol(var.getName()).getLocation();
+    }
+
+    /**
+     * Evaluates expr into a scratch register. The register belongs to the caller until it is
+     * passed to release().
+     */
+    public LocReg evaluate(Expression expr, List<Instruction> ins) {
+        if (isLeaf(expr, true)) {
+            LocReg r = allocate();
+            ins.add(new Instruction(Opcode.MOVQ, operand(expr, ins), r));
+            return r;
+        } else if (expr instanceof IntLit) {
+            LocReg r = allocate();
+            ins.add(new Instruction(Opcode.MOVABSQ, new LocLiteral(((IntLit) expr).getValue()), r));
+            return r;
+        } else if (expr instanceof Var) {
+            LocArray element = (LocArray) location((Var) expr, ins);
+            LocReg r = (LocReg) element.offset;
+            ins.add(new Instruction(Opcode.MOVQ, element, r));
+            return r;
+        } else if (expr instanceof MethodCall) {
+            return evaluateCall((MethodCall) expr, ins);
+        } else if (expr instanceof NegateExpr) {
+            LocReg r = evaluate(((NegateExpr) expr).getExpression(), ins);
+            ins.add(new Instruction(Opcode.NEGQ, r));
+            return r;
+        } else if (expr instanceof CompExpr || expr instanceof EqExpr) {
+            String cc = compare((BinExpr) expr, ins);
+            LocReg r = allocate();
+            LocReg al = new LocReg(Regs.AL);
+            ins.add(new Instruction(Opcode.set(cc), al));
+            ins.add(new Instruction(Opcode.MOVZBQ, al, r));
+            return r;
+        } else if (expr instanceof CondExpr || expr instanceof NotExpr) {
+            return evaluateCondition(expr, ins);
+        } else if (expr instanceof Ternary) {
+            return evaluateTernary((Ternary) expr, ins);
+        } else if (expr instanceof AddExpr || expr instanceof MultExpr
+                || expr instanceof DivExpr || expr instanceof ModExpr) {
+            return evaluateArith((BinExpr) expr, ins);
+        }
+        throw new RuntimeException("Unexpected Node type passed to evaluate: "
+                + expr.getClass().getSimpleName());
+    }
+
+    /**
+     * Like evaluate, but a leaf comes back as the operand itself (a literal, a variable's
+     * location or an array element at a constant index) without being loaded.
+     */
+    public LocationMem evaluateOperand(Expression expr, List<Instruction> ins) {
+        if (isLeaf(expr, true)) {
+            return operand(expr, ins);
+        }
+        return evaluate(expr, ins);
+    }
+
+    /**
+     * Evaluates the value of an assignment to dest. A leaf is kept as an operand unless
+     * computing dest's index makes a call, which could change it before the store.
+     */
+    public LocationMem evaluateSource(Expression value, Var dest, List<Instruction> ins) {
+        if (dest.isArray() && hasCall(dest.getIndex())) {
+            return evaluate(value, ins);
+        }
+        return evaluateOperand(value, ins);
+    }
+
+    /**
+     * Evaluates expr and pushes its value, for call arguments.
+     */
+    public List<Instruction> generateExpression(Expression expr) {
+        List<Instruction> ins = new ArrayList<Instruction>();
+        LocationMem value = evaluateOperand(expr, ins);
+        ins.addAll(context.push(value));
+        release(value);
+        return ins;
+    }
+
+    /**
+     * Location of a variable, for reading or storing. The index of an array element is
+     * evaluated and bounds checked, unless BoundsCheckElimination proved it in bounds; its
+     * register is held until the location is released.
+     */
+    public LocationMem location(Var var, List<Instruction> ins) {
+        if (!var.isArray()) {
+            return scalarLocation(var, ins);
+        }
+        Descriptor d = context.findSymbol(var.getName());
+        long len = ((IR_FieldDecl) d.getIR()).getLength().getValue();
+        Expression index = var.getIndex();
+        if (index instanceof IntLit) {
+            long value = ((IntLit) index).getValue();
+            if (value >= len || value < 0) {
+                //statically throw error
+                ins.add(new Instruction(Opcode.JMP, new LocLabel(context.getArrayBoundLabel())));
+            }
+            return new LocArray(d.getLocation(), new LocLiteral(value), CodegenConst.INT_SIZE);
+        }
+        LocReg r = evaluate(index, ins);
+        if (var.isIndexInBounds()) {
+            return new LocArray(d.getLocation(), r, CodegenConst.INT_SIZE);
+        }
+        // one unsigned compare also catches negative indices
+        Instruction cmp = new Instruction(Opcode.CMPQ, new LocLiteral(len), r);
+        Instruction jae = new Instruction(Opcode.JAE, new LocLabel(context.getArrayBoundLabel()));
+        ins.add(cmp);
+        ins.add(jae);
+        if (var.getIndexGuard() != null) {
+            context.addGuardedCheck(cmp, var.getIndexGuard());
+            context.addGuardedCheck(jae, var.getIndexGuard());
+        }
+        return new LocArray(d.getLocation(), r, CodegenConst.INT_SIZE);
+    }
+
+    /**
+     * Stores value to dst for an assignment operator (=, += or -=) and releases both.
+     */
+    public void store(Ops op, LocationMem value, LocationMem dst, List<Instruction> ins) {
+        Opcode cmd;
+        switch (op) {
+        case ASSIGN:
+            cmd = Opcode.MOVQ;
+            break;
+        case ASSIGN_PLUS:
+            cmd = Opcode.ADDQ;
+            break;
+        case ASSIGN_MINUS:
+            cmd = Opcode.SUBQ;
+            break;
+        default:
+            throw new RuntimeException("store called without an assignment op - op was " + op);
+        }
+        emit(cmd, value, dst, ins);
+        release(dst);
+        release(value);
+    }
+
+    /**
+     * Emits cmd src, dst, going through a scratch register when both are in memory.
+     */
+    private void emit(Opcode cmd, LocationMem src, LocationMem dst, List<Instruction> ins) {
+        if (isMemory(src) && isMemory(dst)) {
+            LocReg r = allocate();
+            ins.add(new Instruction(Opcode.MOVQ, src, r));
+            ins.add(new Instruction(cmd, r, dst));
+            release(r);
+        } else {
+            ins.add(new Instruction(cmd, src, dst));
+        }
+    }
+
+    /**
+     * Jumps to falseLabel if cond is false and falls through otherwise. Comparisons branch on
+     * the flags directly and && / || / ! are short circuited, so no boolean is materialized.
+     */
+    public void generateBranch(Expression cond, String falseLabel, List<Instruction> ins) {
+        LocLabel target = new LocLabel(falseLabel);
+        if (cond instanceof CondExpr || cond instanceof NotExpr) {
+            String trueLabel = context.genLabel();
+            ShortCircuitNode cfg = ShortCircuitNode.shortCircuit(cond,
+                    new ShortCircuitNode.SCLabel(trueLabel), new ShortCircuitNode.SCLabel(falseLabel));
+            ins.addAll(cfg.codegen(context, this));
+            ins.add(Instruction.labelInstruction(trueLabel));
+        } else if (cond instanceof CompExpr || cond instanceof EqExpr) {
+            String cc = compare((BinExpr) cond, ins);
+            ins.add(new Instruction(Opcode.jump(negate(cc)), target));
+        } else if (cond instanceof BoolLit) {
+            if (!((BoolLit) cond).getTruthValue()) {
+                ins.add(new Instruction(Opcode.JMP, target));
+            }
+        } else {
+            LocationMem value = isLeaf(cond, false) ? operand(cond, ins) : evaluate(cond, ins);
+            ins.add(new Instruction(Opcode.CMPQ, new LocLiteral(0L), value));
+            release(value);
+            ins.add(new Instruction(Opcode.JE, target));
+        }
+    }
+
+    /**
+     * Gives back a register returned by evaluate, or the index register of an array location.
+     * Anything else (literals, variables' own locations) is ignored.
+     */
+    public void release(LocationMem loc) {
+        if (loc instanceof LocArray) {
+            release(((LocArray) loc).offset);
+        } else if (loc instanceof LocReg) {
+            Regs reg = ((LocReg) loc).reg;
+            for (int ii = 0; ii < scratch.length; ii++) {
+                if (scratch[ii] == reg) {
+                    busy[ii] = false;
+                }
+            }
+        }
+    }
+
+    private LocReg allocate() {
+        for (int ii = 0; ii < scratch.length; ii++) {
+            if (!busy[ii]) {
+                busy[ii] = true;
+                return new LocReg(scratch[ii]);
+            }
+        }
+        throw new RuntimeException("out of scratch registers");
+    }
+
+    private int freeRegisters() {
+        int n = 0;
+        for (boolean b : busy) {
+            if (!b) {
+                n++;
+            }
+        }
+        return n;
+    }
+
+    /**
+     * Saves the live scratch registers around the call and moves its result out of rax.
+     */
+    private LocReg evaluateCall(MethodCall call, List<Instruction> ins) {
+        List<Integer> saved = new ArrayList<Integer>();
+        for (int ii = 0; ii < scratch.length; ii++) {
+            if (busy[ii]) {
+                ins.addAll(context.push(new LocReg(scratch[ii])));
+                busy[ii] = false;
+                saved.add(ii);
+            }
+        }
+        ins.addAll(generateCall(call));
+        for (int ii = saved.size() - 1; ii >= 0; ii--) {
+            int idx = saved.get(ii);
+            ins.addAll(context.pop(new LocReg(scratch[idx])));
+            busy[idx] = true;
+        }
+        LocReg r = allocate();
+        ins.add(new Instruction(Opcode.MOVQ, new LocReg(Regs.RAX), r));
+        return r;
+    }
+
+    private LocReg evaluateCondition(Expression expr, List<Instruction> ins) {
+        String trueLabel = context.genLabel();
+        String falseLabel = context.genLabel();
+        String endLabel = context.genLabel();
+        ShortCircuitNode cfg = ShortCircuitNode.shortCircuit(expr,
+                new ShortCircuitNode.SCLabel(trueLabel), new ShortCircuitNode.SCLabel(falseLabel));
+        ins.addAll(cfg.codegen(context, this));
+        LocReg r = allocate();
+        ins.add(Instruction.labelInstruction(trueLabel));
+        ins.add(new Instruction(Opcode.MOVQ, new LocLiteral(CodegenConst.BOOL_TRUE), r));
+        ins.add(new Instruction(Opcode.JMP, new LocLabel(endLabel)));
+        ins.add(Instruction.labelInstruction(falseLabel));
+        ins.add(new Instruction(Opcode.MOVQ, new LocLiteral(CodegenConst.BOOL_FALSE), r));
+        ins.add(Instruction.labelInstruction(endLabel));
+        return r;
+    }
+
+    private LocReg evaluateTernary(Ternary ternary, List<Instruction> ins) {
+        String falseLabel = context.genLabel();
+        String endLabel = context.genLabel();
+        generateBranch(ternary.getTernaryCondition(), falseLabel, ins);
+        LocReg r = evaluate(ternary.getTrueBranch(), ins);
+        ins.add(new Instruction(Opcode.JMP, new LocLabel(endLabel)));
+        ins.add(Instruction.labelInstruction(falseLabel));
+        // both branches have to leave the value in the same register
+        release(r);
+        LocReg f = evaluate(ternary.getFalseBranch(), ins);
+        if (f.reg != r.reg) {
+            ins.add(new Instruction(Opcode.MOVQ, f, r));
+            release(f);
+            reserve(r);
+        }
+        ins.add(Instruction.labelInstruction(endLabel));
+        return r;
+    }
+
+    private void reserve(LocReg r) {
+        for (int ii = 0; ii < scratch.length; ii++) {
+            if (scratch[ii] == r.reg) {
+                busy[ii] = true;
+            }
+        }
+    }
+
+    private LocReg evaluateArith(BinExpr expr, List<Instruction> ins) {
+        Ops op = expr.getOperator();
+        boolean divide = op == Ops.DIVIDE || op == Ops.MOD;
+        LocationMem[] operands;
+        if ((op == Ops.PLUS || op == Ops.TIMES) && isLeaf(expr.getLeftSide(), true)
+                && !isLeaf(expr.getRightSide(), true) && !hasCall(expr.getRightSide())) {
+            // commutative, so the leaf can be the operand
+            LocReg r = evaluate(expr.getRightSide(), ins);
+            operands = new LocationMem[] {r, operand(expr.getLeftSide(), ins)};
+        } else {
+            // idivq has no immediate form
+            operands = evaluateOperands(expr, !divide, ins);
+        }
+        LocReg a = (LocReg) operands[0];
+        LocationMem b = operands[1];
+        // a spilled left operand is only popped into rax when b holds the last scratch register
+        boolean inRax = a.reg == Regs.RAX;
+        LocReg rax = new LocReg(Regs.RAX);
+        if (divide) {
+            if (!inRax) {
+                ins.add(new Instruction(Opcode.MOVQ, a, rax));
+            }
+            ins.add(new Instruction(Opcode.CQTO));
+            ins.add(new Instruction(Opcode.IDIVQ, b));
+            LocReg dst = inRax ? (LocReg) b : a;
+            ins.add(new Instruction(Opcode.MOVQ, new LocReg(op == Ops.MOD ? Regs.RDX : Regs.RAX), dst));
+            if (!inRax) {
+                release(b);
+            }
+            return dst;
+        }
+        Opcode cmd;
+        switch (op) {
+        case PLUS:
+            cmd = Opcode.ADDQ;
+            break;
+        case MINUS:
+            cmd = Opcode.SUBQ;
+            break;
+        case TIMES:
+            cmd = Opcode.IMULQ;
+            break;
+        default:
+            throw new RuntimeException("evaluateArith called without an arithmetic op - op was " + op);
+        }
+        ins.add(new Instruction(cmd, b, a));
+        if (inRax) {
+            ins.add(new Instruction(Opcode.MOVQ, rax, b));
+            return (LocReg) b;
+        }
+        release(b);
+        return a;
+    }
+
+    /**
+     * Compares the two sides of a comparison and returns the condition code (as in jcc or
+     * setcc) that holds when the comparison is true. Releases everything it evaluated.
+     */
+    private String compare(BinExpr expr, List<Instruction> ins) {
+        String cc = conditionCode(expr.getOperator());
+        Expression left = expr.getLeftSide();
+        Expression right = expr.getRightSide();
+        if (isLeaf(left, false) && isLeaf(right, true)) {
+            LocationMem a = operand(left, ins);
+            LocationMem b = operand(right, ins);
+            if (isMemory(a) && isMemory(b)) {
+                LocReg r = allocate();
+                ins.add(new Instruction(Opcode.MOVQ, a, r));
+                a = r;
+            }
+            ins.add(new Instruction(Opcode.CMPQ, b, a));
+            release(a);
+            return cc;
+        }
+        LocationMem[] operands = evaluateOperands(expr, true, ins);
+        ins.add(new Instruction(Opcode.CMPQ, operands[1], operands[0]));
+        release(operands[0]);
+        release(operands[1]);
+        return cc;
+    }
+
+    /**
+     * Evaluates both sides of a binary operator. The left side always ends up in a register
+     * the caller owns; the right side is a leaf operand or another register. The side needing
+     * more registers goes first unless either side makes a call, in which case they are
+     * evaluated left to right.
+     * @param literalRight : whether the right side may be an immediate.
+     * @return {left, right}. Left is only ever rax if it had to be spilled while right took
+     * the last scratch register; right is then a scratch register.
+     */
+    private LocationMem[] evaluateOperands(BinExpr expr, boolean literalRight, List<Instruction> ins) {
+        Expression left = expr.getLeftSide();
+        Expression right = expr.getRightSide();
+        if (isLeaf(right, literalRight)) {
+            LocReg a = evaluate(left, ins);
+            return new LocationMem[] {a, operand(right, ins)};
+        }
+        boolean rightFirst = !hasCall(left) && !hasCall(right) && need(right) > need(left);
+        LocReg x = evaluate(rightFirst ? right : left, ins);
+        boolean spilled = freeRegisters() == 0;
+        if (spilled) {
+            ins.addAll(context.push(x));
+            release(x);
+        }
+        LocReg y = evaluate(rightFirst ? left : right, ins);
+        if (spilled) {
+            if (freeRegisters() > 0) {
+                x = allocate();
+                ins.addAll(context.pop(x));
+            } else {
+                x = new LocReg(Regs.RAX);
+                ins.addAll(context.pop(x));
+                if (rightFirst) {
+                    // keep the left value in rax
+                    ins.add(new Instruction(Opcode.XCHGQ, x, y));
+                    rightFirst = false;
+                }
+            }
+        }
+        if (rightFirst) {
+            return new LocationMem[] {y, x};
+        }
+        return new LocationMem[] {x, y};
+    }
+
+    /**
+     * Operand for a leaf, see isLeaf.
+     */
+    private LocationMem operand(Expression expr, List<Instruction> ins) {
+        if (expr instanceof IntLit) {
+            return new LocLiteral(((IntLit) expr).getValue());
+        } else if (expr instanceof BoolLit) {
+            return new LocLiteral(((BoolLit) expr).getTruthValue()
+                    ? CodegenConst.BOOL_TRUE : CodegenConst.BOOL_FALSE);
+        }
+        return location((Var) expr, ins);
+    }
+
+    /**
+     * Whether expr can be used as an instruction operand as it is: a literal that fits in
+     * 32 bits (if literals are allowed), a scalar variable or an array element at a constant
+     * index.
+     */
+    private static boolean isLeaf(Expression expr, boolean literalOk) {
+        if (expr instanceof IntLit) {
+            long value = ((IntLit) expr).getValue();
+            return literalOk && value <= Integer.MAX_VALUE && value >= Integer.MIN_VALUE;
+        } else if (expr instanceof BoolLit) {
+            return literalOk;
+        } else if (expr instanceof Var) {
+            Var var = (Var) expr;
+            return !var.isArray() || var.getIndex() instanceof IntLit;
+        }
+        return false;
+    }
+
+    private static boolean isMemory(LocationMem loc) {
+        LocType type = loc.getType();
+        return type == LocType.STACK_LOC || type == LocType.LABEL_LOC || type == LocType.ARRAY_LOC;
+    }
+
+    /**
+     * Sethi-Ullman number: how many registers evaluating expr into a register takes.
+     */
+    private static int need(Expression expr) {
+        if (isLeaf(expr, true) || expr instanceof IntLit) {
+            return 1;
+        } else if (expr instanceof MethodCall) {
+            return CALL_NEED;
+        } else if (expr instanceof Var) {
+            return need(((Var) expr).getIndex());
+        } else if (expr instanceof NegateExpr) {
+            return need(((NegateExpr) expr).getExpression());
+        } else if (expr instanceof NotExpr) {
+            return need(((NotExpr) expr).getUnresolvedExpression());
+        } else if (expr instanceof Ternary) {
+            Ternary ternary = (Ternary) expr;
+            return Math.max(need(ternary.getTernaryCondition()),
+                    Math.max(need(ternary.getTrueBranch()), need(ternary.getFalseBranch())));
+        } else if (expr instanceof CondExpr) {
+            // each side is branched on by itself
+            CondExpr cond = (CondExpr) expr;
+            return Math.max(need(cond.getLeftSide()), need(cond.getRightSide()));
+        } else if (expr instanceof BinExpr) {
+            BinExpr bin = (BinExpr) expr;
+            boolean divide = bin.getOperator() == Ops.DIVIDE || bin.getOperator() == Ops.MOD;
+            int l = need(bin.getLeftSide());
+            int r = isLeaf(bin.getRightSide(), !divide) ? 0 : need(bin.getRightSide());
+            return l == r ? l + 1 : Math.max(l, r);
+        }
+        return 1;
+    }
+
+    /**
+     * Whether evaluating expr makes a method call, including in array indices.
+     */
+    public static boolean hasCall(Expression expr) {
+        if (expr instanceof MethodCall) {
+            return true;
+        } else if (expr instanceof Var) {
+            return ((Var) expr).isArray() && hasCall(((Var) expr).getIndex());
+        } else if (expr instanceof NegateExpr) {
+            return hasCall(((NegateExpr) expr).getExpression());
+        } else if (expr instanceof NotExpr) {
+            return hasCall(((NotExpr) expr).getUnresolvedExpression());
+        } else if (expr instanceof Ternary) {
+            Ternary ternary = (Ternary) expr;
+            return hasCall(ternary.getTernaryCondition()) || hasCall(ternary.getTrueBranch())
+                    || hasCall(ternary.getFalseBranch());
+        } else if (expr instanceof BinExpr) {
+            return hasCall(((BinExpr) expr).getLeftSide()) || hasCall(((BinExpr) expr).getRightSide());
+        }
+        return false;
+    }
+
+    private static String conditionCode(Ops op) {
+        switch (op) {
+        case GT:
+            return "g";
+        case GTE:
+            return "ge";
+        case LT:
+            return "l";
+        case LTE:
+            return "le";
+        case EQUALS:
+            return "e";
+        case NOT_EQUALS:
+            return "ne";
+        default:
+            throw new RuntimeException("called compare without valid compare op - op was " + op);
+        }
+    }
+
+    private static String negate(String cc) {
+        if (cc.equals("e")) {
+            return "ne";
+        } else if (cc.equals("ne")) {
+            return "e";
+        } else if (cc.equals("g")) {
+            return "le";
+        } else if (cc.equals("le")) {
+            return "g";
+        } else if (cc.equals("ge")) {
+            return "l";
+        }
+        return "ge";
+    }
+}
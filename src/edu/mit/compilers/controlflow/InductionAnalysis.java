@@ -0,0 +1,529 @@
+package edu.mit.compilers.controlflow;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import edu.mit.compilers.ir.IR_FieldDecl;
+import edu.mit.compilers.ir.Ops;
+
+/**
+ * Affine forms of expressions inside FOR loops, over the loop's induction variable and the
+ * variables the loop doesn't change. Shared by BoundsCheckElimination, StrengthReduction,
+ * LoopUnrolling, LoopParallelization and LoopVectorization.
+ *
+ * A FOR loop is only analyzed as long as its induction variable is changed by nothing but the
+ * increments on the back edges, so inside the body it goes up by the same positive step every
+ * iteration, from its value on entry to the end of the loop. The step is one for the loops
+ * GenerateFlow makes, and the factor of the unrolling for the loops LoopUnrolling makes.
+ */
+public class InductionAnalysis {
+    /**
+     * Largest magnitude of a variable in a guarded form, and of coefficients and constants in
+     * any form. The induction variable stays below MAX_SYMBOL + MAX_CONSTANT, so with at most
+     * MAX_TERMS terms no form or subexpression of an index can overflow 64 bits while the
+     * guards hold.
+     */
+    static final long MAX_SYMBOL = Integer.MAX_VALUE;
+    static final long MAX_COEFFICIENT = 1L << 20;
+    static final long MAX_CONSTANT = 1L << 31;
+    static final int MAX_TERMS = 8;
+
+    /**
+     * Steps allowed for substituting assignments into one expression, which could otherwise grow
+     * exponentially for chains like a = a + a.
+     */
+    private static final int SUBSTITUTION_BUDGET = 1000;
+
+    private final Set<IR_FieldDecl> globals;
+    private int budget;
+    /** induction variables of inner loops that valueOver keeps as symbols */
+    private Set<IR_FieldDecl> innerVars = Collections.emptySet();
+    /** a Var object for every variable a form was written over, to build expressions from */
+    private final Map<IR_FieldDecl, Var> symbols = new HashMap<IR_FieldDecl, Var>();
+    private final Map<IR_FieldDecl, Integer> symbolIds = new HashMap<IR_FieldDecl, Integer>();
+
+    /**
+     * A value as c0 + c1*x1 + ... + cn*xn over scalar variables.
+     */
+    static class Affine {
+        final LinkedHashMap<IR_FieldDecl, Long> terms = new LinkedHashMap<IR_FieldDecl, Long>();
+        long constant;
+
+        static Affine constant(long value) {
+            if (Math.abs(value) > MAX_CONSTANT) {
+                return null;
+            }
+            Affine a = new Affine();
+            a.constant = value;
+            return a;
+        }
+
+        static Affine symbol(IR_FieldDecl decl) {
+            Affine a = new Affine();
+            a.terms.put(decl, 1L);
+            return a;
+        }
+
+        boolean isConstant() {
+            return terms.isEmpty();
+        }
+
+        /**
+         * @return true for x + c and -x + c.
+         */
+        boolean isUnitSymbol() {
+            return terms.size() == 1 && Math.abs(terms.values().iterator().next()) == 1;
+        }
+
+        long coefficient(IR_FieldDecl decl) {
+            Long c = terms.get(decl);
+            return c == null ? 0 : c;
+        }
+
+        /**
+         * @return this + scale * other, or null if a coefficient or the constant gets too big.
+         */
+        Affine plus(Affine other, long scale) {
+            if (other == null || Math.abs(scale) > MAX_COEFFICIENT) {
+                return null;
+            }
+            Affine a = new Affine();
+            a.terms.putAll(terms);
+            for (Map.Entry<IR_FieldDecl, Long> term : other.terms.entrySet()) {
+                long c = a.coefficient(term.getKey()) + scale * term.getValue();
+                if (Math.abs(c) > MAX_COEFFICIENT) {
+                    return null;
+                }
+                if (c == 0) {
+                    a.terms.remove(term.getKey());
+                } else {
+                    a.terms.put(term.getKey(), c);
+                }
+            }
+            a.constant = constant + scale * other.constant;
+            if (Math.abs(a.constant) > MAX_CONSTANT || a.terms.size() > MAX_TERMS) {
+                return null;
+            }
+            return a;
+        }
+
+        Affine times(long scale) {
+            return constant(0).plus(this, scale);
+        }
+
+        /**
+         * @return this with decl replaced by value.
+         */
+        Affine substitute(IR_FieldDecl decl, Affine value) {
+            long c = coefficient(decl);
+            if (c == 0) {
+                return this;
+            }
+            Affine a = plus(symbol(decl), -c);
+            return a == null ? null : a.plus(value, c);
+        }
+
+        /**
+         * @return this without its constant.
+         */
+        Affine variablePart() {
+            Affine a = new Affine();
+            a.terms.putAll(terms);
+            return a;
+        }
+    }
+
+    /**
+     * What is known about one FOR loop.
+     */
+    class Loop {
+        final Branch branch;
+        final Set<FlowNode> region = new HashSet<FlowNode>();
+        final Set<IR_FieldDecl> assigned = new HashSet<IR_FieldDecl>();
+        boolean hasCalls = false;
+        Var inductionVar;
+        /** the back edges, each with the position of its increment of the induction variable */
+        final LinkedHashMap<Codeblock, Integer> increments = new LinkedHashMap<Codeblock, Integer>();
+        /** what every increment adds to the induction variable */
+        long step;
+        /** end of the loop over variables the loop doesn't change, or null if it isn't one */
+        Affine bound;
+        /** bound with the values known on entry substituted */
+        Affine end;
+        /** parent of the Branch outside the loop, if there is exactly one and it is a Codeblock */
+        Codeblock preheader;
+        boolean valid;
+
+        Loop(Branch branch) {
+            this.branch = branch;
+        }
+
+        IR_FieldDecl inductionDecl() {
+            return inductionVar.getFieldDecl();
+        }
+
+        boolean isInvariant(IR_FieldDecl decl) {
+            return !assigned.contains(decl) && !(hasCalls && globals.contains(decl));
+        }
+    }
+
+    /**
+     * @param globals : global variables, which calls can change.
+     */
+    public InductionAnalysis(List<IR_FieldDecl> globals) {
+        this.globals = new HashSet<IR_FieldDecl>(globals);
+    }
+
+    boolean isGlobal(IR_FieldDecl decl) {
+        return globals.contains(decl);
+    }
+
+    /**
+     * Every FlowNode reachable from node, in depth first order.
+     */
+    static List<FlowNode> collectNodes(FlowNode node) {
+        List<FlowNode> nodes = new ArrayList<FlowNode>();
+        Set<FlowNode> seen = new HashSet<FlowNode>();
+        List<FlowNode> processing = new ArrayList<FlowNode>();
+        processing.add(node);
+        seen.add(node);
+        while (!processing.isEmpty()) {
+            FlowNode next = processing.remove(processing.size() - 1);
+            nodes.add(next);
+            List<FlowNode> children = next.getChildren();
+            for (int i = children.size() - 1; i >= 0; i--) {
+                FlowNode child = children.get(i);
+                if (child != null && seen.add(child)) {
+                    processing.add(child);
+                }
+            }
+        }
+        return nodes;
+    }
+
+    /**
+     * Finds the body of a FOR loop and checks that its induction variable and end behave.
+     */
+    Loop analyzeLoop(Branch branch) {
+        Loop loop = new Loop(branch);
+        FlowNode exit = branch.getFalseBranch();
+        List<FlowNode> processing = new ArrayList<FlowNode>();
+        processing.add(branch.getTrueBranch());
+        loop.region.add(branch.getTrueBranch());
+        while (!processing.isEmpty()) {
+            FlowNode next = processing.remove(processing.size() - 1);
+            for (FlowNode child : next.getChildren()) {
+                if (child != null && child != branch && child != exit && loop.region.add(child)) {
+                    processing.add(child);
+                }
+            }
+        }
+        List<Assignment> inductionAssigns = new ArrayList<Assignment>();
+        Expression cond = branch.getExpr();
+        if (cond instanceof CompExpr && ((CompExpr) cond).getOperator() == Ops.LT
+                && ((CompExpr) cond).getLeftSide() instanceof Var
+                && !((Var) ((CompExpr) cond).getLeftSide()).isArray()) {
+            loop.inductionVar = (Var) ((CompExpr) cond).getLeftSide();
+        } else {
+            return loop;
+        }
+        IR_FieldDecl induction = loop.inductionDecl();
+        for (FlowNode node : loop.region) {
+            if (node instanceof Codeblock) {
+                for (Statement st : ((Codeblock) node).getStatements()) {
+                    if (st instanceof Assignment) {
+                        Assignment assign = (Assignment) st;
+                        Var dest = assign.getDestVar();
+                        if (!dest.isArray()) {
+                            loop.assigned.add(dest.getFieldDecl());
+                            if (dest.getFieldDecl() == induction) {
+                                inductionAssigns.add(assign);
+                            }
+                        }
+                        loop.hasCalls |= hasCall(dest.getIndex()) || hasCall(assign.getValue());
+                    } else if (st instanceof Declaration) {
+                        loop.assigned.add(((Declaration) st).getFieldDecl());
+                    } else if (st instanceof MethodCallStatement) {
+                        loop.hasCalls |= hasCall(((MethodCallStatement) st).getMethodCall());
+                    }
+                }
+            } else if (node instanceof Branch) {
+                loop.hasCalls |= hasCall(((Branch) node).getExpr());
+            } else if (node instanceof END) {
+                loop.hasCalls |= hasCall(((END) node).getReturnExpression());
+            }
+        }
+        loop.hasCalls |= hasCall(cond);
+        for (FlowNode parent : branch.getParents()) {
+            if (!loop.region.contains(parent)) {
+                if (loop.preheader != null || !(parent instanceof Codeblock)) {
+                    loop.preheader = null;
+                    break;
+                }
+                loop.preheader = (Codeblock) parent;
+            }
+        }
+        if (loop.hasCalls && globals.contains(induction)) {
+            return loop;
+        }
+        // the induction variable may only be incremented once, on a back edge
+        int backEdges = 0;
+        for (FlowNode parent : branch.getParents()) {
+            if (!loop.region.contains(parent)) {
+                continue;
+            }
+            if (!(parent instanceof Codeblock)) {
+                return loop;
+            }
+            Codeblock block = (Codeblock) parent;
+            List<Statement> statements = block.getStatements();
+            int found = 0;
+            for (int i = 0; i < statements.size(); i++) {
+                Statement st = statements.get(i);
+                if (!inductionAssigns.contains(st)) {
+                    continue;
+                }
+                found++;
+                Assignment assign = (Assignment) st;
+                Affine value = assign.getOperator() == Ops.ASSIGN
+                        ? valueOf(assign.getValue(), loop, block, i) : null;
+                Affine step = value == null ? null : value.plus(Affine.symbol(induction), -1);
+                if (step == null || !step.isConstant() || step.constant < 1
+                        || (loop.step != 0 && step.constant != loop.step)) {
+                    return loop;
+                }
+                loop.step = step.constant;
+                loop.increments.put(block, i);
+            }
+            if (found != 1) {
+                return loop;
+            }
+            backEdges += found;
+        }
+        if (backEdges != inductionAssigns.size()) {
+            return loop;
+        }
+        loop.valid = true;
+        Affine end = valueOf(((CompExpr) cond).getRightSide(), loop, null, 0);
+        if (end != null && end.coefficient(induction) == 0) {
+            loop.bound = end;
+            loop.end = entryValue(end, loop);
+        }
+        return loop;
+    }
+
+    /**
+     * Value of expr at statement position of block (or wherever it is evaluated, if block is
+     * null) as an affine form over variables the loop doesn't change, or null if it isn't one.
+     * With loop null, only assignments in block and the Codeblocks leading straight to it count.
+     */
+    Affine valueOf(Expression expr, Loop loop, Codeblock block, int position) {
+        budget = SUBSTITUTION_BUDGET;
+        return valueAt(expr, loop, block, position);
+    }
+
+    /**
+     * valueOf for an expression inside loops nested in loop: the induction variables of those
+     * loops, innerVars, are kept as symbols standing for their value where expr is evaluated.
+     */
+    Affine valueOver(Expression expr, Loop loop, Set<IR_FieldDecl> innerVars, Codeblock block, int position) {
+        this.innerVars = innerVars;
+        try {
+            return valueOf(expr, loop, block, position);
+        } finally {
+            this.innerVars = Collections.emptySet();
+        }
+    }
+
+    private Affine valueAt(Expression expr, Loop loop, Codeblock block, int position) {
+        if (--budget < 0) {
+            return null;
+        }
+        if (expr instanceof IntLit) {
+            return Affine.constant(((IntLit) expr).getValue());
+        } else if (expr instanceof Var) {
+            Var var = (Var) expr;
+            if (var.isArray()) {
+                return null;
+            }
+            if (!symbols.containsKey(var.getFieldDecl())) {
+                symbols.put(var.getFieldDecl(), var);
+                symbolIds.put(var.getFieldDecl(), symbolIds.size());
+            }
+            return variableAt(var.getFieldDecl(), loop, block, position);
+        } else if (expr instanceof AddExpr) {
+            AddExpr add = (AddExpr) expr;
+            Affine left = valueAt(add.getLeftSide(), loop, block, position);
+            Affine right = valueAt(add.getRightSide(), loop, block, position);
+            if (left == null) {
+                return null;
+            }
+            return left.plus(right, add.getOperator() == Ops.MINUS ? -1 : 1);
+        } else if (expr instanceof MultExpr) {
+            MultExpr mult = (MultExpr) expr;
+            Affine left = valueAt(mult.getLeftSide(), loop, block, position);
+            Affine right = valueAt(mult.getRightSide(), loop, block, position);
+            if (left == null || right == null) {
+                return null;
+            } else if (left.isConstant()) {
+                return right.times(left.constant);
+            } else if (right.isConstant()) {
+                return left.times(right.constant);
+            }
+            return null;
+        } else if (expr instanceof NegateExpr) {
+            Affine value = valueAt(((NegateExpr) expr).getExpression(), loop, block, position);
+            return value == null ? null : value.times(-1);
+        }
+        return null;
+    }
+
+    private Affine variableAt(IR_FieldDecl decl, Loop loop, Codeblock block, int position) {
+        if (loop != null && loop.hasCalls && globals.contains(decl)) {
+            return null;
+        }
+        if (loop == null && globals.contains(decl)) {
+            return null;
+        }
+        while (block != null) {
+            List<Statement> statements = block.getStatements();
+            for (int i = position - 1; i >= 0; i--) {
+                Statement st = statements.get(i);
+                if (st instanceof Assignment && !((Assignment) st).getDestVar().isArray()
+                        && ((Assignment) st).getDestVar().getFieldDecl() == decl) {
+                    Assignment assign = (Assignment) st;
+                    Affine value = valueAt(assign.getValue(), loop, block, i);
+                    switch (assign.getOperator()) {
+                    case ASSIGN:
+                        return value;
+                    case ASSIGN_PLUS:
+                        Affine before = variableAt(decl, loop, block, i);
+                        return before == null ? null : before.plus(value, 1);
+                    case ASSIGN_MINUS:
+                        before = variableAt(decl, loop, block, i);
+                        return before == null ? null : before.plus(value, -1);
+                    default:
+                        return null;
+                    }
+                } else if (st instanceof Declaration && ((Declaration) st).getFieldDecl() == decl) {
+                    return Affine.constant(0);
+                }
+            }
+            if (loop != null) {
+                break;
+            }
+            // entry values: keep going up a straight line of Codeblocks
+            List<FlowNode> parents = block.getParents();
+            if (parents.size() != 1 || !(parents.get(0) instanceof Codeblock)
+                    || parents.get(0).getChildren().size() != 1) {
+                return null;
+            }
+            block = (Codeblock) parents.get(0);
+            position = block.getStatements().size();
+        }
+        if (loop == null) {
+            return null;
+        }
+        if (decl == loop.inductionDecl() || loop.isInvariant(decl) || innerVars.contains(decl)) {
+            return Affine.symbol(decl);
+        }
+        return null;
+    }
+
+    /**
+     * form with every variable whose value on entry to the loop is a known constant replaced
+     * by that constant.
+     */
+    Affine entryValue(Affine form, Loop loop) {
+        if (loop.preheader == null) {
+            return form;
+        }
+        Affine result = form;
+        for (IR_FieldDecl decl : new ArrayList<IR_FieldDecl>(form.terms.keySet())) {
+            budget = SUBSTITUTION_BUDGET;
+            Affine value = variableAt(decl, null, loop.preheader, loop.preheader.getStatements().size());
+            if (value != null && value.isConstant() && Math.abs(value.constant) <= MAX_SYMBOL) {
+                result = result.substitute(decl, value);
+                if (result == null) {
+                    return null;
+                }
+            }
+        }
+        return result;
+    }
+
+    static boolean hasCall(Expression expr) {
+        if (expr instanceof MethodCall) {
+            return !((MethodCall) expr).getIsCallout() || hasCallIn(((MethodCall) expr).getArguments());
+        } else if (expr instanceof Var) {
+            return hasCall(((Var) expr).getIndex());
+        } else if (expr instanceof BinExpr) {
+            return hasCall(((BinExpr) expr).getLeftSide()) || hasCall(((BinExpr) expr).getRightSide());
+        } else if (expr instanceof NotExpr) {
+            return hasCall(((NotExpr) expr).getUnresolvedExpression());
+        } else if (expr instanceof NegateExpr) {
+            return hasCall(((NegateExpr) expr).getExpression());
+        } else if (expr instanceof Ternary) {
+            Ternary tern = (Ternary) expr;
+            return hasCall(tern.getTernaryCondition()) || hasCall(tern.getTrueBranch())
+                    || hasCall(tern.getFalseBranch());
+        }
+        return false;
+    }
+
+    private static boolean hasCallIn(List<Expression> args) {
+        for (Expression arg : args) {
+            if (hasCall(arg)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Key for the variable part of a form, so forms differing only in their constant are merged.
+     */
+    String termKey(Affine form) {
+        StringBuilder sb = new StringBuilder();
+        for (Map.Entry<IR_FieldDecl, Long> term : form.terms.entrySet()) {
+            sb.append(symbolIds.get(term.getKey())).append('*').append(term.getValue()).append(' ');
+        }
+        return sb.toString();
+    }
+
+    /**
+     * A new Var for decl, so that nothing marked on the Vars in the loop leaks into the
+     * expressions built from forms.
+     */
+    Var symbolVar(IR_FieldDecl decl) {
+        return new Var(symbols.get(decl).getVarDescriptor(), null);
+    }
+
+    Expression toExpression(Affine form) {
+        Expression expr = null;
+        for (Map.Entry<IR_FieldDecl, Long> term : form.terms.entrySet()) {
+            Var var = symbolVar(term.getKey());
+            long c = term.getValue();
+            if (expr == null) {
+                expr = c == 1 ? var : new MultExpr(new IntLit(c), Ops.TIMES, var);
+            } else if (c == 1 || c == -1) {
+                expr = new AddExpr(expr, c == 1 ? Ops.PLUS : Ops.MINUS, var);
+            } else {
+                expr = new AddExpr(expr, c > 0 ? Ops.PLUS : Ops.MINUS,
+                        new MultExpr(new IntLit(Math.abs(c)), Ops.TIMES, var));
+            }
+        }
+        if (expr == null) {
+            return new IntLit(form.constant);
+        } else if (form.constant != 0) {
+            expr = new AddExpr(expr, form.constant > 0 ? Ops.PLUS : Ops.MINUS, new IntLit(Math.abs(form.constant)));
+        }
+        return expr;
+    }
+}
@@ -0,0 +1,177 @@
+package edu.mit.compilers.controlflow;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.ListIterator;
+import java.util.Map;
+import java.util.Set;
+
+import edu.mit.compilers.ir.IR_FieldDecl;
+import edu.mit.compilers.ir.Ops;
+
+/**
+ * Backward liveness over the Bitvectors of a single method, solved with DataflowAnalysis.
+ *
+ * The input of a node is the set of variables live at its exit (what generateLivenessMap hands
+ * to DCE), the output is the set live at its entry. At an END, the return value, every global
+ * and the method arguments are live.
+ *
+ */
+public class LivenessAnalysis extends DataflowAnalysis {
+	private Optimizer optimizer;
+	private List<IR_FieldDecl> globalList;
+	private List<IR_FieldDecl> arguments;
+	private boolean registerAllocationMode;
+
+	private Bitvector zeroVector;
+	private Bitvector scratchVector;
+	private Map<FlowNode, Bitvector> liveOut = new HashMap<FlowNode, Bitvector>();
+	private Map<FlowNode, Bitvector> liveIn = new HashMap<FlowNode, Bitvector>();
+
+	/**
+	 * @param optimizer : Optimizer whose expression helpers we use.
+	 * @param globals : List of global IR_FieldDecls.
+	 * @param arguments : arguments of the method being analyzed.
+	 * @param allVars : every IR_FieldDecl that can show up in the method; numbered once for the Bitvectors.
+	 * @param registerAllocationMode : if true, every Assignment and MethodCallStatement gets a copy of the 
+	 * vector live right after it, and every Branch the one live after its expression. Dead assignments
+	 * still read their right hand side, as they are emitted anyway.
+	 */
+	public LivenessAnalysis(Optimizer optimizer, List<IR_FieldDecl> globals, List<IR_FieldDecl> arguments,
+			Set<IR_FieldDecl> allVars, boolean registerAllocationMode) {
+		this.optimizer = optimizer;
+		this.globalList = globals;
+		this.arguments = arguments;
+		this.registerAllocationMode = registerAllocationMode;
+		this.zeroVector = new Bitvector(allVars);
+		this.scratchVector = zeroVector.copyBitvector();
+	}
+
+	/**
+	 * Map of FlowNode to the variables live at the exit of that node.
+	 */
+	public Map<FlowNode, Bitvector> getLiveOutMap() {
+		return liveOut;
+	}
+
+	/**
+	 * Map of FlowNode to the variables live at the entry of that node.
+	 */
+	public Map<FlowNode, Bitvector> getLiveInMap() {
+		return liveIn;
+	}
+
+	@Override
+	protected Direction getDirection() {
+		return Direction.BACKWARD;
+	}
+
+	@Override
+	protected void initialize(FlowNode node) {
+		liveOut.put(node, zeroVector.copyBitvector());
+		liveIn.put(node, zeroVector.copyBitvector());
+	}
+
+	@Override
+	protected void meet(FlowNode node, List<FlowNode> successors, boolean boundary) {
+		Bitvector out = liveOut.get(node);
+		out.copyFrom(zeroVector);
+		if (boundary && node instanceof END) {
+			markLive(out, ((END) node).getReturnExpression());
+			for (IR_FieldDecl global : globalList) {
+				out.setVectorVal(global, 1);
+			}
+			for (IR_FieldDecl argument : arguments) {
+				out.setVectorVal(argument, 1);
+			}
+		}
+		for (FlowNode successor : successors) {
+			out.unionInPlace(liveIn.get(successor));
+		}
+	}
+
+	@Override
+	protected boolean transfer(FlowNode node) {
+		Bitvector liveVector = scratchVector;
+		liveVector.copyFrom(liveOut.get(node));
+		if (node instanceof Codeblock) {
+			List<Statement> statementList = ((Codeblock) node).getStatements();
+			ListIterator<Statement> statementIter = statementList.listIterator(statementList.size());
+			while (statementIter.hasPrevious()) { //go backwards through the block
+				Statement currentState = statementIter.previous();
+				if (currentState instanceof Assignment) {
+					if (registerAllocationMode) {
+						currentState.setLiveMap(liveVector.copyBitvector()); // Set live vector of current statement
+					}
+					transferAssignment((Assignment) currentState, liveVector);
+				} else if (currentState instanceof MethodCallStatement) { //set liveness vectors for the args
+					if (registerAllocationMode) {
+						currentState.setLiveMap(liveVector.copyBitvector());
+					}
+					for (Expression arg : ((MethodCallStatement) currentState).getMethodCall().getArguments()) {
+						markLive(liveVector, arg);
+					}
+				}
+				//if var declared isn't ever alive, could remove the decl; but no time to work it out and debug
+			}
+		} else if (node instanceof Branch) {
+			if (registerAllocationMode) {
+				node.setLiveMap(liveVector.copyBitvector());
+			}
+			//anything showing up in a branch expression is used by definition, otherwise prog is invalid.
+			markLive(liveVector, ((Branch) node).getExpr());
+			// range guards are only checked on the way in, but they read their variables here too
+			for (Expression guard : ((Branch) node).getRangeGuards()) {
+				markLive(liveVector, guard);
+			}
+		} else if (node instanceof START) {
+			for (IR_FieldDecl arg : ((START) node).getArguments()) {
+				liveVector.setVectorVal(arg, 1);
+			}
+		} else if (node instanceof END) {
+			markLive(liveVector, ((END) node).getReturnExpression());
+		}
+		Bitvector in = liveIn.get(node);
+		if (in.compareBitvectorEquality(liveVector)) {
+			return false;
+		}
+		in.copyFrom(liveVector);
+		return true;
+	}
+
+	/**
+	 * An assignment whose destination is dead (and has no method call) is itself dead,
+	 * so it does not make its right hand side live. In registerAllocationMode it does: the
+	 * assignment is still emitted unless DCE removed it, so its right hand side and array
+	 * indexes are still read, and their registers must hold them.
+	 */
+	private void transferAssignment(Assignment assign, Bitvector liveVector) {
+		IR_FieldDecl lhs = assign.getDestVar().getFieldDecl();
+		boolean hasMethodCall = optimizer.containsMethodCall(assign.getValue());
+		Integer lhsLive = liveVector.get(lhs);
+		if ((lhsLive == null || lhsLive != 1) && !hasMethodCall && !registerAllocationMode) {
+			return;
+		}
+		boolean lhsUsedInRhs = false;
+		for (IR_FieldDecl varDecl : optimizer.getVarIRsFromExpression(assign.getValue())) {
+			liveVector.setVectorVal(varDecl, 1);
+			lhsUsedInRhs = lhsUsedInRhs || varDecl == lhs;
+		}
+		if (assign.getDestVar().getIndex() != null) {
+			markLive(liveVector, assign.getDestVar().getIndex());
+		}
+		if (!lhsUsedInRhs && assign.getDestVar().getIndex() == null
+				&& assign.getOperator() != Ops.ASSIGN_MINUS && assign.getOperator() != Ops.ASSIGN_PLUS) {
+			liveVector.setVectorVal(lhs, 0);
+		}
+	}
+
+	private void markLive(Bitvector liveVector, Expression expr) {
+		if (expr == null) {
+			return;
+		}
+		for (IR_FieldDecl varDecl : optimizer.getVarIRsFromExpression(expr)) {
+			liveVector.setVectorVal(varDecl, 1);
+		}
+	}
+}
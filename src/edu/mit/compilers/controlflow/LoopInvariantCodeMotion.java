@@ -0,0 +1,468 @@
+package edu.mit.compilers.controlflow;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import edu.mit.compilers.codegen.Descriptor;
+import edu.mit.compilers.controlflow.ReachingDefinitions.Definition;
+import edu.mit.compilers.ir.IR_FieldDecl;
+import edu.mit.compilers.ir.Ops;
+
+/**
+ * Loop-invariant code motion for FOR and WHILE loops.
+ *
+ * The loops are the natural loops of the dominator tree, done innermost first. A use of a
+ * variable inside a loop is invariant if none of the definitions reaching it is in the loop
+ * (and, for a global, if the loop calls no method). Computations made only of invariant uses
+ * and constants are moved into a preheader, a new Codeblock between the loop Branch and the
+ * code entering the loop:
+ *
+ *  - an Assignment x = e with e invariant, if it is the only definition of x in the loop and x
+ *    is neither live into the loop nor live where the loop can be left, so it doesn't matter
+ *    that it now happens once, and even when the loop doesn't run;
+ *  - the largest invariant integer subexpressions of the other statements and of the tests,
+ *    among them the index arithmetic of array elements, each computed once into a new
+ *    variable, so a[(r * 731) + c] becomes a[t + c].
+ *
+ * Only arithmetic that can't fail is moved: no calls, no array elements, and no division
+ * unless it is by a constant other than 0 and -1. Arrays live at fixed labels, so there is no
+ * base address to move. The loops are found again after each one is done, so what was moved
+ * out of an inner loop can be moved out of the loop around it in turn.
+ */
+public class LoopInvariantCodeMotion {
+    private final Optimizer optimizer;
+    private final List<START> methods;
+    private final Set<IR_FieldDecl> globals;
+    private int assignmentsHoisted = 0;
+    private int expressionsHoisted = 0;
+    private int preheadersAdded = 0;
+    private final Map<IR_FieldDecl, Integer> declIds = new HashMap<IR_FieldDecl, Integer>();
+
+    /**
+     * What one loop needs while code is moved out of it.
+     */
+    private static class LoopState {
+        final Branch header;
+        final List<FlowNode> body;
+        final Set<FlowNode> inBody;
+        final ReachingDefinitions reaching;
+        /** definitions still inside the loop */
+        final BitSet inside = new BitSet();
+        final boolean hasCalls;
+        final List<Statement> hoisted = new ArrayList<Statement>();
+        final Map<String, Descriptor> temps = new HashMap<String, Descriptor>();
+
+        LoopState(Branch header, List<FlowNode> body, ReachingDefinitions reaching, boolean hasCalls) {
+            this.header = header;
+            this.body = body;
+            this.inBody = new HashSet<FlowNode>(body);
+            this.reaching = reaching;
+            this.hasCalls = hasCalls;
+            List<Definition> definitions = reaching.getDefinitions();
+            for (int i = 0; i < definitions.size(); i++) {
+                if (inBody.contains(definitions.get(i).block)) {
+                    inside.set(i);
+                }
+            }
+        }
+    }
+
+    /**
+     * @param optimizer : Optimizer used for loops, liveness and temp names.
+     * @param methods : START nodes of the methods.
+     * @param globals : global variables, which calls can change.
+     */
+    public LoopInvariantCodeMotion(Optimizer optimizer, List<START> methods, List<IR_FieldDecl> globals) {
+        this.optimizer = optimizer;
+        this.methods = methods;
+        this.globals = new HashSet<IR_FieldDecl>(globals);
+    }
+
+    /**
+     * Moves the invariant code out of the loops of every method.
+     * @return true if anything was moved.
+     */
+    public boolean run() {
+        for (START method : methods) {
+            runMethod(method);
+        }
+        return assignmentsHoisted + expressionsHoisted > 0;
+    }
+
+    /**
+     * Assignments moved to a preheader as a whole.
+     */
+    public int getAssignmentsHoisted() {
+        return assignmentsHoisted;
+    }
+
+    /**
+     * Subexpressions computed once in a preheader instead of on every iteration.
+     */
+    public int getExpressionsHoisted() {
+        return expressionsHoisted;
+    }
+
+    /**
+     * Preheaders put in front of loops.
+     */
+    public int getPreheadersAdded() {
+        return preheadersAdded;
+    }
+
+    private void runMethod(START method) {
+        DominatorTree tree = new DominatorTree(method);
+        final Map<Branch, List<FlowNode>> loops = optimizer.findLoops(tree);
+        if (loops.isEmpty()) {
+            return;
+        }
+        List<Branch> headers = new ArrayList<Branch>();
+        for (FlowNode node : tree.getNodes()) {
+            if (loops.containsKey(node)) {
+                headers.add((Branch) node);
+            }
+        }
+        // a loop contains the loops inside it; the sort is stable, so ties stay in program order
+        Collections.sort(headers, new Comparator<Branch>() {
+            @Override
+            public int compare(Branch a, Branch b) {
+                return Integer.compare(loops.get(a).size(), loops.get(b).size());
+            }
+        });
+        Set<String> names = optimizer.getAllVarNamesInMethod(method);
+        for (Branch header : headers) {
+            // again, since moving code out of the loops inside changed the body
+            DominatorTree current = new DominatorTree(method);
+            List<FlowNode> body = optimizer.findLoops(current).get(header);
+            if (body != null) {
+                hoistLoop(method, header, inProgramOrder(body, current), current, names);
+            }
+        }
+    }
+
+    private static List<FlowNode> inProgramOrder(List<FlowNode> body, DominatorTree tree) {
+        Set<FlowNode> inBody = new HashSet<FlowNode>(body);
+        List<FlowNode> ordered = new ArrayList<FlowNode>();
+        for (FlowNode node : tree.getNodes()) {
+            if (inBody.contains(node)) {
+                ordered.add(node);
+            }
+        }
+        return ordered;
+    }
+
+    private void hoistLoop(START method, Branch header, List<FlowNode> body, DominatorTree tree,
+            Set<String> names) {
+        List<FlowNode> entries = new ArrayList<FlowNode>();
+        for (FlowNode pred : tree.getPredecessors(header)) {
+            if (!body.contains(pred)) {
+                entries.add(pred);
+            }
+        }
+        if (entries.isEmpty()) {
+            return;
+        }
+        ReachingDefinitions reaching = new ReachingDefinitions();
+        reaching.solve(method);
+        LoopState loop = new LoopState(header, body, reaching, hasCalls(body));
+
+        Map<FlowNode, Bitvector> liveOut = optimizer.generateLivenessMap(Collections.singletonList(method))
+                .get(method);
+        boolean changed = true;
+        while (changed) {
+            // moving one assignment can make the uses of what it assigns invariant
+            changed = false;
+            for (FlowNode node : body) {
+                if (!(node instanceof Codeblock)) {
+                    continue;
+                }
+                List<Statement> statements = ((Codeblock) node).getStatements();
+                for (int i = 0; i < statements.size(); i++) {
+                    if (canHoistAssignment(statements.get(i), node, i, loop, liveOut)) {
+                        Statement st = statements.remove(i--);
+                        loop.inside.clear(loop.reaching.numberOf(st));
+                        loop.hoisted.add(st);
+                        assignmentsHoisted++;
+                        changed = true;
+                    }
+                }
+            }
+        }
+
+        for (FlowNode node : body) {
+            if (node instanceof Codeblock) {
+                List<Statement> statements = ((Codeblock) node).getStatements();
+                for (int i = 0; i < statements.size(); i++) {
+                    statements.set(i, new Hoister(loop, node, i, method, names).rewrite(statements.get(i)));
+                }
+            } else if (node instanceof Branch) {
+                Branch branch = (Branch) node;
+                branch.setExpr(new Hoister(loop, node, 0, method, names).rewrite(branch.getExpr()));
+            }
+        }
+
+        if (!loop.hoisted.isEmpty()) {
+            Codeblock preheader = insertPreheader(header, entries);
+            for (Statement st : loop.hoisted) {
+                preheader.addStatement(st);
+            }
+        }
+    }
+
+    /**
+     * Replaces the largest invariant subexpressions of one statement or test of a loop by a
+     * variable set in the preheader.
+     */
+    private class Hoister extends ExpressionRewriter {
+        private final LoopState loop;
+        private final FlowNode node;
+        private final int position;
+        private final START method;
+        private final Set<String> names;
+
+        Hoister(LoopState loop, FlowNode node, int position, START method, Set<String> names) {
+            this.loop = loop;
+            this.node = node;
+            this.position = position;
+            this.method = method;
+            this.names = names;
+        }
+
+        @Override
+        protected Expression replace(Expression expr) {
+            if (!isArithmetic(expr) || !hasVariable(expr) || !isInvariant(expr, node, position, loop)) {
+                return null;
+            }
+            String key = key(expr);
+            Descriptor temp = loop.temps.get(key);
+            if (temp == null) {
+                temp = optimizer.declareTemp(method, names);
+                loop.temps.put(key, temp);
+                loop.hoisted.add(new Assignment(new Var(temp, null, true), Ops.ASSIGN, expr));
+            }
+            expressionsHoisted++;
+            return new Var(temp, null, true);
+        }
+    }
+
+    /**
+     * @return true if st is x = e with e invariant, and x is only set there and isn't needed
+     * from one iteration to the next or after the loop.
+     */
+    private boolean canHoistAssignment(Statement st, FlowNode node, int position, LoopState loop,
+            Map<FlowNode, Bitvector> liveOut) {
+        if (!(st instanceof Assignment)) {
+            return false;
+        }
+        Assignment assign = (Assignment) st;
+        Var dest = assign.getDestVar();
+        if (assign.getOperator() != Ops.ASSIGN || dest.isArray() || globals.contains(dest.getFieldDecl())) {
+            return false;
+        }
+        IR_FieldDecl decl = dest.getFieldDecl();
+        BitSet defs = (BitSet) loop.reaching.definitionsOf(decl).clone();
+        defs.and(loop.inside);
+        if (defs.cardinality() != 1 || !isInvariant(assign.getValue(), node, position, loop)) {
+            return false;
+        }
+        if (uses(loop.header.getExpr(), decl)) {
+            return false;
+        }
+        for (FlowNode member : loop.body) {
+            for (FlowNode child : member.getChildren()) {
+                if (child != null && !loop.inBody.contains(child) && !isDead(liveOut.get(member), decl)) {
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+
+    private static boolean isDead(Bitvector live, IR_FieldDecl decl) {
+        if (live == null) {
+            return false;
+        }
+        Integer bit = live.get(decl);
+        return bit != null && bit == 0;
+    }
+
+    /**
+     * @return true if expr can be computed before the loop: it calls nothing, reads no array
+     * element, can't fail, and every variable in it is invariant at the given position.
+     */
+    private boolean isInvariant(Expression expr, FlowNode node, int position, LoopState loop) {
+        if (expr instanceof IntLit || expr instanceof BoolLit) {
+            return true;
+        } else if (expr instanceof Var) {
+            Var var = (Var) expr;
+            return !var.isArray() && isInvariant(var.getFieldDecl(), node, position, loop);
+        } else if (expr instanceof DivExpr || expr instanceof ModExpr) {
+            Expression divisor = ((BinExpr) expr).getRightSide();
+            if (!(divisor instanceof IntLit) || ((IntLit) divisor).getValue() == 0
+                    || ((IntLit) divisor).getValue() == -1) {
+                return false;
+            }
+            return isInvariant(((BinExpr) expr).getLeftSide(), node, position, loop);
+        } else if (expr instanceof BinExpr) {
+            BinExpr bin = (BinExpr) expr;
+            return isInvariant(bin.getLeftSide(), node, position, loop)
+                    && isInvariant(bin.getRightSide(), node, position, loop);
+        } else if (expr instanceof NotExpr) {
+            return isInvariant(((NotExpr) expr).getUnresolvedExpression(), node, position, loop);
+        } else if (expr instanceof NegateExpr) {
+            return isInvariant(((NegateExpr) expr).getExpression(), node, position, loop);
+        } else if (expr instanceof Ternary) {
+            Ternary tern = (Ternary) expr;
+            return isInvariant(tern.getTernaryCondition(), node, position, loop)
+                    && isInvariant(tern.getTrueBranch(), node, position, loop)
+                    && isInvariant(tern.getFalseBranch(), node, position, loop);
+        }
+        return false;
+    }
+
+    /**
+     * @return true if no definition of decl in the loop reaches the statement at position in
+     * node (or the test, if node is a Branch).
+     */
+    private boolean isInvariant(IR_FieldDecl decl, FlowNode node, int position, LoopState loop) {
+        if (loop.hasCalls && globals.contains(decl)) {
+            return false;
+        }
+        if (node instanceof Codeblock) {
+            List<Statement> statements = ((Codeblock) node).getStatements();
+            for (int i = position - 1; i >= 0; i--) {
+                if (ReachingDefinitions.definedBy(statements.get(i)) == decl) {
+                    // the block is in the loop, and so is what it defines
+                    return false;
+                }
+            }
+        }
+        BitSet defs = (BitSet) loop.reaching.definitionsOf(decl).clone();
+        defs.and(loop.reaching.getIn(node));
+        return !defs.intersects(loop.inside);
+    }
+
+    /**
+     * @return true if expr computes an int with an operator, so it is worth a variable.
+     */
+    private static boolean isArithmetic(Expression expr) {
+        return expr instanceof AddExpr || expr instanceof MultExpr || expr instanceof DivExpr
+                || expr instanceof ModExpr || expr instanceof NegateExpr;
+    }
+
+    private static boolean hasVariable(Expression expr) {
+        if (expr instanceof Var) {
+            return true;
+        } else if (expr instanceof BinExpr) {
+            return hasVariable(((BinExpr) expr).getLeftSide()) || hasVariable(((BinExpr) expr).getRightSide());
+        } else if (expr instanceof NegateExpr) {
+            return hasVariable(((NegateExpr) expr).getExpression());
+        }
+        return false;
+    }
+
+    /**
+     * Same key for the same computation on the same variables, so a loop gets one variable for it.
+     */
+    private String key(Expression expr) {
+        StringBuilder sb = new StringBuilder();
+        appendKey(expr, sb);
+        return sb.toString();
+    }
+
+    private void appendKey(Expression expr, StringBuilder sb) {
+        if (expr instanceof Var) {
+            IR_FieldDecl decl = ((Var) expr).getFieldDecl();
+            Integer id = declIds.get(decl);
+            if (id == null) {
+                id = declIds.size();
+                declIds.put(decl, id);
+            }
+            sb.append('v').append(id);
+        } else if (expr instanceof IntLit) {
+            sb.append(((IntLit) expr).getValue());
+        } else if (expr instanceof BinExpr) {
+            BinExpr bin = (BinExpr) expr;
+            sb.append('(').append(bin.getClass().getSimpleName()).append(bin.getOperator()).append(' ');
+            appendKey(bin.getLeftSide(), sb);
+            sb.append(' ');
+            appendKey(bin.getRightSide(), sb);
+            sb.append(')');
+        } else if (expr instanceof NegateExpr) {
+            sb.append("(-");
+            appendKey(((NegateExpr) expr).getExpression(), sb);
+            sb.append(')');
+        } else {
+            throw new RuntimeException("Not arithmetic: " + expr.getClass().getSimpleName());
+        }
+    }
+
+    private boolean hasCalls(List<FlowNode> body) {
+        for (FlowNode node : body) {
+            if (node instanceof Codeblock) {
+                for (Statement st : ((Codeblock) node).getStatements()) {
+                    if (st instanceof MethodCallStatement) {
+                        if (InductionAnalysis.hasCall(((MethodCallStatement) st).getMethodCall())) {
+                            return true;
+                        }
+                    } else if (st instanceof Assignment) {
+                        Assignment assign = (Assignment) st;
+                        if (InductionAnalysis.hasCall(assign.getValue())
+                                || InductionAnalysis.hasCall(assign.getDestVar())) {
+                            return true;
+                        }
+                    }
+                }
+            } else if (node instanceof Branch && InductionAnalysis.hasCall(((Branch) node).getExpr())) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private boolean uses(Expression expr, IR_FieldDecl decl) {
+        return expr != null && optimizer.getVarIRsFromExpression(expr).contains(decl);
+    }
+
+    /**
+     * Puts a new Codeblock between header and the nodes entering the loop from outside.
+     */
+    private Codeblock insertPreheader(Branch header, List<FlowNode> entries) {
+        Codeblock preheader = new Codeblock();
+        for (FlowNode entry : entries) {
+            if (entry instanceof Branch) {
+                Branch branch = (Branch) entry;
+                if (branch.getTrueBranch() == header) {
+                    branch.setTrueBranch(preheader);
+                }
+                if (branch.getFalseBranch() == header) {
+                    branch.setFalseBranch(preheader);
+                }
+            } else if (entry instanceof Codeblock) {
+                ((Codeblock) entry).removeChild(header);
+                entry.addChild(preheader);
+            } else if (entry instanceof NoOp) {
+                ((NoOp) entry).removeChild(header);
+                entry.addChild(preheader);
+            } else if (entry instanceof START) {
+                ((START) entry).removeChild(header);
+                entry.addChild(preheader);
+            } else {
+                throw new RuntimeException("Unexpected entry into a loop: " + entry.getClass().getSimpleName());
+            }
+            preheader.addParent(entry);
+            header.removeParent(entry);
+        }
+        preheader.addChild(header);
+        header.addParent(preheader);
+        preheadersAdded++;
+        return preheader;
+    }
+}
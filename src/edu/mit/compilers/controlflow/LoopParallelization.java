@@ -0,0 +1,1129 @@
+package edu.mit.compilers.controlflow;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import decaf.Parallel.Analyze;
+import decaf.Parallel.Analyze.AccessPattern;
+import edu.mit.compilers.codegen.Descriptor;
+import edu.mit.compilers.codegen.Instruction;
+import edu.mit.compilers.codegen.LocLabel;
+import edu.mit.compilers.codegen.LocLiteral;
+import edu.mit.compilers.codegen.LocReg;
+import edu.mit.compilers.codegen.Opcode;
+import edu.mit.compilers.codegen.Regs;
+import edu.mit.compilers.controlflow.InductionAnalysis.Affine;
+import edu.mit.compilers.controlflow.InductionAnalysis.Loop;
+import edu.mit.compilers.ir.IR_FieldDecl;
+import edu.mit.compilers.ir.IR_Literal.IR_IntLiteral;
+import edu.mit.compilers.ir.Ops;
+import edu.mit.compilers.ir.Type;
+
+/**
+ * Runs the iterations of outer FOR loops on several threads.
+ *
+ * A FOR loop is run in parallel if its body calls nothing, doesn't break out of it or return,
+ * and has no loop-carried dependences:
+ *
+ *  - every scalar the body assigns, other than the induction variable, is private to an
+ *    iteration: declared in the body, or neither live into the loop nor after it, like the
+ *    induction variables of inner loops. Global scalars may only be read. An array of the
+ *    method the body writes must be dead after the loop, and written at constant indices
+ *    before it is read in every iteration, like the scratch array of a median filter; one it
+ *    only reads is copied into a global if it is short.
+ *  - for every pair of accesses to a global array, one of them a write, both indices are
+ *    affine over the induction variable, the induction variables of the FOR loops inside the
+ *    body, and variables the loop doesn't change, with the same terms in the latter. Analyze
+ *    gives the distances between the iterations in which the two can touch the same element,
+ *    and the pair is fine if that never happens or only within one iteration. A pair like
+ *    image[r * 2193 + c * 3] with itself, which meets across iterations of r only with c
+ *    731 apart, gets a guard checked before the loop: the range of c must be narrower than
+ *    731 (or the loop have no more than 731 iterations). Pairs Analyze can't take, with
+ *    different multiples of the inner variables, are fine if both add the same multiple a of
+ *    the induction variable to values less than |a| apart, the guard being that they are.
+ *    The variables in guards are bounded first, as in BoundsCheckElimination, so the ranges
+ *    computed can't overflow.
+ *
+ * The loop is copied into a new method, the worker, which runs the share id of its iterations
+ * and reads the variables the loop uses but doesn't change from new globals. In place of the
+ * loop, with i the induction variable:
+ *
+ *     if (guards && end - i >= minimum) {
+ *         lo = i; hi = end; x' = x; ...
+ *         run();
+ *         i = i < end ? end : i;
+ *     } else {
+ *         for (; i < end; i++) { body }    // the loop as it was
+ *     }
+ *
+ * where run, from generateRunners, starts threads - 1 threads on the worker with
+ * pthread_create, runs share 0 itself and waits for the others with pthread_join. run is
+ * called like a method, so the passes after this one treat it as a call that can change every
+ * global, and optimize the workers like any other method. The minimum is the number of threads
+ * for loops with a loop inside, and MIN_FLAT_ITERATIONS for the others, which do too little
+ * in an iteration to pay for starting threads otherwise.
+ *
+ * A body that fails, by an index out of bounds or a division by zero, still ends the program,
+ * but if more than one iteration would fail, which one does first can differ.
+ */
+public class LoopParallelization {
+    /**
+     * Fewest iterations a loop without a loop inside must run to be run in parallel.
+     */
+    static final long MIN_FLAT_ITERATIONS = 1 << 14;
+
+    /**
+     * Largest coefficient and difference of constants handed to Analyze, which works with ints.
+     */
+    private static final long MAX_ANALYZED = 1 << 15;
+
+    /**
+     * Longest array of the method the loop only reads that is copied into a global for the
+     * workers.
+     */
+    private static final long MAX_COPIED_ELEMENTS = 256;
+
+    private final Optimizer optimizer;
+    private final Map<String, START> methods;
+    private final List<IR_FieldDecl> globals;
+    private final InductionAnalysis analysis;
+    private final int threads;
+    private final List<Worker> workers = new ArrayList<Worker>();
+    private int guardsAdded = 0;
+
+    /**
+     * A method made from a loop, and the array of thread ids its runner uses.
+     */
+    private static class Worker {
+        final String name;
+        final IR_FieldDecl threadIds;
+
+        Worker(String name, IR_FieldDecl threadIds) {
+            this.name = name;
+            this.threadIds = threadIds;
+        }
+    }
+
+    /**
+     * An array element used in a loop.
+     */
+    private static class Access {
+        final Var var;
+        final boolean write;
+        final FlowNode node;
+        final int position;
+        Affine index;
+
+        Access(Var var, boolean write, FlowNode node, int position) {
+            this.var = var;
+            this.write = write;
+            this.node = node;
+            this.position = position;
+        }
+    }
+
+    /**
+     * What is known about a loop that can run in parallel.
+     */
+    private static class Candidate {
+        final Loop loop;
+        /** method variables the loop reads and doesn't change, passed in globals */
+        final Set<IR_FieldDecl> shared = new LinkedHashSet<IR_FieldDecl>();
+        /** arrays of the method the loop reads and doesn't change, copied into globals */
+        final Set<IR_FieldDecl> sharedArrays = new LinkedHashSet<IR_FieldDecl>();
+        /** method variables the loop uses, in the order they are found */
+        final Set<IR_FieldDecl> locals = new LinkedHashSet<IR_FieldDecl>();
+        /** variables declared inside the body */
+        final Set<IR_FieldDecl> declared = new HashSet<IR_FieldDecl>();
+        /** conditions checked before the loop, bounds on their variables first */
+        final List<Expression> guards = new ArrayList<Expression>();
+        final Set<IR_FieldDecl> bounded = new LinkedHashSet<IR_FieldDecl>();
+        final Set<String> guardKeys = new HashSet<String>();
+        /** the FOR loops inside the body */
+        final List<Loop> inner = new ArrayList<Loop>();
+        long minimum;
+
+        Candidate(Loop loop) {
+            this.loop = loop;
+        }
+    }
+
+    /**
+     * @param optimizer : Optimizer used for liveness and temp names.
+     * @param methods : the methods by name; the workers are added to it.
+     * @param globals : global variables; the ones passing values to the workers are added to it.
+     * @param threads : number of threads a loop is run on.
+     */
+    public LoopParallelization(Optimizer optimizer, Map<String, START> methods, List<IR_FieldDecl> globals,
+            int threads) {
+        this.optimizer = optimizer;
+        this.methods = methods;
+        this.globals = globals;
+        this.analysis = new InductionAnalysis(globals);
+        this.threads = threads;
+    }
+
+    /**
+     * Moves the loops that can run in parallel into workers.
+     * @return true if any loop was.
+     */
+    public boolean run() {
+        if (threads < 2) {
+            return false;
+        }
+        for (Map.Entry<String, START> method : new ArrayList<Map.Entry<String, START>>(methods.entrySet())) {
+            runMethod(method.getKey(), method.getValue());
+        }
+        return !workers.isEmpty();
+    }
+
+    /**
+     * Loops moved into workers.
+     */
+    public int getLoopsParallelized() {
+        return workers.size();
+    }
+
+    /**
+     * Conditions checked at run time before running a loop in parallel, not counting the bounds
+     * on their variables and the number of iterations.
+     */
+    public int getGuardsAdded() {
+        return guardsAdded;
+    }
+
+    private void runMethod(String name, START method) {
+        List<Loop> loops = new ArrayList<Loop>();
+        for (FlowNode node : InductionAnalysis.collectNodes(method)) {
+            if (node instanceof Branch && ((Branch) node).getType() == Branch.BranchType.FOR) {
+                loops.add(analysis.analyzeLoop((Branch) node));
+            }
+        }
+        // outer loops first, so that a loop inside one already chosen is left alone
+        List<Loop> outerFirst = new ArrayList<Loop>(loops);
+        Collections.sort(outerFirst, new Comparator<Loop>() {
+            @Override
+            public int compare(Loop a, Loop b) {
+                return b.region.size() - a.region.size();
+            }
+        });
+        Map<FlowNode, Bitvector> liveOut = null;
+        List<Candidate> chosen = new ArrayList<Candidate>();
+        for (Loop loop : outerFirst) {
+            boolean nested = false;
+            for (Candidate outer : chosen) {
+                nested |= outer.loop.region.contains(loop.branch);
+            }
+            if (nested) {
+                continue;
+            }
+            if (liveOut == null) {
+                liveOut = optimizer.generateLivenessMap(Collections.singletonList(method)).get(method);
+            }
+            Candidate candidate = analyze(loop, loops, liveOut);
+            if (candidate != null) {
+                chosen.add(candidate);
+            }
+        }
+        Set<String> names = optimizer.getAllVarNamesInMethod(method);
+        for (int i = 0; i < chosen.size(); i++) {
+            parallelize(name + ".parallel" + i, chosen.get(i), names);
+        }
+    }
+
+    /**
+     * @return what parallelize needs to know about loop, or null if it can't run in parallel.
+     */
+    private Candidate analyze(Loop loop, List<Loop> loops, Map<FlowNode, Bitvector> liveOut) {
+        if (!loop.valid || loop.bound == null || loop.preheader == null || loop.step != 1) {
+            return null;
+        }
+        IR_FieldDecl induction = loop.inductionDecl();
+        List<Statement> preheader = loop.preheader.getStatements();
+        if (analysis.isGlobal(induction) || preheader.isEmpty()
+                || !isInitializer(preheader.get(preheader.size() - 1), induction)) {
+            return null;
+        }
+        FlowNode exit = loop.branch.getFalseBranch();
+        if (exit.getChildren().size() != 1) {
+            return null;
+        }
+        Candidate candidate = new Candidate(loop);
+        List<Loop> inner = candidate.inner;
+        boolean nested = false;
+        for (Loop other : loops) {
+            if (other != loop && loop.region.contains(other.branch)) {
+                inner.add(other);
+                nested = true;
+            }
+        }
+
+        // what the body uses
+        Set<IR_FieldDecl> assigned = new HashSet<IR_FieldDecl>();
+        List<Var> used = new ArrayList<Var>();
+        List<Access> accesses = new ArrayList<Access>();
+        if (!collectVars(loop.branch.getExpr(), used)) {
+            return null;
+        }
+        for (FlowNode node : InductionAnalysis.collectNodes(loop.branch.getTrueBranch())) {
+            if (!loop.region.contains(node)) {
+                continue;
+            }
+            if (node.getChildren().contains(exit) || node instanceof END) {
+                return null;
+            }
+            if (node instanceof Codeblock) {
+                List<Statement> statements = ((Codeblock) node).getStatements();
+                for (int i = 0; i < statements.size(); i++) {
+                    Statement st = statements.get(i);
+                    if (st instanceof Assignment) {
+                        Var dest = ((Assignment) st).getDestVar();
+                        List<Var> vars = new ArrayList<Var>();
+                        if (!collectVars(dest.getIndex(), vars) || !collectVars(((Assignment) st).getValue(), vars)) {
+                            return null;
+                        }
+                        if (dest.isArray()) {
+                            accesses.add(new Access(dest, true, node, i));
+                        } else {
+                            assigned.add(dest.getFieldDecl());
+                        }
+                        used.add(dest);
+                        addAccesses(vars, node, i, accesses);
+                        used.addAll(vars);
+                    } else if (st instanceof Declaration) {
+                        candidate.declared.add(((Declaration) st).getFieldDecl());
+                        candidate.locals.add(((Declaration) st).getFieldDecl());
+                    } else {
+                        return null;
+                    }
+                }
+            } else if (node instanceof Branch) {
+                List<Var> vars = new ArrayList<Var>();
+                if (!collectVars(((Branch) node).getExpr(), vars)) {
+                    return null;
+                }
+                addAccesses(vars, node, 0, accesses);
+                used.addAll(vars);
+                nested |= ((Branch) node).getType() == Branch.BranchType.WHILE;
+            }
+        }
+        candidate.minimum = nested ? threads : MIN_FLAT_ITERATIONS;
+
+        // variables of the method: private, shared or not allowed
+        Set<IR_FieldDecl> written = new HashSet<IR_FieldDecl>();
+        for (Access access : accesses) {
+            if (access.write) {
+                written.add(access.var.getFieldDecl());
+            }
+        }
+        Set<IR_FieldDecl> seen = new HashSet<IR_FieldDecl>();
+        for (Var var : used) {
+            IR_FieldDecl decl = var.getFieldDecl();
+            if (!seen.add(decl)) {
+                continue;
+            }
+            if (analysis.isGlobal(decl)) {
+                if (!var.isArray() && assigned.contains(decl)) {
+                    return null;
+                }
+                continue;
+            }
+            if (var.isArray() && !written.contains(decl)) {
+                if (decl.getLength().getValue() > MAX_COPIED_ELEMENTS) {
+                    return null;
+                }
+                candidate.sharedArrays.add(decl);
+                continue;
+            }
+            if (var.isArray() && (!isDead(liveOut.get(exit), decl) || !writtenBeforeRead(decl, loop))) {
+                return null;
+            }
+            candidate.locals.add(decl);
+            if (decl == induction || candidate.declared.contains(decl)) {
+                continue;
+            }
+            if (assigned.contains(decl)) {
+                if (!isDead(liveOut.get(loop.preheader), decl)) {
+                    return null;
+                }
+            } else {
+                candidate.shared.add(decl);
+            }
+        }
+
+        // global arrays written in the body
+        Set<IR_FieldDecl> innerVars = new LinkedHashSet<IR_FieldDecl>();
+        for (Loop other : inner) {
+            if (other.valid && other.step == 1 && !analysis.isGlobal(other.inductionDecl())) {
+                innerVars.add(other.inductionDecl());
+            }
+        }
+        for (Access access : accesses) {
+            if (!written.contains(access.var.getFieldDecl()) || !analysis.isGlobal(access.var.getFieldDecl())) {
+                continue;
+            }
+            Codeblock block = access.node instanceof Codeblock ? (Codeblock) access.node : null;
+            access.index = analysis.valueOver(access.var.getIndex(), loop, innerVars, block, access.position);
+            if (access.index == null) {
+                return null;
+            }
+            for (IR_FieldDecl v : innerVars) {
+                if (access.index.coefficient(v) != 0 && !inLoopOver(v, access.node, inner)) {
+                    return null;
+                }
+            }
+        }
+        List<IR_FieldDecl> vars = new ArrayList<IR_FieldDecl>();
+        vars.add(induction);
+        vars.addAll(innerVars);
+        for (int a = 0; a < accesses.size(); a++) {
+            Access first = accesses.get(a);
+            if (!first.write || first.index == null) {
+                continue;
+            }
+            for (int b = 0; b < accesses.size(); b++) {
+                Access second = accesses.get(b);
+                if (second.var.getFieldDecl() != first.var.getFieldDecl() || (second.write && b < a)) {
+                    continue;
+                }
+                if (!checkPair(first, second, vars, candidate)) {
+                    return null;
+                }
+            }
+        }
+        return candidate;
+    }
+
+    private static boolean isInitializer(Statement st, IR_FieldDecl induction) {
+        if (!(st instanceof Assignment)) {
+            return false;
+        }
+        Assignment assign = (Assignment) st;
+        return assign.getOperator() == Ops.ASSIGN && !assign.getDestVar().isArray()
+                && assign.getDestVar().getFieldDecl() == induction
+                && collectVars(assign.getValue(), new ArrayList<Var>());
+    }
+
+    private static void addAccesses(List<Var> vars, FlowNode node, int position, List<Access> accesses) {
+        for (Var var : vars) {
+            if (var.isArray()) {
+                accesses.add(new Access(var, false, node, position));
+            }
+        }
+    }
+
+    /**
+     * Adds every variable read in expr to vars, array elements before the variables in their
+     * index.
+     * @return false if expr calls anything.
+     */
+    private static boolean collectVars(Expression expr, List<Var> vars) {
+        if (expr == null) {
+            return true;
+        } else if (expr instanceof Var) {
+            vars.add((Var) expr);
+            return collectVars(((Var) expr).getIndex(), vars);
+        } else if (expr instanceof BinExpr) {
+            return collectVars(((BinExpr) expr).getLeftSide(), vars)
+                    && collectVars(((BinExpr) expr).getRightSide(), vars);
+        } else if (expr instanceof NotExpr) {
+            return collectVars(((NotExpr) expr).getUnresolvedExpression(), vars);
+        } else if (expr instanceof NegateExpr) {
+            return collectVars(((NegateExpr) expr).getExpression(), vars);
+        } else if (expr instanceof Ternary) {
+            Ternary tern = (Ternary) expr;
+            return collectVars(tern.getTernaryCondition(), vars) && collectVars(tern.getTrueBranch(), vars)
+                    && collectVars(tern.getFalseBranch(), vars);
+        }
+        return !(expr instanceof MethodCall);
+    }
+
+    static boolean isDead(Bitvector live, IR_FieldDecl decl) {
+        if (live == null) {
+            return false;
+        }
+        Integer bit = live.get(decl);
+        return bit != null && bit == 0;
+    }
+
+    /**
+     * @return true if every element of array read in an iteration of loop is written earlier in
+     * the same iteration, all at constant indices, so that every thread can have its own array.
+     */
+    private static boolean writtenBeforeRead(IR_FieldDecl array, Loop loop) {
+        List<FlowNode> nodes = new ArrayList<FlowNode>();
+        for (FlowNode node : InductionAnalysis.collectNodes(loop.branch)) {
+            if (loop.region.contains(node)) {
+                nodes.add(node);
+            }
+        }
+        // the elements surely written since the iteration started, at the end of each node;
+        // none for nodes not reached yet, which stands for all of them
+        Map<FlowNode, Set<Long>> out = new HashMap<FlowNode, Set<Long>>();
+        out.put(loop.branch, new HashSet<Long>());
+        boolean changed = true;
+        while (changed) {
+            changed = false;
+            for (FlowNode node : nodes) {
+                Set<Long> written = writtenAtStart(node, out);
+                if (written == null) {
+                    continue;
+                }
+                if (!writeElements(array, node, written, false)) {
+                    return false;
+                }
+                if (!written.equals(out.get(node))) {
+                    out.put(node, written);
+                    changed = true;
+                }
+            }
+        }
+        for (FlowNode node : nodes) {
+            Set<Long> written = writtenAtStart(node, out);
+            if (written != null && !writeElements(array, node, written, true)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static Set<Long> writtenAtStart(FlowNode node, Map<FlowNode, Set<Long>> out) {
+        Set<Long> written = null;
+        for (FlowNode parent : node.getParents()) {
+            Set<Long> parentOut = out.get(parent);
+            if (parentOut == null) {
+                continue;
+            } else if (written == null) {
+                written = new HashSet<Long>(parentOut);
+            } else {
+                written.retainAll(parentOut);
+            }
+        }
+        return written;
+    }
+
+    /**
+     * Adds the elements of array node writes to written.
+     * @param check : whether to check that the elements read are in written when read.
+     * @return false if an index isn't constant, or an element read isn't in written.
+     */
+    private static boolean writeElements(IR_FieldDecl array, FlowNode node, Set<Long> written, boolean check) {
+        List<Var> reads = new ArrayList<Var>();
+        if (node instanceof Branch) {
+            collectVars(((Branch) node).getExpr(), reads);
+            return readElements(array, reads, written, check);
+        } else if (!(node instanceof Codeblock)) {
+            return true;
+        }
+        for (Statement st : ((Codeblock) node).getStatements()) {
+            if (!(st instanceof Assignment)) {
+                continue;
+            }
+            Assignment assign = (Assignment) st;
+            Var dest = assign.getDestVar();
+            reads.clear();
+            collectVars(dest.getIndex(), reads);
+            collectVars(assign.getValue(), reads);
+            if (assign.getOperator() != Ops.ASSIGN) {
+                reads.add(dest);
+            }
+            if (!readElements(array, reads, written, check)) {
+                return false;
+            }
+            if (dest.getFieldDecl() == array) {
+                if (!(dest.getIndex() instanceof IntLit)) {
+                    return false;
+                }
+                written.add(((IntLit) dest.getIndex()).getValue());
+            }
+        }
+        return true;
+    }
+
+    private static boolean readElements(IR_FieldDecl array, List<Var> reads, Set<Long> written, boolean check) {
+        for (Var var : reads) {
+            if (var.getFieldDecl() == array && (!(var.getIndex() instanceof IntLit)
+                    || (check && !written.contains(((IntLit) var.getIndex()).getValue())))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @return true if node is in the body of a FOR loop over v, where v stays in its range.
+     */
+    private static boolean inLoopOver(IR_FieldDecl v, FlowNode node, List<Loop> inner) {
+        for (Loop loop : inner) {
+            if (loop.valid && loop.inductionDecl() == v && loop.region.contains(node)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Checks that two accesses to the same array, the first a write, can't touch the same
+     * element in different iterations of the candidate's loop, adding a guard if they can only
+     * while a range is too wide.
+     * @param vars : the loop's induction variable, then those of the loops inside.
+     * @return false if they might.
+     */
+    private boolean checkPair(Access firstAccess, Access secondAccess, List<IR_FieldDecl> vars,
+            Candidate candidate) {
+        Affine first = firstAccess.index;
+        Affine second = secondAccess.index;
+        Affine firstRest = first.variablePart();
+        Affine secondRest = second.variablePart();
+        Integer[] firstIndex = new Integer[vars.size() + 1];
+        Integer[] secondIndex = new Integer[vars.size() + 1];
+        for (int k = 0; k < vars.size(); k++) {
+            long c1 = first.coefficient(vars.get(k));
+            long c2 = second.coefficient(vars.get(k));
+            if (Math.abs(c1) > MAX_ANALYZED || Math.abs(c2) > MAX_ANALYZED) {
+                return false;
+            }
+            firstIndex[k] = (int) c1;
+            secondIndex[k] = (int) c2;
+            firstRest.terms.remove(vars.get(k));
+            secondRest.terms.remove(vars.get(k));
+        }
+        // whatever else the indices add must be the same on both sides
+        if (!firstRest.terms.equals(secondRest.terms)
+                || Math.abs(first.constant - second.constant) > MAX_ANALYZED) {
+            return false;
+        }
+        // Analyze computes in ints, so it gets the difference of the constants, and the distances
+        // it finds are checked in longs before they are used
+        firstIndex[vars.size()] = 0;
+        secondIndex[vars.size()] = (int) (second.constant - first.constant);
+        AccessPattern pattern = Analyze.getAccessPattern(firstIndex, secondIndex);
+        if (pattern == null) {
+            return checkRows(firstAccess, secondAccess, vars, candidate);
+        } else if (!pattern.distanceExists) {
+            return true;
+        }
+        Integer[] distance = pattern.distance;
+        long c3 = first.constant - second.constant;
+        if (pattern.step == null) {
+            if (distance[0] == null) {
+                // the same elements whatever the iteration
+                return false;
+            }
+            if (firstIndex[0] * (long) distance[0] + c3 != 0 && firstIndex[0] * (long) distance[0] - c3 != 0) {
+                return false;
+            }
+            long x = Math.abs((long) distance[0]);
+            return x == 0 || addGuard(candidate, x, null, 0);
+        }
+        int v = -1;
+        for (int k = 1; k < vars.size(); k++) {
+            if (pattern.step[k] != null) {
+                v = k;
+            }
+        }
+        if (pattern.step[0] == null || v < 0) {
+            return false;
+        }
+        long dO = distance[0];
+        long dV = distance[v];
+        long sO = pattern.step[0];
+        long sV = pattern.step[v];
+        long sum = firstIndex[0] * dO + firstIndex[v] * dV;
+        if ((sum + c3 != 0 && sum - c3 != 0) || firstIndex[0] * sO + firstIndex[v] * sV != 0 || sO == 0 || sV == 0) {
+            return false;
+        }
+        // the pairs of iterations that meet are (dO + t sO, dV + t sV) apart
+        long outerGap;
+        long innerGap;
+        if (dO % sO == 0) {
+            outerGap = Math.abs(sO);
+            innerGap = nearestNonzero(dV - dO / sO * sV, sV);
+        } else {
+            outerGap = nearest(dO, sO);
+            innerGap = nearest(dV, sV);
+        }
+        return addGuard(candidate, outerGap, vars.get(v), innerGap);
+    }
+
+    /**
+     * Checks two accesses Analyze can't, like image[r * 768] and image[r * 768 + c + 1]. With the
+     * same multiple a of the loop's variable in both, they can only meet in different iterations
+     * if what else they add is at least |a| apart, so the guard is that it never is.
+     * @return false if they might meet and no guard can tell.
+     */
+    private boolean checkRows(Access first, Access second, List<IR_FieldDecl> vars, Candidate candidate) {
+        long a = first.index.coefficient(vars.get(0));
+        if (a == 0 || a != second.index.coefficient(vars.get(0))) {
+            return false;
+        }
+        long width = Math.abs(a);
+        Affine[] firstRange = restRange(first, vars, candidate);
+        Affine[] secondRange = restRange(second, vars, candidate);
+        if (firstRange == null || secondRange == null) {
+            return false;
+        }
+        List<Affine> bounded = new ArrayList<Affine>();
+        Expression guard = null;
+        String key = "r";
+        Affine[] spans = {secondRange[1].plus(firstRange[0], -1), firstRange[1].plus(secondRange[0], -1)};
+        for (Affine span : spans) {
+            if (span == null) {
+                return false;
+            } else if (span.isConstant()) {
+                if (span.constant >= width) {
+                    return false;
+                }
+                continue;
+            }
+            bounded.add(span);
+            Expression fits = new CompExpr(analysis.toExpression(span), Ops.LT, new IntLit(width));
+            guard = guard == null ? fits : new CondExpr(guard, Ops.AND, fits);
+            key += " " + analysis.termKey(span) + span.constant + "<" + width;
+        }
+        if (guard != null) {
+            addCondition(candidate, key, guard, bounded);
+        }
+        return true;
+    }
+
+    /**
+     * @return the least and the greatest value of access's index without the loop's variable,
+     * from the ranges of the variables of the loops it is in, or null if they aren't known.
+     */
+    private Affine[] restRange(Access access, List<IR_FieldDecl> vars, Candidate candidate) {
+        Affine low = access.index.plus(Affine.symbol(vars.get(0)), -access.index.coefficient(vars.get(0)));
+        Affine high = low;
+        for (int k = 1; k < vars.size() && low != null && high != null; k++) {
+            IR_FieldDecl v = vars.get(k);
+            long c = access.index.coefficient(v);
+            if (c == 0) {
+                continue;
+            }
+            Affine[] range = null;
+            for (Loop other : candidate.inner) {
+                if (other.valid && other.inductionDecl() == v && other.region.contains(access.node)) {
+                    if (range != null) {
+                        return null;
+                    }
+                    range = rangeOf(other, candidate.loop);
+                    if (range == null) {
+                        return null;
+                    }
+                }
+            }
+            if (range == null) {
+                return null;
+            }
+            Affine last = range[1].plus(Affine.constant(1), -1);
+            low = low.substitute(v, c > 0 ? range[0] : last);
+            high = high.substitute(v, c > 0 ? last : range[0]);
+        }
+        return low == null || high == null ? null : new Affine[] {low, high};
+    }
+
+    /**
+     * @return the least |a + k s| over integers k.
+     */
+    private static long nearest(long a, long s) {
+        long m = Math.abs(s);
+        long r = ((a % m) + m) % m;
+        return Math.min(r, m - r);
+    }
+
+    /**
+     * @return the least |a + k s| over integers k other than 0.
+     */
+    private static long nearestNonzero(long a, long s) {
+        long best = Long.MAX_VALUE;
+        long k0 = -a / s;
+        for (long k = k0 - 1; k <= k0 + 1; k++) {
+            if (k != 0) {
+                best = Math.min(best, Math.abs(a + k * s));
+            }
+        }
+        best = Math.min(best, Math.min(Math.abs(a + s), Math.abs(a - s)));
+        return best;
+    }
+
+    /**
+     * Adds the guard that no two iterations of the loop at most outerGap - 1 apart run, or that
+     * v stays in a range less than innerGap wide, whichever can hold.
+     * @param v : induction variable of inner loops, or null.
+     * @return false if neither can.
+     */
+    private boolean addGuard(Candidate candidate, long outerGap, IR_FieldDecl v, long innerGap) {
+        Loop loop = candidate.loop;
+        List<Affine> bounded = new ArrayList<Affine>();
+        Expression guard = null;
+        String key = "";
+        if (outerGap >= candidate.minimum) {
+            Affine span = loop.bound.plus(Affine.symbol(loop.inductionDecl()), -1);
+            if (span != null) {
+                guard = new CompExpr(analysis.toExpression(span), Ops.LTE, new IntLit(outerGap));
+                bounded.add(span);
+                key = "o" + outerGap;
+            }
+        }
+        Expression range = v == null || innerGap < 1 ? null : rangeGuard(candidate, v, innerGap, bounded);
+        if (range != null) {
+            guard = guard == null ? range : new CondExpr(guard, Ops.OR, range);
+            key += " " + analysis.termKey(Affine.symbol(v)) + innerGap;
+        }
+        if (guard == null) {
+            return false;
+        }
+        addCondition(candidate, key, guard, bounded);
+        return true;
+    }
+
+    /**
+     * Adds guard to the candidate's guards unless one with the same key is there.
+     * @param bounded : forms whose variables get bounded before the guards.
+     */
+    private static void addCondition(Candidate candidate, String key, Expression guard, List<Affine> bounded) {
+        if (candidate.guardKeys.add(key)) {
+            for (Affine form : bounded) {
+                candidate.bounded.addAll(form.terms.keySet());
+            }
+            candidate.guards.add(guard);
+        }
+    }
+
+    /**
+     * @return the condition that every value v takes in the FOR loops over it inside the
+     * candidate's loop is less than width apart from every other, or null if their ranges
+     * aren't known before the loop.
+     */
+    private Expression rangeGuard(Candidate candidate, IR_FieldDecl v, long width, List<Affine> bounded) {
+        List<Affine> starts = new ArrayList<Affine>();
+        List<Affine> ends = new ArrayList<Affine>();
+        for (Loop other : candidate.inner) {
+            if (!other.valid || other.inductionDecl() != v) {
+                continue;
+            }
+            Affine[] range = rangeOf(other, candidate.loop);
+            if (range == null) {
+                return null;
+            }
+            starts.add(range[0]);
+            ends.add(range[1]);
+        }
+        Expression guard = null;
+        for (Affine end : ends) {
+            for (Affine start : starts) {
+                Affine span = end.plus(start, -1);
+                if (span == null) {
+                    return null;
+                }
+                if (span.isConstant()) {
+                    if (span.constant > width) {
+                        return null;
+                    }
+                    continue;
+                }
+                bounded.add(end);
+                bounded.add(start);
+                Expression fits = new CompExpr(analysis.toExpression(span), Ops.LTE, new IntLit(width));
+                guard = guard == null ? fits : new CondExpr(guard, Ops.AND, fits);
+            }
+        }
+        return guard == null ? new BoolLit(true) : guard;
+    }
+
+    /**
+     * @return the start and the end of inner, a FOR loop inside loop, over variables loop
+     * doesn't change, or null if they aren't known before loop.
+     */
+    private Affine[] rangeOf(Loop inner, Loop loop) {
+        if (inner.preheader == null) {
+            return null;
+        }
+        Set<IR_FieldDecl> none = Collections.emptySet();
+        Affine start = analysis.valueOver(new Var(inner.inductionVar.getVarDescriptor(), null), loop, none,
+                inner.preheader, inner.preheader.getStatements().size());
+        Affine end = analysis.valueOver(((CompExpr) inner.branch.getExpr()).getRightSide(), loop, none, null, 0);
+        if (start == null || end == null || start.coefficient(loop.inductionDecl()) != 0
+                || end.coefficient(loop.inductionDecl()) != 0) {
+            return null;
+        }
+        return new Affine[] {start, end};
+    }
+
+    /**
+     * Moves the candidate's loop into a new worker method and puts the code running it in
+     * parallel, or the loop as it was if the guards fail, in its place.
+     */
+    private void parallelize(String name, Candidate candidate, Set<String> names) {
+        Loop loop = candidate.loop;
+        Branch header = loop.branch;
+        Codeblock preheader = loop.preheader;
+        NoOp exit = (NoOp) header.getFalseBranch();
+        FlowNode after = exit.getChildren().get(0);
+        Descriptor induction = loop.inductionVar.getVarDescriptor();
+        Expression end = ((CompExpr) header.getExpr()).getRightSide();
+        StatementCopier plain = new StatementCopier(new HashMap<IR_FieldDecl, Descriptor>());
+
+        // globals passing the range and the shared variables
+        IR_FieldDecl lo = addGlobal(new IR_FieldDecl(Type.INT, name + ".lo"));
+        IR_FieldDecl hi = addGlobal(new IR_FieldDecl(Type.INT, name + ".hi"));
+        IR_FieldDecl threadIds = addGlobal(new IR_FieldDecl(Type.INTARR, name + ".tids",
+                new IR_IntLiteral((long) threads - 1)));
+        Map<IR_FieldDecl, IR_FieldDecl> inputs = new LinkedHashMap<IR_FieldDecl, IR_FieldDecl>();
+        for (IR_FieldDecl decl : candidate.shared) {
+            inputs.put(decl, addGlobal(new IR_FieldDecl(decl.getType(),
+                    name + ".in" + inputs.size() + "." + decl.getName())));
+        }
+        Map<IR_FieldDecl, IR_FieldDecl> arrayInputs = new LinkedHashMap<IR_FieldDecl, IR_FieldDecl>();
+        for (IR_FieldDecl decl : candidate.sharedArrays) {
+            arrayInputs.put(decl, addGlobal(new IR_FieldDecl(decl.getType(),
+                    name + ".in" + (inputs.size() + arrayInputs.size()) + "." + decl.getName(), decl.getLength())));
+        }
+
+        // the worker: its own copy of every method variable, then the loop over its share
+        Map<IR_FieldDecl, Descriptor> renamed = new LinkedHashMap<IR_FieldDecl, Descriptor>();
+        for (IR_FieldDecl decl : candidate.locals) {
+            renamed.put(decl, new Descriptor(decl.getLength() == null ? new IR_FieldDecl(decl.getType(), decl.getName())
+                    : new IR_FieldDecl(decl.getType(), decl.getName(), decl.getLength())));
+        }
+        StatementCopier copier = new StatementCopier(renamed);
+        IR_FieldDecl id = new IR_FieldDecl(Type.INT, optimizer.generateNextTemp(names));
+        IR_FieldDecl shareEnd = new IR_FieldDecl(Type.INT, optimizer.generateNextTemp(names));
+        START worker = new START(new ArrayList<IR_FieldDecl>(Collections.singletonList(id)), Type.VOID);
+        Codeblock setup = new Codeblock();
+        worker.addChild(setup);
+        setup.addParent(worker);
+        for (Map.Entry<IR_FieldDecl, Descriptor> local : renamed.entrySet()) {
+            if (!candidate.declared.contains(local.getKey())) {
+                setup.addStatement(new Declaration((IR_FieldDecl) local.getValue().getIR()));
+            }
+        }
+        for (Map.Entry<IR_FieldDecl, IR_FieldDecl> input : arrayInputs.entrySet()) {
+            renamed.put(input.getKey(), new Descriptor(input.getValue()));
+        }
+        setup.addStatement(new Declaration(shareEnd));
+        for (Map.Entry<IR_FieldDecl, IR_FieldDecl> input : inputs.entrySet()) {
+            setup.addStatement(new Assignment(new Var(renamed.get(input.getKey()), null), Ops.ASSIGN,
+                    global(input.getValue())));
+        }
+        Descriptor workerInduction = renamed.get(loop.inductionDecl());
+        setup.addStatement(new Assignment(new Var(workerInduction, null), Ops.ASSIGN, shareStart(lo, hi, id, 0)));
+        setup.addStatement(new Assignment(new Var(new Descriptor(shareEnd), null, true), Ops.ASSIGN,
+                shareStart(lo, hi, id, 1)));
+
+        Map<FlowNode, FlowNode> copies = new HashMap<FlowNode, FlowNode>();
+        List<FlowNode> nodes = new ArrayList<FlowNode>();
+        for (FlowNode node : InductionAnalysis.collectNodes(header)) {
+            if (node == header || node == exit || loop.region.contains(node)) {
+                nodes.add(node);
+            }
+        }
+        for (FlowNode node : nodes) {
+            FlowNode copy;
+            if (node == header) {
+                copy = new Branch(new CompExpr(new Var(workerInduction, null), Ops.LT,
+                        new Var(new Descriptor(shareEnd), null, true)), Branch.BranchType.FOR);
+            } else if (node instanceof Codeblock) {
+                Codeblock block = new Codeblock();
+                for (Statement st : ((Codeblock) node).getStatements()) {
+                    block.addStatement(copier.copy(st));
+                }
+                block.setIsBreak(((Codeblock) node).getIsBreak());
+                copy = block;
+            } else if (node instanceof Branch) {
+                Branch branch = new Branch(copier.rewrite(((Branch) node).getExpr()), ((Branch) node).getType());
+                branch.setIsLimitedWhile(((Branch) node).getIsLimitedWhile());
+                copy = branch;
+            } else if (node instanceof START) {
+                copy = new START();
+            } else {
+                copy = new NoOp();
+            }
+            copies.put(node, copy);
+        }
+        setup.addChild(copies.get(header));
+        copies.get(header).addParent(setup);
+        for (FlowNode node : nodes) {
+            FlowNode copy = copies.get(node);
+            if (node instanceof Branch) {
+                Branch branch = (Branch) node;
+                ((Branch) copy).setTrueBranch(copies.get(branch.getTrueBranch()));
+                ((Branch) copy).setFalseBranch(copies.get(branch.getFalseBranch()));
+            } else if (node != exit) {
+                for (FlowNode child : node.getChildren()) {
+                    copy.addChild(copies.get(child));
+                }
+            }
+            for (FlowNode parent : node.getParents()) {
+                if (copies.containsKey(parent)) {
+                    copy.addParent(copies.get(parent));
+                }
+            }
+        }
+        END done = new END();
+        copies.get(exit).addChild(done);
+        done.addParent(copies.get(exit));
+        methods.put(name, worker);
+        workers.add(new Worker(name, threadIds));
+
+        // in the method: preheader -> guards -> run the worker, or the loop as it was
+        Expression guard = new CompExpr(analysis.toExpression(loop.bound.plus(Affine.symbol(loop.inductionDecl()), -1)),
+                Ops.GTE, new IntLit(candidate.minimum));
+        for (int i = candidate.guards.size() - 1; i >= 0; i--) {
+            guard = new CondExpr(candidate.guards.get(i), Ops.AND, guard);
+        }
+        candidate.bounded.add(loop.inductionDecl());
+        candidate.bounded.addAll(loop.bound.terms.keySet());
+        List<IR_FieldDecl> bounded = new ArrayList<IR_FieldDecl>(candidate.bounded);
+        for (int i = bounded.size() - 1; i >= 0; i--) {
+            long max = InductionAnalysis.MAX_SYMBOL;
+            Expression within = new CondExpr(new CompExpr(analysis.symbolVar(bounded.get(i)), Ops.LTE, new IntLit(max)),
+                    Ops.AND, new CompExpr(analysis.symbolVar(bounded.get(i)), Ops.GTE, new IntLit(-max)));
+            guard = new CondExpr(within, Ops.AND, guard);
+        }
+        guardsAdded += candidate.guards.size();
+
+        Branch choice = new Branch(guard, Branch.BranchType.IF);
+        START parallel = new START();
+        Codeblock spawn = new Codeblock();
+        START serial = new START();
+        Codeblock serialPreheader = new Codeblock();
+        NoOp join = new NoOp();
+        preheader.removeChild(header);
+        preheader.addChild(choice);
+        choice.addParent(preheader);
+        choice.setTrueBranch(parallel);
+        parallel.addParent(choice);
+        parallel.addChild(spawn);
+        spawn.addParent(parallel);
+        choice.setFalseBranch(serial);
+        serial.addParent(choice);
+        serial.addChild(serialPreheader);
+        serialPreheader.addParent(serial);
+        serialPreheader.addChild(header);
+        List<FlowNode> headerParents = header.getParents();
+        headerParents.set(headerParents.indexOf(preheader), serialPreheader);
+        List<Statement> statements = preheader.getStatements();
+        serialPreheader.addStatement(plain.copy(statements.get(statements.size() - 1)));
+
+        spawn.addStatement(new Assignment(global(lo), Ops.ASSIGN, new Var(induction, null)));
+        spawn.addStatement(new Assignment(global(hi), Ops.ASSIGN, plain.rewrite(end)));
+        for (Map.Entry<IR_FieldDecl, IR_FieldDecl> input : inputs.entrySet()) {
+            spawn.addStatement(new Assignment(global(input.getValue()), Ops.ASSIGN,
+                    new Var(new Descriptor(input.getKey()), null)));
+        }
+        for (Map.Entry<IR_FieldDecl, IR_FieldDecl> input : arrayInputs.entrySet()) {
+            for (long k = 0; k < input.getKey().getLength().getValue(); k++) {
+                Var element = new Var(new Descriptor(input.getKey()), new IntLit(k));
+                Var copy = new Var(new Descriptor(input.getValue()), new IntLit(k));
+                element.setIndexInBounds(true);
+                copy.setIndexInBounds(true);
+                spawn.addStatement(new Assignment(copy, Ops.ASSIGN, element));
+            }
+        }
+        spawn.addStatement(new MethodCallStatement(new MethodCall(name + ".run", new ArrayList<Expression>(), false)));
+        spawn.addStatement(new Assignment(new Var(induction, null), Ops.ASSIGN,
+                new Ternary(new CompExpr(new Var(induction, null), Ops.LT, plain.rewrite(end)),
+                        plain.rewrite(end), new Var(induction, null))));
+
+        spawn.addChild(join);
+        join.addParent(spawn);
+        exit.removeChild(after);
+        exit.addChild(join);
+        join.addParent(exit);
+        join.addChild(after);
+        List<FlowNode> afterParents = after.getParents();
+        afterParents.set(afterParents.indexOf(exit), join);
+    }
+
+    private IR_FieldDecl addGlobal(IR_FieldDecl decl) {
+        globals.add(decl);
+        return decl;
+    }
+
+    private static Var global(IR_FieldDecl decl) {
+        return new Var(new Descriptor(decl), null);
+    }
+
+    /**
+     * lo + (hi - lo) * (id + offset) / threads, where share id of the iterations starts (offset
+     * 0) or ends (offset 1).
+     */
+    private Expression shareStart(IR_FieldDecl lo, IR_FieldDecl hi, IR_FieldDecl id, long offset) {
+        Expression share = new Var(new Descriptor(id), null);
+        if (offset != 0) {
+            share = new AddExpr(share, Ops.PLUS, new IntLit(offset));
+        }
+        Expression count = new AddExpr(global(hi), Ops.MINUS, global(lo));
+        return new AddExpr(global(lo), Ops.PLUS,
+                new DivExpr(new MultExpr(count, Ops.TIMES, share), Ops.DIVIDE, new IntLit(threads)));
+    }
+
+    /**
+     * The routines the parallelized loops call, in assembly. name.run starts threads - 1
+     * threads on name.thread with pthread_create, runs share 0 itself and joins the others; a
+     * share whose thread can't be started is run right away instead. name.thread keeps the
+     * registers the C caller of a thread expects to be kept.
+     * @param context : context of the generated program, for labels.
+     */
+    public List<Instruction> generateRunners(ControlflowContext context) {
+        List<Instruction> ins = new ArrayList<Instruction>();
+        Regs[] kept = {Regs.RBX, Regs.R12, Regs.R13, Regs.R14, Regs.R15};
+        for (Worker worker : workers) {
+            String thread = worker.name + ".thread";
+            ins.add(Instruction.labelInstruction(thread));
+            for (Regs reg : kept) {
+                ins.add(new Instruction(Opcode.PUSHQ, new LocReg(reg)));
+            }
+            ins.add(new Instruction(Opcode.CALL, new LocLabel(worker.name)));
+            for (int i = kept.length - 1; i >= 0; i--) {
+                ins.add(new Instruction(Opcode.POPQ, new LocReg(kept[i])));
+            }
+            ins.add(new Instruction(Opcode.RET));
+
+            ins.add(Instruction.labelInstruction(worker.name + ".run"));
+            ins.add(new Instruction(Opcode.PUSHQ, new LocReg(Regs.RBP)));
+            ins.add(new Instruction(Opcode.MOVQ, new LocReg(Regs.RSP), new LocReg(Regs.RBP)));
+            ins.add(new Instruction(Opcode.ANDQ, new LocLiteral(-16), new LocReg(Regs.RSP)));
+            String ids = worker.threadIds.getName();
+            for (int t = 1; t < threads; t++) {
+                String slot = ids + "+" + (t - 1) * 8;
+                String started = context.genLabel();
+                ins.add(new Instruction(Opcode.MOVQ, new LocLabel("$" + slot), new LocReg(Regs.RDI)));
+                ins.add(new Instruction(Opcode.MOVQ, new LocLiteral(0), new LocReg(Regs.RSI)));
+                ins.add(new Instruction(Opcode.MOVQ, new LocLabel("$" + thread), new LocReg(Regs.RDX)));
+                ins.add(new Instruction(Opcode.MOVQ, new LocLiteral(t), new LocReg(Regs.RCX)));
+                ins.add(new Instruction(Opcode.CALL, new LocLabel("pthread_create")));
+                ins.add(new Instruction(Opcode.CMPL, new LocLiteral(0), new LocReg(Regs.EAX)));
+                ins.add(new Instruction(Opcode.JE, new LocLabel(started)));
+                ins.add(new Instruction(Opcode.MOVQ, new LocLiteral(0), new LocLabel(slot)));
+                ins.add(new Instruction(Opcode.MOVQ, new LocLiteral(t), new LocReg(Regs.RDI)));
+                ins.add(new Instruction(Opcode.CALL, new LocLabel(thread)));
+                ins.add(Instruction.labelInstruction(started));
+            }
+            ins.add(new Instruction(Opcode.MOVQ, new LocLiteral(0), new LocReg(Regs.RDI)));
+            ins.add(new Instruction(Opcode.CALL, new LocLabel(thread)));
+            for (int t = 1; t < threads; t++) {
+                String joined = context.genLabel();
+                ins.add(new Instruction(Opcode.MOVQ, new LocLabel(ids + "+" + (t - 1) * 8), new LocReg(Regs.RDI)));
+                ins.add(new Instruction(Opcode.CMPQ, new LocLiteral(0), new LocReg(Regs.RDI)));
+                ins.add(new Instruction(Opcode.JE, new LocLabel(joined)));
+                ins.add(new Instruction(Opcode.MOVQ, new LocLiteral(0), new LocReg(Regs.RSI)));
+                ins.add(new Instruction(Opcode.CALL, new LocLabel("pthread_join")));
+                ins.add(Instruction.labelInstruction(joined));
+            }
+            ins.add(new Instruction(Opcode.MOVQ, new LocReg(Regs.RBP), new LocReg(Regs.RSP)));
+            ins.add(new Instruction(Opcode.POPQ, new LocReg(Regs.RBP)));
+            ins.add(new Instruction(Opcode.RET));
+        }
+        return ins;
+    }
+}
@@ -0,0 +1,293 @@
+package edu.mit.compilers.controlflow;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import edu.mit.compilers.codegen.Descriptor;
+import edu.mit.compilers.controlflow.InductionAnalysis.Affine;
+import edu.mit.compilers.controlflow.InductionAnalysis.Loop;
+import edu.mit.compilers.ir.IR_FieldDecl;
+import edu.mit.compilers.ir.Ops;
+
+/**
+ * Unrolls the innermost counted FOR loops, with a remainder loop for the last iterations.
+ *
+ * "for (i = start, end) body" becomes
+ *
+ *     limit = end - (n - 1) < end ? end - (n - 1) : i;
+ *     for (; i < limit; i += n) { body[i]; body[i + 1]; ... body[i + n - 1]; }
+ *     for (; i < end; i++) { body[i]; }
+ *
+ * where the first loop is new and the second is the loop as it was. The copies of the body
+ * read i + k wherever it read i, and get their own names for the variables declared in them,
+ * since they share a scope. A Codeblock ending one copy is merged with a Codeblock starting the
+ * next, so the copies of a straight line body become a single block for CSE to work on. limit
+ * only falls back to i if end - (n - 1) overflows, in which case the remainder loop does all
+ * the work, so nothing runs with i past where the original loop would stop.
+ *
+ * Only loops InductionAnalysis understands, whose end doesn't change and whose body has no
+ * loops, break, continue or return, are unrolled, and not the ones LoopVectorization marked. n
+ * is cut down for big bodies so the unrolled body stays under MAX_UNROLLED_SIZE statements.
+ */
+public class LoopUnrolling {
+    /**
+     * Most statements and branches the body of an unrolled loop may have.
+     */
+    private static final int MAX_UNROLLED_SIZE = 128;
+
+    private final Optimizer optimizer;
+    private final List<START> methods;
+    private final InductionAnalysis analysis;
+    private final int factor;
+    private int loopsUnrolled = 0;
+    private int copiesAdded = 0;
+
+    /**
+     * @param optimizer : Optimizer used for temp names.
+     * @param methods : START nodes of the methods.
+     * @param globals : global variables, which calls can change.
+     * @param factor : number of copies of the body in an unrolled loop.
+     */
+    public LoopUnrolling(Optimizer optimizer, List<START> methods, List<IR_FieldDecl> globals, int factor) {
+        this.optimizer = optimizer;
+        this.methods = methods;
+        this.analysis = new InductionAnalysis(globals);
+        this.factor = factor;
+    }
+
+    /**
+     * Unrolls the loops of every method.
+     * @return true if any loop was unrolled.
+     */
+    public boolean run() {
+        if (factor < 2) {
+            return false;
+        }
+        for (START method : methods) {
+            runMethod(method);
+        }
+        return loopsUnrolled > 0;
+    }
+
+    /**
+     * Loops given an unrolled copy in front of them.
+     */
+    public int getLoopsUnrolled() {
+        return loopsUnrolled;
+    }
+
+    /**
+     * Copies of loop bodies made, over all the unrolled loops.
+     */
+    public int getCopiesAdded() {
+        return copiesAdded;
+    }
+
+    private void runMethod(START method) {
+        Set<String> names = optimizer.getAllVarNamesInMethod(method);
+        // innermost loops don't overlap, so unrolling one doesn't change what is known of another
+        List<Loop> loops = new ArrayList<Loop>();
+        List<Integer> copies = new ArrayList<Integer>();
+        for (FlowNode node : InductionAnalysis.collectNodes(method)) {
+            if (node instanceof Branch && ((Branch) node).getType() == Branch.BranchType.FOR) {
+                Loop loop = analysis.analyzeLoop((Branch) node);
+                int n = copiesFor(loop);
+                if (n > 1) {
+                    loops.add(loop);
+                    copies.add(n);
+                }
+            }
+        }
+        for (int i = 0; i < loops.size(); i++) {
+            unroll(loops.get(i), copies.get(i), method, names);
+        }
+    }
+
+    /**
+     * @return how many copies of the body of loop to make, or 0 if it can't be unrolled.
+     */
+    private int copiesFor(Loop loop) {
+        if (!loop.valid || loop.bound == null || loop.end == null || loop.preheader == null
+                || loop.step != 1 || loop.increments.size() != 1 || loop.branch.getVectorPlan() != null) {
+            return 0;
+        }
+        Codeblock back = loop.increments.keySet().iterator().next();
+        if (!back.getIsBreak() || loop.increments.get(back) != back.getStatements().size() - 1) {
+            return 0;
+        }
+        FlowNode exit = loop.branch.getFalseBranch();
+        int size = 0;
+        for (FlowNode node : loop.region) {
+            if (node.getChildren().contains(exit)) {
+                return 0;
+            }
+            if (node instanceof Codeblock) {
+                if (node != back && ((Codeblock) node).getIsBreak()) {
+                    return 0;
+                }
+                size += ((Codeblock) node).getStatements().size();
+            } else if (node instanceof Branch) {
+                if (((Branch) node).getType() != Branch.BranchType.IF) {
+                    return 0;
+                }
+                size++;
+            } else if (!(node instanceof START) && !(node instanceof NoOp)) {
+                return 0;
+            }
+        }
+        int n = Math.min(factor, MAX_UNROLLED_SIZE / Math.max(size, 1));
+        Affine start = analysis.entryValue(Affine.symbol(loop.inductionDecl()), loop);
+        if (start != null && start.isConstant() && loop.end.isConstant()
+                && loop.end.constant - start.constant < n) {
+            // the unrolled loop would never run
+            return 0;
+        }
+        return n;
+    }
+
+    private void unroll(Loop loop, int n, START method, Set<String> names) {
+        Branch header = loop.branch;
+        Codeblock preheader = loop.preheader;
+        Codeblock back = loop.increments.keySet().iterator().next();
+        Descriptor induction = loop.inductionVar.getVarDescriptor();
+        Expression end = ((CompExpr) header.getExpr()).getRightSide();
+        StatementCopier plain = new StatementCopier(loop.inductionDecl(), 0, new HashMap<IR_FieldDecl, Descriptor>());
+
+        Expression limit;
+        if (loop.end.isConstant() && Math.abs(loop.end.constant) <= InductionAnalysis.MAX_SYMBOL) {
+            limit = new IntLit(loop.end.constant - (n - 1));
+        } else {
+            Descriptor limitVar = optimizer.declareTemp(method, names);
+            Expression lowered = new AddExpr(plain.rewrite(end), Ops.MINUS, new IntLit(n - 1));
+            Expression fits = new CompExpr(lowered, Ops.LT, plain.rewrite(end));
+            preheader.addStatement(new Assignment(new Var(limitVar, null, true), Ops.ASSIGN,
+                    new Ternary(fits, plain.rewrite(lowered), new Var(induction, null))));
+            limit = new Var(limitVar, null, true);
+        }
+
+        // preheader -> unrolled loop -> its exit -> a preheader for the remainder -> header
+        Branch unrolled = new Branch(new CompExpr(new Var(induction, null), Ops.LT, limit), Branch.BranchType.FOR);
+        START body = new START();
+        NoOp unrolledExit = new NoOp();
+        Codeblock remainder = new Codeblock();
+        unrolled.setTrueBranch(body);
+        body.addParent(unrolled);
+        unrolled.setFalseBranch(unrolledExit);
+        unrolledExit.addParent(unrolled);
+        unrolledExit.addChild(remainder);
+        remainder.addParent(unrolledExit);
+        remainder.addChild(header);
+        preheader.removeChild(header);
+        preheader.addChild(unrolled);
+        unrolled.addParent(preheader);
+        List<FlowNode> headerParents = header.getParents();
+        headerParents.set(headerParents.indexOf(preheader), remainder);
+
+        List<FlowNode> nodes = bodyNodes(loop);
+        FlowNode tail = body;
+        for (int k = 0; k < n; k++) {
+            Map<IR_FieldDecl, Descriptor> renamed = new HashMap<IR_FieldDecl, Descriptor>();
+            if (k > 0) {
+                for (FlowNode node : nodes) {
+                    if (!(node instanceof Codeblock)) {
+                        continue;
+                    }
+                    for (Statement st : ((Codeblock) node).getStatements()) {
+                        if (st instanceof Declaration) {
+                            IR_FieldDecl decl = ((Declaration) st).getFieldDecl();
+                            renamed.put(decl, new Descriptor(rename(decl, names)));
+                        }
+                    }
+                }
+            }
+            tail = copyBody(loop, nodes, back, tail, new StatementCopier(loop.inductionDecl(), k, renamed));
+        }
+        Codeblock last = (Codeblock) tail;
+        last.addStatement(new Assignment(new Var(induction, null), Ops.ASSIGN,
+                new AddExpr(new Var(induction, null), Ops.PLUS, new IntLit(n))));
+        last.setIsBreak(true);
+        last.addChild(unrolled);
+        unrolled.addParent(last);
+        loopsUnrolled++;
+        copiesAdded += n;
+    }
+
+    /**
+     * The nodes of the body of loop below its START, parents before children.
+     */
+    private static List<FlowNode> bodyNodes(Loop loop) {
+        List<FlowNode> nodes = new ArrayList<FlowNode>();
+        for (FlowNode node : InductionAnalysis.collectNodes(loop.branch.getTrueBranch())) {
+            if (node != loop.branch.getTrueBranch() && loop.region.contains(node)) {
+                nodes.add(node);
+            }
+        }
+        return nodes;
+    }
+
+    /**
+     * Hangs one copy of the body of loop, without the increment, below tail.
+     * @return the copy of the back edge Codeblock, which the next copy goes below.
+     */
+    private FlowNode copyBody(Loop loop, List<FlowNode> nodes, Codeblock back, FlowNode tail, StatementCopier copier) {
+        FlowNode first = loop.branch.getTrueBranch().getChildren().get(0);
+        Map<FlowNode, FlowNode> copies = new HashMap<FlowNode, FlowNode>();
+        boolean merge = tail instanceof Codeblock && first instanceof Codeblock;
+        for (FlowNode node : nodes) {
+            FlowNode copy;
+            if (node == first && merge) {
+                copy = tail;
+            } else if (node instanceof Codeblock) {
+                copy = new Codeblock();
+            } else if (node instanceof Branch) {
+                copy = new Branch(copier.rewrite(((Branch) node).getExpr()), ((Branch) node).getType());
+            } else if (node instanceof START) {
+                copy = new START();
+            } else {
+                copy = new NoOp();
+            }
+            if (node instanceof Codeblock) {
+                List<Statement> statements = ((Codeblock) node).getStatements();
+                int count = node == back ? statements.size() - 1 : statements.size();
+                for (int i = 0; i < count; i++) {
+                    ((Codeblock) copy).addStatement(copier.copy(statements.get(i)));
+                }
+            }
+            copies.put(node, copy);
+        }
+        if (!merge) {
+            tail.addChild(copies.get(first));
+            copies.get(first).addParent(tail);
+        }
+        for (FlowNode node : nodes) {
+            FlowNode copy = copies.get(node);
+            if (node instanceof Branch) {
+                Branch branch = (Branch) node;
+                ((Branch) copy).setTrueBranch(copies.get(branch.getTrueBranch()));
+                ((Branch) copy).setFalseBranch(copies.get(branch.getFalseBranch()));
+            } else if (node != back) {
+                copy.addChild(copies.get(node.getChildren().get(0)));
+            }
+            if (node != first) {
+                for (FlowNode parent : node.getParents()) {
+                    copy.addParent(copies.get(parent));
+                }
+            }
+        }
+        return copies.get(back);
+    }
+
+    /**
+     * A new variable like decl for a copy of its declaration.
+     */
+    private IR_FieldDecl rename(IR_FieldDecl decl, Set<String> names) {
+        String name = optimizer.generateNextTemp(names);
+        if (decl.getLength() == null) {
+            return new IR_FieldDecl(decl.getType(), name);
+        }
+        return new IR_FieldDecl(decl.getType(), name, decl.getLength());
+    }
+}
@@ -0,0 +1,779 @@
+package edu.mit.compilers.controlflow;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import edu.mit.compilers.codegen.CodegenConst;
+import edu.mit.compilers.codegen.Descriptor;
+import edu.mit.compilers.codegen.Instruction;
+import edu.mit.compilers.codegen.LocArray;
+import edu.mit.compilers.codegen.LocLabel;
+import edu.mit.compilers.codegen.LocLiteral;
+import edu.mit.compilers.codegen.LocReg;
+import edu.mit.compilers.codegen.LocXmm;
+import edu.mit.compilers.codegen.LocationMem;
+import edu.mit.compilers.codegen.Opcode;
+import edu.mit.compilers.controlflow.InductionAnalysis.Affine;
+import edu.mit.compilers.controlflow.InductionAnalysis.Loop;
+import edu.mit.compilers.ir.IR_FieldDecl;
+import edu.mit.compilers.ir.Ops;
+
+/**
+ * Runs innermost FOR loops over arrays two iterations at a time, with SSE2 instructions on
+ * both 64 bit lanes of the xmm registers.
+ *
+ * A loop is vectorized if its body is a straight line of assignments and declarations whose
+ * values are built from +, -, * and unary minus, with no calls. Every array element it uses
+ * is at i + c plus variables the loop doesn't change, i being the induction variable, and
+ * becomes one unaligned load or store of elements i + c and i + c + 1; an element at an index
+ * without i is read and copied to both lanes, as long as the loop doesn't write that array.
+ * Scalars the loop doesn't change, literals and i itself are put in registers once before the
+ * loop, and each scalar the body assigns lives in a register of its own, so it must be
+ * assigned before it is read in every iteration.
+ *
+ * The vector loop does a statement for both iterations before the next statement, which only
+ * changes the result if two accesses to an array the body writes meet one iteration apart.
+ * That is fine as long as the one that runs in the earlier iteration, the one with the larger
+ * constant, also comes first in the body; anything else, such as indices with different
+ * variables, means the loop is left alone.
+ *
+ * SSE2 has packed 64 bit additions and subtractions but no multiplication, so a multiplication
+ * by a power of two is a shift and any other is put together from the 32 bit pmuludq. x86 has
+ * no packed division at all, so loops dividing are not vectorized. AVX2 would give four lanes,
+ * but isn't on every x86-64 machine.
+ *
+ * The code generators put the vector loop in front of the loop as it was:
+ *
+ *     if (i < end - 1) {
+ *         do { body[i], body[i + 1]; i += 2; } while (i < end - 1);
+ *         scalars live after the loop = their value from iteration i + 1;
+ *     }
+ *     for (; i < end; i++) { body }    // the rest, at most one iteration
+ *
+ * The bounds checks of both lanes are made before anything is stored, and jump to the second
+ * loop when either fails, so an index out of bounds fails there at the same point as before.
+ * Checks BoundsCheckElimination proved or guarded go the same way as in the loop as it was.
+ *
+ * markLoops chooses the loops before the loop passes that would change them beyond recognition:
+ * LoopUnrolling and StrengthReduction leave marked loops alone. run checks them again against
+ * the final code, just before it is generated, and drops the ones that don't qualify anymore.
+ */
+public class LoopVectorization {
+    /**
+     * Iterations a vector iteration runs: the 64 bit lanes of an xmm register.
+     */
+    static final int LANES = 2;
+
+    private final Optimizer optimizer;
+    private final List<START> methods;
+    private final InductionAnalysis analysis;
+    private int loopsMarked = 0;
+    private int loopsVectorized = 0;
+
+    /**
+     * What the code generators need to emit the vector loop of a FOR loop.
+     */
+    public static class Plan {
+        /** the body, without the increment of i */
+        final List<Statement> statements = new ArrayList<Statement>();
+        Var induction;
+        Expression end;
+        /** registers of the scalars the body assigns or declares, which live in them */
+        final Map<IR_FieldDecl, Integer> lanes = new LinkedHashMap<IR_FieldDecl, Integer>();
+        /** scalars the body assigns that are live after the loop */
+        final List<Var> liveOut = new ArrayList<Var>();
+        /** registers loaded before the loop with scalars the loop doesn't change */
+        final Map<IR_FieldDecl, Integer> invariants = new LinkedHashMap<IR_FieldDecl, Integer>();
+        final Map<IR_FieldDecl, Var> invariantVars = new HashMap<IR_FieldDecl, Var>();
+        final Map<Long, Integer> literals = new LinkedHashMap<Long, Integer>();
+        /** register holding i and i + 1, and the one holding 2 twice, or -1 if i isn't read */
+        int inductionLanes = -1;
+        int inductionStep = -1;
+        /** the index of the first lane of every array element used, over scalars */
+        final Map<Var, Expression> indices = new IdentityHashMap<Var, Expression>();
+        /** array elements whose index doesn't depend on i */
+        final Set<Var> broadcast = Collections.newSetFromMap(new IdentityHashMap<Var, Boolean>());
+        /** registers from this one up are free for temporaries */
+        int firstTemp;
+    }
+
+    /**
+     * An array element used in the body, and when: 2s for reads in statement s, 2s + 1 for its
+     * store.
+     */
+    private static class Access {
+        final Var var;
+        final boolean write;
+        final int order;
+        Affine index;
+
+        Access(Var var, boolean write, int order) {
+            this.var = var;
+            this.write = write;
+            this.order = order;
+        }
+    }
+
+    /**
+     * @param optimizer : Optimizer used for liveness.
+     * @param methods : START nodes of the methods.
+     * @param globals : global variables.
+     */
+    public LoopVectorization(Optimizer optimizer, List<START> methods, List<IR_FieldDecl> globals) {
+        this.optimizer = optimizer;
+        this.methods = methods;
+        this.analysis = new InductionAnalysis(globals);
+    }
+
+    /**
+     * Marks the loops that can be vectorized, keeping the other loop passes off them.
+     * @return true if any loop was marked.
+     */
+    public boolean markLoops() {
+        for (START method : methods) {
+            for (FlowNode node : InductionAnalysis.collectNodes(method)) {
+                if (node instanceof Branch && ((Branch) node).getType() == Branch.BranchType.FOR) {
+                    Plan plan = analyze(analysis.analyzeLoop((Branch) node), null);
+                    ((Branch) node).setVectorPlan(plan);
+                    if (plan != null) {
+                        loopsMarked++;
+                    }
+                }
+            }
+        }
+        return loopsMarked > 0;
+    }
+
+    /**
+     * Makes the final plans of the marked loops, with what is live after them.
+     * @return true if any loop is vectorized.
+     */
+    public boolean run() {
+        for (START method : methods) {
+            Map<FlowNode, Bitvector> liveOut = null;
+            for (FlowNode node : InductionAnalysis.collectNodes(method)) {
+                if (!(node instanceof Branch) || ((Branch) node).getVectorPlan() == null) {
+                    continue;
+                }
+                if (liveOut == null) {
+                    liveOut = optimizer.generateLivenessMap(Collections.singletonList(method)).get(method);
+                }
+                Plan plan = analyze(analysis.analyzeLoop((Branch) node), liveOut);
+                ((Branch) node).setVectorPlan(plan);
+                if (plan != null) {
+                    loopsVectorized++;
+                }
+            }
+        }
+        return loopsVectorized > 0;
+    }
+
+    /**
+     * Loops markLoops found, before the other passes ran.
+     */
+    public int getLoopsMarked() {
+        return loopsMarked;
+    }
+
+    /**
+     * Loops that get a vector loop.
+     */
+    public int getLoopsVectorized() {
+        return loopsVectorized;
+    }
+
+    /**
+     * @param liveOut : liveness of the method, or null to take every scalar as live after the loop.
+     * @return how to vectorize loop, or null if it can't be.
+     */
+    private Plan analyze(Loop loop, Map<FlowNode, Bitvector> liveOut) {
+        if (!loop.valid || loop.bound == null || loop.hasCalls || loop.step != 1 || loop.increments.size() != 1) {
+            return null;
+        }
+        Codeblock back = loop.increments.keySet().iterator().next();
+        if (!back.getIsBreak() || loop.increments.get(back) != back.getStatements().size() - 1) {
+            return null;
+        }
+        // the body must be a straight line of Codeblocks ending at the back edge
+        List<Codeblock> blocks = new ArrayList<Codeblock>();
+        FlowNode next = loop.branch.getTrueBranch();
+        while (next != back) {
+            if (next.getChildren().size() != 1) {
+                return null;
+            }
+            next = next.getChildren().get(0);
+            if (!(next instanceof Codeblock) || next.getParents().size() != 1
+                    || (next != back && ((Codeblock) next).getIsBreak())) {
+                return null;
+            }
+            blocks.add((Codeblock) next);
+        }
+        if (loop.region.size() != blocks.size() + 1) {
+            return null;
+        }
+
+        Plan plan = new Plan();
+        IR_FieldDecl induction = loop.inductionDecl();
+        plan.induction = new Var(loop.inductionVar.getVarDescriptor(), null);
+        plan.end = ((CompExpr) loop.branch.getExpr()).getRightSide();
+        Set<IR_FieldDecl> written = new LinkedHashSet<IR_FieldDecl>();
+        Set<IR_FieldDecl> declared = new HashSet<IR_FieldDecl>();
+        Map<IR_FieldDecl, Var> writtenVars = new LinkedHashMap<IR_FieldDecl, Var>();
+        for (Codeblock block : blocks) {
+            List<Statement> statements = block.getStatements();
+            int count = block == back ? statements.size() - 1 : statements.size();
+            for (int i = 0; i < count; i++) {
+                Statement st = statements.get(i);
+                if (st instanceof Assignment && !((Assignment) st).getDestVar().isArray()) {
+                    Var dest = ((Assignment) st).getDestVar();
+                    written.add(dest.getFieldDecl());
+                    if (!writtenVars.containsKey(dest.getFieldDecl())) {
+                        writtenVars.put(dest.getFieldDecl(), new Var(dest.getVarDescriptor(), null));
+                    }
+                } else if (st instanceof Declaration) {
+                    IR_FieldDecl decl = ((Declaration) st).getFieldDecl();
+                    if (decl.getLength() != null) {
+                        return null;
+                    }
+                    declared.add(decl);
+                    written.add(decl);
+                } else if (!(st instanceof Assignment)) {
+                    return null;
+                }
+            }
+        }
+
+        // the statements, in order
+        List<Access> accesses = new ArrayList<Access>();
+        Set<IR_FieldDecl> defined = new HashSet<IR_FieldDecl>();
+        int maxTemps = 0;
+        for (Codeblock block : blocks) {
+            List<Statement> statements = block.getStatements();
+            int count = block == back ? statements.size() - 1 : statements.size();
+            for (int i = 0; i < count; i++) {
+                Statement st = statements.get(i);
+                int order = 2 * plan.statements.size();
+                plan.statements.add(st);
+                if (st instanceof Declaration) {
+                    defined.add(((Declaration) st).getFieldDecl());
+                    continue;
+                }
+                Assignment assign = (Assignment) st;
+                Var dest = assign.getDestVar();
+                List<Access> found = new ArrayList<Access>();
+                if (!scan(assign.getValue(), plan, written, defined, order, found)) {
+                    return null;
+                }
+                int temps = temps(assign.getValue());
+                if (dest.isArray()) {
+                    found.add(new Access(dest, true, order + 1));
+                    if (assign.getOperator() != Ops.ASSIGN) {
+                        temps++;
+                    }
+                } else if (assign.getOperator() != Ops.ASSIGN && !defined.contains(dest.getFieldDecl())) {
+                    // a sum carried from one iteration to the next
+                    return null;
+                } else {
+                    defined.add(dest.getFieldDecl());
+                }
+                maxTemps = Math.max(maxTemps, temps);
+                for (Access access : found) {
+                    access.index = analysis.valueOf(access.var.getIndex(), loop, block, i);
+                    if (access.index == null) {
+                        return null;
+                    }
+                    accesses.add(access);
+                }
+            }
+        }
+        if (!checkAccesses(accesses, loop, plan)) {
+            return null;
+        }
+
+        // registers: the body's scalars, then what is loaded before the loop, then temporaries
+        int register = 0;
+        for (IR_FieldDecl decl : written) {
+            plan.lanes.put(decl, register++);
+        }
+        for (Map.Entry<IR_FieldDecl, Integer> entry : plan.invariants.entrySet()) {
+            entry.setValue(register++);
+        }
+        for (Map.Entry<Long, Integer> entry : plan.literals.entrySet()) {
+            entry.setValue(register++);
+        }
+        if (plan.inductionLanes >= 0) {
+            plan.inductionLanes = register++;
+            plan.inductionStep = register++;
+        }
+        plan.firstTemp = register;
+        if (plan.firstTemp + maxTemps > LocXmm.COUNT) {
+            return null;
+        }
+        FlowNode exit = loop.branch.getFalseBranch();
+        for (Map.Entry<IR_FieldDecl, Var> entry : writtenVars.entrySet()) {
+            if (entry.getKey() != induction && !declared.contains(entry.getKey())
+                    && (liveOut == null || !LoopParallelization.isDead(liveOut.get(exit), entry.getKey()))) {
+                plan.liveOut.add(entry.getValue());
+            }
+        }
+        return plan;
+    }
+
+    /**
+     * Checks that expr can be computed on both lanes, noting the array elements it reads and
+     * what it needs loaded before the loop.
+     */
+    private static boolean scan(Expression expr, Plan plan, Set<IR_FieldDecl> written, Set<IR_FieldDecl> defined,
+            int order, List<Access> found) {
+        if (expr instanceof IntLit) {
+            plan.literals.put(((IntLit) expr).getValue(), 0);
+            return true;
+        } else if (expr instanceof Var) {
+            Var var = (Var) expr;
+            IR_FieldDecl decl = var.getFieldDecl();
+            if (var.isArray()) {
+                found.add(new Access(var, false, order));
+            } else if (decl == plan.induction.getFieldDecl()) {
+                plan.inductionLanes = 0;
+            } else if (written.contains(decl)) {
+                // read before it is assigned: its value comes from the iteration before
+                return defined.contains(decl);
+            } else if (!plan.invariants.containsKey(decl)) {
+                plan.invariants.put(decl, 0);
+                plan.invariantVars.put(decl, new Var(var.getVarDescriptor(), null));
+            }
+            return true;
+        } else if (expr instanceof AddExpr) {
+            return scan(((AddExpr) expr).getLeftSide(), plan, written, defined, order, found)
+                    && scan(((AddExpr) expr).getRightSide(), plan, written, defined, order, found);
+        } else if (expr instanceof MultExpr) {
+            MultExpr mult = (MultExpr) expr;
+            if (shift(mult) >= 0) {
+                return scan(shifted(mult), plan, written, defined, order, found);
+            }
+            return scan(mult.getLeftSide(), plan, written, defined, order, found)
+                    && scan(mult.getRightSide(), plan, written, defined, order, found);
+        } else if (expr instanceof NegateExpr) {
+            return scan(((NegateExpr) expr).getExpression(), plan, written, defined, order, found);
+        }
+        return false;
+    }
+
+    /**
+     * Most temporary registers the code for expr can take at once.
+     */
+    private static int temps(Expression expr) {
+        if (expr instanceof Var) {
+            return ((Var) expr).isArray() ? 1 : 0;
+        } else if (expr instanceof AddExpr) {
+            return temps(((AddExpr) expr).getLeftSide()) + temps(((AddExpr) expr).getRightSide()) + 1;
+        } else if (expr instanceof MultExpr) {
+            MultExpr mult = (MultExpr) expr;
+            if (shift(mult) >= 0) {
+                return temps(shifted(mult)) + 1;
+            }
+            return temps(mult.getLeftSide()) + temps(mult.getRightSide()) + 3;
+        } else if (expr instanceof NegateExpr) {
+            return temps(((NegateExpr) expr).getExpression()) + 1;
+        }
+        return 0;
+    }
+
+    /**
+     * @return k if mult multiplies by the literal 2^k, or -1.
+     */
+    private static int shift(MultExpr mult) {
+        Expression literal = mult.getRightSide() instanceof IntLit ? mult.getRightSide() : mult.getLeftSide();
+        if (!(literal instanceof IntLit)) {
+            return -1;
+        }
+        long value = ((IntLit) literal).getValue();
+        return value > 0 && (value & (value - 1)) == 0 ? Long.numberOfTrailingZeros(value) : -1;
+    }
+
+    /**
+     * The side of mult that is shifted, when shift(mult) isn't -1.
+     */
+    private static Expression shifted(MultExpr mult) {
+        return mult.getRightSide() instanceof IntLit ? mult.getLeftSide() : mult.getRightSide();
+    }
+
+    /**
+     * Checks the indices of the array elements and records them in plan.
+     * @return false if the loop can't be vectorized because of them.
+     */
+    private boolean checkAccesses(List<Access> accesses, Loop loop, Plan plan) {
+        IR_FieldDecl induction = loop.inductionDecl();
+        Set<IR_FieldDecl> writtenArrays = new HashSet<IR_FieldDecl>();
+        for (Access access : accesses) {
+            if (access.write) {
+                writtenArrays.add(access.var.getFieldDecl());
+            }
+        }
+        if (writtenArrays.isEmpty()) {
+            return false;
+        }
+        Map<Var, Affine> forms = new IdentityHashMap<Var, Affine>();
+        for (Access access : accesses) {
+            long c = access.index.coefficient(induction);
+            boolean written = writtenArrays.contains(access.var.getFieldDecl());
+            if (c != 1 && (c != 0 || written)) {
+                return false;
+            }
+            // a Var object CSE shares between statements must have the same index in all of them
+            Affine recorded = forms.get(access.var);
+            if (recorded != null && (recorded.constant != access.index.constant
+                    || !analysis.termKey(recorded).equals(analysis.termKey(access.index)))) {
+                return false;
+            }
+            forms.put(access.var, access.index);
+            plan.indices.put(access.var, analysis.toExpression(access.index));
+            if (c == 0) {
+                plan.broadcast.add(access.var);
+            }
+        }
+        for (int a = 0; a < accesses.size(); a++) {
+            Access first = accesses.get(a);
+            if (!first.write) {
+                continue;
+            }
+            for (Access second : accesses) {
+                if (second == first || second.var.getFieldDecl() != first.var.getFieldDecl()) {
+                    continue;
+                }
+                if (!analysis.termKey(first.index).equals(analysis.termKey(second.index))) {
+                    return false;
+                }
+                long distance = first.index.constant - second.index.constant;
+                if (Math.abs(distance) >= LANES || distance == 0) {
+                    continue;
+                }
+                // the access with the larger constant runs in the earlier iteration
+                Access earlier = distance > 0 ? first : second;
+                Access later = distance > 0 ? second : first;
+                if (earlier.order >= later.order) {
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Puts the vector loop of a loop with a plan in front of its code. loopIns is the code of
+     * the loop, starting with the label of its Branch and ending with the label of its exit,
+     * and the result starts with that label too, so BoundsCheckElimination can version it.
+     * @param loop : the FOR Branch.
+     * @param loopIns : instructions of the loop.
+     * @param selector : selector for the scalar parts, the indices and the loop test.
+     * @param context : context the loop was generated in.
+     */
+    public static List<Instruction> generateVectorLoop(Branch loop, List<Instruction> loopIns,
+            ExpressionSelector selector, ControlflowContext context) {
+        String scalarLabel = context.genLabel();
+        Emitter emitter = new Emitter(loop, selector, context, scalarLabel);
+        List<Instruction> ins = emitter.emit();
+        // the loop as it was runs the rest; only its own label and its back edge move
+        Map<String, String> renamed = new HashMap<String, String>();
+        renamed.put(loop.getLabel(), scalarLabel);
+        for (Instruction ii : loopIns) {
+            ins.add(refersTo(ii, loop.getLabel()) ? BoundsCheckElimination.copy(ii, renamed) : ii);
+        }
+        return ins;
+    }
+
+    private static boolean refersTo(Instruction ii, String label) {
+        if (ii.label.equals(label)) {
+            return true;
+        }
+        for (int jj = 0; jj < ii.argCount(); jj++) {
+            LocationMem arg = ii.arg(jj);
+            if (arg instanceof LocLabel && ((LocLabel) arg).label.equals(label)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Instruction selection for the vector loop of one plan. Values are in xmm registers: the
+     * plan's own, which are only read, or temporaries, which belong to whoever computed them.
+     */
+    private static class Emitter {
+        private final Branch loop;
+        private final Plan plan;
+        private final ExpressionSelector selector;
+        private final ControlflowContext context;
+        private final String scalarLabel;
+        private final List<Instruction> ins = new ArrayList<Instruction>();
+        private final boolean[] busy = new boolean[LocXmm.COUNT];
+
+        Emitter(Branch loop, ExpressionSelector selector, ControlflowContext context, String scalarLabel) {
+            this.loop = loop;
+            this.plan = loop.getVectorPlan();
+            this.selector = selector;
+            this.context = context;
+            this.scalarLabel = scalarLabel;
+        }
+
+        List<Instruction> emit() {
+            LocLabel scalar = new LocLabel(scalarLabel);
+            ins.add(Instruction.labelInstruction(loop.getLabel()));
+            // limit = end - 1, held in a scratch register for the whole loop
+            LocReg limit = selector.evaluate(plan.end, ins);
+            ins.add(new Instruction(Opcode.SUBQ, new LocLiteral(1), limit));
+            ins.add(new Instruction(Opcode.JO, scalar));
+            ins.add(new Instruction(Opcode.CMPQ, limit, selector.location(plan.induction, ins)));
+            ins.add(new Instruction(Opcode.JGE, scalar));
+
+            for (Map.Entry<IR_FieldDecl, Integer> entry : plan.invariants.entrySet()) {
+                broadcast(selector.location(plan.invariantVars.get(entry.getKey()), ins), xmm(entry.getValue()));
+            }
+            for (Map.Entry<Long, Integer> entry : plan.literals.entrySet()) {
+                LocReg r = selector.evaluate(new IntLit(entry.getKey()), ins);
+                broadcast(r, xmm(entry.getValue()));
+                selector.release(r);
+            }
+            if (plan.inductionLanes >= 0) {
+                LocXmm lanes = xmm(plan.inductionLanes);
+                LocXmm step = xmm(plan.inductionStep);
+                broadcast(selector.location(plan.induction, ins), lanes);
+                // 0 and 1, then 2 and 2
+                LocReg r = selector.evaluate(new IntLit(1), ins);
+                ins.add(new Instruction(Opcode.MOVQ, r, step));
+                selector.release(r);
+                ins.add(new Instruction(Opcode.PSLLDQ, new LocLiteral(8), step));
+                ins.add(new Instruction(Opcode.PADDQ, step, lanes));
+                r = selector.evaluate(new IntLit(LANES), ins);
+                broadcast(r, step);
+                selector.release(r);
+            }
+
+            String bodyLabel = context.genLabel();
+            ins.add(Instruction.labelInstruction(bodyLabel));
+            for (Statement st : plan.statements) {
+                if (st instanceof Declaration) {
+                    LocXmm x = xmm(plan.lanes.get(((Declaration) st).getFieldDecl()));
+                    ins.add(new Instruction(Opcode.PXOR, x, x));
+                } else {
+                    generateAssign((Assignment) st);
+                }
+            }
+            ins.add(new Instruction(Opcode.ADDQ, new LocLiteral(LANES), selector.location(plan.induction, ins)));
+            if (plan.inductionLanes >= 0) {
+                ins.add(new Instruction(Opcode.PADDQ, xmm(plan.inductionStep), xmm(plan.inductionLanes)));
+            }
+            ins.add(new Instruction(Opcode.CMPQ, limit, selector.location(plan.induction, ins)));
+            ins.add(new Instruction(Opcode.JL, new LocLabel(bodyLabel)));
+            selector.release(limit);
+
+            // the second lane holds the last iteration
+            for (Var var : plan.liveOut) {
+                LocXmm x = xmm(plan.lanes.get(var.getFieldDecl()));
+                ins.add(new Instruction(Opcode.PSHUFD, new LocLiteral(0xee), x, x));
+                ins.add(new Instruction(Opcode.MOVQ, x, selector.location(var, ins)));
+            }
+            return ins;
+        }
+
+        private void generateAssign(Assignment assign) {
+            Var dest = assign.getDestVar();
+            LocXmm value = evaluate(assign.getValue());
+            if (dest.isArray()) {
+                LocationMem element = address(dest);
+                if (assign.getOperator() == Ops.ASSIGN) {
+                    ins.add(new Instruction(Opcode.MOVDQU, value, element));
+                } else {
+                    LocXmm old = allocate();
+                    ins.add(new Instruction(Opcode.MOVDQU, element, old));
+                    Opcode op = assign.getOperator() == Ops.ASSIGN_PLUS ? Opcode.PADDQ : Opcode.PSUBQ;
+                    ins.add(new Instruction(op, value, old));
+                    ins.add(new Instruction(Opcode.MOVDQU, old, element));
+                    release(old);
+                }
+                selector.release(element);
+            } else {
+                LocXmm x = xmm(plan.lanes.get(dest.getFieldDecl()));
+                if (assign.getOperator() == Ops.ASSIGN) {
+                    if (value.index != x.index) {
+                        ins.add(new Instruction(Opcode.MOVDQA, value, x));
+                    }
+                } else {
+                    Opcode op = assign.getOperator() == Ops.ASSIGN_PLUS ? Opcode.PADDQ : Opcode.PSUBQ;
+                    ins.add(new Instruction(op, value, x));
+                }
+            }
+            release(value);
+        }
+
+        /**
+         * Computes expr on both lanes.
+         * @return a register of the plan, or a temporary the caller has to release.
+         */
+        private LocXmm evaluate(Expression expr) {
+            if (expr instanceof IntLit) {
+                return xmm(plan.literals.get(((IntLit) expr).getValue()));
+            } else if (expr instanceof Var && !((Var) expr).isArray()) {
+                IR_FieldDecl decl = ((Var) expr).getFieldDecl();
+                if (decl == plan.induction.getFieldDecl()) {
+                    return xmm(plan.inductionLanes);
+                }
+                Integer lanes = plan.lanes.get(decl);
+                return xmm(lanes != null ? lanes : plan.invariants.get(decl));
+            } else if (expr instanceof Var) {
+                Var var = (Var) expr;
+                LocationMem element = address(var);
+                LocXmm x = allocate();
+                if (plan.broadcast.contains(var)) {
+                    broadcast(element, x);
+                } else {
+                    ins.add(new Instruction(Opcode.MOVDQU, element, x));
+                }
+                selector.release(element);
+                return x;
+            } else if (expr instanceof AddExpr) {
+                AddExpr add = (AddExpr) expr;
+                LocXmm left = evaluate(add.getLeftSide());
+                LocXmm right = evaluate(add.getRightSide());
+                if (add.getOperator() == Ops.PLUS && !isTemp(left) && isTemp(right)) {
+                    ins.add(new Instruction(Opcode.PADDQ, left, right));
+                    return right;
+                }
+                left = own(left);
+                ins.add(new Instruction(add.getOperator() == Ops.PLUS ? Opcode.PADDQ : Opcode.PSUBQ, right, left));
+                release(right);
+                return left;
+            } else if (expr instanceof NegateExpr) {
+                LocXmm value = evaluate(((NegateExpr) expr).getExpression());
+                LocXmm x = allocate();
+                ins.add(new Instruction(Opcode.PXOR, x, x));
+                ins.add(new Instruction(Opcode.PSUBQ, value, x));
+                release(value);
+                return x;
+            } else if (expr instanceof MultExpr) {
+                MultExpr mult = (MultExpr) expr;
+                int k = shift(mult);
+                if (k >= 0) {
+                    LocXmm x = own(evaluate(shifted(mult)));
+                    if (k > 0) {
+                        ins.add(new Instruction(Opcode.PSLLQ, new LocLiteral(k), x));
+                    }
+                    return x;
+                }
+                return multiply(evaluate(mult.getLeftSide()), evaluate(mult.getRightSide()));
+            }
+            throw new RuntimeException("Unexpected expression in a vectorized loop: "
+                    + expr.getClass().getSimpleName());
+        }
+
+        /**
+         * a * b on both lanes, from pmuludq, which only multiplies the low 32 bits of each lane:
+         * lo(a) * lo(b) + ((hi(a) * lo(b) + lo(a) * hi(b)) << 32) is the product modulo 2^64.
+         */
+        private LocXmm multiply(LocXmm a, LocXmm b) {
+            LocXmm product = allocate();
+            LocXmm cross = allocate();
+            LocXmm other = allocate();
+            ins.add(new Instruction(Opcode.MOVDQA, a, product));
+            ins.add(new Instruction(Opcode.PMULUDQ, b, product));
+            ins.add(new Instruction(Opcode.MOVDQA, a, cross));
+            ins.add(new Instruction(Opcode.PSRLQ, new LocLiteral(32), cross));
+            ins.add(new Instruction(Opcode.PMULUDQ, b, cross));
+            ins.add(new Instruction(Opcode.MOVDQA, b, other));
+            ins.add(new Instruction(Opcode.PSRLQ, new LocLiteral(32), other));
+            ins.add(new Instruction(Opcode.PMULUDQ, a, other));
+            ins.add(new Instruction(Opcode.PADDQ, other, cross));
+            ins.add(new Instruction(Opcode.PSLLQ, new LocLiteral(32), cross));
+            ins.add(new Instruction(Opcode.PADDQ, cross, product));
+            release(other);
+            release(cross);
+            release(a);
+            release(b);
+            return product;
+        }
+
+        /**
+         * Location of the first lane of an array element, after checking that both lanes (or
+         * the one element, for a broadcast) are in bounds.
+         */
+        private LocationMem address(Var var) {
+            Descriptor d = context.findSymbol(var.getName());
+            long len = ((IR_FieldDecl) d.getIR()).getLength().getValue();
+            long span = plan.broadcast.contains(var) ? 1 : LANES;
+            Expression index = plan.indices.get(var);
+            if (index instanceof IntLit) {
+                long value = ((IntLit) index).getValue();
+                if (value < 0 || value > len - span) {
+                    ins.add(new Instruction(Opcode.JMP, new LocLabel(scalarLabel)));
+                }
+                return new LocArray(d.getLocation(), new LocLiteral(value), CodegenConst.INT_SIZE);
+            }
+            LocReg r = selector.evaluate(index, ins);
+            if (!var.isIndexInBounds()) {
+                // as in ExpressionSelector, one unsigned compare also catches negative indices
+                Instruction cmp = new Instruction(Opcode.CMPQ, new LocLiteral(len - span + 1), r);
+                Instruction jae = new Instruction(Opcode.JAE, new LocLabel(scalarLabel));
+                ins.add(cmp);
+                ins.add(jae);
+                if (var.getIndexGuard() != null) {
+                    context.addGuardedCheck(cmp, var.getIndexGuard());
+                    context.addGuardedCheck(jae, var.getIndexGuard());
+                }
+            }
+            return new LocArray(d.getLocation(), r, CodegenConst.INT_SIZE);
+        }
+
+        /**
+         * Loads a 64 bit value into both lanes of x. pshufd rather than punpcklqdq, whose
+         * name the push/pop folding in ControlflowContext would take for a push.
+         */
+        private void broadcast(LocationMem value, LocXmm x) {
+            ins.add(new Instruction(Opcode.MOVQ, value, x));
+            ins.add(new Instruction(Opcode.PSHUFD, new LocLiteral(0x44), x, x));
+        }
+
+        /**
+         * x itself if it is a temporary, or a temporary copy of it.
+         */
+        private LocXmm own(LocXmm x) {
+            if (isTemp(x)) {
+                return x;
+            }
+            LocXmm copy = allocate();
+            ins.add(new Instruction(Opcode.MOVDQA, x, copy));
+            return copy;
+        }
+
+        private boolean isTemp(LocXmm x) {
+            return x.index >= plan.firstTemp;
+        }
+
+        private LocXmm allocate() {
+            for (int k = plan.firstTemp; k < LocXmm.COUNT; k++) {
+                if (!busy[k]) {
+                    busy[k] = true;
+                    return new LocXmm(k);
+                }
+            }
+            throw new RuntimeException("out of xmm registers");
+        }
+
+        private void release(LocXmm x) {
+            if (isTemp(x)) {
+                busy[x.index] = false;
+            }
+        }
+
+        private static LocXmm xmm(int index) {
+            return new LocXmm(index);
+        }
+    }
+}
@@ -10,19 +10,53 @@ import edu.mit.compilers.codegen.Descriptor;
 import edu.mit.compilers.codegen.LocLabel;
 import edu.mit.compilers.ir.IR_FieldDecl;
 
+/**
+ * CSE state at one FlowNode. Every map is a PersistentMap, so copying a container for a child
+ * shares all of its storage, and calculateIntersection only walks the parts of the two
+ * containers that are not already shared. The List<Var> values of valToVar and the inner maps of
+ * varToValForArrayComponents are shared as well, so they are replaced rather than changed in place
+ * (see addVarForValue and removeVarForValue).
+ */
 public class MapContainer {
-    Map<IR_FieldDecl, ValueID> varToVal = new HashMap<IR_FieldDecl, ValueID>();
-    Map<SPSet, ValueID> expToVal = new HashMap<SPSet, ValueID>();
-    Map<SPSet, Var> expToTemp = new HashMap<SPSet, Var>();
-    Map<IR_FieldDecl, Map<SPSet, ValueID>> varToValForArrayComponents = new HashMap<IR_FieldDecl, Map<SPSet, ValueID>>();
-    Map<ValueID, List<Var>> valToVar = new HashMap<ValueID, List<Var>>();
+    private static final PersistentMap.ValueMatcher<ValueID> SAME_VALUE = new PersistentMap.ValueMatcher<ValueID>() {
+        public boolean matches(ValueID mine, ValueID theirs) {
+            return mine == theirs;
+        }
+    };
+    private static final PersistentMap.ValueMatcher<Var> SAME_TEMP = new PersistentMap.ValueMatcher<Var>() {
+        public boolean matches(Var mine, Var theirs) {
+            return mine.getVarDescriptor().getIR() == theirs.getVarDescriptor().getIR();
+        }
+    };
+    private static final PersistentMap.ValueMatcher<PersistentMap<SPSet, ValueID>> SAME_COMPONENTS =
+            new PersistentMap.ValueMatcher<PersistentMap<SPSet, ValueID>>() {
+        public boolean matches(PersistentMap<SPSet, ValueID> mine, PersistentMap<SPSet, ValueID> theirs) {
+            if (mine == theirs) {
+                return true;
+            }
+            for (Map.Entry<SPSet, ValueID> entry : mine.entrySet()) {
+                if (entry.getValue() != theirs.get(entry.getKey())) {
+                    return false;
+                }
+            }
+            return true;
+        }
+    };
+
+    PersistentMap<IR_FieldDecl, ValueID> varToVal = new PersistentMap<IR_FieldDecl, ValueID>();
+    PersistentMap<SPSet, ValueID> expToVal = new PersistentMap<SPSet, ValueID>();
+    PersistentMap<SPSet, Var> expToTemp = new PersistentMap<SPSet, Var>();
+    PersistentMap<IR_FieldDecl, PersistentMap<SPSet, ValueID>> varToValForArrayComponents = new PersistentMap<IR_FieldDecl, PersistentMap<SPSet, ValueID>>();
+    PersistentMap<ValueID, List<Var>> valToVar = new PersistentMap<ValueID, List<Var>>();
     boolean complete;
+    // Var standing for each global; shared by every container derived from this one.
+    private Map<IR_FieldDecl, Var> globalVars = new HashMap<IR_FieldDecl, Var>();
 
-    public MapContainer(Map<IR_FieldDecl, ValueID> varToVal, 
-            Map<SPSet, ValueID> expToVal,
-            Map<SPSet, Var> expToTemp,
-            Map<IR_FieldDecl, Map<SPSet, ValueID>> varToValForArrayComponents,
-            Map<ValueID, List<Var>> valToVar, boolean complete){
+    public MapContainer(PersistentMap<IR_FieldDecl, ValueID> varToVal, 
+            PersistentMap<SPSet, ValueID> expToVal,
+            PersistentMap<SPSet, Var> expToTemp,
+            PersistentMap<IR_FieldDecl, PersistentMap<SPSet, ValueID>> varToValForArrayComponents,
+            PersistentMap<ValueID, List<Var>> valToVar, boolean complete){
         this.varToVal = varToVal;
         this.expToVal = expToVal;
         this.expToTemp = expToTemp;
@@ -32,40 +66,40 @@ public class MapContainer {
         
     }
     
-    /*
-     * 	
-		//TODO: make sure keys can be shallow copied 
-		for(IR_FieldDecl i : varToVal.keySet()){
-			this.varToVal.put(i, varToVal.get(i));
-		}
-
-		for(SPSet s : expToVal.keySet()){
-			this.expToVal.put(s, expToVal.get(s));
-		}
+    public static MapContainer makeEmptyContainer(){
+        return new MapContainer(new PersistentMap<IR_FieldDecl, ValueID>(), new PersistentMap<SPSet, ValueID>(),
+                new PersistentMap<SPSet, Var>(), new PersistentMap<IR_FieldDecl, PersistentMap<SPSet, ValueID>>(),
+                new PersistentMap<ValueID, List<Var>>(), false);
+    }
 
-		for(SPSet s : expToTemp.keySet()){
-			this.expToTemp.put(s,new Var(expToTemp.get(s)));
-		}
+    /**
+     * Appends a Var to the list of a value without changing the list other containers may share.
+     */
+    public static void addVarForValue(Map<ValueID, List<Var>> valToVar, ValueID id, Var var) {
+        List<Var> oldList = valToVar.get(id);
+        List<Var> newList = oldList == null ? new ArrayList<Var>() : new ArrayList<Var>(oldList);
+        newList.add(var);
+        valToVar.put(id, newList);
+    }
 
-		for(IR_FieldDecl i : varToValForArrayComponents.keySet()){
-			Map<SPSet, ValueID> map = varToValForArrayComponents.get(i);
-			Map<SPSet, ValueID> newMap = new HashMap<>();
-			for(SPSet s : map.keySet()){
-				newMap.put(s, newMap.get(s));
-			}
-			this.varToValForArrayComponents.put(i, newMap);
-		}
+    /**
+     * Removes a Var from the list of a value without changing the list other containers may share.
+     */
+    public static void removeVarForValue(Map<ValueID, List<Var>> valToVar, ValueID id, Var var) {
+        List<Var> newList = new ArrayList<Var>(valToVar.get(id));
+        newList.remove(var);
+        valToVar.put(id, newList);
+    }
 
-		this.valToVar = valToVar;
-	}*/
-    
-    public static MapContainer makeEmptyContainer(){
-    	Map<IR_FieldDecl, ValueID> varToValN = new HashMap<IR_FieldDecl, ValueID>();
-        Map<SPSet, ValueID> expToValN = new HashMap<SPSet, ValueID>();
-        Map<SPSet, Var> expToTempN = new HashMap<SPSet, Var>();
-        Map<IR_FieldDecl, Map<SPSet, ValueID>> varToValForArrayComponentsN = new HashMap<IR_FieldDecl, Map<SPSet, ValueID>>();
-        Map<ValueID, List<Var>> valToVarN = new HashMap<ValueID, List<Var>>();
-        return new MapContainer(varToValN, expToValN, expToTempN, varToValForArrayComponentsN, valToVarN, false);
+    private Var globalVar(IR_FieldDecl glob) {
+        Var globVar = globalVars.get(glob);
+        if (globVar == null) {
+            Descriptor globDesc = new Descriptor(glob);
+            globDesc.setLocation(new LocLabel(glob.getName()));
+            globVar = new Var(globDesc, null);
+            globalVars.put(glob, globVar);
+        }
+        return globVar;
     }
     
     public static MapContainer keepGlobals(MapContainer startingContainer, List<IR_FieldDecl> globals){
@@ -73,6 +107,7 @@ public class MapContainer {
         if (startingContainer == null) {
             return newContainer;
         }
+        newContainer.globalVars = startingContainer.globalVars;
         for (IR_FieldDecl glob : globals) {
             ValueID id = startingContainer.varToVal.get(glob);
             if (glob.getLength() != null || id != null) {
@@ -83,12 +118,7 @@ public class MapContainer {
                     id = new ValueID();
                 }
                 newContainer.varToVal.put(glob, id);
-                if (!newContainer.valToVar.containsKey(id)) {
-                    newContainer.valToVar.put(id, new ArrayList<Var>());
-                }
-                Descriptor globDesc = new Descriptor(glob);
-                globDesc.setLocation(new LocLabel(glob.getName()));
-                newContainer.valToVar.get(id).add(new Var(globDesc, null));
+                addVarForValue(newContainer.valToVar, id, startingContainer.globalVar(glob));
             }
             if (glob.getLength() != null) {
                 newContainer.varToValForArrayComponents.put(glob, startingContainer.varToValForArrayComponents.get(glob));
@@ -102,61 +132,19 @@ public class MapContainer {
             System.err.println("WARNING: PASSED A NULL TO MapContainer.calculateIntersection");
             return MapContainer.keepGlobals(this, globals);
         }
-        Map<IR_FieldDecl, ValueID> newVarToVal = new HashMap<IR_FieldDecl, ValueID>();
-        for (IR_FieldDecl localDecl: this.varToVal.keySet()){
-            if(varToVal.get(localDecl) == otherContainer.varToVal.get(localDecl)){
-                ValueID id = varToVal.get(localDecl);
-                newVarToVal.put(localDecl, id);
-            }
-        }
-
-        Map<SPSet, ValueID> newExprToVal = new HashMap<SPSet, ValueID>();
-        for (SPSet sp : expToVal.keySet()){
-            ValueID ownVal = expToVal.get(sp);
-            ValueID otherVal = otherContainer.expToVal.get(sp);
-            if(ownVal == otherVal){
-                newExprToVal.put(SPSet.copy(sp), ownVal);
-            }
-        }
-
-        Map<SPSet, Var> newExprToTemp = new HashMap<SPSet, Var>();
-        for(SPSet sp : expToTemp.keySet()){
-            Var myVar = expToTemp.get(sp);
-            Var otherVar = otherContainer.expToTemp.get(sp);
-            if(otherVar != null && myVar.getVarDescriptor().getIR() == otherVar.getVarDescriptor().getIR()){
-                newExprToTemp.put(SPSet.copy(sp), myVar);
-            }
-        }
+        PersistentMap<IR_FieldDecl, ValueID> newVarToVal = varToVal.intersect(otherContainer.varToVal, SAME_VALUE);
+        PersistentMap<SPSet, ValueID> newExprToVal = expToVal.intersect(otherContainer.expToVal, SAME_VALUE);
+        PersistentMap<SPSet, Var> newExprToTemp = expToTemp.intersect(otherContainer.expToTemp, SAME_TEMP);
+        PersistentMap<IR_FieldDecl, PersistentMap<SPSet, ValueID>> newComponents =
+                varToValForArrayComponents.intersect(otherContainer.varToValForArrayComponents, SAME_COMPONENTS);
 
-        Set<IR_FieldDecl> otherVarToValForArrayComponents = otherContainer.varToValForArrayComponents.keySet();
-        Map<IR_FieldDecl, Map<SPSet, ValueID>> newComponents = new HashMap<IR_FieldDecl, Map<SPSet, ValueID>>();
-        for(IR_FieldDecl declKey : varToValForArrayComponents.keySet()){
-            if(!otherVarToValForArrayComponents.contains(declKey)){
-                continue; //Don't need to check the sets, if the mapping's not there at all it wouldn't matter anyway
-            }//However, this is not enough alone; what if there are keys that are contained but their sets have changed? INVESTIGATE!
-            else {
-                Map<SPSet, ValueID> currentMap = varToValForArrayComponents.get(declKey);
-                Map<SPSet, ValueID> otherMap = otherContainer.varToValForArrayComponents.get(declKey);
-                Map<SPSet, ValueID> newMap = new HashMap<SPSet, ValueID>();
-                boolean valid = true;
-                for (SPSet sp : currentMap.keySet()) {
-                    if (currentMap.get(sp) == otherMap.get(sp)) {
-                        newMap.put(SPSet.copy(sp), currentMap.get(sp));
-                    } else {
-                        valid = false;
-                        break;
-                    }
-                }
-                if (valid) {
-                    newComponents.put(declKey, newMap);
-                }
-            }
-        }
-
-        Map<ValueID, List<Var>> newValToVar = new HashMap<ValueID, List<Var>>();
-        for(ValueID valID : valToVar.keySet()){
+        // A Var stays only if its variable (or array component) still has the same value after the join.
+        // Lists that lose nothing are kept as they are.
+        PersistentMap<ValueID, List<Var>> newValToVar = valToVar.copy();
+        for (Map.Entry<ValueID, List<Var>> entry : valToVar.entrySet()) {
+            ValueID valID = entry.getKey();
             List<Var> newList = new ArrayList<Var>();
-            for (Var v : valToVar.get(valID)) {
+            for (Var v : entry.getValue()) {
                 if (v.getIndex() == null) {
                     if (newVarToVal.get(v.getFieldDecl()) == valID) {
                         newList.add(v);
@@ -169,8 +157,12 @@ public class MapContainer {
                     }
                 }
             }
-            newValToVar.put(valID, newList);
+            if (newList.size() != entry.getValue().size()) {
+                newValToVar.put(valID, newList);
+            }
         }
-        return new MapContainer(newVarToVal, newExprToVal, newExprToTemp, newComponents, newValToVar, complete && otherContainer.complete);
+        MapContainer intersection = new MapContainer(newVarToVal, newExprToVal, newExprToTemp, newComponents, newValToVar, complete && otherContainer.complete);
+        intersection.globalVars = globalVars;
+        return intersection;
     }
 }
@@ -0,0 +1,119 @@
+package edu.mit.compilers.controlflow;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.atomic.AtomicLong;
+
+import edu.mit.compilers.tools.CompilerStats;
+
+/**
+ * Runs a piece of per-method work over every method of the program, either one method after
+ * another or on a ForkJoinPool.
+ *
+ * Methods only share the globals and callouts, which the per-method passes read but never write,
+ * so the work for one START doesn't depend on any other. Results always come back in the order
+ * of the list that was passed in, no matter which task finished first, so anything merged from
+ * them (instruction streams, label and string literal numbering) is the same for any parallelism.
+ */
+public class MethodScheduler {
+
+    /**
+     * Work to do on a single method.
+     */
+    public interface MethodTask<T, R> {
+        R run(T method);
+    }
+
+    private final int parallelism;
+    private final ForkJoinPool pool;
+    private final AtomicLong workerAllocatedBytes = new AtomicLong();
+    private volatile boolean countAllocations;
+
+    /**
+     * @param parallelism : number of worker threads. 1 runs everything on the calling thread,
+     * 0 or less uses one thread per available processor.
+     */
+    public MethodScheduler(int parallelism) {
+        if (parallelism <= 0) {
+            parallelism = Runtime.getRuntime().availableProcessors();
+        }
+        this.parallelism = parallelism;
+        this.pool = parallelism > 1 ? new ForkJoinPool(parallelism) : null;
+    }
+
+    public static MethodScheduler sequential() {
+        return new MethodScheduler(1);
+    }
+
+    public int getParallelism() {
+        return parallelism;
+    }
+
+    /**
+     * Makes every task run on a worker thread add the bytes it allocated to
+     * getWorkerAllocatedBytes(). Only --stats needs it, so it's off by default.
+     */
+    public void countAllocations() {
+        countAllocations = true;
+    }
+
+    /**
+     * Bytes allocated by tasks on the worker threads so far, summed over all workers. Tasks that
+     * ran on the calling thread aren't included. Stays 0 unless countAllocations was called.
+     */
+    public long getWorkerAllocatedBytes() {
+        return workerAllocatedBytes.get();
+    }
+
+    /**
+     * Runs the task on every method and returns the results in the same order as the methods.
+     * An exception thrown by any task is rethrown here once all of them are submitted.
+     * @param methods : methods to process, usually the STARTs of flowNodes.
+     * @param task : work to do on each method; must only touch state belonging to that method.
+     */
+    public <T, R> List<R> map(List<T> methods, final MethodTask<T, R> task) {
+        List<R> results = new ArrayList<R>(methods.size());
+        if (pool == null || methods.size() < 2) {
+            for (T method : methods) {
+                results.add(task.run(method));
+            }
+            return results;
+        }
+        List<ForkJoinTask<R>> submitted = new ArrayList<ForkJoinTask<R>>(methods.size());
+        for (final T method : methods) {
+            submitted.add(pool.submit(new Callable<R>() {
+                @Override
+                public R call() {
+                    // join() may run a task on the calling thread, which counts its own allocation
+                    if (!countAllocations || !ForkJoinTask.inForkJoinPool()) {
+                        return task.run(method);
+                    }
+                    long start = CompilerStats.threadAllocatedBytes();
+                    try {
+                        return task.run(method);
+                    } finally {
+                        if (start >= 0) {
+                            workerAllocatedBytes.addAndGet(CompilerStats.threadAllocatedBytes() - start);
+                        }
+                    }
+                }
+            }));
+        }
+        for (ForkJoinTask<R> future : submitted) {
+            results.add(future.join());
+        }
+        return results;
+    }
+
+    /**
+     * Stops the worker threads. The scheduler can't be used afterwards.
+     */
+    public void shutdown() {
+        if (pool != null) {
+            pool.shutdown();
+        }
+    }
+}
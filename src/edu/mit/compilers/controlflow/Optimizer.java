@@ -10,6 +10,7 @@ import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import edu.mit.compilers.codegen.CodegenConst;
 import edu.mit.compilers.codegen.Descriptor;
@@ -35,17 +36,30 @@ public class Optimizer {
     private List<IR_FieldDecl> globalList;
     private HashMap<String, START> flowNodes;
     
-    private int tempCounter = 0;
+    private MethodScheduler scheduler;
+    
+    private AtomicInteger livenessIterations = new AtomicInteger();
+    private AtomicInteger cseIterations = new AtomicInteger();
     /**
      * This is an constructor for optimizer. Once optimizations are done, it will call generateProgram with these parameters.  
      *  
      */
     public Optimizer(ControlflowContext context, 
             List<IR_MethodDecl> callouts, List<IR_FieldDecl> globals, HashMap<String, START> flowNodes){
+        this(context, callouts, globals, flowNodes, MethodScheduler.sequential());
+    }
+
+    /**
+     * Same as above, but DCE, CSE and liveness process the methods on the given scheduler.
+     */
+    public Optimizer(ControlflowContext context, 
+            List<IR_MethodDecl> callouts, List<IR_FieldDecl> globals, HashMap<String, START> flowNodes,
+            MethodScheduler scheduler){
         this.context = context;
         this.calloutList = callouts;
         this.globalList = globals;
         this.flowNodes = flowNodes;
+        this.scheduler = scheduler;
     }
 
     /**
@@ -332,17 +346,51 @@ public class Optimizer {
      * This is a compiler helper function which, given the set of all variable names already taken by the method,
      * returns a new, unique name for a temp variable each time it is called. 
      * 
+     * The new name is added to allVarNames, so the names only depend on the method and not on
+     * which methods were optimized before it.
+     * 
      * @param allVarNames : List of all names in the method being investigated
      * @return String : unique name to assign to a compiler-generated temporary variable
      */
     public String generateNextTemp(Set<String> allVarNames){
+        int tempCounter = allVarNames.size();
         String tempName = "temp" + tempCounter++;
         while(allVarNames.contains(tempName)){
             tempName = "temp" + tempCounter++;
         }
+        allVarNames.add(tempName);
         return tempName;
     }
 
+    /**
+     * Declares a new int temp at the top of a method, where CSE puts its temps too, so that it
+     * is in scope anywhere in the method. A Codeblock is put under the START if there is none.
+     * The temp is an ordinary local from then on: reaching definitions, liveness and the register
+     * allocator see its assignments and reads like those of any other variable.
+     *
+     * @param methodStart : START node of the method.
+     * @param allVarNames : names already taken in the method, as for generateNextTemp.
+     * @return Descriptor of the new temp.
+     */
+    public Descriptor declareTemp(START methodStart, Set<String> allVarNames){
+        IR_FieldDecl decl = new IR_FieldDecl(Type.INT, generateNextTemp(allVarNames));
+        FlowNode first = methodStart.getChildren().get(0);
+        Codeblock top;
+        if(first instanceof Codeblock){
+            top = (Codeblock) first;
+        }
+        else{
+            top = new Codeblock();
+            top.addParent(methodStart);
+            methodStart.removeChild(first);
+            methodStart.addChild(top);
+            top.addChild(first);
+            first.replaceParent(top, methodStart);
+        }
+        top.prependDeclaration(new Declaration(decl));
+        return new Descriptor(decl);
+    }
+
     /**
      * This method takes in a START node and traverses the codeflow representation that can be generated by repeatedly following all
      * the children of the method. As it traverses the flow, it looks for all variable names, and records each one it sees.
@@ -488,595 +536,149 @@ public class Optimizer {
         return copy;
     }
 
-    public boolean checkDominanceSetEquivalence(Set<FlowNode> older, Set<FlowNode> newer){
-        if(older.size() != newer.size()){
-            return false;
-        }
-
-        //If they're the same size, check that all the entries are the same
-        Iterator<FlowNode> oldIter = older.iterator();
-        while(oldIter.hasNext()){
-            FlowNode nextCheck = oldIter.next();
-            if(!newer.contains(nextCheck)){
-                return false;
-            }
+    /**
+     * Builds the immediate dominator tree of every method. LICM, loop detection and anything
+     * else that needs dominance should share these rather than recomputing sets.
+     * @param startsForMethods : List of START nodes for the given methods in the program.
+     * @return Map of each START to its DominatorTree.
+     */
+    public Map<START, DominatorTree> computeDominatorTrees(List<START> startsForMethods){
+        Map<START, DominatorTree> trees = new HashMap<START, DominatorTree>();
+        for(START methodStart : startsForMethods){
+            trees.put(methodStart, new DominatorTree(methodStart));
         }
-        return true;
+        return trees;
     }
 
+    /**
+     * Map of every FlowNode to the set of nodes that dominate it (itself included),
+     * read off the dominator tree of its method.
+     * @param startsForMethods : List of START nodes for the given methods in the program.
+     */
     public Map<FlowNode, Set<FlowNode>> computeDominationMap(List<START> startsForMethods){
         Map<FlowNode, Set<FlowNode>> dominanceMap = new HashMap<FlowNode, Set<FlowNode>>();
-        for(START methodStart : startsForMethods){
-            methodStart.totalVisitReset(); //for safety's sake
-            List<FlowNode> scanning = new ArrayList<FlowNode>();
-            Set<FlowNode> startDominatedBy = new LinkedHashSet<FlowNode>();
-            startDominatedBy.add(methodStart);
-            dominanceMap.put(methodStart, startDominatedBy); //D[N_0] = N_0
-            scanning.add(methodStart);
-            Set<FlowNode> allNodes = new LinkedHashSet<FlowNode>();
-
-            //Need to initialize all other nodes to have dominance[node] = {all nodes}.
-            //First, find out what {all nodes} is!
-            while(!scanning.isEmpty()){
-                FlowNode currentNode = scanning.remove(0);
-                currentNode.visit();
-                allNodes.add(currentNode);
-                for (FlowNode child : currentNode.getChildren()){
-                    if(!child.visited()){
-                        scanning.add(child);
-                    }
-                }
-            }
-            methodStart.resetVisit(); //reset visit
-            scanning.addAll(methodStart.getChildren()); // get the children of method start since it's actually already completely done, don't want to reprocess
-            //First step in domination algorithm; set dominance[non-start node] = {all other nodes}
-            while(!scanning.isEmpty()){
-                FlowNode currentNode = scanning.remove(0);
-                currentNode.visit();
-                Set<FlowNode> listForNode = new LinkedHashSet<FlowNode>();
-                listForNode.addAll(allNodes);
-                dominanceMap.put(currentNode, listForNode);
-                for (FlowNode child : currentNode.getChildren()){
-                    if(!child.visited()){
-                        scanning.add(child);
-                    }
-                }
+        for(DominatorTree tree : computeDominatorTrees(startsForMethods).values()){
+            for(FlowNode node : tree.getNodes()){
+                dominanceMap.put(node, tree.getDominators(node));
             }
-            methodStart.resetVisit();
-
-            //At this point, we've completed the initialization phase; for the start node, it is only dominated by itself,
-            //the other nodes are all dominated by all other nodes. Now we iterate.
-            scanning.addAll(methodStart.getChildren());
-            while(!scanning.isEmpty()){
-                FlowNode currentNode = scanning.remove(0);
-                currentNode.visit();
-                Set<FlowNode> oldDominatedBy = dominanceMap.get(currentNode); //record what the old dominance listing is
-                Set<FlowNode> newDominatedBy = new LinkedHashSet<FlowNode>(); //make a brand new one we'll be replacing old with
-                newDominatedBy.add(currentNode); //put self in new dominance listing
-                List<FlowNode> predecessorIntersect = new ArrayList<FlowNode>(); //make new list we'll do the intersect part of the algorithm with
-                predecessorIntersect.addAll(dominanceMap.get(currentNode.getParents().get(0))); //get dominance mapping for first parent
-                for(FlowNode parent : currentNode.getParents()){ //for all the parents,
-                    predecessorIntersect.retainAll(dominanceMap.get(parent)); //intersect their dominatedBy vectors
-                }
-                newDominatedBy.addAll(predecessorIntersect); //Set union: self U dominators of predecessors	
-                dominanceMap.put(currentNode, newDominatedBy);
-                boolean changed = !checkDominanceSetEquivalence(oldDominatedBy, newDominatedBy); //if they are equivalent, they have not changed.
-
-                if(changed){
-                    for(FlowNode child : currentNode.getChildren()){
-                        scanning.add(child); //if changed, visit children regardless, may change them too, such as in loops
-                    }
-                }
-
-                else{
-                    for(FlowNode child : currentNode.getChildren()){
-                        if(!child.visited){
-                            scanning.add(child); //if no change, don't need to revisit children that we've already seen.
-                        }
-                    }
-                }
-            }
-            //Before we move to next start, do a reset.
-            methodStart.resetVisit();
         }
         return dominanceMap;
     }
 
-    private List<FlowNode> getAllNodesInLoop(Branch header) {
-        List<FlowNode> loopBody = new ArrayList<FlowNode>();
-        loopBody.add(header);
-        List<FlowNode> processing = new ArrayList<FlowNode>();
-        processing.add(header.getTrueBranch());
-        while (!processing.isEmpty()) {
-            FlowNode currentNode = processing.remove(0);
-            if (currentNode instanceof START) {
-                loopBody.add(currentNode);
-                processing.add(currentNode.getChildren().get(0));
-            } else if (currentNode instanceof Codeblock) {
-                loopBody.add(currentNode);
-                if (!((Codeblock) currentNode).getIsBreak()) {
-                    processing.addAll(currentNode.getChildren());
-                }
-            } else if (currentNode instanceof Branch) {
-                if (currentNode == header) {
-                    continue;
-                }
-                loopBody.add(currentNode);
-                processing.addAll(currentNode.getChildren());
-            } else if (currentNode instanceof NoOp) {
-                loopBody.add(currentNode);
-                processing.addAll(currentNode.getChildren());
-            } else if (currentNode instanceof END) {
-                loopBody.add(currentNode);
-            }
-        }
-        return loopBody;
-    }
-    
-    private Set<IR_FieldDecl> getVarsModifiedInLoop(Branch header) {
-        Set<IR_FieldDecl> ans = new HashSet<IR_FieldDecl>();
-        if (containsMethodCall(header.getExpr())) {
-            ans.addAll(globalList);
-        }
-        List<FlowNode> loopBody = new ArrayList<FlowNode>();
-        for (FlowNode f : loopBody) {
-            if (f instanceof Codeblock) {
-                for (Statement s : ((Codeblock) f).getStatements()) {
-                    if (s instanceof Assignment) {
-                        Assignment assn = (Assignment) s;
-                        ans.add(assn.getDestVar().getFieldDecl());
-                        if (containsMethodCall(assn.getValue())) {
-                            ans.addAll(globalList);
-                        }
-                    } else if (s instanceof MethodCallStatement) {
-                        ans.addAll(globalList);
-                    }
-                }
-            } else if (f instanceof Branch) {
-                if (containsMethodCall(((Branch) f).getExpr())) {
-                    ans.addAll(globalList);
-                }
-            }  else if (f instanceof END) {
-                if (containsMethodCall(((END) f).getReturnExpression())) {
-                    ans.addAll(globalList);
-                }
-            }
-        }
-        return ans;
-    }
-    
-    public void hoistInvariantCode(List<Declaration> declsToMove, List<Assignment>assignsToMove, Branch loopHeader){
-    	FlowNode potAssignmentsHere = findUpperParent(loopHeader);
-    	Codeblock declarationsHere = topOfScopeForBranch(loopHeader);
-    	if(!(potAssignmentsHere instanceof Codeblock)){
-    		Codeblock assignmentsHere = new Codeblock();
-    		assignmentsHere.addParent(potAssignmentsHere);
-    		assignmentsHere.addChild(loopHeader);
-    		potAssignmentsHere.getChildren().remove(loopHeader);
-    		potAssignmentsHere.getChildren().add(assignmentsHere);
-    		loopHeader.removeParent(potAssignmentsHere);
-    		loopHeader.addParent(assignmentsHere);
-    		for(Declaration decl : declsToMove){
-        		declarationsHere.addStatement(decl);
-        	}
-        	for(Assignment assign : assignsToMove){
-        		assignmentsHere.addStatement(assign);
-        	}
-    	}
-    }
-    
-    public boolean applyLICM(List<START> startsForMethods){
-    	for(START initialNode : startsForMethods){
-    		List<Branch> loopHeaders = new ArrayList<Branch>(); //gotta find those headers
-    		List<FlowNode> scanning = new ArrayList<FlowNode>(); //going to scan for them
-    		scanning.addAll(initialNode.getChildren());
-    		while(!scanning.isEmpty()){
-    			FlowNode currentNode = scanning.remove(0);
-    			currentNode.visit();
-    			if(currentNode instanceof Branch){
-    				Branch potHeader = (Branch)currentNode; //potential header
-    				if(!(potHeader.getType() == BranchType.IF)){ //if not an if, it's a header
-    					loopHeaders.add(potHeader);
-    				}
-    			}
-    			for(FlowNode child : currentNode.getChildren()){
-    				if(!child.visited){
-    					scanning.add(child);
-    				}
-    			}
-    		}
-    		initialNode.resetVisit(); //we tampered with visits, fix them.
-    		for(Branch loopHeader : loopHeaders){ 
-    			List<Declaration> declsToMove = new ArrayList<Declaration>(); //yay containers
-        		List<Assignment> assignsToMove = new ArrayList<Assignment>(); //another container whee
-        		Set<IR_FieldDecl> varsModifiedInLoop = getVarsModifiedInLoop(loopHeader);
-        		//Now we know all the flownodes in the loop and all the variables modified in the loop. 
-        		List<FlowNode> processing = new ArrayList<FlowNode>();
-        		processing.add(loopHeader.getTrueBranch());
-        		Set<IR_FieldDecl> usedVars = new HashSet<IR_FieldDecl>();
-        		usedVars.addAll(getVarIRsFromExpression(loopHeader.getExpr()));
-        		while(!processing.isEmpty());
-        		{
-        			FlowNode currentNode = processing.remove(0);
-        			
-        			if(currentNode instanceof Codeblock){
-        				Codeblock c = (Codeblock)currentNode;
-        				Iterator<Statement> stateIter = c.getStatements().iterator();
-        				List<IR_FieldDecl> declIRsToDelete = new ArrayList<IR_FieldDecl>();
-        				while(stateIter.hasNext()){
-        					Statement next = stateIter.next();
-        					if(next instanceof Assignment){
-        						boolean hoistable = true;
-        						Assignment assign = (Assignment)next;
-        						if(containsMethodCall(assign.getValue())){continue;}
-        						List<IR_FieldDecl> rhsVars = getVarIRsFromExpression(assign.getValue());
-        						
-        						for(IR_FieldDecl var : rhsVars){
-        							if(usedVars.contains(var)){
-        								hoistable = false;
-        								usedVars.addAll(rhsVars);
-        								break;
-        							}
-        						}
-        							
-        						if(hoistable){
-        							IR_FieldDecl assignLHS = assign.getDestVar().getFieldDecl();
-            						declsToMove.add(new Declaration(assignLHS));
-            						declIRsToDelete.add(assignLHS);
-            						assignsToMove.add(assign);
-            						stateIter.remove();
-            					}
-        					}
-        					
-        					
-        					else if(next instanceof MethodCallStatement){
-        						MethodCallStatement nextCall = (MethodCallStatement)next;
-        						List<Expression> methodArgs = nextCall.getMethodCall().getArguments();
-        						for(Expression arg : methodArgs)
-        						usedVars.addAll(getVarIRsFromExpression(arg));
-        					}
-        					
-        					//ignore decls as we go. wheeeeee
-        				}
-        				//clear up decls we're hoisting
-        				if(!declIRsToDelete.isEmpty()){
-        					Iterator<Statement> declDeletor = c.getStatements().iterator();
-        					while(declDeletor.hasNext()){
-        						Statement next = declDeletor.next();
-        						if(!(next instanceof Declaration)){continue;}
-        						Declaration decl = (Declaration)next;
-        						if(declIRsToDelete.contains(decl.getFieldDecl())){
-        							declDeletor.remove();
-        							declIRsToDelete.remove(decl.getFieldDecl());
-        							if(declIRsToDelete.isEmpty()){break;}
-        						}
-        					}
-        				}
-        			}
-        			
-        			else if(currentNode instanceof Branch){
-        				Branch b = (Branch)currentNode;;
-        				usedVars.addAll(getVarIRsFromExpression(b.getExpr()));
-        				if(b.getType() == BranchType.IF){
-        					NoOp nextChild = Assembler.findNop(b);
-        					if(!nextChild.visited){
-        						processing.add(nextChild);
-        					}
-        				}
-        				else{
-        					for(FlowNode nextChild : b.getChildren()){
-        						if(!nextChild.visited){
-            						processing.add(nextChild);
-            					}
-        					}
-        				}
-        			}
-        			else if(currentNode instanceof START){
-        				START s = (START)currentNode;
-        				usedVars.addAll(s.getArguments());
-        			}
-        			else if(currentNode instanceof END){
-        				continue;
-        			}
-        			else if(currentNode instanceof NoOp){
-        				for(FlowNode nextChild : currentNode.getChildren()){
-    						if(!nextChild.visited){
-        						processing.add(nextChild);
-        					}
-    					}
-        			}
-        		}
-        		//Hoist before doing reset and moving to next branch.
-        		hoistInvariantCode(declsToMove, assignsToMove, loopHeader);
-        		initialNode.totalVisitReset(); //need to use the guaranteed full reset version since we're doing non-standard iteration
-    		}
-    	}
-    	return true;
-    }
-    
     /**
      * In order to do loop optimizations, one must first find the loops.
-     * This method takes in startsForMethods and for each branch, finds the loop 
-     * it begins, if one exists. It needed such a specific return type because apparently triple nesting things is too hard
-     * for Eclipse to figure out.
-     * 
+     * This method takes in startsForMethods and, for each method, finds every back edge
+     * (an edge whose target dominates its source) into a loop Branch. The loop is the header plus
+     * every node that can reach the back edge's source without going through the header.
      * 
-     * @param startsForMethods
-     * @return
+     * @param startsForMethods : List of START nodes for the given methods in the program.
+     * @return one Map per method, from loop header Branch to the FlowNodes in that loop (header first).
      */
     public List<HashMap<Branch, List<FlowNode>>> findLoops(List<START> startsForMethods){
         List<HashMap<Branch, List<FlowNode>>> loopContainer = new ArrayList<HashMap<Branch, List<FlowNode>>>();
-        //TODO TODO TODO TODO TODO TODO NOT DONE YET TODO TODO
         for(START methodStart : startsForMethods){
-            methodStart.totalVisitReset(); //just in case
-            List<FlowNode> scanning = new ArrayList<FlowNode>(); //Need to find all the Branches before we can do anything more.
-            scanning.add(methodStart);
-            Set<Branch> branchNodes = new LinkedHashSet<Branch>();
-            while(!scanning.isEmpty()){
-                FlowNode currentNode = scanning.remove(0);
-                currentNode.visit();
-                if(currentNode instanceof Branch){
-                    branchNodes.add((Branch)currentNode);
-                }
+            loopContainer.add(findLoops(new DominatorTree(methodStart)));
+        }
+        return loopContainer;
+    }
 
-                for (FlowNode child : currentNode.getChildren()){
-                    if(!child.visited()){
-                        scanning.add(child);
+    /**
+     * Finds the natural loops of one method given its dominator tree.
+     * @param tree : DominatorTree of the method.
+     * @return Map from loop header Branch to the FlowNodes in that loop (header first).
+     */
+    public HashMap<Branch, List<FlowNode>> findLoops(DominatorTree tree){
+        HashMap<Branch, List<FlowNode>> loops = new HashMap<Branch, List<FlowNode>>();
+        for(FlowNode node : tree.getNodes()){
+            for(FlowNode child : node.getChildren()){
+                if(!(child instanceof Branch) || !tree.dominates(child, node)){
+                    continue;
+                }
+                Branch header = (Branch)child;
+                List<FlowNode> body = loops.get(header);
+                if(body == null){
+                    body = new ArrayList<FlowNode>();
+                    body.add(header);
+                    loops.put(header, body);
+                }
+                Set<FlowNode> inLoop = new HashSet<FlowNode>(body);
+                List<FlowNode> processing = new ArrayList<FlowNode>();
+                if(inLoop.add(node)){
+                    body.add(node);
+                    processing.add(node);
+                }
+                while(!processing.isEmpty()){
+                    FlowNode current = processing.remove(processing.size() - 1);
+                    for(FlowNode parent : tree.getPredecessors(current)){
+                        if(inLoop.add(parent)){
+                            body.add(parent);
+                            processing.add(parent);
+                        }
                     }
                 }
             }
-            methodStart.resetVisit();
-            //TODO
-            //At this point, we've acquired a list of all branches. Some of these will not be loops; need a way to tell.
-            //Due to time constraints, we'll use naive solution of jus tsearching till we find  the path.
         }
-        return loopContainer;
+        return loops;
     }
     
+    /**
+     * Total number of node evaluations every liveness analysis run by this Optimizer has needed so far.
+     */
+    public int getLivenessIterations(){
+        return livenessIterations.get();
+    }
+
+    /**
+     * Total number of nodes taken off the CSE worklist so far.
+     */
+    public int getCSEIterations(){
+        return cseIterations.get();
+    }
+
     public Map<START, Map<FlowNode, Bitvector>> generateLivenessMap(List<START> startsForMethods){
     	return generateLivenessMap(startsForMethods, false);
     }
 
     /**
      * This is the method we'll be actually using to generate liveness vectors to do DCE. 
-     * It works backwards in reverse from each END in the program. 
-     * It uses a bit vector representation of liveness and traces through the code,
-     * calculating liveness until there is convergence.
+     * For each method it runs a LivenessAnalysis, which walks the FlowNodes backwards with a
+     * postorder worklist until the bit vectors stop changing, so every node ends with its exact fixpoint.
+     * The methods are analyzed on this Optimizer's MethodScheduler.
      * 
-     * Currently does NOT handle dead declarations (there's a justification for that, actually)
-     * and has not yet been tested. 
+     * Currently does NOT handle dead declarations (there's a justification for that, actually).
      * 
      * @param startsForMethods : List of START nodes for the given methods in the program. 
-     * @return 
+     * @param registerAllocationMode : if true, each Assignment, MethodCallStatement and Branch also gets the
+     * vector live right after it.
+     * @return Map of START to a Map<FlowNode, Bitvector> holding the variables live at the exit of each node.
      */
-    public Map<START, Map<FlowNode, Bitvector>> generateLivenessMap(List<START> startsForMethods, boolean registerAllocationMode){
+    public Map<START, Map<FlowNode, Bitvector>> generateLivenessMap(List<START> startsForMethods, final boolean registerAllocationMode){
         Map<START, Map<FlowNode, Bitvector>> liveStorage = new HashMap<START, Map<FlowNode, Bitvector>>();
-        for(START methodStart : startsForMethods){
-            Map<FlowNode, Integer> ticksForRevisit = new HashMap<FlowNode, Integer>();
-            Map<FlowNode, Bitvector> vectorStorageIN = new HashMap<FlowNode, Bitvector>(); //set up place to store maps for input from children
-            Map<FlowNode, Bitvector> vectorStorageOUT = new HashMap<FlowNode, Bitvector>(); //set up place to store maps for output from blocks
-            //First things first: We will be called from DCE or another optimization, so reset visits before we do anything else.
-            methodStart.totalVisitReset();
-            List<FlowNode> scanning = new ArrayList<FlowNode>(); //Need to find all the ENDs before we can do anything more.
-            scanning.add(methodStart);
-            Set<END> endNodes = new LinkedHashSet<END>();
-            Set<IR_FieldDecl> allVars = getAllFieldDeclsInMethod(methodStart);
-            Bitvector zeroVector = new Bitvector(allVars); //Initializes all slots to 0 in constructor.
-            while(!scanning.isEmpty()){ //scan through all nodes and track which ones are ENDs.
-                FlowNode currentNode = scanning.remove(0);
-                currentNode.visit();
-                if(!vectorStorageIN.containsKey(currentNode)){
-                    vectorStorageIN.put(currentNode, zeroVector.copyBitvector()); //Set bitvectors to all zeros
-                }
-                if(!vectorStorageOUT.containsKey(currentNode)){
-                    vectorStorageOUT.put(currentNode, zeroVector.copyBitvector());
-                }
-                if(currentNode instanceof END){ 
-                    endNodes.add((END)currentNode);
-                }
-                for (FlowNode child : currentNode.getChildren()){
-                    if(!child.visited()){
-                        scanning.add(child);
-                    }
-                }
+        List<Map<FlowNode, Bitvector>> liveOutMaps = scheduler.map(startsForMethods,
+                new MethodScheduler.MethodTask<START, Map<FlowNode, Bitvector>>() {
+            @Override
+            public Map<FlowNode, Bitvector> run(START methodStart) {
+                return computeLiveness(methodStart, registerAllocationMode);
             }
-
-            for(END initialNode : endNodes){
-                methodStart.totalVisitReset(); //Need to fix the visits since we just tampered with them.
-                for(FlowNode node : vectorStorageIN.keySet()){
-                    ticksForRevisit.put(node, 0); //set up/ reset the ticker so we can see if we want to do revisits
-                }
-                Bitvector liveVector = vectorStorageIN.get(initialNode); //set up the bitvector. Initialized to any current values.
-                if(initialNode.getReturnExpression() != null){
-                    for(IR_FieldDecl returnVar : getVarIRsFromExpression(initialNode.getReturnExpression())){
-                        liveVector.setVectorVal(returnVar, 1); //things returned must be alive on exit, so set their vector to 1
-                        //System.err.printf("Set variable %s's bitvector entry to 1 due to use in END return statement." + System.getProperty("line.separator"), returnVar.getName());
-                    }
-                }
-                for (IR_FieldDecl global : globalList){
-                    liveVector.setVectorVal(global, 1);
-                }
-                for(IR_FieldDecl argument : methodStart.getArguments()){
-                    liveVector.setVectorVal(argument, 1);
-                }
-                //Since we move from top to bottom, OUT is what propagates upward, where it is part of the IN of the next block.
-                vectorStorageOUT.put(initialNode, liveVector.copyBitvector().vectorUnison(vectorStorageOUT.get(initialNode)));
-                //Now we've set up everything from the end of the program, assuming working on only one END at a time. Now we walk backwards. 
-                List<FlowNode> processing = new ArrayList<FlowNode>();
-                for(FlowNode parent : initialNode.getParents()){
-                    processing.add(parent);
-                }
-                FlowNode previousNode = initialNode;
-                while(!processing.isEmpty()){
-                    FlowNode currentNode = processing.remove(0);
-                    currentNode.visit();
-                    if(currentNode.getChildren().size() == 1){
-                        liveVector = vectorStorageOUT.get(currentNode.getChildren().get(0)).copyBitvector();
-                    }
-                    else{
-                        liveVector = Bitvector.childVectorUnison(currentNode.getChildren(), vectorStorageOUT, vectorStorageIN.get(currentNode));
-                    }
-                    Bitvector previousIN = vectorStorageIN.get(currentNode).copyBitvector();
-                    vectorStorageIN.put(currentNode, liveVector.copyBitvector().vectorUnison(vectorStorageIN.get(currentNode)));
-                    boolean canSkipReprocessFlag = previousIN.compareBitvectorEquality(vectorStorageIN.get(currentNode));
-                    boolean skipNode = false;
-                    if(canSkipReprocessFlag){
-                        if(ticksForRevisit.get(currentNode).equals(0)){
-                            //System.err.println("The current node's IN has not changed since last processing. We will compute at most three times to be safe.");
-                            ticksForRevisit.put(currentNode, 1);
-                        }
-                        else if(ticksForRevisit.get(currentNode).equals(1)){
-                            //System.err.println("The current node's IN has not changed since last processing, and has been processed once. Two more computations to be safe.");
-                            ticksForRevisit.put(currentNode, 2);
-                        }
-                        else if(ticksForRevisit.get(currentNode).equals(2)){
-                            //System.err.println("We have processed this node at least twice, and no changes have occurred to its IN. Last attempt at reprocessing.");
-                            ticksForRevisit.put(currentNode, 3);
-                        }
-                        else if(ticksForRevisit.get(currentNode).equals(3) || ticksForRevisit.get(currentNode) > 3){
-                            //System.err.println("We have processed this node at least three times. No further reprocessing is required.");
-                            skipNode = true;
-                            ticksForRevisit.put(currentNode, 4);
-                        }
-                    }
-                    if (previousNode == currentNode){
-                        ticksForRevisit.put(currentNode, ticksForRevisit.get(currentNode)+1);
-                        if(ticksForRevisit.get(currentNode).equals(4) || ticksForRevisit.get(currentNode) > 4){
-                            //System.err.println("We have processed this node at least three times, and have detected self-looping. No further reprocessing is required.");
-                            skipNode = true;
-                        }
-                    }
-                    if(skipNode){
-                        //System.err.println("SKIPPING NODE " + currentNode);
-                        for(FlowNode parent : currentNode.getParents()){
-                            if(!parent.visited()){
-                                if(!processing.contains(parent)){
-                                    processing.add(parent);
-                                    //System.err.println("Just added parent " + parent + "of current node " + currentNode);
-                                }
-                            }
-                        }
-                        continue;
-                    }
-                    if(currentNode instanceof Codeblock){
-                        Codeblock cblock = (Codeblock)currentNode;
-                        List<Statement> statementList = cblock.getStatements();
-                        Collections.reverse(statementList); //reverse the list so we can go backwards through it
-                        Iterator<Statement> statementIter = statementList.iterator();
-                        while(statementIter.hasNext()){
-                            Statement currentState = statementIter.next();
-                            if(currentState instanceof Assignment){
-                            	if (registerAllocationMode) {
-                            		currentState.setLiveMap(liveVector.copyBitvector()); // Set live vector of current statement
-                            	}
-                                Assignment assign = (Assignment)currentState;
-                                IR_FieldDecl lhs = assign.getDestVar().getFieldDecl();
-                                List<IR_FieldDecl> varsInRHS = getVarIRsFromExpression(assign.getValue());
-                                Set<IR_FieldDecl> rhsDecls = new LinkedHashSet<IR_FieldDecl>();
-                                //LEFT HAND FIRST LOGIC
-                                if(liveVector.get(lhs) == 1 || (liveVector.get(lhs) == 0 && containsMethodCall(assign.getValue()))){ //If this is alive, MAY need to flip the bit
-                                    for(IR_FieldDecl varDecl : varsInRHS){
-                                        liveVector.setVectorVal(varDecl, 1); //rhs if we changed it is not alive, because the assignment as a whole is dead.
-                                        //System.err.printf("Bitvector entry for variable %s has been set to 1 in building phase due to use in live assigment OR one with method call." + System.getProperty("line.separator"), varName);
-                                        rhsDecls.add(varDecl);
-                                    }
-                                    if(assign.getDestVar().getIndex() != null){
-                                        for (IR_FieldDecl index : getVarIRsFromExpression(assign.getDestVar().getIndex()))
-                                            liveVector.setVectorVal(index, 1);
-                                    }
-                                    if(!rhsDecls.contains(lhs) && assign.getDestVar().getIndex() == null && assign.getOperator() != Ops.ASSIGN_MINUS && assign.getOperator() != Ops.ASSIGN_PLUS){
-                                        liveVector.setVectorVal(lhs, 0);
-                                        //System.err.printf("Bitvector entry for variable %s has been flipped from 1 to 0 in building phase by an assignment that does not expose an upwards use and is not an array." + System.getProperty("line.separator"), lhs);
-                                    }
-                                    else{
-                                        //System.err.printf("Bitvector entry for variable %s has not been flipped and remains 1 due to exposed upward use in RHS, or being an array." + System.getProperty("line.separator"), lhs);
-                                    }
-                                }									
-                            }
-
-                            else if(currentState instanceof Declaration){ 
-                                //if var declared isn't ever alive, could remove the decl; but no time to work it out and debug 
-                            }
-
-                            else if(currentState instanceof MethodCallStatement){ //set liveness vectors for the args
-                                MethodCallStatement mcall = (MethodCallStatement)currentState;
-                                List<Expression> args = mcall.getMethodCall().getArguments();
-                                Set<IR_FieldDecl> varsInArgs = new LinkedHashSet<IR_FieldDecl>();
-                                for(Expression expr : args){
-                                    varsInArgs.addAll(getVarIRsFromExpression(expr));
-                                }
-                                for(IR_FieldDecl varDecl : varsInArgs){
-                                    liveVector.setVectorVal(varDecl, 1); //If not already alive, mark an argument as alive. 
-                                    //System.err.printf("Bitvector entry for variable %s has been set to 1 in building phase by a method call." + System.getProperty("line.separator"), varDecl.getName());
-                                }
-                            }
-                        }
-                        Collections.reverse(statementList); //We reversed the list to iterate through it backwards, so fix it before we move on!
-                    }
-
-                    else if (currentNode instanceof Branch){ //join point. Live vector would be handled before we got here by unisonVector, so assume we're golden.
-                        Branch cBranch = (Branch)currentNode;
-                        for(IR_FieldDecl varDecl : getVarIRsFromExpression(cBranch.getExpr())){
-                            liveVector.setVectorVal(varDecl, 1); //anything showing up in a branch expression is used by definition, otherwise prog is invalid.
-                            //System.err.printf("Just set variable %s 's bitvector to 1 in building phase due to usage in a branch condition." + System.getProperty("line.separator"), varDecl.getName());
-                        }
-                    }
-
-                    else if(currentNode instanceof NoOp){ //split point. No expr here, so don't have to scan it.
-                        //Do nothing, just move onward to post-block processing.
-                    }
-
-                    else if(currentNode instanceof START){
-                        START cStart = (START)currentNode;
-                        List<IR_FieldDecl> args = cStart.getArguments();
-                        for (IR_FieldDecl arg : args){
-                            liveVector.setVectorVal(arg, 1); 
-                            //System.err.printf("Just set variable %s 's bitvector to 1 in building phase due to a START." + System.getProperty("line.separator"), arg.getName());
-                        }	
-                    }
-
-                    else if(currentNode instanceof END){
-                        END cEnd = (END)currentNode;
-                        if(cEnd.getReturnExpression() != null){
-                            for(IR_FieldDecl varDecl : getVarIRsFromExpression(cEnd.getReturnExpression())){
-                                liveVector.setVectorVal(varDecl, 1);
-                                //System.err.printf("Just set variable %s 's bitvector to 1 in building phase. due to an END." + System.getProperty("line.separator"), varDecl.getName());
-                            }
-                        }
-                    }
-
-                    boolean changed;
-                    Bitvector previousOut = vectorStorageOUT.get(currentNode).copyBitvector();
-                    Bitvector newOut = liveVector.vectorUnison(previousOut);
-                    changed = !previousOut.compareBitvectorEquality(newOut);
-                    vectorStorageOUT.put(currentNode, newOut);
-                    if(!changed){
-                        for(FlowNode parent : currentNode.getParents()){
-                            if(!parent.visited()){
-                                if(!processing.contains(parent)){
-                                    processing.add(parent);
-                                    //System.err.println("Just added parent " + parent + "of current node " + currentNode);
-                                }
-                            }
-                        }
-                    }
-                    else{						
-                        //System.err.println("Finished processing " + currentNode + "whose bitvector OUT did change.");
-                        for(FlowNode parent : currentNode.getParents()){
-                            if(!processing.contains(parent)){
-                                processing.add(parent);
-                                //System.err.println("Just added parent " + parent + "of current node " + currentNode);
-                            }
-                        }
-                    }
-                    previousNode = currentNode;
-                }
-            }
-            liveStorage.put(methodStart, vectorStorageIN);
-            methodStart.totalVisitReset(); //fix all the visited nodes before we go to next START.
+        });
+        for(int i = 0; i < startsForMethods.size(); i++){
+            liveStorage.put(startsForMethods.get(i), liveOutMaps.get(i));
         }
         return liveStorage;
-        //return vectorStorageIN;
+    }
+
+    /**
+     * Liveness for a single method; see generateLivenessMap.
+     * @return Map<FlowNode, Bitvector> holding the variables live at the exit of each node of the method.
+     */
+    private Map<FlowNode, Bitvector> computeLiveness(START methodStart, boolean registerAllocationMode){
+        //We will be called from DCE or another optimization, so reset visits before we do anything else.
+        methodStart.totalVisitReset();
+        Set<IR_FieldDecl> allVars = getAllFieldDeclsInMethod(methodStart);
+        LivenessAnalysis liveness = new LivenessAnalysis(this, globalList, methodStart.getArguments(), allVars, registerAllocationMode);
+        livenessIterations.addAndGet(liveness.solve(methodStart));
+        methodStart.totalVisitReset(); //fix all the visited nodes before we go to next START.
+        return liveness.getLiveOutMap();
     }
 
     /**
@@ -1093,95 +695,109 @@ public class Optimizer {
      */
     public boolean applyDCE(List<START> startsForMethods){
         boolean anythingRemoved = false;
-        //System.err.println("====================================ENTERING MAP SETUP PHASE===================================");
-        Map<START, Map<FlowNode, Bitvector>> livenessMap = generateLivenessMap(startsForMethods);
-        //System.err.println("====================================MAP SETUP COMPLETE. NOW EXECUTING==========================");
-        for (START initialNode : startsForMethods){
-            Set<Codeblock> listOfCodeblocks = new LinkedHashSet<Codeblock>();
-            Map<FlowNode, Bitvector> liveness = livenessMap.get(initialNode);
-            if(liveness == null){
-                System.err.println("BUG DETECTED BUG DETECTED!!! liveness for this particular initialNode is NULL.");
+        List<Boolean> removed = scheduler.map(startsForMethods, new MethodScheduler.MethodTask<START, Boolean>() {
+            @Override
+            public Boolean run(START initialNode) {
+                return applyDCE(initialNode, computeLiveness(initialNode, false));
             }
-            List<FlowNode> scanning = new ArrayList<FlowNode>(); //Need to find all the Codeblocks
-            scanning.add(initialNode);
-            while(!scanning.isEmpty()){ //scan through all nodes and create listing.
-                FlowNode currentNode = scanning.remove(0);
-                currentNode.visit();
-                //System.err.println("Now visiting " + currentNode);
-                if(currentNode instanceof Codeblock){
-                    listOfCodeblocks.add((Codeblock)currentNode);
-                }
-                for (FlowNode child : currentNode.getChildren()){
-                    if(!child.visited()){
-                        scanning.add(child);
-                    }
+        });
+        for (boolean methodRemoved : removed) {
+            anythingRemoved = methodRemoved || anythingRemoved;
+        }
+        return anythingRemoved;
+        //return Assembler.generateProgram(calloutList, globalList, flowNodes);
+    }
+
+    /**
+     * DCE on a single method; see applyDCE(List<START>).
+     * @param initialNode : START node of the method.
+     * @param liveness : variables live at the exit of each of the method's nodes.
+     * @return whether any statement was removed.
+     */
+    private boolean applyDCE(START initialNode, Map<FlowNode, Bitvector> liveness){
+        boolean anythingRemoved = false;
+        Set<Codeblock> listOfCodeblocks = new LinkedHashSet<Codeblock>();
+        if(liveness == null){
+            System.err.println("BUG DETECTED BUG DETECTED!!! liveness for this particular initialNode is NULL.");
+        }
+        List<FlowNode> scanning = new ArrayList<FlowNode>(); //Need to find all the Codeblocks
+        scanning.add(initialNode);
+        while(!scanning.isEmpty()){ //scan through all nodes and create listing.
+            FlowNode currentNode = scanning.remove(0);
+            currentNode.visit();
+            //System.err.println("Now visiting " + currentNode);
+            if(currentNode instanceof Codeblock){
+                listOfCodeblocks.add((Codeblock)currentNode);
+            }
+            for (FlowNode child : currentNode.getChildren()){
+                if(!child.visited()){
+                    scanning.add(child);
                 }
             }
-            initialNode.resetVisit(); //fix the visited parameters.
-            ///System.err.println("BEFORE ITERATION");
-            //System.err.println(liveness.get(initialNode.getChildren().get(0)));
-            //System.err.println(initialNode.getChildren().get(0));
-            for (Codeblock cblock : listOfCodeblocks){
-                //System.err.println("NOW CHECKING " + cblock);
-                Bitvector liveCheck = liveness.get(cblock);
-                List<Statement> statementList = cblock.getStatements();
-                Collections.reverse(statementList);
-                Iterator<Statement> statementIter = statementList.iterator();
-                while(statementIter.hasNext()){
-                    Statement currentState = statementIter.next();
-                    if(currentState instanceof Assignment){
-                        Assignment assign = (Assignment)currentState;
-                        IR_FieldDecl lhs = assign.getDestVar().getFieldDecl();
-                        if(liveCheck.get(lhs) == null){
-                            throw new UnsupportedOperationException("liveCheck.get(" +  lhs.getName() + ") is null!");
+        }
+        initialNode.resetVisit(); //fix the visited parameters.
+        ///System.err.println("BEFORE ITERATION");
+        //System.err.println(liveness.get(initialNode.getChildren().get(0)));
+        //System.err.println(initialNode.getChildren().get(0));
+        for (Codeblock cblock : listOfCodeblocks){
+            //System.err.println("NOW CHECKING " + cblock);
+            Bitvector liveCheck = liveness.get(cblock);
+            List<Statement> statementList = cblock.getStatements();
+            Collections.reverse(statementList);
+            Iterator<Statement> statementIter = statementList.iterator();
+            while(statementIter.hasNext()){
+                Statement currentState = statementIter.next();
+                if(currentState instanceof Assignment){
+                    Assignment assign = (Assignment)currentState;
+                    IR_FieldDecl lhs = assign.getDestVar().getFieldDecl();
+                    if(liveCheck.get(lhs) == null){
+                        throw new UnsupportedOperationException("liveCheck.get(" +  lhs.getName() + ") is null!");
+                    }
+                    else if(liveCheck.get(lhs) == 0 && !(containsMethodCall(assign.getValue()))){
+                        statementIter.remove();
+                        anythingRemoved = true;
+                        //System.err.printf("Assignment to variable %s has been removed; it was a dead assignment with no method call." + System.getProperty("line.separator"), assign.getDestVar().getName());
+                    }
+                    else{
+                        List<IR_FieldDecl> rhsDecls = new ArrayList<IR_FieldDecl>();
+                        for(IR_FieldDecl varDecl : getVarIRsFromExpression(assign.getValue())){
+                            liveCheck.setVectorVal(varDecl, 1);
+                            //System.err.printf("Bitvector entry for variable %s has been set to 1 by use in assignment." + System.getProperty("line.separator"), varName);
+                            rhsDecls.add(varDecl);
+                        }
+                        if(assign.getDestVar().getIndex() != null){
+                            for (IR_FieldDecl index : getVarIRsFromExpression(assign.getDestVar().getIndex())){
+                                liveCheck.setVectorVal(index, 1);
+                                //System.err.printf("Bitvector entry for variable %s has been set to 1 by use in array index on lhs." + System.getProperty("line.separator"), index.getName());
+                            }
                         }
-                        else if(liveCheck.get(lhs) == 0 && !(containsMethodCall(assign.getValue()))){
-                            statementIter.remove();
-                            anythingRemoved = true;
-                            //System.err.printf("Assignment to variable %s has been removed; it was a dead assignment with no method call." + System.getProperty("line.separator"), assign.getDestVar().getName());
+                        if(!rhsDecls.contains(lhs) && assign.getDestVar().getIndex() == null && assign.getOperator() != Ops.ASSIGN_MINUS && assign.getOperator() != Ops.ASSIGN_PLUS){
+                            liveCheck.setVectorVal(lhs, 0);
+                            //System.err.printf("Bitvector entry for variable %s has been flipped from 1 to 0 in execution phase phase by an assignment that does not expose an upwards use and isn't an array." + System.getProperty("line.separator"), lhs);
                         }
                         else{
-                            List<IR_FieldDecl> rhsDecls = new ArrayList<IR_FieldDecl>();
-                            for(IR_FieldDecl varDecl : getVarIRsFromExpression(assign.getValue())){
-                                liveCheck.setVectorVal(varDecl, 1);
-                                //System.err.printf("Bitvector entry for variable %s has been set to 1 by use in assignment." + System.getProperty("line.separator"), varName);
-                                rhsDecls.add(varDecl);
-                            }
-                            if(assign.getDestVar().getIndex() != null){
-                                for (IR_FieldDecl index : getVarIRsFromExpression(assign.getDestVar().getIndex())){
-                                    liveCheck.setVectorVal(index, 1);
-                                    //System.err.printf("Bitvector entry for variable %s has been set to 1 by use in array index on lhs." + System.getProperty("line.separator"), index.getName());
-                                }
-                            }
-                            if(!rhsDecls.contains(lhs) && assign.getDestVar().getIndex() == null && assign.getOperator() != Ops.ASSIGN_MINUS && assign.getOperator() != Ops.ASSIGN_PLUS){
-                                liveCheck.setVectorVal(lhs, 0);
-                                //System.err.printf("Bitvector entry for variable %s has been flipped from 1 to 0 in execution phase phase by an assignment that does not expose an upwards use and isn't an array." + System.getProperty("line.separator"), lhs);
-                            }
-                            else{
-                                //System.err.printf("Bitvector entry for variable %s has not been flipped and remains 1 due to exposed upward use in RHS." + System.getProperty("line.separator"), nameOfVar);
-                            }
+                            //System.err.printf("Bitvector entry for variable %s has not been flipped and remains 1 due to exposed upward use in RHS." + System.getProperty("line.separator"), nameOfVar);
                         }
                     }
+                }
 
-                    else if(currentState instanceof MethodCallStatement){
-                        MethodCallStatement mcall = (MethodCallStatement)currentState;
-                        List<Expression> args = mcall.getMethodCall().getArguments();
-                        List<IR_FieldDecl> varsInArgs = new ArrayList<IR_FieldDecl>();
-                        for(Expression expr : args){
-                            varsInArgs.addAll(getVarIRsFromExpression(expr));
-                        }
-                        for(IR_FieldDecl varDecl : varsInArgs){
-                            liveCheck.setVectorVal(varDecl, 1); //If not already alive, mark an argument as alive.
-                            //System.err.printf("Bitvector entry for variable %s has been set to 1 by a method call." + System.getProperty("line.separator"), varDecl.getName());
-                        }
+                else if(currentState instanceof MethodCallStatement){
+                    MethodCallStatement mcall = (MethodCallStatement)currentState;
+                    List<Expression> args = mcall.getMethodCall().getArguments();
+                    List<IR_FieldDecl> varsInArgs = new ArrayList<IR_FieldDecl>();
+                    for(Expression expr : args){
+                        varsInArgs.addAll(getVarIRsFromExpression(expr));
+                    }
+                    for(IR_FieldDecl varDecl : varsInArgs){
+                        liveCheck.setVectorVal(varDecl, 1); //If not already alive, mark an argument as alive.
+                        //System.err.printf("Bitvector entry for variable %s has been set to 1 by a method call." + System.getProperty("line.separator"), varDecl.getName());
                     }
                 }
-                Collections.reverse(statementList);
             }
-            clearUnusedDeclarations(initialNode);
+            Collections.reverse(statementList);
         }
+        clearUnusedDeclarations(initialNode);
         return anythingRemoved;
-        //return Assembler.generateProgram(calloutList, globalList, flowNodes);
     }
 
     /**
@@ -1220,7 +836,7 @@ public class Optimizer {
      * @param varToVal : Mapping of IR_FieldDecl to ValueID, used to assign ValueID to a Var, given its descriptor
      * @param expr The expression whose Vars we want to set the ValueIDs for
      */
-    public static boolean setVarIDs(Map<IR_FieldDecl, ValueID> varToVal, Map<IR_FieldDecl, Map<SPSet, ValueID>> varToValForArrayComponents, Expression expr){
+    public static boolean setVarIDs(Map<IR_FieldDecl, ValueID> varToVal, Map<IR_FieldDecl, PersistentMap<SPSet, ValueID>> varToValForArrayComponents, Expression expr){
         if(expr instanceof BinExpr){
             BinExpr bin = (BinExpr)expr;
             Expression lhs = bin.getLeftSide();
@@ -1389,11 +1005,11 @@ public class Optimizer {
      * @param exprToTemp
      * @param varToVal
      */
-    public void killMappings(Var assignLhs, Map<IR_FieldDecl, Map<SPSet, ValueID>> varToValForArrayComponents, 
+    public void killMappings(Var assignLhs, Map<IR_FieldDecl, PersistentMap<SPSet, ValueID>> varToValForArrayComponents, 
             Map<IR_FieldDecl, ValueID> varToVal, Map<ValueID, List<Var>> valToVar){
         IR_FieldDecl killVar = (IR_FieldDecl) assignLhs.getVarDescriptor().getIR();
         if (assignLhs.getIndex() != null) {
-            varToValForArrayComponents.put(killVar, new HashMap<SPSet, ValueID>());
+            varToValForArrayComponents.put(killVar, new PersistentMap<SPSet, ValueID>());
         } else {
 
             ValueID killValID = varToVal.get(killVar);
@@ -1401,7 +1017,7 @@ public class Optimizer {
             if(valToVar.get(killValID)!= null){
                 for (Var v : valToVar.get(killValID)) {
                     if (v.getFieldDecl() == killVar) {
-                        valToVar.get(killValID).remove(v);
+                        MapContainer.removeVarForValue(valToVar, killValID, v);
                         break;
                     }
                 }
@@ -1410,7 +1026,7 @@ public class Optimizer {
 
     }
 
-    private void resetGlobals(Map<ValueID, List<Var>> valToVar, Map<IR_FieldDecl, ValueID> varToVal, Map<IR_FieldDecl, Map<SPSet, ValueID>> varToValForArrayComponents) {
+    private void resetGlobals(Map<ValueID, List<Var>> valToVar, Map<IR_FieldDecl, ValueID> varToVal, Map<IR_FieldDecl, PersistentMap<SPSet, ValueID>> varToValForArrayComponents) {
         for (IR_FieldDecl glob : globalList) {
             Descriptor globDesc = new Descriptor(glob);
             globDesc.setLocation(new LocLabel(glob.getName()));
@@ -1425,7 +1041,7 @@ public class Optimizer {
                 }
                 valToVar.put(newGlobID, varList);
             } else {
-                varToValForArrayComponents.put(glob, new HashMap<SPSet, ValueID>());
+                varToValForArrayComponents.put(glob, new PersistentMap<SPSet, ValueID>());
                 if (oldID == null) {
                     varToVal.put(glob, newGlobID);
                     valToVar.put(newGlobID, varList);
@@ -1434,7 +1050,7 @@ public class Optimizer {
         }
     }
 
-    private void killGlobals(Map<ValueID, List<Var>> valToVar, Map<IR_FieldDecl, ValueID> varToVal, Map<IR_FieldDecl, Map<SPSet, ValueID>> varToValForArrayComponents) {
+    private void killGlobals(Map<ValueID, List<Var>> valToVar, Map<IR_FieldDecl, ValueID> varToVal, Map<IR_FieldDecl, PersistentMap<SPSet, ValueID>> varToValForArrayComponents) {
         for (IR_FieldDecl glob : globalList) {
             ValueID oldID = varToVal.get(glob);
             if (glob.getLength() == null) {
@@ -1443,7 +1059,7 @@ public class Optimizer {
                     valToVar.get(oldID).remove(glob);
                 }
             } else {
-                varToValForArrayComponents.put(glob, new HashMap<SPSet, ValueID>());
+                varToValForArrayComponents.put(glob, new PersistentMap<SPSet, ValueID>());
             }
         }
     }
@@ -1483,403 +1099,421 @@ public class Optimizer {
      */
     public boolean applyCSE (List<START> startsForMethods){
         boolean anythingReplaced = false;
-        for(START initialNode : startsForMethods){
-            //Set up tables and lists we'll need. 
-            //First thing we should do is reset visits, in case we're called after another optimization.
-            initialNode.totalVisitReset(); 
-            Set<String> allVarNames = getAllVarNamesInMethod(initialNode);
-            Map<IR_FieldDecl, ValueID> varToVal = new HashMap<IR_FieldDecl, ValueID>();
-            Map<SPSet, ValueID> expToVal = new HashMap<SPSet, ValueID>();
-            Map<SPSet, Var> expToTemp = new HashMap<SPSet, Var>();
-            Map<IR_FieldDecl, Map<SPSet, ValueID>> varToValForArrayComponents = new HashMap<IR_FieldDecl, Map<SPSet, ValueID>>();
-            Map<ValueID, List<Var>> valToVar = new HashMap<ValueID, List<Var>>();
-            Map<FlowNode, MapContainer> containerForNode = new HashMap<FlowNode, MapContainer>();
-            resetGlobals(valToVar, varToVal, varToValForArrayComponents);
-            for(int i = 0; i < initialNode.getArguments().size(); i++){
-                IR_FieldDecl arg = initialNode.getArguments().get(i);
-                Descriptor argd = new Descriptor(arg);
-                context.putSymbol(arg.getName(), argd);
-
-                LocationMem argSrc = Assembler.argLoc(i);
-                LocationMem argDst = argSrc;
-                if(i<CodegenConst.N_REG_ARG){
-                    //save register arguments on the stack
-                    context.push(argSrc);
-                    argDst = context.getRsp();
-                    context.allocLocal(CodegenConst.INT_SIZE);
+        List<Boolean> replaced = scheduler.map(startsForMethods, new MethodScheduler.MethodTask<START, Boolean>() {
+            @Override
+            public Boolean run(START initialNode) {
+                try {
+                    return applyCSE(initialNode);
+                } finally {
+                    SPKey.releaseTable(); // pool threads outlive the compile
                 }
-                argd.setLocation(argDst);
-                ValueID parameterID = new ValueID();
-                List<Var> paramList = new ArrayList<Var>();
-                paramList.add(new Var(argd, null));
-                varToVal.put(arg, parameterID);
-                valToVar.put(parameterID, paramList);
             }
-            MapContainer initialStateContainer = new MapContainer(varToVal, expToVal, expToTemp, varToValForArrayComponents, valToVar, true);
-            containerForNode.put(initialNode, initialStateContainer);
-            FlowNode firstNodeInProgram = initialNode.getChildren().get(0);
-            Set<FlowNode> processing = new LinkedHashSet<FlowNode>();
-            processing.add(firstNodeInProgram);
-            while(!processing.isEmpty()){ //list of nodes to process
-                FlowNode currentNode = processing.iterator().next(); //get node out of set
-                processing.remove(currentNode);
-                currentNode.visit(); //set its visited attribute so we don't loop back to it
-                //Set up the maps for this particular node, regardless of type.
-                boolean reset = false;
-                MapContainer thisNodeContainer = containerForNode.get(currentNode.getParents().get(0)); //want something we can intersect with, so take first parent's set.
-                for(FlowNode parent: currentNode.getParents()){
-                    if(containerForNode.get(parent) == null){
-                        currentNode.resetVisit();
-                        reset = true;
+        });
+        for (boolean methodReplaced : replaced) {
+            anythingReplaced = methodReplaced || anythingReplaced;
+        }
+        //return Assembler.generateProgram(calloutList, globalList, flowNodes);
+        return anythingReplaced;
+    }
+
+    /**
+     * CSE on a single method; see applyCSE(List<START>).
+     * Arguments and temps get their descriptors from a context of the method's own, and expressions
+     * are interned in a fresh SPKey table, so methods share no state and can be optimized concurrently.
+     *
+     * @param initialNode : START node of the method.
+     * @return whether any expression in the method was replaced.
+     */
+    private boolean applyCSE(START initialNode){
+        boolean anythingReplaced = false;
+        ControlflowContext context = new ControlflowContext();
+        context.enterFun();
+        SPKey.newTable();
+        //Set up tables and lists we'll need. 
+        //First thing we should do is reset visits, in case we're called after another optimization.
+        initialNode.totalVisitReset(); 
+        Set<String> allVarNames = getAllVarNamesInMethod(initialNode);
+        PersistentMap<IR_FieldDecl, ValueID> varToVal = new PersistentMap<IR_FieldDecl, ValueID>();
+        PersistentMap<SPSet, ValueID> expToVal = new PersistentMap<SPSet, ValueID>();
+        PersistentMap<SPSet, Var> expToTemp = new PersistentMap<SPSet, Var>();
+        PersistentMap<IR_FieldDecl, PersistentMap<SPSet, ValueID>> varToValForArrayComponents = new PersistentMap<IR_FieldDecl, PersistentMap<SPSet, ValueID>>();
+        PersistentMap<ValueID, List<Var>> valToVar = new PersistentMap<ValueID, List<Var>>();
+        Map<FlowNode, MapContainer> containerForNode = new HashMap<FlowNode, MapContainer>();
+        resetGlobals(valToVar, varToVal, varToValForArrayComponents);
+        for(int i = 0; i < initialNode.getArguments().size(); i++){
+            IR_FieldDecl arg = initialNode.getArguments().get(i);
+            Descriptor argd = new Descriptor(arg);
+            context.putSymbol(arg.getName(), argd);
+
+            LocationMem argSrc = Assembler.argLoc(i);
+            LocationMem argDst = argSrc;
+            if(i<CodegenConst.N_REG_ARG){
+                //save register arguments on the stack
+                context.push(argSrc);
+                argDst = context.getRsp();
+                context.allocLocal(CodegenConst.INT_SIZE);
+            }
+            argd.setLocation(argDst);
+            ValueID parameterID = new ValueID();
+            List<Var> paramList = new ArrayList<Var>();
+            paramList.add(new Var(argd, null));
+            varToVal.put(arg, parameterID);
+            valToVar.put(parameterID, paramList);
+        }
+        MapContainer initialStateContainer = new MapContainer(varToVal, expToVal, expToTemp, varToValForArrayComponents, valToVar, true);
+        containerForNode.put(initialNode, initialStateContainer);
+        FlowNode firstNodeInProgram = initialNode.getChildren().get(0);
+        Set<FlowNode> processing = new LinkedHashSet<FlowNode>();
+        processing.add(firstNodeInProgram);
+        while(!processing.isEmpty()){ //list of nodes to process
+            FlowNode currentNode = processing.iterator().next(); //get node out of set
+            processing.remove(currentNode);
+            cseIterations.incrementAndGet();
+            currentNode.visit(); //set its visited attribute so we don't loop back to it
+            //Set up the maps for this particular node, regardless of type.
+            boolean reset = false;
+            MapContainer thisNodeContainer = containerForNode.get(currentNode.getParents().get(0)); //want something we can intersect with, so take first parent's set.
+            for(FlowNode parent: currentNode.getParents()){
+                if(containerForNode.get(parent) == null){
+                    currentNode.resetVisit();
+                    reset = true;
+                } else {
+                    if (thisNodeContainer == null) {
+                        thisNodeContainer = containerForNode.get(parent).calculateIntersection(containerForNode.get(parent), globalList);
                     } else {
-                        if (thisNodeContainer == null) {
-                            thisNodeContainer = containerForNode.get(parent).calculateIntersection(containerForNode.get(parent), globalList);
-                        } else {
-                            thisNodeContainer = thisNodeContainer.calculateIntersection(containerForNode.get(parent), globalList);
-                        }
+                        thisNodeContainer = thisNodeContainer.calculateIntersection(containerForNode.get(parent), globalList);
                     }
                 }
-                if (reset) {
-                    processing.addAll(currentNode.getChildren());
-                    processing.add(currentNode);
-                    if (thisNodeContainer == null) {
-                        throw new RuntimeException("HOW DID YOU GET IN PROCESSING IF NONE OF YOUR PARENTS HAVE BEEN PROCESSED");
-                    }
-                    thisNodeContainer = MapContainer.keepGlobals(thisNodeContainer, globalList);
-                    containerForNode.put(currentNode, thisNodeContainer);
-                    thisNodeContainer.complete = false;
-                    continue;
+            }
+            if (reset) {
+                processing.addAll(currentNode.getChildren());
+                processing.add(currentNode);
+                if (thisNodeContainer == null) {
+                    throw new RuntimeException("HOW DID YOU GET IN PROCESSING IF NONE OF YOUR PARENTS HAVE BEEN PROCESSED");
                 }
-                boolean changedAtAll = !thisNodeContainer.complete;
-                thisNodeContainer.complete = true;
-                varToVal = thisNodeContainer.varToVal;
-                expToVal = thisNodeContainer.expToVal;
-                expToTemp = thisNodeContainer.expToTemp;
-                varToValForArrayComponents = thisNodeContainer.varToValForArrayComponents;
-                valToVar = thisNodeContainer.valToVar;
-                if(currentNode instanceof Codeblock){ //if codeblock downcast and make new
-                    Codeblock cblock = (Codeblock)currentNode; 
-                    Codeblock newCodeblock = new Codeblock(); 
-                    //Before we do anything, set up the temporary variable declarations:
-                    List<String> nextTempHolder = new ArrayList<String>();
-                    List<Var> allTheVarsInBlock = checkVariablesAssigned(cblock);
-                    List<Declaration> tempsUsed = new ArrayList<Declaration>();
-                    for(Var current : allTheVarsInBlock){
-                        String nextTemp = generateNextTemp(allVarNames);
-                        Descriptor d = new Descriptor(new IR_FieldDecl(getTempType(current.getVarDescriptor().getIR().getType()), nextTemp));
-                        d.setLocation(new LocLabel(nextTemp));
-                        context.putSymbol(nextTemp, d);
-                        nextTempHolder.add(nextTemp);
-                    }
-                    for(Statement currentStatement : cblock.getStatements()){ //for each statement 
-                        if(currentStatement instanceof Assignment){
-                            Assignment currentAssign = (Assignment)currentStatement; //if assignment, downcast
-                            Expression assignExprValue = currentAssign.getValue(); // get expression on rhs
-                            Var currentDestVar = currentAssign.getDestVar(); //get the lhs for this assignment
-                            if (currentAssign.getOperator() == Ops.ASSIGN_PLUS) {
-                                assignExprValue = new AddExpr(currentDestVar, Ops.PLUS, assignExprValue);
-                            } else if (currentAssign.getOperator() == Ops.ASSIGN_MINUS) {
-                                assignExprValue = new AddExpr(currentDestVar, Ops.MINUS, assignExprValue);
+                thisNodeContainer = MapContainer.keepGlobals(thisNodeContainer, globalList);
+                containerForNode.put(currentNode, thisNodeContainer);
+                thisNodeContainer.complete = false;
+                continue;
+            }
+            boolean changedAtAll = !thisNodeContainer.complete;
+            thisNodeContainer.complete = true;
+            varToVal = thisNodeContainer.varToVal;
+            expToVal = thisNodeContainer.expToVal;
+            expToTemp = thisNodeContainer.expToTemp;
+            varToValForArrayComponents = thisNodeContainer.varToValForArrayComponents;
+            valToVar = thisNodeContainer.valToVar;
+            if(currentNode instanceof Codeblock){ //if codeblock downcast and make new
+                Codeblock cblock = (Codeblock)currentNode; 
+                Codeblock newCodeblock = new Codeblock(); 
+                //Before we do anything, set up the temporary variable declarations:
+                List<String> nextTempHolder = new ArrayList<String>();
+                List<Var> allTheVarsInBlock = checkVariablesAssigned(cblock);
+                List<Declaration> tempsUsed = new ArrayList<Declaration>();
+                for(Var current : allTheVarsInBlock){
+                    String nextTemp = generateNextTemp(allVarNames);
+                    Descriptor d = new Descriptor(new IR_FieldDecl(getTempType(current.getVarDescriptor().getIR().getType()), nextTemp));
+                    d.setLocation(new LocLabel(nextTemp));
+                    context.putSymbol(nextTemp, d);
+                    nextTempHolder.add(nextTemp);
+                }
+                for(Statement currentStatement : cblock.getStatements()){ //for each statement 
+                    if(currentStatement instanceof Assignment){
+                        Assignment currentAssign = (Assignment)currentStatement; //if assignment, downcast
+                        Expression assignExprValue = currentAssign.getValue(); // get expression on rhs
+                        Var currentDestVar = currentAssign.getDestVar(); //get the lhs for this assignment
+                        if (currentAssign.getOperator() == Ops.ASSIGN_PLUS) {
+                            assignExprValue = new AddExpr(currentDestVar, Ops.PLUS, assignExprValue);
+                        } else if (currentAssign.getOperator() == Ops.ASSIGN_MINUS) {
+                            assignExprValue = new AddExpr(currentDestVar, Ops.MINUS, assignExprValue);
+                        }
+                        boolean canApply = setVarIDs(varToVal, varToValForArrayComponents, assignExprValue); //set rhs VarIDS if any Vars exist there
+                        if (currentDestVar.getIndex() != null) {
+                            // make sure array is set up
+                            IR_FieldDecl arrayDecl = currentDestVar.getFieldDecl();
+                            if(!varToVal.containsKey(arrayDecl)){
+                                ValueID newID = new ValueID();
+                                varToVal.put(arrayDecl, newID);
+                                MapContainer.addVarForValue(valToVar, newID, new Var(new Descriptor(arrayDecl), null));
                             }
-                            boolean canApply = setVarIDs(varToVal, varToValForArrayComponents, assignExprValue); //set rhs VarIDS if any Vars exist there
-                            if (currentDestVar.getIndex() != null) {
-                                // make sure array is set up
-                                IR_FieldDecl arrayDecl = currentDestVar.getFieldDecl();
-                                if(!varToVal.containsKey(arrayDecl)){
-                                    ValueID newID = new ValueID();
-                                    varToVal.put(arrayDecl, newID);
-                                    if (!valToVar.containsKey(newID)) {
-                                        valToVar.put(newID, new ArrayList<Var>());
-                                    }
-                                    valToVar.get(newID).add(new Var(new Descriptor(arrayDecl), null));
-                                }
-                                Map<SPSet, ValueID> innerMap;
-                                if(!varToValForArrayComponents.containsKey(arrayDecl)){
-                                    innerMap = new HashMap<SPSet, ValueID>();
-                                    varToValForArrayComponents.put(arrayDecl, innerMap);
-                                }
+                            if(!varToValForArrayComponents.containsKey(arrayDecl)){
+                                varToValForArrayComponents.put(arrayDecl, new PersistentMap<SPSet, ValueID>());
                             }
-                            if (!canApply) {
+                        }
+                        if (!canApply) {
+                            newCodeblock.addStatement(currentStatement);
+                            continue;
+                        }
+                        ValueID currentValID = new ValueID(); //make a new value ID we'll use when we put things in the map/make a new temp.
+                        SPSet rhs = new SPSet(assignExprValue); //Construct an SPSet from the expression.
+                        if (rhs.containsMethodCalls()) {
+                            killGlobals(valToVar, varToVal, varToValForArrayComponents);
+                            if (!setVarIDs(varToVal, varToValForArrayComponents, assignExprValue)) {
+                                // Skipping statement because contains reference to globals AND at least one method call
                                 newCodeblock.addStatement(currentStatement);
+                                resetGlobals(valToVar, varToVal, varToValForArrayComponents);
                                 continue;
                             }
-                            ValueID currentValID = new ValueID(); //make a new value ID we'll use when we put things in the map/make a new temp.
-                            SPSet rhs = new SPSet(assignExprValue); //Construct an SPSet from the expression.
-                            if (rhs.containsMethodCalls()) {
-                                killGlobals(valToVar, varToVal, varToValForArrayComponents);
-                                if (!setVarIDs(varToVal, varToValForArrayComponents, assignExprValue)) {
-                                    // Skipping statement because contains reference to globals AND at least one method call
-                                    newCodeblock.addStatement(currentStatement);
-                                    resetGlobals(valToVar, varToVal, varToValForArrayComponents);
-                                    continue;
+                        }
+                        Set<SPSet> keySet = expToVal.keySet(); //Get the keys for the expToVal set.
+                        if (!valToVar.containsKey(currentValID)) {
+                            valToVar.put(currentValID, new ArrayList<Var>());
+                        }
+                        boolean changed = true; //we want to run repeated checks over the expression.
+                        changedAtAll = false;
+                        while(changed){ //Until we reach a fixed point
+                            changed = false; //say we haven't
+                            for (SPSet key : keySet){ //Look at all keys in expToVal
+                                while (rhs.contains(key, valToVar)){ //if we have any of those keys in our current expression
+                                    rhs.replace(key, expToVal.get(key), valToVar);
+                                    changed = true; //Need to repass over, one substitution could lead to another
+                                    changedAtAll = true;
+                                    anythingReplaced = true;
                                 }
                             }
-                            Set<SPSet> keySet = expToVal.keySet(); //Get the keys for the expToVal set.
-                            List<Var> varList = valToVar.get(currentValID);
-                            if (varList == null) {
-                                varList = new ArrayList<Var>();
-                                valToVar.put(currentValID, varList);
+                        }
+                        newCodeblock.addStatement(new Assignment(currentDestVar, Ops.ASSIGN, rhs.toExpression(valToVar))); //put the optimized expression in the codeblock
+                        // kill old mapping only after doing the assignment (j = j + 1 should use the old value of j on the right side)
+                        IR_FieldDecl lhs = (IR_FieldDecl)currentDestVar.getVarDescriptor().getIR();
+                        killMappings(currentDestVar, varToValForArrayComponents, varToVal, valToVar); //kill all newly invalid mappings and handle fixing ArrayComponent stuff
+                        IR_FieldDecl rhsTempDecl = null;
+                        // Update valToVar for temp, expToVal for expression, and expToTemp
+                        if (!keySet.contains(rhs)){ //If the rhs is something new that we haven't seen yet,
+                            if(((rhs.SPSets.size() +rhs.intSet.size() +rhs.boolSet.size() + rhs.ternSet.size() + rhs.comparisons.size() + rhs.varSet.size()) > 1 
+                                    || (rhs.SPSets.size() + rhs.ternSet.size() + rhs.comparisons.size() != 0)) && rhs.methodCalls.size() == 0){
+                                expToVal.put(rhs, currentValID); // put the rhs in the expToVal table with the ID we made earlier
+                                //Next line creates a new IR_FieldDecl for the compiler-generated temp, and makes the temp equal the assigned variable above.
+                                //So if we had a = x + y, we now have a temp value temp1 = a.
+                                rhsTempDecl = new IR_FieldDecl(getTempType(currentDestVar.getVarDescriptor().getType()), nextTempHolder.remove(0));
+                                Descriptor tempDescriptor = context.findSymbol(rhsTempDecl.getName());
+                                Var tempVar = new Var(tempDescriptor, null, true);
+                                expToTemp.put(rhs, tempVar);
+                                MapContainer.addVarForValue(valToVar, currentValID, tempVar);
+                                tempsUsed.add(new Declaration((IR_FieldDecl) tempDescriptor.getIR()));
                             }
-                            boolean changed = true; //we want to run repeated checks over the expression.
-                            changedAtAll = false;
-                            while(changed){ //Until we reach a fixed point
-                                changed = false; //say we haven't
-                                for (SPSet key : keySet){ //Look at all keys in expToVal
-                                    while (rhs.contains(key, valToVar)){ //if we have any of those keys in our current expression
-                                        rhs.replace(key, expToVal.get(key), valToVar);
-                                        changed = true; //Need to repass over, one substitution could lead to another
-                                        changedAtAll = true;
-                                        anythingReplaced = true;
+                        }
+                        // Update valToVar to dest
+                        if (currentDestVar.getIndex() == null || setVarIDs(varToVal, varToValForArrayComponents, currentDestVar.getIndex())) {
+                            MapContainer.addVarForValue(valToVar, currentValID, currentDestVar);
+                            if(currentDestVar.getIndex() == null){ //Changed this from != when simulating execution. 
+                                varToVal.put(lhs, currentValID); 
+                            }
+                            else{
+                                boolean indexChanged = true;
+                                SPSet indexSet = new SPSet(currentDestVar.getIndex());
+                                boolean madeChange = false;
+                                while(indexChanged){ //Until we reach a fixed point
+                                    indexChanged = false; //say we haven't
+                                    for (SPSet key : keySet){ //Look at all keys in expToVal
+                                        while (indexSet.contains(key, valToVar)){ //if we have any of those keys in our current expression
+                                            indexSet.replace(key, expToVal.get(key), valToVar);
+                                            indexChanged = true; //Need to repass over, one substitution could lead to another
+                                            madeChange = true;
+                                        }
                                     }
                                 }
-                            }
-                            newCodeblock.addStatement(new Assignment(currentDestVar, Ops.ASSIGN, rhs.toExpression(valToVar))); //put the optimized expression in the codeblock
-                            // kill old mapping only after doing the assignment (j = j + 1 should use the old value of j on the right side)
-                            IR_FieldDecl lhs = (IR_FieldDecl)currentDestVar.getVarDescriptor().getIR();
-                            killMappings(currentDestVar, varToValForArrayComponents, varToVal, valToVar); //kill all newly invalid mappings and handle fixing ArrayComponent stuff
-                            IR_FieldDecl rhsTempDecl = null;
-                            // Update valToVar for temp, expToVal for expression, and expToTemp
-                            if (!keySet.contains(rhs)){ //If the rhs is something new that we haven't seen yet,
-                                if(((rhs.SPSets.size() +rhs.intSet.size() +rhs.boolSet.size() + rhs.ternSet.size() + rhs.comparisons.size() + rhs.varSet.size()) > 1 
-                                        || (rhs.SPSets.size() + rhs.ternSet.size() + rhs.comparisons.size() != 0)) && rhs.methodCalls.size() == 0){
-                                    expToVal.put(rhs, currentValID); // put the rhs in the expToVal table with the ID we made earlier
-                                    //Next line creates a new IR_FieldDecl for the compiler-generated temp, and makes the temp equal the assigned variable above.
-                                    //So if we had a = x + y, we now have a temp value temp1 = a.
-                                    rhsTempDecl = new IR_FieldDecl(getTempType(currentDestVar.getVarDescriptor().getType()), nextTempHolder.remove(0));
-                                    Descriptor tempDescriptor = context.findSymbol(rhsTempDecl.getName());
-                                    Var tempVar = new Var(tempDescriptor, null, true);
-                                    expToTemp.put(rhs, tempVar);
-                                    varList.add(tempVar);
-                                    tempsUsed.add(new Declaration((IR_FieldDecl) tempDescriptor.getIR()));
+                                if(!varToVal.containsKey(lhs)){
+                                    ValueID newID = new ValueID();
+                                    varToVal.put(lhs, newID);
+                                    MapContainer.addVarForValue(valToVar, newID, new Var(new Descriptor(lhs), null));
                                 }
-                            }
-                            // Update valToVar to dest
-                            if (currentDestVar.getIndex() == null || setVarIDs(varToVal, varToValForArrayComponents, currentDestVar.getIndex())) {
-                                varList.add(currentDestVar);
-                                if(currentDestVar.getIndex() == null){ //Changed this from != when simulating execution. 
-                                    varToVal.put(lhs, currentValID); 
+                                PersistentMap<SPSet, ValueID> innerMap;
+                                if(varToValForArrayComponents.containsKey(lhs)){
+                                    innerMap = varToValForArrayComponents.get(lhs).copy(); // shared with other containers
                                 }
                                 else{
-                                    boolean indexChanged = true;
-                                    SPSet indexSet = new SPSet(currentDestVar.getIndex());
-                                    boolean madeChange = false;
-                                    while(indexChanged){ //Until we reach a fixed point
-                                        indexChanged = false; //say we haven't
-                                        for (SPSet key : keySet){ //Look at all keys in expToVal
-                                            while (indexSet.contains(key, valToVar)){ //if we have any of those keys in our current expression
-                                                indexSet.replace(key, expToVal.get(key), valToVar);
-                                                indexChanged = true; //Need to repass over, one substitution could lead to another
-                                                madeChange = true;
-                                            }
-                                        }
-                                    }
-                                    if(!varToVal.containsKey(lhs)){
-                                        ValueID newID = new ValueID();
-                                        varToVal.put(lhs, newID);
-                                        if (!valToVar.containsKey(newID)) {
-                                            valToVar.put(newID, new ArrayList<Var>());
-                                        }
-                                        valToVar.get(newID).add(new Var(new Descriptor(lhs), null));
-                                    }
-                                    Map<SPSet, ValueID> innerMap;
-                                    if(varToValForArrayComponents.containsKey(lhs)){
-                                        innerMap = varToValForArrayComponents.get(lhs);
-                                    }
-                                    else{
-                                        innerMap = new HashMap<SPSet, ValueID>();
-                                        varToValForArrayComponents.put(lhs, innerMap);
-                                    }
-                                    innerMap.put(indexSet, currentValID);
-                                    if (madeChange) {
-                                        currentDestVar.setIndex(indexSet.toExpression(valToVar));
-                                    }
+                                    innerMap = new PersistentMap<SPSet, ValueID>();
+                                }
+                                innerMap.put(indexSet, currentValID);
+                                varToValForArrayComponents.put(lhs, innerMap);
+                                if (madeChange) {
+                                    currentDestVar.setIndex(indexSet.toExpression(valToVar));
                                 }
                             }
-                            if(rhsTempDecl != null){
-                                newCodeblock.addStatement(new Assignment(expToTemp.get(rhs), Ops.ASSIGN, currentDestVar)); //t1 = previous variable
-                            }
-                            if (rhs.containsMethodCalls() 
-                                    || (currentDestVar.getIndex() != null && (!setVarIDs(varToVal, varToValForArrayComponents, currentDestVar.getIndex()) 
-                                            || (new SPSet(currentDestVar.getIndex())).containsMethodCalls()))) {
-                                resetGlobals(valToVar, varToVal, varToValForArrayComponents);
-                            }
                         }
+                        if(rhsTempDecl != null){
+                            newCodeblock.addStatement(new Assignment(expToTemp.get(rhs), Ops.ASSIGN, currentDestVar)); //t1 = previous variable
+                        }
+                        if (rhs.containsMethodCalls() 
+                                || (currentDestVar.getIndex() != null && (!setVarIDs(varToVal, varToValForArrayComponents, currentDestVar.getIndex()) 
+                                        || (new SPSet(currentDestVar.getIndex())).containsMethodCalls()))) {
+                            resetGlobals(valToVar, varToVal, varToValForArrayComponents);
+                        }
+                    }
 
-                        else if(currentStatement instanceof MethodCallStatement){ //if method call or declaration, just put it in the new block
-                            MethodCallStatement mcs = (MethodCallStatement)currentStatement;
-                            List<Expression> args = mcs.getMethodCall().getArguments();
-                            for(int i = 0; i < args.size(); i++){
-                                if(args.get(i).getExprType() != ExpressionType.STRING_LIT){
-                                    Expression expr = args.get(i);
-                                    boolean worked = setVarIDs(varToVal, varToValForArrayComponents, expr);
-                                    if (worked) {
-                                        boolean changed = true; //we want to run repeated checks over the expression.
-                                        SPSet arg = new SPSet(expr);
-                                        if (arg.containsMethodCalls()) {
-                                            killGlobals(valToVar, varToVal, varToValForArrayComponents);
-                                            if (!setVarIDs(varToVal, varToValForArrayComponents, expr)) {
-                                                // Skipping argument because contains reference to globals AND at least one method call
-                                                resetGlobals(valToVar, varToVal, varToValForArrayComponents);
-                                                continue;
-                                            }
+                    else if(currentStatement instanceof MethodCallStatement){ //if method call or declaration, just put it in the new block
+                        MethodCallStatement mcs = (MethodCallStatement)currentStatement;
+                        List<Expression> args = mcs.getMethodCall().getArguments();
+                        for(int i = 0; i < args.size(); i++){
+                            if(args.get(i).getExprType() != ExpressionType.STRING_LIT){
+                                Expression expr = args.get(i);
+                                boolean worked = setVarIDs(varToVal, varToValForArrayComponents, expr);
+                                if (worked) {
+                                    boolean changed = true; //we want to run repeated checks over the expression.
+                                    SPSet arg = new SPSet(expr);
+                                    if (arg.containsMethodCalls()) {
+                                        killGlobals(valToVar, varToVal, varToValForArrayComponents);
+                                        if (!setVarIDs(varToVal, varToValForArrayComponents, expr)) {
+                                            // Skipping argument because contains reference to globals AND at least one method call
+                                            resetGlobals(valToVar, varToVal, varToValForArrayComponents);
+                                            continue;
                                         }
-                                        while(changed){ //Until we reach a fixed point
-                                            changed = false; //say we haven't
-                                            for (SPSet key : expToVal.keySet()){ //Look at all keys in expToVal
-                                                while (arg.contains(key, valToVar)){ //if we have any of those keys in our current expression
-                                                    arg.replace(key, expToVal.get(key), valToVar);
-                                                    changed = true; //Need to repass over, one substitution could lead to another
-                                                    changedAtAll = true;
-                                                    anythingReplaced = true;
-                                                }
+                                    }
+                                    while(changed){ //Until we reach a fixed point
+                                        changed = false; //say we haven't
+                                        for (SPSet key : expToVal.keySet()){ //Look at all keys in expToVal
+                                            while (arg.contains(key, valToVar)){ //if we have any of those keys in our current expression
+                                                arg.replace(key, expToVal.get(key), valToVar);
+                                                changed = true; //Need to repass over, one substitution could lead to another
+                                                changedAtAll = true;
+                                                anythingReplaced = true;
                                             }
                                         }
-                                        if (changedAtAll) {
-                                            mcs.getMethodCall().setArgument(i, arg.toExpression(valToVar));
-                                        }
+                                    }
+                                    if (changedAtAll) {
+                                        mcs.getMethodCall().setArgument(i, arg.toExpression(valToVar));
                                     }
                                 }
                             }
-                            newCodeblock.addStatement(mcs);
-                            resetGlobals(valToVar, varToVal, varToValForArrayComponents);
-
-                        } else{
-                            newCodeblock.addStatement(currentStatement);
                         }
+                        newCodeblock.addStatement(mcs);
+                        resetGlobals(valToVar, varToVal, varToValForArrayComponents);
+
+                    } else{
+                        newCodeblock.addStatement(currentStatement);
                     }
+                }
 
-                    swapCodeblocks(cblock, newCodeblock);
-                    newCodeblock.visit();
-                    Codeblock topOfScope = findTopOfScope(newCodeblock, containerForNode);
-                    if (topOfScope != newCodeblock ) {
-                        processing.add(topOfScope);
+                swapCodeblocks(cblock, newCodeblock);
+                newCodeblock.visit();
+                Codeblock topOfScope = findTopOfScope(newCodeblock, containerForNode);
+                if (topOfScope != newCodeblock ) {
+                    processing.add(topOfScope);
+                }
+                MapContainer currentNodeContainer = new MapContainer(varToVal, expToVal, expToTemp, varToValForArrayComponents, valToVar, true);
+                containerForNode.put(newCodeblock, currentNodeContainer);
+                containerForNode.remove(cblock);
+                anythingReplaced = changedAtAll || anythingReplaced || tempsUsed.size() > 0;
+                if(changedAtAll){
+                    for(FlowNode child : newCodeblock.getChildren()){
+                        processing.add(child);
                     }
-                    MapContainer currentNodeContainer = new MapContainer(varToVal, expToVal, expToTemp, varToValForArrayComponents, valToVar, true);
-                    containerForNode.put(newCodeblock, currentNodeContainer);
-                    containerForNode.remove(cblock);
-                    anythingReplaced = changedAtAll || anythingReplaced || tempsUsed.size() > 0;
-                    if(changedAtAll){
-                        for(FlowNode child : newCodeblock.getChildren()){
+                }
+                else{
+                    for(FlowNode child : newCodeblock.getChildren()){
+                        if(!child.visited()){
                             processing.add(child);
                         }
                     }
-                    else{
-                        for(FlowNode child : newCodeblock.getChildren()){
-                            if(!child.visited()){
-                                processing.add(child);
-                            }
-                        }
-                    }
+                }
 
-                    for (Declaration newTemp : tempsUsed) {
-                        topOfScope.prependDeclaration(newTemp);
-                    }
+                for (Declaration newTemp : tempsUsed) {
+                    topOfScope.prependDeclaration(newTemp);
                 }
+            }
 
-                else if (currentNode instanceof Branch){
-                    Branch cbranch = (Branch)currentNode;
-                    Expression branchExpr = cbranch.getExpr();
-                    boolean worked = setVarIDs(varToVal, varToValForArrayComponents, branchExpr);
-                    if (worked) {
-                        SPSet branchExprSP = new SPSet(cbranch.getExpr());
-                        boolean changed = true; //we want to run repeated checks over the expression.
-                        while(changed){ //Until we reach a fixed point
-                            changed = false; //say we haven't
-                            for (SPSet key : expToVal.keySet()){ //Look at all keys in expToVal
-                                while (branchExprSP.contains(key, valToVar)){ //if we have any of those keys in our current expression
-                                    branchExprSP.replace(key, expToVal.get(key), valToVar);
-                                    changed = true; //Need to repass over, one substitution could lead to another
-                                    changedAtAll = true;
-                                }
+            else if (currentNode instanceof Branch){
+                Branch cbranch = (Branch)currentNode;
+                Expression branchExpr = cbranch.getExpr();
+                boolean worked = setVarIDs(varToVal, varToValForArrayComponents, branchExpr);
+                if (worked) {
+                    SPSet branchExprSP = new SPSet(cbranch.getExpr());
+                    boolean changed = true; //we want to run repeated checks over the expression.
+                    while(changed){ //Until we reach a fixed point
+                        changed = false; //say we haven't
+                        for (SPSet key : expToVal.keySet()){ //Look at all keys in expToVal
+                            while (branchExprSP.contains(key, valToVar)){ //if we have any of those keys in our current expression
+                                branchExprSP.replace(key, expToVal.get(key), valToVar);
+                                changed = true; //Need to repass over, one substitution could lead to another
+                                changedAtAll = true;
                             }
                         }
-                        anythingReplaced = changedAtAll || anythingReplaced;
-                        if(changedAtAll){ //don't do anything if we never changed the expr, no need to do busywork
-                            cbranch.setExpr(branchExprSP.toExpression(valToVar)); //in place modification on block. No need to make a new one.
-                        }
                     }
-                    containerForNode.put(currentNode, thisNodeContainer);
-                    if(changedAtAll){
-                        for(FlowNode child : currentNode.getChildren()){
-                            processing.add(child);
-                        }
+                    anythingReplaced = changedAtAll || anythingReplaced;
+                    if(changedAtAll){ //don't do anything if we never changed the expr, no need to do busywork
+                        cbranch.setExpr(branchExprSP.toExpression(valToVar)); //in place modification on block. No need to make a new one.
                     }
-                    else{
-                        for(FlowNode child : currentNode.getChildren()){
-                            if(!child.visited()){
-                                processing.add(child);
-                            }
-                        }
+                }
+                containerForNode.put(currentNode, thisNodeContainer);
+                if(changedAtAll){
+                    for(FlowNode child : currentNode.getChildren()){
+                        processing.add(child);
                     }
                 }
-
-                else if(currentNode instanceof NoOp){
-                    currentNode.visit();
-                    if(changedAtAll){
-                        for(FlowNode child : currentNode.getChildren()){
+                else{
+                    for(FlowNode child : currentNode.getChildren()){
+                        if(!child.visited()){
                             processing.add(child);
                         }
                     }
-                    else{
-                        for(FlowNode child : currentNode.getChildren()){
-                            if(!child.visited()){
-                                processing.add(child);
-                            }
-                        }
-                    }
-                    containerForNode.put(currentNode, thisNodeContainer);
-
                 }
+            }
 
-                else if(currentNode instanceof START){
-                    currentNode.visit();
-                    if(changedAtAll){
-                        for(FlowNode child : currentNode.getChildren()){
+            else if(currentNode instanceof NoOp){
+                currentNode.visit();
+                if(changedAtAll){
+                    for(FlowNode child : currentNode.getChildren()){
+                        processing.add(child);
+                    }
+                }
+                else{
+                    for(FlowNode child : currentNode.getChildren()){
+                        if(!child.visited()){
                             processing.add(child);
                         }
                     }
-                    else{
-                        for(FlowNode child : currentNode.getChildren()){
-                            if(!child.visited()){
-                                processing.add(child);
-                            }
+                }
+                containerForNode.put(currentNode, thisNodeContainer);
+
+            }
+
+            else if(currentNode instanceof START){
+                currentNode.visit();
+                if(changedAtAll){
+                    for(FlowNode child : currentNode.getChildren()){
+                        processing.add(child);
+                    }
+                }
+                else{
+                    for(FlowNode child : currentNode.getChildren()){
+                        if(!child.visited()){
+                            processing.add(child);
                         }
                     }
-                    containerForNode.put(currentNode, thisNodeContainer);
                 }
+                containerForNode.put(currentNode, thisNodeContainer);
+            }
 
-                else if(currentNode instanceof END){
-                    END theEnd = (END)currentNode;
-                    Expression returnExpr = theEnd.getReturnExpression();
-                    if(returnExpr != null){
-                        boolean canOpt = setVarIDs(varToVal, varToValForArrayComponents, returnExpr);
-                        if (canOpt) {
-                            SPSet retSP = new SPSet(returnExpr);
-                            boolean changed = true; //we want to run repeated checks over the expression.
-                            while(changed){ //Until we reach a fixed point
-                                changed = false; //say we haven't
-                                for (SPSet key : expToVal.keySet()){ //Look at all keys in expToVal
-                                    while (retSP.contains(key, valToVar)){ //if we have any of those keys in our current expression
-                                        retSP.remove(key, valToVar); //remove it
-                                        retSP.addToVarSet(expToVal.get(key)); //replace it with the already-computed value. 
-                                        changed = true; //Need to repass over, one substitution could lead to another
-                                        changedAtAll = true;
-                                    }
+            else if(currentNode instanceof END){
+                END theEnd = (END)currentNode;
+                Expression returnExpr = theEnd.getReturnExpression();
+                if(returnExpr != null){
+                    boolean canOpt = setVarIDs(varToVal, varToValForArrayComponents, returnExpr);
+                    if (canOpt) {
+                        SPSet retSP = new SPSet(returnExpr);
+                        boolean changed = true; //we want to run repeated checks over the expression.
+                        while(changed){ //Until we reach a fixed point
+                            changed = false; //say we haven't
+                            for (SPSet key : expToVal.keySet()){ //Look at all keys in expToVal
+                                while (retSP.contains(key, valToVar)){ //if we have any of those keys in our current expression
+                                    retSP.remove(key, valToVar); //remove it
+                                    retSP.addToVarSet(expToVal.get(key)); //replace it with the already-computed value. 
+                                    changed = true; //Need to repass over, one substitution could lead to another
+                                    changedAtAll = true;
                                 }
                             }
-                            anythingReplaced = changedAtAll || anythingReplaced;
+                        }
+                        anythingReplaced = changedAtAll || anythingReplaced;
 
-                            if(changedAtAll){
-                                theEnd.setReturnExpression(retSP.toExpression(valToVar));
-                            }
+                        if(changedAtAll){
+                            theEnd.setReturnExpression(retSP.toExpression(valToVar));
                         }
                     }
-                    containerForNode.put(currentNode, thisNodeContainer);
                 }
+                containerForNode.put(currentNode, thisNodeContainer);
             }
-            initialNode.resetVisit();
         }
-        //return Assembler.generateProgram(calloutList, globalList, flowNodes);
+        initialNode.resetVisit();
         return anythingReplaced;
     }
     
@@ -1916,37 +1550,6 @@ public class Optimizer {
         return topOfScope;
     }
 
-    private Codeblock topOfScopeForBranch(Branch loopHeader){
-    	FlowNode currentNode = findUpperParent(loopHeader);
-    	while (!(currentNode instanceof START)) {
-            if (currentNode instanceof END) {
-                throw new RuntimeException("this should have been impossible");
-            } else if (currentNode instanceof Codeblock) {
-                currentNode = currentNode.getParents().get(0);
-            } else if (currentNode instanceof Branch) {
-                currentNode = findUpperParent((Branch) currentNode);
-            } else if (currentNode instanceof NoOp) {
-                currentNode = findBranch((NoOp) currentNode);
-            } else {
-                throw new RuntimeException("missing case");
-            }
-        }
-        FlowNode nextChild = currentNode.getChildren().get(0);
-        Codeblock declarationsHere;
-        if (nextChild instanceof Codeblock) {
-            declarationsHere = (Codeblock) nextChild;
-        } 
-        else {
-            declarationsHere = new Codeblock();
-            declarationsHere.addParent(currentNode);
-            ((START) currentNode).removeChild(nextChild);
-            currentNode.addChild(declarationsHere);
-            declarationsHere.addChild(nextChild);
-            nextChild.replaceParent(declarationsHere, currentNode);
-        }
-        return declarationsHere;
-    }
-    
     private Branch findBranch(NoOp nop) {
         for (FlowNode p : nop.getParents()) {
             if (p instanceof Branch) {
@@ -0,0 +1,478 @@
+package edu.mit.compilers.controlflow;
+
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+
+/**
+ * Hash array mapped trie behind the java.util.Map interface.
+ *
+ * The trie nodes are never modified once built: put and remove copy the path from the root
+ * to the changed entry and share everything else. That makes copy() O(1), and lets intersect()
+ * skip any subtree the two maps still share, so it only visits the entries that differ.
+ *
+ * Values are shared between copies as well, so they must not be mutated once put in the map;
+ * put a new value instead.
+ */
+public class PersistentMap<K, V> extends AbstractMap<K, V> {
+    private static final int BITS = 5;
+    private static final int MASK = (1 << BITS) - 1;
+
+    /**
+     * Decides whether an entry present in both maps survives an intersection.
+     * Must accept a value matched against itself, since shared subtrees are kept without looking at them.
+     */
+    public interface ValueMatcher<V> {
+        boolean matches(V mine, V theirs);
+    }
+
+    private Node<K, V> root;
+
+    public PersistentMap() {
+        this.root = null;
+    }
+
+    private PersistentMap(Node<K, V> root) {
+        this.root = root;
+    }
+
+    /**
+     * Returns an independent map with the same entries, sharing the whole trie. O(1).
+     */
+    public PersistentMap<K, V> copy() {
+        return new PersistentMap<K, V>(root);
+    }
+
+    /**
+     * Entries of this map whose key is also in other and whose values the matcher accepts.
+     * Subtrees shared by both maps are reused as they are.
+     * @param other : map to intersect with.
+     * @param matcher : decides if the two values of a common key agree.
+     */
+    public PersistentMap<K, V> intersect(PersistentMap<K, V> other, ValueMatcher<V> matcher) {
+        return new PersistentMap<K, V>(intersect(root, other.root, 0, matcher));
+    }
+
+    @Override
+    public int size() {
+        return root == null ? 0 : root.size;
+    }
+
+    @Override
+    public boolean containsKey(Object key) {
+        return root != null && find(root, key, hash(key), 0) != null;
+    }
+
+    @Override
+    public V get(Object key) {
+        if (root == null) {
+            return null;
+        }
+        Leaf<K, V> leaf = find(root, key, hash(key), 0);
+        return leaf == null ? null : leaf.value;
+    }
+
+    @Override
+    public V put(K key, V value) {
+        int hash = hash(key);
+        Leaf<K, V> old = root == null ? null : find(root, key, hash, 0);
+        root = insert(root, new Leaf<K, V>(hash, key, value), 0);
+        return old == null ? null : old.value;
+    }
+
+    @Override
+    public V remove(Object key) {
+        if (root == null) {
+            return null;
+        }
+        int hash = hash(key);
+        Leaf<K, V> old = find(root, key, hash, 0);
+        if (old == null) {
+            return null;
+        }
+        root = delete(root, key, hash, 0);
+        return old.value;
+    }
+
+    @Override
+    public void clear() {
+        root = null;
+    }
+
+    @Override
+    public Set<Map.Entry<K, V>> entrySet() {
+        return new AbstractSet<Map.Entry<K, V>>() {
+            @Override
+            public Iterator<Map.Entry<K, V>> iterator() {
+                return new EntryIterator();
+            }
+
+            @Override
+            public int size() {
+                return PersistentMap.this.size();
+            }
+        };
+    }
+
+    private static int hash(Object key) {
+        int h = key == null ? 0 : key.hashCode();
+        return h ^ (h >>> 16);
+    }
+
+    private static boolean sameKey(Object a, Object b) {
+        return a == b || (a != null && a.equals(b));
+    }
+
+    private static abstract class Node<K, V> {
+        int size;
+    }
+
+    private static final class Leaf<K, V> extends Node<K, V> implements Map.Entry<K, V> {
+        final int hash;
+        final K key;
+        final V value;
+
+        Leaf(int hash, K key, V value) {
+            this.hash = hash;
+            this.key = key;
+            this.value = value;
+            this.size = 1;
+        }
+
+        public K getKey() {
+            return key;
+        }
+
+        public V getValue() {
+            return value;
+        }
+
+        public V setValue(V value) {
+            throw new UnsupportedOperationException("Entries of a PersistentMap cannot be changed in place; use put.");
+        }
+    }
+
+    /**
+     * Entries whose keys have the same full hash.
+     */
+    private static final class Collision<K, V> extends Node<K, V> {
+        final int hash;
+        final Leaf<K, V>[] leaves;
+
+        Collision(int hash, Leaf<K, V>[] leaves) {
+            this.hash = hash;
+            this.leaves = leaves;
+            this.size = leaves.length;
+        }
+    }
+
+    private static final class Branch<K, V> extends Node<K, V> {
+        final int bitmap;
+        final Node<K, V>[] children;
+
+        Branch(int bitmap, Node<K, V>[] children) {
+            this.bitmap = bitmap;
+            this.children = children;
+            for (Node<K, V> child : children) {
+                this.size += child.size;
+            }
+        }
+    }
+
+    private static int hashOf(Node<?, ?> node) {
+        return node instanceof Leaf ? ((Leaf<?, ?>) node).hash : ((Collision<?, ?>) node).hash;
+    }
+
+    private static <K, V> Leaf<K, V> find(Node<K, V> node, Object key, int hash, int shift) {
+        while (node instanceof Branch) {
+            Branch<K, V> branch = (Branch<K, V>) node;
+            int bit = 1 << ((hash >>> shift) & MASK);
+            if ((branch.bitmap & bit) == 0) {
+                return null;
+            }
+            node = branch.children[Integer.bitCount(branch.bitmap & (bit - 1))];
+            shift += BITS;
+        }
+        if (node instanceof Leaf) {
+            Leaf<K, V> leaf = (Leaf<K, V>) node;
+            return leaf.hash == hash && sameKey(leaf.key, key) ? leaf : null;
+        }
+        Collision<K, V> collision = (Collision<K, V>) node;
+        if (collision.hash != hash) {
+            return null;
+        }
+        for (Leaf<K, V> leaf : collision.leaves) {
+            if (sameKey(leaf.key, key)) {
+                return leaf;
+            }
+        }
+        return null;
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <K, V> Node<K, V> insert(Node<K, V> node, Leaf<K, V> leaf, int shift) {
+        if (node == null) {
+            return leaf;
+        }
+        if (node instanceof Branch) {
+            Branch<K, V> branch = (Branch<K, V>) node;
+            int bit = 1 << ((leaf.hash >>> shift) & MASK);
+            int index = Integer.bitCount(branch.bitmap & (bit - 1));
+            if ((branch.bitmap & bit) != 0) {
+                Node<K, V> child = branch.children[index];
+                Node<K, V> newChild = insert(child, leaf, shift + BITS);
+                if (newChild == child) {
+                    return branch;
+                }
+                Node<K, V>[] children = branch.children.clone();
+                children[index] = newChild;
+                return new Branch<K, V>(branch.bitmap, children);
+            }
+            Node<K, V>[] children = newNodes(branch.children.length + 1);
+            System.arraycopy(branch.children, 0, children, 0, index);
+            children[index] = leaf;
+            System.arraycopy(branch.children, index, children, index + 1, branch.children.length - index);
+            return new Branch<K, V>(branch.bitmap | bit, children);
+        }
+        if (hashOf(node) != leaf.hash) {
+            return merge(node, leaf, shift);
+        }
+        if (node instanceof Leaf) {
+            Leaf<K, V> old = (Leaf<K, V>) node;
+            if (sameKey(old.key, leaf.key)) {
+                return old.value == leaf.value ? old : leaf;
+            }
+            Leaf<K, V>[] leaves = newLeaves(2);
+            leaves[0] = old;
+            leaves[1] = leaf;
+            return new Collision<K, V>(leaf.hash, leaves);
+        }
+        Collision<K, V> collision = (Collision<K, V>) node;
+        for (int i = 0; i < collision.leaves.length; i++) {
+            if (sameKey(collision.leaves[i].key, leaf.key)) {
+                if (collision.leaves[i].value == leaf.value) {
+                    return collision;
+                }
+                Leaf<K, V>[] leaves = collision.leaves.clone();
+                leaves[i] = leaf;
+                return new Collision<K, V>(leaf.hash, leaves);
+            }
+        }
+        Leaf<K, V>[] leaves = newLeaves(collision.leaves.length + 1);
+        System.arraycopy(collision.leaves, 0, leaves, 0, collision.leaves.length);
+        leaves[collision.leaves.length] = leaf;
+        return new Collision<K, V>(leaf.hash, leaves);
+    }
+
+    /**
+     * Java can't create an array of a generic type, so these make a raw one; it only ever holds
+     * nodes of one map.
+     */
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    private static <K, V> Node<K, V>[] newNodes(int length) {
+        return new Node[length];
+    }
+
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    private static <K, V> Leaf<K, V>[] newLeaves(int length) {
+        return new Leaf[length];
+    }
+
+    /**
+     * Builds the smallest branch that separates two leaf-level nodes with different hashes.
+     */
+    private static <K, V> Node<K, V> merge(Node<K, V> a, Node<K, V> b, int shift) {
+        int aIndex = (hashOf(a) >>> shift) & MASK;
+        int bIndex = (hashOf(b) >>> shift) & MASK;
+        if (aIndex == bIndex) {
+            Node<K, V>[] only = newNodes(1);
+            only[0] = merge(a, b, shift + BITS);
+            return new Branch<K, V>(1 << aIndex, only);
+        }
+        Node<K, V>[] children = newNodes(2);
+        children[aIndex < bIndex ? 0 : 1] = a;
+        children[aIndex < bIndex ? 1 : 0] = b;
+        return new Branch<K, V>((1 << aIndex) | (1 << bIndex), children);
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <K, V> Node<K, V> delete(Node<K, V> node, Object key, int hash, int shift) {
+        if (node instanceof Leaf) {
+            return null; // only called once the key is known to be present
+        }
+        if (node instanceof Collision) {
+            Collision<K, V> collision = (Collision<K, V>) node;
+            List<Leaf<K, V>> remaining = new ArrayList<Leaf<K, V>>();
+            for (Leaf<K, V> leaf : collision.leaves) {
+                if (!sameKey(leaf.key, key)) {
+                    remaining.add(leaf);
+                }
+            }
+            if (remaining.size() == 1) {
+                return remaining.get(0);
+            }
+            Leaf<K, V>[] leaves = newLeaves(remaining.size());
+            return new Collision<K, V>(hash, remaining.toArray(leaves));
+        }
+        Branch<K, V> branch = (Branch<K, V>) node;
+        int bit = 1 << ((hash >>> shift) & MASK);
+        int index = Integer.bitCount(branch.bitmap & (bit - 1));
+        Node<K, V> newChild = delete(branch.children[index], key, hash, shift + BITS);
+        if (newChild == null) {
+            if (branch.children.length == 1) {
+                return null;
+            }
+            Node<K, V>[] children = newNodes(branch.children.length - 1);
+            System.arraycopy(branch.children, 0, children, 0, index);
+            System.arraycopy(branch.children, index + 1, children, index, children.length - index);
+            if (children.length == 1 && !(children[0] instanceof Branch)) {
+                return children[0];
+            }
+            return new Branch<K, V>(branch.bitmap & ~bit, children);
+        }
+        if (branch.children.length == 1 && !(newChild instanceof Branch)) {
+            return newChild;
+        }
+        Node<K, V>[] children = branch.children.clone();
+        children[index] = newChild;
+        return new Branch<K, V>(branch.bitmap, children);
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <K, V> Node<K, V> intersect(Node<K, V> mine, Node<K, V> theirs, int shift, ValueMatcher<V> matcher) {
+        if (mine == theirs) {
+            return mine;
+        }
+        if (mine == null || theirs == null) {
+            return null;
+        }
+        if (mine instanceof Branch && theirs instanceof Branch) {
+            Branch<K, V> myBranch = (Branch<K, V>) mine;
+            Branch<K, V> theirBranch = (Branch<K, V>) theirs;
+            Node<K, V>[] children = newNodes(myBranch.children.length);
+            int bitmap = 0;
+            int count = 0;
+            boolean unchanged = true;
+            for (int slot = 0, index = 0; slot < 32 && index < myBranch.children.length; slot++) {
+                int bit = 1 << slot;
+                if ((myBranch.bitmap & bit) == 0) {
+                    continue;
+                }
+                Node<K, V> myChild = myBranch.children[index++];
+                Node<K, V> kept = null;
+                if ((theirBranch.bitmap & bit) != 0) {
+                    Node<K, V> theirChild = theirBranch.children[Integer.bitCount(theirBranch.bitmap & (bit - 1))];
+                    kept = intersect(myChild, theirChild, shift + BITS, matcher);
+                }
+                unchanged = unchanged && kept == myChild;
+                if (kept != null) {
+                    children[count++] = kept;
+                    bitmap |= bit;
+                }
+            }
+            if (unchanged) {
+                return mine;
+            }
+            if (count == 0) {
+                return null;
+            }
+            if (count == 1 && !(children[0] instanceof Branch)) {
+                return children[0];
+            }
+            Node<K, V>[] trimmed = newNodes(count);
+            System.arraycopy(children, 0, trimmed, 0, count);
+            return new Branch<K, V>(bitmap, trimmed);
+        }
+        // At least one side is down to leaves; look each of my entries up in theirs.
+        Node<K, V> result = null;
+        boolean unchanged = true;
+        Iterator<Leaf<K, V>> leaves = new LeafIterator<K, V>(mine);
+        while (leaves.hasNext()) {
+            Leaf<K, V> leaf = leaves.next();
+            Leaf<K, V> match = find(theirs, leaf.key, leaf.hash, shift);
+            if (match != null && matcher.matches(leaf.value, match.value)) {
+                result = insert(result, leaf, shift);
+            } else {
+                unchanged = false;
+            }
+        }
+        return unchanged ? mine : result;
+    }
+
+    /**
+     * Depth first walk over the leaves below a node.
+     */
+    private static final class LeafIterator<K, V> implements Iterator<Leaf<K, V>> {
+        private List<Node<K, V>> stack = new ArrayList<Node<K, V>>();
+
+        LeafIterator(Node<K, V> start) {
+            if (start != null) {
+                pushLeaves(start);
+            }
+        }
+
+        private void pushLeaves(Node<K, V> node) {
+            if (node instanceof Branch) {
+                Node<K, V>[] children = ((Branch<K, V>) node).children;
+                for (int i = children.length - 1; i >= 0; i--) {
+                    stack.add(children[i]);
+                }
+            } else if (node instanceof Collision) {
+                Leaf<K, V>[] leaves = ((Collision<K, V>) node).leaves;
+                for (int i = leaves.length - 1; i >= 0; i--) {
+                    stack.add(leaves[i]);
+                }
+            } else {
+                stack.add(node);
+            }
+        }
+
+        public boolean hasNext() {
+            while (!stack.isEmpty() && !(stack.get(stack.size() - 1) instanceof Leaf)) {
+                pushLeaves(stack.remove(stack.size() - 1));
+            }
+            return !stack.isEmpty();
+        }
+
+        public Leaf<K, V> next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            return (Leaf<K, V>) stack.remove(stack.size() - 1);
+        }
+
+        public void remove() {
+            throw new UnsupportedOperationException();
+        }
+    }
+
+    /**
+     * Iterates over the trie as it was when the iterator was made; remove() goes through the map.
+     */
+    private final class EntryIterator implements Iterator<Map.Entry<K, V>> {
+        private LeafIterator<K, V> leaves = new LeafIterator<K, V>(root);
+        private Leaf<K, V> last;
+
+        public boolean hasNext() {
+            return leaves.hasNext();
+        }
+
+        public Map.Entry<K, V> next() {
+            last = leaves.next();
+            return last;
+        }
+
+        public void remove() {
+            if (last == null) {
+                throw new IllegalStateException();
+            }
+            PersistentMap.this.remove(last.key);
+            last = null;
+        }
+    }
+}
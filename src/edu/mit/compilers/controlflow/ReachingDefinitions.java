@@ -0,0 +1,143 @@
+package edu.mit.compilers.controlflow;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import edu.mit.compilers.ir.IR_FieldDecl;
+
+/**
+ * Forward reaching definitions over the statements of a single method, solved with DataflowAnalysis.
+ *
+ * A definition is a Declaration or an Assignment to a whole variable, numbered in the order the
+ * solver first meets them; assigning to an array element doesn't define anything here. The
+ * values variables have on entry to the method, and whatever calls do to globals, are not
+ * definitions, so a variable with no definition reaching a point still has its value from
+ * outside whatever region the caller is looking at.
+ */
+public class ReachingDefinitions extends DataflowAnalysis {
+
+	/**
+	 * One definition: a statement of a Codeblock and the variable it sets.
+	 */
+	public static class Definition {
+		public final Codeblock block;
+		public final Statement statement;
+		public final IR_FieldDecl decl;
+
+		Definition(Codeblock block, Statement statement, IR_FieldDecl decl) {
+			this.block = block;
+			this.statement = statement;
+			this.decl = decl;
+		}
+	}
+
+	private List<Definition> definitions = new ArrayList<Definition>();
+	private Map<Statement, Integer> numbers = new HashMap<Statement, Integer>();
+	private Map<IR_FieldDecl, BitSet> byVariable = new HashMap<IR_FieldDecl, BitSet>();
+	private Map<FlowNode, BitSet> in = new HashMap<FlowNode, BitSet>();
+	private Map<FlowNode, BitSet> out = new HashMap<FlowNode, BitSet>();
+
+	/**
+	 * @param st : a statement.
+	 * @return the variable st defines, or null if it doesn't define one.
+	 */
+	public static IR_FieldDecl definedBy(Statement st) {
+		if (st instanceof Declaration) {
+			return ((Declaration) st).getFieldDecl();
+		} else if (st instanceof Assignment) {
+			Var dest = ((Assignment) st).getDestVar();
+			return dest.isArray() ? null : dest.getFieldDecl();
+		}
+		return null;
+	}
+
+	/**
+	 * Every definition of the last solved method, indexed by the bits of the sets handed out.
+	 */
+	public List<Definition> getDefinitions() {
+		return definitions;
+	}
+
+	/**
+	 * Bit of the definition made by st, or -1 if st doesn't define anything.
+	 */
+	public int numberOf(Statement st) {
+		Integer number = numbers.get(st);
+		return number == null ? -1 : number;
+	}
+
+	/**
+	 * Definitions reaching the entry of node. Don't change the set.
+	 */
+	public BitSet getIn(FlowNode node) {
+		return in.get(node);
+	}
+
+	/**
+	 * Every definition of decl. Don't change the set.
+	 */
+	public BitSet definitionsOf(IR_FieldDecl decl) {
+		BitSet defs = byVariable.get(decl);
+		return defs == null ? new BitSet() : defs;
+	}
+
+	@Override
+	protected Direction getDirection() {
+		return Direction.FORWARD;
+	}
+
+	@Override
+	protected void initialize(FlowNode node) {
+		in.put(node, new BitSet());
+		out.put(node, new BitSet());
+		if (node instanceof Codeblock) {
+			Codeblock block = (Codeblock) node;
+			for (Statement st : block.getStatements()) {
+				IR_FieldDecl decl = definedBy(st);
+				if (decl == null) {
+					continue;
+				}
+				int number = definitions.size();
+				definitions.add(new Definition(block, st, decl));
+				numbers.put(st, number);
+				BitSet defs = byVariable.get(decl);
+				if (defs == null) {
+					defs = new BitSet();
+					byVariable.put(decl, defs);
+				}
+				defs.set(number);
+			}
+		}
+	}
+
+	@Override
+	protected void meet(FlowNode node, List<FlowNode> predecessors, boolean boundary) {
+		BitSet nodeIn = in.get(node);
+		nodeIn.clear();
+		for (FlowNode pred : predecessors) {
+			nodeIn.or(out.get(pred));
+		}
+	}
+
+	@Override
+	protected boolean transfer(FlowNode node) {
+		BitSet result = (BitSet) in.get(node).clone();
+		if (node instanceof Codeblock) {
+			for (Statement st : ((Codeblock) node).getStatements()) {
+				IR_FieldDecl decl = definedBy(st);
+				if (decl != null) {
+					result.andNot(byVariable.get(decl));
+					result.set(numbers.get(st));
+				}
+			}
+		}
+		if (result.equals(out.get(node))) {
+			return false;
+		}
+		out.put(node, result);
+		return true;
+	}
+}
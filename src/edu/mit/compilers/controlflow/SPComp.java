@@ -49,13 +49,12 @@ public class SPComp {
         if (!(other instanceof SPComp)) {
             return false;
         }
-        SPComp otherComp = (SPComp) other;
-        return operator == otherComp.operator && lhs.equals(otherComp.lhs) && rhs.equals(otherComp.rhs);
+        return SPKey.of(this) == SPKey.of((SPComp) other);
     }
     
     @Override
     public int hashCode(){
-        return operator.hashCode() + lhs.hashCode() + rhs.hashCode();
+        return SPKey.of(this).hashCode();
     }
     
     public CompExpr toExpression(Map<ValueID, List<Var>> valToVar) {
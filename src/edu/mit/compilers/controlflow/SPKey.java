@@ -0,0 +1,189 @@
+package edu.mit.compilers.controlflow;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Canonical, hash-consed form of an SPSet, SPTern or SPComp.
+ *
+ * A key is an immutable int[] shape: a tag, the operator, and for an SPSet the ids of its
+ * members sorted within each of the seven categories, so two SPSets holding the same multisets
+ * get the same shape no matter in which order they were built. Shapes are interned,
+ * which means two expressions are equal exactly when their keys are the same object.
+ * The hash is mixed once when the key is built.
+ *
+ * Leaves (ValueIDs, int and bool literals, MethodCalls) are numbered with their own equals,
+ * so equality is the same as the old member-by-member SPSet.equals.
+ *
+ * The intern tables belong to the calling thread, and CSE starts a fresh one for every method
+ * with newTable(). That way the ids, and so the hashes and the iteration order of maps keyed by
+ * expressions, only depend on the method being optimized, even when methods run concurrently.
+ */
+public final class SPKey {
+    private static final int SET = 0;
+    private static final int TERN = 1;
+    private static final int COMP = 2;
+
+    private static class Table {
+        final Map<SPKey, SPKey> interned = new HashMap<SPKey, SPKey>();
+        final Map<Object, Integer> leafIDs = new HashMap<Object, Integer>();
+    }
+
+    private static final ThreadLocal<Table> currentTable = new ThreadLocal<Table>() {
+        @Override
+        protected Table initialValue() {
+            return new Table();
+        }
+    };
+
+    private final int[] shape;
+    private final int hash;
+    private final Table table;
+    private int id = -1;
+
+    private SPKey(int[] shape, Table table) {
+        this.shape = shape;
+        this.hash = mix(shape);
+        this.table = table;
+    }
+
+    /**
+     * Starts interning into an empty table on the calling thread. Keys made before are never
+     * equal to the new ones; SPSets notice this through isCurrent() and rebuild their cached key.
+     */
+    public static void newTable() {
+        currentTable.set(new Table());
+    }
+
+    /**
+     * Drops the calling thread's table once CSE is done with it, so a thread that goes on to other
+     * work (or to another compilation) doesn't keep the keys of the last method alive.
+     */
+    public static void releaseTable() {
+        currentTable.remove();
+    }
+
+    /**
+     * @return whether this key was interned in the calling thread's current table.
+     */
+    boolean isCurrent() {
+        return table == currentTable.get();
+    }
+
+    public static SPKey of(SPSet set) {
+        Table table = currentTable.get();
+        int size = 9 + set.SPSets.size() + set.varSet.size() + set.intSet.size() + set.boolSet.size()
+                + set.ternSet.size() + set.methodCalls.size() + set.comparisons.size();
+        int[] shape = new int[size];
+        shape[0] = SET;
+        shape[1] = set.operator == null ? -1 : set.operator.ordinal();
+        int pos = 2;
+        int start = pos;
+        for (SPSet inner : set.SPSets) {
+            shape[pos++] = inner.getCanonicalKey().id;
+        }
+        pos = close(shape, start, pos);
+        start = pos;
+        pos = addLeaves(table, shape, pos, set.varSet);
+        pos = close(shape, start, pos);
+        start = pos;
+        pos = addLeaves(table, shape, pos, set.intSet);
+        pos = close(shape, start, pos);
+        start = pos;
+        pos = addLeaves(table, shape, pos, set.boolSet);
+        pos = close(shape, start, pos);
+        start = pos;
+        for (SPTern tern : set.ternSet) {
+            shape[pos++] = of(tern).id;
+        }
+        pos = close(shape, start, pos);
+        start = pos;
+        pos = addLeaves(table, shape, pos, set.methodCalls);
+        pos = close(shape, start, pos);
+        start = pos;
+        for (SPComp comp : set.comparisons) {
+            shape[pos++] = of(comp).id;
+        }
+        close(shape, start, pos);
+        return intern(table, shape);
+    }
+
+    public static SPKey of(SPTern tern) {
+        return intern(currentTable.get(), new int[] {TERN, tern.cond.getCanonicalKey().id,
+                tern.trueBranch.getCanonicalKey().id, tern.falseBranch.getCanonicalKey().id});
+    }
+
+    public static SPKey of(SPComp comp) {
+        return intern(currentTable.get(), new int[] {COMP, comp.getOperator() == null ? -1 : comp.getOperator().ordinal(),
+                comp.getLhs().getCanonicalKey().id, comp.getRhs().getCanonicalKey().id});
+    }
+
+    private static int addLeaves(Table table, int[] shape, int pos, List<?> leaves) {
+        for (Object leaf : leaves) {
+            Integer leafID = table.leafIDs.get(leaf);
+            if (leafID == null) {
+                leafID = table.leafIDs.size();
+                table.leafIDs.put(leaf, leafID);
+            }
+            shape[pos++] = leafID;
+        }
+        return pos;
+    }
+
+    /**
+     * Sorts the ids written since start and appends the count, which separates the categories.
+     */
+    private static int close(int[] shape, int start, int pos) {
+        Arrays.sort(shape, start, pos);
+        shape[pos] = pos - start;
+        return pos + 1;
+    }
+
+    private static SPKey intern(Table table, int[] shape) {
+        SPKey key = new SPKey(shape, table);
+        SPKey existing = table.interned.get(key);
+        if (existing != null) {
+            return existing;
+        }
+        key.id = table.interned.size();
+        table.interned.put(key, key);
+        return key;
+    }
+
+    private static int mix(int[] shape) {
+        int h = 0x9747b28c;
+        for (int word : shape) {
+            int k = word * 0xcc9e2d51;
+            k = Integer.rotateLeft(k, 15) * 0x1b873593;
+            h = Integer.rotateLeft(h ^ k, 13) * 5 + 0xe6546b64;
+        }
+        h ^= shape.length;
+        h ^= h >>> 16;
+        h *= 0x85ebca6b;
+        h ^= h >>> 13;
+        h *= 0xc2b2ae35;
+        return h ^ (h >>> 16);
+    }
+
+    @Override
+    public int hashCode() {
+        return hash;
+    }
+
+    /**
+     * Only used while interning; once interned, keys are compared with ==.
+     */
+    @Override
+    public boolean equals(Object other) {
+        if (this == other) {
+            return true;
+        }
+        if (!(other instanceof SPKey)) {
+            return false;
+        }
+        SPKey otherKey = (SPKey) other;
+        return hash == otherKey.hash && Arrays.equals(shape, otherKey.shape);
+    }
+}
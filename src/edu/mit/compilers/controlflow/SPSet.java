@@ -18,6 +18,7 @@ public class SPSet {
     List<SPComp> comparisons;
     List<MethodCall> methodCalls;
     Boolean containsMethodCalls;
+    SPKey canonicalKey;
     public Ops operator;
 
     public SPSet(Ops op){
@@ -266,9 +267,6 @@ public class SPSet {
         }
         Expression l = expr.getLeftSide();
         Expression r = expr.getRightSide();
-        if (l instanceof CompExpr || r instanceof CompExpr) {
-            throw new RuntimeException("something has gone very, very wrong");
-        }
         if (l instanceof Var) {
             outer.varSet.add(((Var) l).getValueID());
         } else if (l instanceof Ternary) {
@@ -367,6 +365,7 @@ public class SPSet {
     }
 
     public void addToSPSets(SPSet newSP){
+        canonicalKey = null;
         if(operator == Ops.NOT || operator == Ops.NEGATE){
             if(!(SPSets.isEmpty() && varSet.isEmpty() && intSet.isEmpty() && boolSet.isEmpty())){
                 throw new UnsupportedOperationException("Tried to add to an SPSet when it wasn't empty for a NOT.");
@@ -377,6 +376,7 @@ public class SPSet {
     }
 
     public void addToVarSet(ValueID newVar){
+        canonicalKey = null;
         if(operator == Ops.NOT || operator == Ops.NEGATE){
             if(!(SPSets.isEmpty() && varSet.isEmpty() && intSet.isEmpty() && boolSet.isEmpty())){
                 throw new UnsupportedOperationException("Tried to add to an VarSet when it wasn't empty for a NOT.");
@@ -387,6 +387,7 @@ public class SPSet {
     }
 
     public void addToIntSet(IntLit newInt){
+        canonicalKey = null;
         if(operator == Ops.NOT || operator == Ops.NEGATE){
             if(!(SPSets.isEmpty() && varSet.isEmpty() && intSet.isEmpty() && boolSet.isEmpty())){
                 throw new UnsupportedOperationException("Tried to add to an intSet when it wasn't empty for a NOT.");
@@ -397,6 +398,7 @@ public class SPSet {
     }
 
     public void addToBoolSet(BoolLit newBool){
+        canonicalKey = null;
         if(operator == Ops.NOT || operator == Ops.NEGATE){
             if(!(SPSets.isEmpty() && varSet.isEmpty() && intSet.isEmpty() && boolSet.isEmpty())){
                 throw new UnsupportedOperationException("Tried to add to an boolSet when it wasn't empty for a NOT.");
@@ -407,6 +409,7 @@ public class SPSet {
     }
 
     public void applyConstantFolding(){
+        canonicalKey = null;
     	if(operator == Ops.PLUS){
     		long sum = 0;
     		Iterator<Long> intSetIter = intSet.iterator();
@@ -855,7 +858,7 @@ public class SPSet {
         if (operator == Ops.PLUS) {
             return new AddExpr(lhs, operator, rhs);
         } else if (operator == Ops.OR || operator == Ops.AND) {
-            return new CompExpr(lhs, operator, rhs);
+            return new CondExpr(lhs, operator, rhs);
         } else if (operator == Ops.TIMES) {
             return new MultExpr(lhs, operator, rhs);
         } else if (operator == Ops.DIVIDE) {
@@ -1348,6 +1351,7 @@ public class SPSet {
     }
 
     void remove(SPSet set, Map<ValueID, List<Var>> valToVar) {
+        canonicalKey = null;
         if (set.containsMethodCalls()) {
             containsMethodCalls = null;
         }
@@ -2078,6 +2082,7 @@ public class SPSet {
     }
     
     void replace(SPSet set, ValueID var, Map<ValueID, List<Var>> valToVar) {
+        canonicalKey = null;
         if (set.containsMethodCalls()) {
             containsMethodCalls = null;
         }
@@ -2834,6 +2839,7 @@ public class SPSet {
 
 
     void remove(Expression expr, Map<ValueID, List<Var>> valToVar) {
+        canonicalKey = null;
         containsMethodCalls = null;
         if (!contains(expr, valToVar)) {
             throw new RuntimeException("Can't remove what isn't there");
@@ -2845,29 +2851,21 @@ public class SPSet {
 
 
 
+    /**
+     * Interned canonical form of this set. It is cached until the set is next modified
+     * or a new SPKey table is started, so sets used as map keys must not be changed
+     * while they are in the map.
+     */
+    SPKey getCanonicalKey(){
+        if (canonicalKey == null || !canonicalKey.isCurrent()) {
+            canonicalKey = SPKey.of(this);
+        }
+        return canonicalKey;
+    }
+
     @Override
     public int hashCode(){
-        int hash = operator==null ? 0 :operator.hashCode();
-        for (SPSet cset : SPSets){
-            hash = (hash + cset.hashCode()) % Integer.MAX_VALUE;
-        }
-        for (ValueID decl : varSet){
-            hash = (hash + decl.hashCode()) % Integer.MAX_VALUE;
-        }
-        for (Long il : intSet){
-            hash = (hash + il.hashCode()) % Integer.MAX_VALUE;
-        }
-        for (Boolean bl : boolSet){
-            hash = (hash + bl.hashCode()) % Integer.MAX_VALUE;
-        } for (SPTern tern : ternSet){
-            hash = (hash + tern.hashCode()) % Integer.MAX_VALUE;
-        }
-        for (MethodCall call : methodCalls) {
-            hash = (hash + call.hashCode()) % Integer.MAX_VALUE;
-        } for (SPComp comp : comparisons) {
-            hash = (hash + comp.hashCode()) % Integer.MAX_VALUE;
-        }
-        return hash;
+        return getCanonicalKey().hashCode();
     }
 
     @Override
@@ -2875,81 +2873,7 @@ public class SPSet {
         if(!(obj instanceof SPSet)){
             return false;
         }
-        SPSet sp = (SPSet)obj;
-        if(sp.operator != this.operator){
-            return false;
-        }
-        List<SPSet> SPCopy = new ArrayList<SPSet>(SPSets);
-        if (SPSets.size() != sp.SPSets.size()) {
-            return false;
-        }
-        for (SPSet i : sp.SPSets) {
-            if (!SPCopy.contains(i)) {
-                return false;
-            }
-            SPCopy.remove(i);
-        }
-        List<ValueID> valCopy = new ArrayList<ValueID>(varSet);
-        if (varSet.size() != sp.varSet.size()) {
-            return false;
-        }
-        for (ValueID i : sp.varSet) {
-            if (!valCopy.contains(i)) {
-                return false;
-            }
-            valCopy.remove(i);
-        }
-        List<Long> intCopy = new ArrayList<Long>(intSet);
-        if (intSet.size() != sp.intSet.size()) {
-            return false;
-        }
-        for (Long i : sp.intSet) {
-            if (!intCopy.contains(i)){
-                return false;
-            }
-            intCopy.remove(i);
-        }
-        List<Boolean> boolCopy = new ArrayList<Boolean>(boolSet);
-        if (boolSet.size() != sp.boolSet.size()) {
-            return false;
-        }
-        for (Boolean i : sp.boolSet) {
-            if (!boolCopy.contains(i)) {
-                return false;
-            }
-            boolCopy.remove(i);
-        }
-        List<SPTern> ternCopy = new ArrayList<SPTern>(ternSet);
-        if (ternSet.size() != sp.ternSet.size()) {
-            return false;
-        }
-        for (SPTern i : sp.ternSet) {
-            if (!ternCopy.contains(i)) {
-                return false;
-            }
-            ternCopy.remove(i);
-        }
-        List<MethodCall> callCopy = new ArrayList<MethodCall>(methodCalls);
-        if (methodCalls.size() != sp.methodCalls.size()) {
-            return false;
-        }
-        for (MethodCall i : sp.methodCalls) {
-            if (!callCopy.contains(i)) {
-                return false;
-            }
-            callCopy.remove(i);
-        }
-        List<SPComp> compCopy = new ArrayList<SPComp>(comparisons);
-        if (comparisons.size() != sp.comparisons.size()) {
-            return false;
-        }
-        for (SPComp i : sp.comparisons) {
-            if (!compCopy.contains(i)) {
-                return false;
-            }
-            compCopy.remove(i);
-        }
-        return true;
+        return getCanonicalKey() == ((SPSet) obj).getCanonicalKey();
     }
 
     public String toString(){
@@ -83,15 +83,12 @@ public class SPTern {
         if (!(other instanceof SPTern)){
             return false;
         }
-        SPTern otherTern = (SPTern) other;
-        return (otherTern.getTernaryCondition().equals(cond) 
-                && otherTern.getFalseBranch().equals(falseBranch) 
-                && otherTern.getTrueBranch().equals(trueBranch));
+        return SPKey.of(this) == SPKey.of((SPTern) other);
     }
     
     @Override
     public int hashCode(){
-        return cond.hashCode() + falseBranch.hashCode() + trueBranch.hashCode();
+        return SPKey.of(this).hashCode();
     }
     
     public Ternary toExpression(Map<ValueID, List<Var>> valToVar){
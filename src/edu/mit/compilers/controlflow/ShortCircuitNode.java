@@ -5,14 +5,14 @@ import java.util.List;
 
 import edu.mit.compilers.codegen.Instruction;
 import edu.mit.compilers.codegen.LocLabel;
-import edu.mit.compilers.codegen.LocLiteral;
-import edu.mit.compilers.codegen.LocReg;
-import edu.mit.compilers.codegen.Regs;
+import edu.mit.compilers.codegen.Opcode;
 import edu.mit.compilers.ir.Ops;
-import edu.mit.compilers.regalloc.AssignRegisters;
 
 public abstract class ShortCircuitNode {
-    abstract public List<Instruction> codegen (ControlflowContext context, boolean useAssignRegister);
+    /**
+     * @param selector : evaluates the conditions at the leaves.
+     */
+    abstract public List<Instruction> codegen (ControlflowContext context, ExpressionSelector selector);
     public String jumpLabel;
     public boolean generated=false;
     public String getLabel(){
@@ -28,7 +28,7 @@ public abstract class ShortCircuitNode {
             jumpLabel = label;
         }       
         @Override
-        public List<Instruction> codegen(ControlflowContext context, boolean useAssignRegister) {
+        public List<Instruction> codegen(ControlflowContext context, ExpressionSelector selector) {
             ArrayList<Instruction> ins = new ArrayList<Instruction>();
             generated = true;
             return ins;
@@ -46,21 +46,12 @@ public abstract class ShortCircuitNode {
         }
 
         @Override
-        public List<Instruction> codegen(ControlflowContext context, boolean useAssignRegister) {
+        public List<Instruction> codegen(ControlflowContext context, ExpressionSelector selector) {
             generated = true;
             ArrayList<Instruction> ins = new ArrayList<Instruction>();
             if(jumpLabel != null){
                 ins.add(Instruction.labelInstruction(jumpLabel));               
             }
-            if (useAssignRegister) {
-            	ins.addAll(AssignRegisters.generateExpression(c, context));
-            } else {
-            	ins.addAll(Assembler.generateExpression(c, context));
-            }
-            LocReg r10 = new LocReg(Regs.R10);
-            LocLiteral zero = new LocLiteral(0);
-            ins.addAll(context.pop(r10));
-            
             if(t.getLabel() == null){
                 t.setLabel(context.genLabel());
             }
@@ -69,16 +60,14 @@ public abstract class ShortCircuitNode {
                 f.setLabel(context.genLabel());
             }           
             LocLabel tlabel = new LocLabel(t.getLabel());
-            LocLabel flabel = new LocLabel(f.getLabel());
             
-            ins.add(new Instruction("cmpq", zero, r10));
-            ins.add(new Instruction("je", flabel));
-            ins.add(new Instruction("jmp", tlabel));
+            selector.generateBranch(c, f.getLabel(), ins);
+            ins.add(new Instruction(Opcode.JMP, tlabel));
             if(!f.generated){
-                ins.addAll(f.codegen(context, useAssignRegister));
+                ins.addAll(f.codegen(context, selector));
             }
             if(!t.generated){
-                ins.addAll(t.codegen(context, useAssignRegister));
+                ins.addAll(t.codegen(context, selector));
             }
             return ins;
         }
@@ -95,21 +84,12 @@ public abstract class ShortCircuitNode {
         }
 
         
-        public List<Instruction> codegen(ControlflowContext context, boolean useAssignRegister) {
+        public List<Instruction> codegen(ControlflowContext context, ExpressionSelector selector) {
             generated = true;
             ArrayList<Instruction> ins = new ArrayList<Instruction>();
             if(jumpLabel != null){
                 ins.add(Instruction.labelInstruction(jumpLabel));               
             }
-            if (useAssignRegister) {
-            	ins.addAll(AssignRegisters.generateExpression(c, context));
-            } else {
-            	ins.addAll(Assembler.generateExpression(c, context));
-            }
-            LocReg r10 = new LocReg(Regs.R10);
-            LocLiteral zero = new LocLiteral(0);
-            ins.addAll(context.pop(r10));
-            
             if(t.getLabel() == null){
                 t.setLabel(context.genLabel());
             }
@@ -118,16 +98,14 @@ public abstract class ShortCircuitNode {
                 f.setLabel(context.genLabel());
             }           
             LocLabel tlabel = new LocLabel(t.getLabel());
-            LocLabel flabel = new LocLabel(f.getLabel());
             
-            ins.add(new Instruction("cmpq", zero, r10));
-            ins.add(new Instruction("je", flabel));
-            ins.add(new Instruction("jmp", tlabel));
+            selector.generateBranch(c, f.getLabel(), ins);
+            ins.add(new Instruction(Opcode.JMP, tlabel));
             if(!f.generated){
-                ins.addAll(f.codegen(context, useAssignRegister));
+                ins.addAll(f.codegen(context, selector));
             }
             if(!t.generated){
-                ins.addAll(t.codegen(context, useAssignRegister));
+                ins.addAll(t.codegen(context, selector));
             }
             return ins;
         }
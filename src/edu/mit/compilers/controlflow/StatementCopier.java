@@ -0,0 +1,84 @@
+package edu.mit.compilers.controlflow;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import edu.mit.compilers.codegen.Descriptor;
+import edu.mit.compilers.ir.IR_FieldDecl;
+import edu.mit.compilers.ir.Ops;
+
+/**
+ * Deep copies of statements and expressions, for passes that duplicate code: nothing is shared
+ * with the original, since later passes mark and change expressions in place. Renamed
+ * variables get their new names, and an induction variable can be read with an offset added,
+ * as the copies of an unrolled body do.
+ */
+class StatementCopier extends ExpressionRewriter {
+    private final IR_FieldDecl induction;
+    private final long offset;
+    private final Map<IR_FieldDecl, Descriptor> renamed;
+
+    /**
+     * @param renamed : new variables for the ones that get renamed.
+     */
+    StatementCopier(Map<IR_FieldDecl, Descriptor> renamed) {
+        this(null, 0, renamed);
+    }
+
+    /**
+     * @param induction : variable read with offset added.
+     * @param offset : what is added to induction.
+     * @param renamed : new variables for the ones that get renamed.
+     */
+    StatementCopier(IR_FieldDecl induction, long offset, Map<IR_FieldDecl, Descriptor> renamed) {
+        this.induction = induction;
+        this.offset = offset;
+        this.renamed = renamed;
+    }
+
+    Statement copy(Statement st) {
+        if (st instanceof Assignment) {
+            Assignment assign = (Assignment) st;
+            return new Assignment((Var) rewrite(assign.getDestVar()), assign.getOperator(),
+                    rewrite(assign.getValue()));
+        } else if (st instanceof MethodCallStatement) {
+            return new MethodCallStatement((MethodCall) rewrite(((MethodCallStatement) st).getMethodCall()));
+        } else if (st instanceof Declaration) {
+            IR_FieldDecl decl = ((Declaration) st).getFieldDecl();
+            Descriptor descriptor = renamed.get(decl);
+            return new Declaration(descriptor == null ? decl : (IR_FieldDecl) descriptor.getIR());
+        }
+        throw new RuntimeException("Unknown statement " + st.getClass().getSimpleName());
+    }
+
+    @Override
+    protected Expression replace(Expression expr) {
+        if (expr instanceof Var) {
+            Var var = (Var) expr;
+            if (!var.isArray() && var.getFieldDecl() == induction && offset != 0) {
+                return new AddExpr(new Var(var.getVarDescriptor(), null), Ops.PLUS, new IntLit(offset));
+            }
+            Descriptor descriptor = renamed.get(var.getFieldDecl());
+            Var copy = new Var(descriptor == null ? var.getVarDescriptor() : descriptor,
+                    var.isArray() ? rewrite(var.getIndex()) : null, var.isCompilerTemp());
+            copy.setIndexInBounds(var.isIndexInBounds());
+            copy.setIndexGuard(var.getIndexGuard());
+            return copy;
+        } else if (expr instanceof IntLit) {
+            return new IntLit(((IntLit) expr).getValue());
+        } else if (expr instanceof BoolLit) {
+            return new BoolLit(((BoolLit) expr).getTruthValue());
+        } else if (expr instanceof StringLit) {
+            return new StringLit(((StringLit) expr).getValue());
+        } else if (expr instanceof MethodCall) {
+            MethodCall call = (MethodCall) expr;
+            List<Expression> args = new ArrayList<Expression>();
+            for (Expression arg : call.getArguments()) {
+                args.add(rewrite(arg));
+            }
+            return new MethodCall(call.getMethodName(), args, call.getIsCallout());
+        }
+        return null;
+    }
+}
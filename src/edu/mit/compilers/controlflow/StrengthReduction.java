@@ -0,0 +1,335 @@
+package edu.mit.compilers.controlflow;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import edu.mit.compilers.codegen.Descriptor;
+import edu.mit.compilers.controlflow.InductionAnalysis.Affine;
+import edu.mit.compilers.controlflow.InductionAnalysis.Loop;
+import edu.mit.compilers.ir.IR_FieldDecl;
+import edu.mit.compilers.ir.Ops;
+
+/**
+ * Strength reduction and induction variable elimination for FOR loops.
+ *
+ * Inside "for (i = start, end)", an expression like (r * 2193) + (c * 3) that is an affine
+ * function c0 + c1*i + ... of the induction variable and variables the loop doesn't change
+ * goes up by c1 times the step of i every iteration. Every such expression with a multiplication
+ * in it is replaced by a new variable that is set once before the loop and gets that much added
+ * next to each increment of i, so the multiplications leave the loop. Expressions differing only in their constant
+ * share the variable, image[(r * 2193) + (c * 3) + 2] becoming image[t + 2]. Loops are done
+ * innermost first, so the value an inner loop's variable starts from is reduced again by the
+ * loop around it.
+ *
+ * Afterwards i may only be needed for the loop test. If it steps by one and is dead once the
+ * loop exits, the test becomes t != limit for one of the new variables t whose step c1 is odd,
+ * with limit the value of t at i = max(start, end) worked out before the loop, and the
+ * increments of i go.
+ * Multiplying by an odd number is a bijection on 64 bit integers, so t reaches limit exactly
+ * when i would have reached end, overflow or not.
+ */
+public class StrengthReduction {
+    private final Optimizer optimizer;
+    private final List<START> methods;
+    private final InductionAnalysis analysis;
+    private int expressionsReduced = 0;
+    private int variablesAdded = 0;
+    private int inductionVarsRemoved = 0;
+
+    /**
+     * A new variable holding an affine form of a loop's induction variable.
+     */
+    private static class Recurrence {
+        final Affine form;
+        final Descriptor descriptor;
+
+        Recurrence(Affine form, Descriptor descriptor) {
+            this.form = form;
+            this.descriptor = descriptor;
+        }
+
+        Var var() {
+            return new Var(descriptor, null, true);
+        }
+    }
+
+    /**
+     * What one method needs while its loops are reduced.
+     */
+    private static class MethodState {
+        final START start;
+        final Set<String> names;
+        final Map<FlowNode, Bitvector> liveOut;
+
+        MethodState(START start, Set<String> names, Map<FlowNode, Bitvector> liveOut) {
+            this.start = start;
+            this.names = names;
+            this.liveOut = liveOut;
+        }
+    }
+
+    /**
+     * @param optimizer : Optimizer used for liveness and temp names.
+     * @param methods : START nodes of the methods.
+     * @param globals : global variables, which calls can change.
+     */
+    public StrengthReduction(Optimizer optimizer, List<START> methods, List<IR_FieldDecl> globals) {
+        this.optimizer = optimizer;
+        this.methods = methods;
+        this.analysis = new InductionAnalysis(globals);
+    }
+
+    /**
+     * Reduces the loops of every method.
+     * @return true if any expression was replaced.
+     */
+    public boolean run() {
+        Map<START, Map<FlowNode, Bitvector>> liveness = optimizer.generateLivenessMap(methods);
+        for (START method : methods) {
+            MethodState state = new MethodState(method, optimizer.getAllVarNamesInMethod(method),
+                    liveness.get(method));
+            runMethod(state);
+        }
+        return expressionsReduced > 0;
+    }
+
+    /**
+     * Expressions replaced by a new variable.
+     */
+    public int getExpressionsReduced() {
+        return expressionsReduced;
+    }
+
+    /**
+     * New variables, each updated once per iteration of its loop.
+     */
+    public int getVariablesAdded() {
+        return variablesAdded;
+    }
+
+    /**
+     * Loops whose test was rewritten so their induction variable isn't incremented anymore.
+     */
+    public int getInductionVarsRemoved() {
+        return inductionVarsRemoved;
+    }
+
+    private void runMethod(MethodState state) {
+        List<FlowNode> nodes = InductionAnalysis.collectNodes(state.start);
+        List<Loop> loops = new ArrayList<Loop>();
+        for (FlowNode node : nodes) {
+            if (node instanceof Branch && ((Branch) node).getType() == Branch.BranchType.FOR) {
+                loops.add(analysis.analyzeLoop((Branch) node));
+            }
+        }
+        // a loop's region contains the regions of the loops inside it
+        Collections.sort(loops, new Comparator<Loop>() {
+            @Override
+            public int compare(Loop a, Loop b) {
+                return Integer.compare(a.region.size(), b.region.size());
+            }
+        });
+        for (Loop loop : loops) {
+            // again, since reducing the loops inside changed the body
+            reduceLoop(analysis.analyzeLoop(loop.branch), nodes, state);
+        }
+    }
+
+    private void reduceLoop(Loop loop, List<FlowNode> nodes, MethodState state) {
+        // a loop LoopVectorization marked needs its indices and test as they are
+        if (!loop.valid || loop.preheader == null || loop.branch.getVectorPlan() != null) {
+            return;
+        }
+        Map<String, Recurrence> recurrences = new LinkedHashMap<String, Recurrence>();
+        for (FlowNode node : nodes) {
+            if (!loop.region.contains(node)) {
+                continue;
+            }
+            if (node instanceof Codeblock) {
+                Codeblock block = (Codeblock) node;
+                List<Statement> statements = block.getStatements();
+                // past the increment, i is a step ahead of the forms
+                Integer increment = loop.increments.get(block);
+                int limit = increment == null ? statements.size() : increment;
+                for (int i = 0; i < limit; i++) {
+                    statements.set(i, new Reducer(loop, block, i, recurrences, state).rewrite(statements.get(i)));
+                }
+            } else if (node instanceof Branch) {
+                Branch branch = (Branch) node;
+                branch.setExpr(new Reducer(loop, null, 0, recurrences, state).rewrite(branch.getExpr()));
+            }
+        }
+        if (!recurrences.isEmpty()) {
+            eliminateInductionVar(loop, nodes, recurrences, state);
+        }
+    }
+
+    /**
+     * Replaces the largest subexpressions of one statement that can be reduced by their new
+     * variable, looking up the forms at the position of the statement.
+     */
+    private class Reducer extends ExpressionRewriter {
+        private final Loop loop;
+        private final Codeblock block;
+        private final int position;
+        private final Map<String, Recurrence> recurrences;
+        private final MethodState state;
+
+        Reducer(Loop loop, Codeblock block, int position, Map<String, Recurrence> recurrences,
+                MethodState state) {
+            this.loop = loop;
+            this.block = block;
+            this.position = position;
+            this.recurrences = recurrences;
+            this.state = state;
+        }
+
+        @Override
+        protected Expression replace(Expression expr) {
+            if (!hasMultiply(expr)) {
+                return null;
+            }
+            Affine form = analysis.valueOf(expr, loop, block, position);
+            if (form == null || form.coefficient(loop.inductionDecl()) == 0) {
+                return null;
+            }
+            expressionsReduced++;
+            Expression var = recurrence(form.variablePart(), loop, recurrences, state).var();
+            if (form.constant == 0) {
+                return var;
+            }
+            return new AddExpr(var, form.constant > 0 ? Ops.PLUS : Ops.MINUS,
+                    new IntLit(Math.abs(form.constant)));
+        }
+    }
+
+    /**
+     * @return true if expr could be an affine form with a multiplication in it.
+     */
+    private static boolean hasMultiply(Expression expr) {
+        if (expr instanceof MultExpr) {
+            return true;
+        } else if (expr instanceof AddExpr) {
+            return hasMultiply(((AddExpr) expr).getLeftSide()) || hasMultiply(((AddExpr) expr).getRightSide());
+        } else if (expr instanceof NegateExpr) {
+            return hasMultiply(((NegateExpr) expr).getExpression());
+        }
+        return false;
+    }
+
+    /**
+     * The variable holding form in loop, made on first use: set at the end of the preheader,
+     * where i has its starting value, and stepped right after every increment of i.
+     */
+    private Recurrence recurrence(Affine form, Loop loop, Map<String, Recurrence> recurrences,
+            MethodState state) {
+        String key = analysis.termKey(form);
+        Recurrence rec = recurrences.get(key);
+        if (rec != null) {
+            return rec;
+        }
+        rec = new Recurrence(form, optimizer.declareTemp(state.start, state.names));
+        recurrences.put(key, rec);
+        variablesAdded++;
+        loop.preheader.addStatement(new Assignment(rec.var(), Ops.ASSIGN, analysis.toExpression(form)));
+        long step = form.coefficient(loop.inductionDecl()) * loop.step;
+        for (Map.Entry<Codeblock, Integer> increment : loop.increments.entrySet()) {
+            List<Statement> statements = increment.getKey().getStatements();
+            // keep the positions of the increments right for the recurrences still to come
+            statements.add(increment.getValue() + 1, new Assignment(rec.var(), Ops.ASSIGN,
+                    new AddExpr(rec.var(), step > 0 ? Ops.PLUS : Ops.MINUS, new IntLit(Math.abs(step)))));
+        }
+        return rec;
+    }
+
+    /**
+     * Rewrites the test of loop in terms of one of its recurrences if nothing else needs i.
+     */
+    private void eliminateInductionVar(Loop loop, List<FlowNode> nodes, Map<String, Recurrence> recurrences,
+            MethodState state) {
+        IR_FieldDecl induction = loop.inductionDecl();
+        Integer liveAtExit = state.liveOut.get(loop.branch.getFalseBranch()).get(induction);
+        // with a bigger step, i can jump over end, and t over limit
+        if (loop.bound == null || loop.step != 1 || analysis.isGlobal(induction) || liveAtExit == null
+                || liveAtExit != 0) {
+            return;
+        }
+        Recurrence test = null;
+        for (Recurrence rec : recurrences.values()) {
+            if (rec.form.coefficient(induction) % 2 != 0) {
+                test = rec;
+                break;
+            }
+        }
+        if (test == null) {
+            return;
+        }
+        for (FlowNode node : nodes) {
+            if (loop.region.contains(node) && usesOtherThanIncrement(node, loop)) {
+                return;
+            }
+        }
+        Affine limit = test.form.substitute(induction, loop.bound);
+        if (limit == null) {
+            return;
+        }
+        // limit = i < end ? form(end) : form(i), so a loop that doesn't run still doesn't
+        Recurrence limitVar = new Recurrence(limit, optimizer.declareTemp(state.start, state.names));
+        variablesAdded++;
+        Expression runs = new CompExpr(analysis.symbolVar(induction), Ops.LT, analysis.toExpression(loop.bound));
+        loop.preheader.addStatement(new Assignment(limitVar.var(), Ops.ASSIGN,
+                new Ternary(runs, analysis.toExpression(limit), test.var())));
+        loop.branch.setExpr(new EqExpr(test.var(), Ops.NOT_EQUALS, limitVar.var()));
+        for (Codeblock block : loop.increments.keySet()) {
+            block.getStatements().remove(loop.increments.get(block).intValue());
+        }
+        inductionVarsRemoved++;
+    }
+
+    /**
+     * @return true if node reads the induction variable of loop anywhere but in its increments.
+     */
+    private boolean usesOtherThanIncrement(FlowNode node, Loop loop) {
+        IR_FieldDecl induction = loop.inductionDecl();
+        if (node instanceof Codeblock) {
+            List<Statement> statements = ((Codeblock) node).getStatements();
+            Integer increment = loop.increments.get(node);
+            for (int i = 0; i < statements.size(); i++) {
+                Statement st = statements.get(i);
+                if (increment != null && i == increment) {
+                    continue;
+                }
+                if (st instanceof Assignment) {
+                    Assignment assign = (Assignment) st;
+                    if (uses(assign.getValue(), induction) || uses(assign.getDestVar().getIndex(), induction)) {
+                        return true;
+                    }
+                } else if (st instanceof MethodCallStatement
+                        && uses(((MethodCallStatement) st).getMethodCall(), induction)) {
+                    return true;
+                }
+            }
+        } else if (node instanceof Branch) {
+            if (uses(((Branch) node).getExpr(), induction)) {
+                return true;
+            }
+            for (Expression guard : ((Branch) node).getRangeGuards()) {
+                if (uses(guard, induction)) {
+                    return true;
+                }
+            }
+        } else if (node instanceof END) {
+            return uses(((END) node).getReturnExpression(), induction);
+        }
+        return false;
+    }
+
+    private boolean uses(Expression expr, IR_FieldDecl decl) {
+        return expr != null && optimizer.getVarIRsFromExpression(expr).contains(decl);
+    }
+}
@@ -1,16 +1,15 @@
 package edu.mit.compilers.controlflow;
 
+/**
+ * A value number for CSE. Two ValueIDs stand for the same value only if they are the same object,
+ * so no counter is kept: the name is derived from the identity and is only meant for debugging.
+ */
 public class ValueID {
-    
-    static int nextID = 0;
-    private final String ID;
-    
+
     public ValueID(){
-        ID = "v" + nextID++;
     }
-    
+
     public String getString(){
-        return ID;
+        return "v" + Integer.toHexString(System.identityHashCode(this));
     }
 }
-
@@ -17,6 +17,8 @@ public class Var extends Expression {
 	private Expression index;
 	private ValueID val;
 	private boolean isCompilerTemp;
+	private boolean indexInBounds;
+	private Branch indexGuard;
 	
 	/**
 	 * This constructor takes in the Descriptor associated with the variable we want to store and keeps it locally. 
@@ -103,6 +105,31 @@ public class Var extends Expression {
 	    return isCompilerTemp;
 	}
 	
+	/**
+	 * Marks the index of this array element as proven to be in bounds, so no check is emitted.
+	 * @param inBounds : true if the index can never be out of bounds.
+	 */
+	public void setIndexInBounds(boolean inBounds) {
+	    indexInBounds = inBounds;
+	}
+	
+	public boolean isIndexInBounds() {
+	    return indexInBounds;
+	}
+	
+	/**
+	 * Marks the index of this array element as in bounds whenever the range guards of a FOR loop
+	 * hold, so the check can be left out of the copy of the loop that runs when they do.
+	 * @param loop : FOR Branch whose range guards cover this index, or null.
+	 */
+	public void setIndexGuard(Branch loop) {
+	    indexGuard = loop;
+	}
+	
+	public Branch getIndexGuard() {
+	    return indexGuard;
+	}
+	
 	/**
 	 * Returns the name of the variable
 	 * @return String: the name of the variable
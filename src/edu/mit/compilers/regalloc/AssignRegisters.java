@@ -3,6 +3,7 @@ package edu.mit.compilers.regalloc;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
@@ -17,6 +18,7 @@ import edu.mit.compilers.codegen.LocReg;
 import edu.mit.compilers.codegen.LocRelStack;
 import edu.mit.compilers.codegen.LocStack;
 import edu.mit.compilers.codegen.LocationMem;
+import edu.mit.compilers.codegen.Opcode;
 import edu.mit.compilers.codegen.Regs;
 import edu.mit.compilers.controlflow.Branch.BranchType;
 import edu.mit.compilers.controlflow.ControlflowContext;
@@ -35,14 +37,46 @@ import edu.mit.compilers.ir.Type;
  * using fieldDeclToReg whenever GenerateVarLoc is called. It finds 
  * the register location by looking at the Statement class during an assignment.
  *
+ * An instance holds the register state of a single method, so methods
+ * can be generated independently of each other.
+ *
+ * Variables in caller-saved registers are never live across a call, and a
+ * method saves the callee-saved registers it uses on entry, so calls don't
+ * save any of them.
+ *
+ * Variables LiveRangeSplitting split at a loop are loaded into their
+ * registers when the loop is entered and stored back when it is left.
+ *
  */
 public class AssignRegisters {
-	static HashSet<GraphNode> assignments; 
-	static HashSet<GraphNode> spilledNodes;
-	static HashMap<IR_FieldDecl, LocReg> fieldDeclToReg = new HashMap<IR_FieldDecl, LocReg>();
+	HashSet<GraphNode> assignments; 
+	HashSet<GraphNode> spilledNodes;
+	HashMap<IR_FieldDecl, LocReg> fieldDeclToReg = new HashMap<IR_FieldDecl, LocReg>();
+	
+	HashSet<IR_FieldDecl> assignedVars = new HashSet<IR_FieldDecl>(); // hack to deal with use before assignment
+	HashSet<IR_FieldDecl> usedBeforeAssignment = new HashSet<IR_FieldDecl>(); // hack to deal with use before assignment
+	
+	/**
+	 * Registers of the variables LiveRangeSplitting split at the loops being generated.
+	 * Inside those loops they are used instead of the variables' own locations.
+	 */
+	HashMap<IR_FieldDecl, LocReg> splitRegs = new HashMap<IR_FieldDecl, LocReg>();
 	
-	static HashSet<IR_FieldDecl> assignedVars = new HashSet<IR_FieldDecl>(); // hack to deal with use before assignment
-	static HashSet<IR_FieldDecl> usedBeforeAssignment = new HashSet<IR_FieldDecl>(); // hack to deal with use before assignment
+	/**
+	 * Callee-saved registers the method uses, and the stack slots their values on entry are kept in.
+	 */
+	List<Regs> savedRegs = new ArrayList<Regs>();
+	List<LocStack> saveSlots = new ArrayList<LocStack>();
+	
+	/**
+	 * Caller-saved registers Coloring doesn't give to variables, for evaluating expressions.
+	 */
+	private static final Regs[] SCRATCH = {Regs.R10, Regs.R11, Regs.RCX};
+
+	private AssignRegisters(HashSet<GraphNode> assignments, HashSet<GraphNode> spilledNodes) {
+		this.assignments = assignments;
+		this.spilledNodes = spilledNodes;
+	}
 
     public static void setUp(ControlflowContext context, 
             List<IR_MethodDecl> callouts, List<IR_FieldDecl> globals,
@@ -81,7 +115,7 @@ public class AssignRegisters {
         context = new ControlflowContext();
         setUp(context, callouts, globals, methods);
         for (Map.Entry<String, START> entry : methods.entrySet()) {
-            generateMethodDecl(entry, context);
+            new AssignRegisters(null, null).generateMethodDecl(entry, context);
         }
         return context;
     }
@@ -92,12 +126,33 @@ public class AssignRegisters {
     												 List<IR_FieldDecl> globals, 
     												 Map<String, START> methods
     												 ){
-    	assignments = assign;
-    	spilledNodes = spilled;
-        ControlflowContext context = new ControlflowContext();
+    	return generateProgram(assign, spilled, callouts, globals, methods, MethodScheduler.sequential());
+    }
+
+    /**
+     * Generates each method with its own AssignRegisters in a context forked from the
+     * program's, on the given scheduler, and merges them back in the iteration order of methods.
+     */
+    public static ControlflowContext generateProgram(final HashSet<GraphNode> assign, 
+    												 final HashSet<GraphNode> spilled,
+    												 List<IR_MethodDecl> callouts, 
+    												 List<IR_FieldDecl> globals, 
+    												 Map<String, START> methods,
+    												 MethodScheduler scheduler
+    												 ){
+        final ControlflowContext context = new ControlflowContext();
         setUp(context, callouts, globals, methods);
-        for (Map.Entry<String, START> entry : methods.entrySet()) {
-            generateMethodDecl(entry, context);
+        List<ControlflowContext> generated = scheduler.map(new ArrayList<Map.Entry<String, START>>(methods.entrySet()),
+                new MethodScheduler.MethodTask<Map.Entry<String, START>, ControlflowContext>() {
+            @Override
+            public ControlflowContext run(Map.Entry<String, START> method) {
+                ControlflowContext methodContext = context.forkMethod();
+                new AssignRegisters(assign, spilled).generateMethodDecl(method, methodContext);
+                return methodContext;
+            }
+        });
+        for (ControlflowContext methodContext : generated) {
+            context.mergeMethod(methodContext);
         }
         return context;
     }
@@ -114,22 +169,22 @@ public class AssignRegisters {
         context.putSymbol(decl.getName(), d);
     }
 
-    public static void generateMethodDecl(Map.Entry<String, START> decl, ControlflowContext context){
+    public void generateMethodDecl(Map.Entry<String, START> decl, ControlflowContext context){
         String name = decl.getKey();
         context.enterFun();
         context.incScope(false);
 
         Instruction tmpIns;
-        context.addIns(new Instruction(".type",new LocLabel(name),new LocLabel("@function")));
-        context.addIns(new Instruction(".text"));
-        context.addIns(new Instruction(".global", new LocLabel(name)));
+        context.addIns(new Instruction(Opcode.TYPE,new LocLabel(name),new LocLabel("@function")));
+        context.addIns(new Instruction(Opcode.TEXT));
+        context.addIns(new Instruction(Opcode.GLOBAL, new LocLabel(name)));
         tmpIns = Instruction.labelInstruction(name);
         context.addIns(tmpIns);
 
         LocReg rbp = new LocReg(Regs.RBP);
         LocReg rsp = new LocReg(Regs.RSP);
-        context.addIns(new Instruction("pushq", rbp));      
-        context.addIns(new Instruction("movq", rsp, rbp ));
+        context.addIns(new Instruction(Opcode.PUSHQ, rbp));      
+        context.addIns(new Instruction(Opcode.MOVQ, rsp, rbp ));
 
         //instructions for potentially saving arguments.
         ArrayList<Instruction> argIns = new ArrayList<Instruction>();
@@ -152,6 +207,13 @@ public class AssignRegisters {
             argd.setLocation(argDst);
         }
         context.addIns(argIns);
+        //save the callee-saved registers the variables are given, for the caller.
+        for (Regs reg : calleeSavedRegisters(decl.getValue())) {
+            context.addIns(context.push(new LocReg(reg)));
+            savedRegs.add(reg);
+            saveSlots.add(context.getRsp());
+            context.allocLocal(CodegenConst.INT_SIZE);
+        }
         //generateBlock accumulates static local stack size required. 
         FlowNode next = decl.getValue().getChildren().get(0);
         boolean isVoid = decl.getValue().getRetType() == Type.VOID;
@@ -192,7 +254,7 @@ public class AssignRegisters {
         //similarly, since all functions bodies end with an end, the generate end will handle restoring the stack pointer
     }
 
-    private static List<Instruction> generateNode(FlowNode begin, ControlflowContext context, boolean isVoid) {
+    private List<Instruction> generateNode(FlowNode begin, ControlflowContext context, boolean isVoid) {
         if (begin instanceof Codeblock) {
             return generateBlock((Codeblock) begin, context, isVoid);
         } else if (begin instanceof Branch) {
@@ -203,7 +265,7 @@ public class AssignRegisters {
         throw new RuntimeException("No expected node present");
     }
 
-    private static List<Instruction> generateBlock(Codeblock begin, ControlflowContext context, boolean isVoid) {
+    private List<Instruction> generateBlock(Codeblock begin, ControlflowContext context, boolean isVoid) {
         List<Instruction> ins = new ArrayList<Instruction>();
         ins.add(Instruction.labelInstruction(begin.getLabel()));
         for (Statement stat : begin.getStatements()) {
@@ -213,20 +275,30 @@ public class AssignRegisters {
         if (begin.getIsBreak()) {
             ins.addAll(context.decScopeToLoop());
         }
-        ins.add(new Instruction("jmp", new LocLabel(child.getLabel())));
+        ins.add(new Instruction(Opcode.JMP, new LocLabel(child.getLabel())));
         return ins;
     }
 
-    private static List<Instruction> generateBranch(Branch begin, ControlflowContext context, boolean isVoid) {
+    private List<Instruction> generateBranch(Branch begin, ControlflowContext context, boolean isVoid) {
         List<Instruction> ins = new ArrayList<Instruction>();
-        LocReg r10 = new LocReg(Regs.R10);
+        List<Instruction> guards = null;
+        String checkedLabel = null;
+        if (begin.getType() == BranchType.FOR && !begin.getRangeGuards().isEmpty()) {
+            // range guards from BoundsCheckElimination, checked once on entry
+            checkedLabel = context.genLabel();
+            guards = BoundsCheckElimination.generateGuards(begin, checkedLabel, selector(context));
+        }
         ins.add(Instruction.labelInstruction(begin.getLabel()));
-        ins.addAll(generateExpression(begin.getExpr(), context));
-        ins.addAll(context.pop(r10));
-        ins.add(new Instruction("cmp", new LocLiteral(0L), r10));
-        ins.add(new Instruction("je", new LocLabel(begin.getFalseBranch().getLabel())));
+        String entryLabel = begin.getLabel();
+        Map<IR_FieldDecl, LocStack> splitSlots = null;
+        if (begin.getType() != BranchType.IF && !begin.getSplitRegisters().isEmpty()) {
+            splitSlots = enterSplit(begin, context, ins);
+        }
+        selector(context).generateBranch(begin.getExpr(), begin.getFalseBranch().getLabel(), ins);
 
         if (begin.getType() == BranchType.IF) {
+            // both branches start with the registers the variables have before the if
+            HashMap<IR_FieldDecl, LocReg> beforeBranch = new HashMap<IR_FieldDecl, LocReg>(fieldDeclToReg);
             // make True branch - either ends at end or when hitting a if with two ends or an unpaired NOp
             context.incScope(false);
             boolean done = false;
@@ -257,7 +329,7 @@ public class AssignRegisters {
                     endBranch = (NoOp) next;
                     if (firstNode) {
                         needCleanup = false;
-                        ins.add(new Instruction("jmp", new LocLabel(endBranch.getLabel())));
+                        ins.add(new Instruction(Opcode.JMP, new LocLabel(endBranch.getLabel())));
                         break;
                     }
                 } else if (next instanceof END) {
@@ -274,6 +346,8 @@ public class AssignRegisters {
                 ins.add(ins.size() - 1, deAlloc);
             }
             context.decScopeWithSideEffects();
+            HashMap<IR_FieldDecl, LocReg> afterTrueBranch = fieldDeclToReg;
+            fieldDeclToReg = beforeBranch;
             done = false;
             needCleanup = true;
             ins.add(Instruction.labelInstruction(begin.getFalseBranch().getLabel()));
@@ -320,9 +394,16 @@ public class AssignRegisters {
             }
             if (endBranch != null) {
                 ins.add(Instruction.labelInstruction(endBranch.getLabel()));
-                ins.add(new Instruction("jmp", new LocLabel(endBranch.getChildren().get(0).getLabel())));
+                ins.add(new Instruction(Opcode.JMP, new LocLabel(endBranch.getChildren().get(0).getLabel())));
             }
             context.decScopeWithSideEffects();
+            // the webs reaching the join are the same from both sides, but a variable 
+            // only the true branch assigns is in the register it gave it
+            for (Map.Entry<IR_FieldDecl, LocReg> entry : afterTrueBranch.entrySet()) {
+                if (!fieldDeclToReg.containsKey(entry.getKey())) {
+                    fieldDeclToReg.put(entry.getKey(), entry.getValue());
+                }
+            }
 
         } else if (begin.getType() == BranchType.FOR) {
             // make True block
@@ -362,6 +443,15 @@ public class AssignRegisters {
             }
             ins.add(Instruction.labelInstruction(begin.getFalseBranch().getLabel()));
             context.decScopeWithSideEffects();
+            if (splitSlots != null) {
+                leaveSplit(begin, entryLabel, splitSlots, ins);
+            }
+            if (begin.getVectorPlan() != null) {
+                ins = LoopVectorization.generateVectorLoop(begin, ins, selector(context), context);
+            }
+            if (guards != null) {
+                ins = BoundsCheckElimination.versionLoop(begin, ins, guards, checkedLabel, context);
+            }
         } else if (begin.getType() == BranchType.WHILE) {
             FlowNode next;
             if (begin.getIsLimitedWhile()) {
@@ -369,10 +459,7 @@ public class AssignRegisters {
                 ins.addAll(generateNode(incrementer, context, isVoid));
                 Branch innerWhile = (Branch) incrementer.getChildren().get(0);
                 ins.add(Instruction.labelInstruction(innerWhile.getLabel()));
-                ins.addAll(generateExpression(innerWhile.getExpr(), context));
-                ins.addAll(context.pop(r10));
-                ins.add(new Instruction("cmp", new LocLiteral(0L), r10));
-                ins.add(new Instruction("je", new LocLabel(begin.getFalseBranch().getLabel())));
+                selector(context).generateBranch(innerWhile.getExpr(), begin.getFalseBranch().getLabel(), ins);
                 next = innerWhile.getTrueBranch().getChildren().get(0);
             } else {
                 next = begin.getTrueBranch().getChildren().get(0);
@@ -409,33 +496,107 @@ public class AssignRegisters {
             }
             ins.add(Instruction.labelInstruction(begin.getFalseBranch().getLabel()));
             context.decScopeWithSideEffects();
+            if (splitSlots != null) {
+                leaveSplit(begin, entryLabel, splitSlots, ins);
+            }
         }
         return ins;
     }
 
-    private static List<Instruction> generateEnd(END next, ControlflowContext context, boolean isVoid) {
+    /**
+     * Loads the variables split at loop into their registers, after the label the loop is
+     * entered at. The loop's back edges and continues go to a new label after the loads.
+     * @return the stack slot of each variable loaded.
+     */
+    private Map<IR_FieldDecl, LocStack> enterSplit(Branch loop, ControlflowContext context, List<Instruction> ins) {
+        Map<IR_FieldDecl, LocStack> slots = new LinkedHashMap<IR_FieldDecl, LocStack>();
+        for (Map.Entry<IR_FieldDecl, Regs> split : loop.getSplitRegisters().entrySet()) {
+            IR_FieldDecl decl = split.getKey();
+            Descriptor d = context.findSymbol(decl.getName());
+            if (d == null || d.getIR() != decl || !(d.getLocation() instanceof LocStack)) {
+                // not the variable its name refers to here; leave it in memory
+                continue;
+            }
+            LocReg reg = new LocReg(split.getValue());
+            slots.put(decl, (LocStack) d.getLocation());
+            splitRegs.put(decl, reg);
+            ins.add(new Instruction(Opcode.MOVQ, d.getLocation(), reg));
+        }
+        loop.setLabel(context.genLabel());
+        ins.add(Instruction.labelInstruction(loop.getLabel()));
+        return slots;
+    }
+
+    /**
+     * Stores the variables split at loop back to their stack slots at its exit, which its
+     * breaks jump to as well, and gives the loop its entry label back.
+     */
+    private void leaveSplit(Branch loop, String entryLabel, Map<IR_FieldDecl, LocStack> slots, List<Instruction> ins) {
+        for (Map.Entry<IR_FieldDecl, LocStack> slot : slots.entrySet()) {
+            ins.add(new Instruction(Opcode.MOVQ, splitRegs.remove(slot.getKey()), slot.getValue()));
+        }
+        loop.setLabel(entryLabel);
+    }
+
+    private List<Instruction> generateEnd(END next, ControlflowContext context, boolean isVoid) {
         List<Instruction> stIns = new ArrayList<Instruction>();
         stIns.add(Instruction.labelInstruction(next.getLabel()));
         Expression expr = next.getReturnExpression();
         // We only have instructions to add if return value is not void.
         if (expr == null && !isVoid) {
-            stIns.add(new Instruction("movq", 
+            stIns.add(new Instruction(Opcode.MOVQ, 
                     new LocLiteral(CodegenConst.ERR_FUN_RET), new LocReg(Regs.RDI)));
-            stIns.add(new Instruction("call", new LocLabel("exit")));
+            stIns.add(new Instruction(Opcode.CALL, new LocLabel("exit")));
             return stIns;
         }
         if (expr != null) {
-            LocReg r10 = new LocReg(Regs.R10);
-            stIns.addAll(generateExpression(expr, context));
-            stIns.add(new Instruction("pop", r10));
-            stIns.add(new Instruction("mov", r10, new LocReg(Regs.RAX)));
+            LocationMem value = selector(context).evaluateOperand(expr, stIns);
+            stIns.add(new Instruction(Opcode.MOVQ, value, new LocReg(Regs.RAX)));
         }
-        stIns.add(new Instruction("movq", new LocReg(Regs.RBP), new LocReg(Regs.RSP)));
-        stIns.add(new Instruction("leave"));
-        stIns.add(new Instruction("ret"));
+        for (int ii = 0; ii < savedRegs.size(); ii++) {
+            stIns.add(new Instruction(Opcode.MOVQ, saveSlots.get(ii), new LocReg(savedRegs.get(ii))));
+        }
+        stIns.add(new Instruction(Opcode.MOVQ, new LocReg(Regs.RBP), new LocReg(Regs.RSP)));
+        stIns.add(new Instruction(Opcode.LEAVE));
+        stIns.add(new Instruction(Opcode.RET));
         return stIns;
     }
 
+    /**
+     * Callee-saved registers given to the variables of a method, in Coloring's order.
+     */
+    private static List<Regs> calleeSavedRegisters(START start) {
+        Set<Regs> used = new HashSet<Regs>();
+        List<FlowNode> processing = new ArrayList<FlowNode>();
+        Set<FlowNode> seen = new HashSet<FlowNode>();
+        processing.add(start);
+        while (!processing.isEmpty()) {
+            FlowNode next = processing.remove(processing.size() - 1);
+            for (FlowNode child : next.getChildren()) {
+                if (seen.add(child)) {
+                    processing.add(child);
+                }
+            }
+            if (next instanceof Codeblock) {
+                for (Statement st : ((Codeblock) next).getStatements()) {
+                    LocReg reg = st instanceof Assignment ? ((Assignment) st).getRegister() : null;
+                    if (reg != null) {
+                        used.add(reg.reg);
+                    }
+                }
+            } else if (next instanceof Branch) {
+                used.addAll(((Branch) next).getSplitRegisters().values());
+            }
+        }
+        List<Regs> saved = new ArrayList<Regs>();
+        for (Regs reg : Coloring.calleeSaved) {
+            if (used.contains(reg)) {
+                saved.add(reg);
+            }
+        }
+        return saved;
+    }
+
     private static NoOp findNop(Branch begin) {
         if (begin.getType() != BranchType.IF) {
             return (NoOp) begin.getFalseBranch();
@@ -493,276 +654,33 @@ public class AssignRegisters {
         return target;
     }
 
-    public static List<Instruction> generateExpression(Expression expr, ControlflowContext context) {
-        List<Instruction> ins = new ArrayList<Instruction>();
-
-        if (expr instanceof MethodCall) {
-            ins = generateCall((MethodCall) expr, context);
-            LocReg rax = new LocReg(Regs.RAX);
-            ins.addAll(context.push(rax));
-            return ins;
-        }else if (expr instanceof AddExpr || expr instanceof MultExpr || expr instanceof DivExpr || expr instanceof ModExpr){
-            ins = generateArithExpr(expr, context);
-            return ins;
-        } else if(expr instanceof CompExpr){
-            CompExpr compare = (CompExpr) expr;
-            ins = generateCompareOp(compare, context);
-            return ins;
-        } else if ((expr instanceof CondExpr) || (expr instanceof NotExpr)) {
-            ins = generateCondOp(expr, context);
-            return ins;
-        } else if (expr instanceof EqExpr){
-            EqExpr eq= (EqExpr) expr;
-            ins = generateEqOp(eq, context);
-            return ins;
-        } else if (expr instanceof NegateExpr) {
-            NegateExpr negation = (NegateExpr) expr;
-            LocReg r10 = new LocReg(Regs.R10);
-            ins = generateExpression(negation.getExpression(), context);
-            ins.addAll(context.pop(r10)); //Get whatever that expr was off stack
-            ins.add(new Instruction("negq", r10)); //negate it
-            ins.addAll(context.push(r10)); //push it back to stack
-            return ins;
-        } else if (expr instanceof Ternary){
-            Ternary ternary = (Ternary)expr;
-            ins = generateTernaryOp(ternary, context);
-            return ins;
-        }else if(expr instanceof Var){
-            Var var = (Var) expr;
-            ins = generateVarExpr(var, context);
-            return ins;
-        } else if (expr instanceof IntLit || expr instanceof BoolLit) {
-            ins = generateLiteral(expr, context);
-            return ins;
-        } else {
-            System.err.println("Unexpected Node type passed to generateExpr: " + expr.getClass().getSimpleName());
-            System.err.println("The node passed in was of type " + expr.getExprType().toString());
-        }
-        ins = null; 
-
-
-
-        return ins;
-    }
-
-    private static List<Instruction> generateLiteral(Expression expr,
-            ControlflowContext context) {
-        List<Instruction> ins = new ArrayList<Instruction>();
-
-        if (expr instanceof IntLit) {
-            IntLit int_literal = (IntLit) expr;
-            if(int_literal.getValue()>Integer.MAX_VALUE || 
-                    int_literal.getValue()<Integer.MIN_VALUE ){
-                LocReg rax = new LocReg(Regs.RAX);
-                ins.add(new Instruction("movabsq",new LocLiteral(int_literal.getValue()),rax));
-                ins.addAll(context.push(rax));
-
-            }else{
-                ins.addAll(context.push(new LocLiteral(int_literal.getValue())));
-            }
-        } 
-        else if (expr instanceof BoolLit) {
-            BoolLit bool_literal = (BoolLit) expr;
-            if (bool_literal.getTruthValue()) {
-                ins = context.push(new LocLiteral(CodegenConst.BOOL_TRUE));
-            } else {
-                ins = context.push(new LocLiteral(CodegenConst.BOOL_FALSE));
+    /**
+     * Expression selector for one statement, branch or return. Scalar variables are read
+     * from the register fieldDeclToReg gives them, and expressions use the SCRATCH registers.
+     */
+    private ExpressionSelector selector(ControlflowContext context) {
+        return new ExpressionSelector(context, SCRATCH) {
+            @Override
+            public List<Instruction> generateCall(MethodCall call) {
+                return AssignRegisters.this.generateCall(call, context, this);
             }
-        }
-        return ins;
-    }
-
-    private static List<Instruction>  generateVarExpr(Var var,
-            ControlflowContext context) {
-        List<Instruction> ins = new ArrayList<Instruction>();
-        LocationMem loc = generateVarLoc(var, context, ins);
-        ins.addAll(context.push(loc));
-        return ins;
-    }
-
-    private static List<Instruction> generateTernaryOp(Ternary ternary,
-            ControlflowContext context) {
-        List<Instruction> ins = new ArrayList<Instruction>();
-        LocReg r10 = new LocReg(Regs.R10);
-        String labelForFalse = context.genLabel();
-        String labelForDone = context.genLabel();
-        List<Instruction> trueInstructs = generateExpression(ternary.getTrueBranch(), context);
-        List<Instruction> falseInstructs = generateExpression(ternary.getFalseBranch(), context);
-
-        ins.addAll(generateExpression(ternary.getTernaryCondition(), context)); //Get result of conditional onto the stack by resolving it. 
-        ins.addAll(context.pop(r10)); //pop result into r10.
-        ins.add(new Instruction("cmp", new LocLiteral(1L), r10)); //Compare r10 against truth
-        ins.add(new Instruction("jne", new LocLabel(labelForFalse))); //If result isn't equal, r10 is 0, meaning we take the false branch.
-        ins.addAll(trueInstructs); //If we don't jump, resolve the true branch 
-        ins.add(new Instruction("jmp", new LocLabel(labelForDone))); //jump to being done
-        ins.add(Instruction.labelInstruction(labelForFalse)); //If we jump, we jump here.
-        ins.addAll(falseInstructs); //Resolve the false branch. 
-        ins.add(Instruction.labelInstruction(labelForDone)); //This is where we'd jump to if we resolved the true version, which skips over the whole false branch. 
-        return ins; //We're done, return the list.
-    }
-
-    private static List<Instruction> generateEqOp(EqExpr eq,
-            ControlflowContext context) {
-        List<Instruction> ins = new ArrayList<Instruction>();
-        LocReg r10 = new LocReg(Regs.R10);
-        LocReg r11 = new LocReg(Regs.R11);
-        ins.addAll(generateExpression(eq.getLeftSide(), context));
-        ins.addAll(generateExpression(eq.getRightSide(), context));
-        ins.addAll(context.pop(r10));
-        ins.addAll(context.pop(r11));
-        ins.add(new Instruction("cmp", r10, r11));
-        ins.add(new Instruction("mov", new LocLiteral(0L), r11));
-        ins.add(new Instruction("mov", new LocLiteral(1L), r10));
-        String op = eq.getOperator() == Ops.EQUALS ? "cmove" : "cmovne";
-        ins.add(new Instruction(op, r10, r11));
-        ins.addAll(context.push(r11));
-        return ins;
-    }
-
-    private static List<Instruction> generateCondOp(Expression expr,
-            ControlflowContext context) {
-        LocLiteral zero = new LocLiteral(0);
-        LocLiteral one = new LocLiteral(1);
-
-        String tLabel = context.genLabel();
-        String fLabel = context.genLabel();
-
-        ShortCircuitNode.SCLabel t = new ShortCircuitNode.SCLabel(tLabel);
-        ShortCircuitNode.SCLabel f = new ShortCircuitNode.SCLabel(fLabel);
-        String endLabel = context.genLabel();
 
-        ShortCircuitNode cfg = ShortCircuitNode.shortCircuit(expr, t, f);
-
-        List<Instruction> ins = cfg.codegen(context, true);
-
-        ins.add(Instruction.labelInstruction(tLabel));
-        ins.add(new Instruction("pushq", one));
-        LocLabel end = new LocLabel(endLabel);
-        ins.add(new Instruction("jmp",  end));
-        ins.add(Instruction.labelInstruction(fLabel));
-        ins.add(new Instruction("pushq", zero));
-
-        ins.add(Instruction.labelInstruction(endLabel));
-        ins.add(new Instruction("nop"));
-        return ins;
-    }
-
-    private static List<Instruction> generateCompareOp(CompExpr compare,
-            ControlflowContext context) {
-        List<Instruction> ins = new ArrayList<Instruction>();
-        Ops op = compare.getOperator();
-        Expression left = compare.getLeftSide();
-        Expression right = compare.getRightSide();
-        LocReg r10 = new LocReg(Regs.R10);
-        LocReg r11 = new LocReg(Regs.R11);
-        ins.addAll(generateExpression(left,context));
-        ins.addAll(generateExpression(right, context));
-        ins.addAll(context.pop(r11));
-        ins.addAll(context.pop(r10));
-        String cmd = "";
-        switch(op){
-        case GT:
-            cmd = "setg";
-            break;
-        case GTE:
-            cmd = "setge";
-            break;
-        case EQUALS:
-            cmd = "sete";
-            break;
-        case NOT_EQUALS:
-            cmd = "setne";
-            break;
-        case LT:
-            cmd = "setl";
-            break;
-        case LTE:
-            cmd = "setle";
-            break;
-        default:
-            throw new RuntimeException("called generateCompareOp without valid compare op - op was " + compare.getOperator());
-        }
-        ins.add(new Instruction("cmpq", r11,r10));
-        LocReg al = new LocReg(Regs.AL);
-        ins.add(new Instruction(cmd, al));
-        //zero bit extension
-        ins.add(new Instruction("movzbq", al, r10));
-        ins.addAll(context.push(r10));
-        return ins;
-    }
-
-    private static List<Instruction> generateArithExpr(Expression expr,
-            ControlflowContext context) {
-        List<Instruction> ins = new ArrayList<Instruction>();
-        Ops op;
-        Expression left, right;
-        LocReg r10 = new LocReg(Regs.R10);
-        LocReg r11 = new LocReg(Regs.R11);
-        if (expr instanceof AddExpr) {
-            AddExpr add = (AddExpr) expr;
-            op = add.getOperator();
-            left = add.getLeftSide();
-            right = add.getRightSide();
-        } else if (expr instanceof MultExpr) {
-            MultExpr mult = (MultExpr) expr;
-            op = mult.getOperator();
-            left = mult.getLeftSide();
-            right = mult.getRightSide();
-        } else if (expr instanceof DivExpr) {
-            DivExpr div = (DivExpr) expr;
-            op = div.getOperator();
-            left = div.getLeftSide();
-            right = div.getRightSide();
-        } else {
-            ModExpr mod = (ModExpr) expr;
-            op = mod.getOperator();
-            left = mod.getLeftSide();
-            right = mod.getRightSide();
-        }
-        ins.addAll(generateExpression(left,context));
-        ins.addAll(generateExpression(right, context));
-        ins.addAll(context.pop(r11));
-        ins.addAll(context.pop(r10));
-
-        if(!(op == Ops.DIVIDE || op==Ops.MOD)){
-            String cmd = "";
-            switch (op){ //PLUS, MINUS, TIMES
-            case PLUS:
-                cmd = "addq";
-                break;
-            case MINUS:
-                cmd = "subq";
-                break;
-            case TIMES:
-                cmd = "imulq";
-                break;
-            default:
-                throw new RuntimeException("mistakes were made - should have been plus/minus/times in generateArithExpr of assembler");
-            }
-            ins.add(new Instruction(cmd, r11, r10));
-            ins.addAll(context.push(r10));
-        }else{
-            LocReg rdx = new LocReg(Regs.RDX);
-            LocReg rax = new LocReg(Regs.RAX);
-            ins.addAll(context.push(rdx));
-            ins.add(new Instruction("movq", r10, rax));
-            ins.add(new Instruction("cqto"));
-            ins.add(new Instruction("idivq", r11));//Divide rdx:rax by r11 contents - i.e divide lhs by rhs.
-            if(op==Ops.MOD){
-                ins.add(new Instruction("movq", rdx, rax));
+            @Override
+            protected LocationMem scalarLocation(Var var, List<Instruction> ins) {
+                LocReg reg = varRegister(var);
+                if (reg != null) {
+                    return reg;
+                }
+                return super.scalarLocation(var, ins);
             }
-            ins.addAll(context.pop(rdx));
-            ins.addAll(context.push(rax));          
-        }
-        return ins;
+        };
     }
-
-    private static List<Instruction> generateStatement(Statement stat, ControlflowContext context) {
+    private List<Instruction> generateStatement(Statement stat, ControlflowContext context) {
         List<Instruction> ins = new ArrayList<Instruction>();
         if (stat instanceof Assignment) {
             ins.addAll(generateAssign((Assignment) stat, context));
         } else if (stat instanceof MethodCallStatement) {
-            ins.addAll(generateCall(((MethodCallStatement) stat).getMethodCall(), context));
+            ins.addAll(selector(context).generateCall(((MethodCallStatement) stat).getMethodCall()));
         } else if (stat instanceof Declaration) {
             ins.addAll(generateFieldDecl((Declaration) stat, context));
         } else {
@@ -771,13 +689,15 @@ public class AssignRegisters {
         return ins;
     }
 
-    private static List<Instruction> generateAssign(Assignment assign, ControlflowContext context) {
+    private List<Instruction> generateAssign(Assignment assign, ControlflowContext context) {
         ArrayList<Instruction> ins = new ArrayList<Instruction>();
         Ops op = assign.getOperator();
         Var lhs = assign.getDestVar();
         Expression rhs = assign.getValue();
-        ins.addAll(generateExpression(rhs,context));
+        ExpressionSelector selector = selector(context);
+        LocationMem value = selector.evaluateSource(rhs, lhs, ins);
         
+        LocationMem previous = null;
         if (!lhs.isArray()) {
         	IR_FieldDecl decl = lhs.getFieldDecl();
         	//usedBeforeAssignment.add(decl);
@@ -788,43 +708,34 @@ public class AssignRegisters {
         		usedBeforeAssignment.add(decl);
         		assignedVars.add(decl);
         	}
+        	if (op != Ops.ASSIGN) {
+        		// the web this defines may live somewhere else than the one it updates
+        		previous = selector.location(lhs, ins);
+        	}
         	LocReg reg = assign.getRegister();
         	if (usedBeforeAssignment.contains(decl))
         		reg = null;
 	        //System.out.println("Def: " + lhs.getName() + ": " + reg);
-	        lhs.setReg(reg);
+	        lhs.setReg(splitRegs.containsKey(decl) ? splitRegs.get(decl) : reg);
 	        fieldDeclToReg.put(decl, reg);
 	        assignedVars.add(decl);
         }
         
-        LocReg r10 = new LocReg(Regs.R10);
-        LocReg r11 = new LocReg(Regs.R11);
-        LocationMem dst= generateVarLoc(lhs, context, ins);
-        ins.addAll(context.pop(r10));
-        if(op != Ops.ASSIGN){
-            String cmd = null;
-            switch(op){
-            case ASSIGN_PLUS:
-                cmd = "addq";
-                break;
-            case ASSIGN_MINUS:
-                cmd = "subq";
-                break;
-            default:
-                break;
-            }
-            ins.add(new Instruction("movq", dst, r11));
-            ins.add(new Instruction(cmd, r10, r11));
-            ins.add(new Instruction("movq", r11, dst));
-        }else{
-            ins.add(new Instruction("movq", r10, dst));
+        LocationMem dst = selector.location(lhs, ins);
+        if (previous != null && !previous.equals(dst)) {
+        	if (value.equals(dst)) {
+        		LocReg rax = new LocReg(Regs.RAX);
+        		ins.add(new Instruction(Opcode.MOVQ, value, rax));
+        		value = rax;
+        	}
+        	ins.add(new Instruction(Opcode.MOVQ, previous, dst));
         }
+        selector.store(op, value, dst, ins);
         return ins;
     }
-
-    private static List<Instruction> generateCall(MethodCall call, ControlflowContext context) {
+    private List<Instruction> generateCall(MethodCall call, ControlflowContext context,
+            ExpressionSelector selector) {
         ArrayList<Instruction> ins = new ArrayList<Instruction>();
-        SAVE_TEMP_REGS(ins, context);
         List<Expression> args = call.getArguments();
         for(int ii = 0; ii < args.size(); ii++){
             Expression arg = args.get(ii);
@@ -838,7 +749,7 @@ public class AssignRegisters {
                     context.stringLiterals.put(ss, idx);
                 }
             }else{
-                List<Instruction> exprIns = generateExpression(arg, context);
+                List<Instruction> exprIns = selector.generateExpression(arg);
                 ins.addAll(exprIns);
             }
         }
@@ -848,7 +759,7 @@ public class AssignRegisters {
             LocationMem argSrc;
             if (arg.getExprType() == ExpressionType.STRING_LIT){
                 Long idx = context.stringLiterals.get(((StringLit) arg).getValue());
-                argSrc = new LocLabel("$" + ControlflowContext.StringLiteralLoc(idx));
+                argSrc = new LocLabel("$" + context.stringLiteralLabel(idx));
             } else {
                 argSrc = new LocRelStack(offset);
                 offset = offset + CodegenConst.INT_SIZE;
@@ -862,9 +773,13 @@ public class AssignRegisters {
         if(call.getIsCallout()){
             //# of floating point registers is stored in rax
             //need to zero it for callouts.
-            ins.add(new Instruction("movq", new LocLiteral(0),  new LocReg(Regs.RAX)));         
+            ins.add(new Instruction(Opcode.MOVQ, new LocLiteral(0),  new LocReg(Regs.RAX)));         
+        }
+        if (call.getIsCallout() && args.size() <= CodegenConst.N_REG_ARG) {
+            ins.addAll(context.alignedCall(call.getMethodName()));
+        } else {
+            ins.add(new Instruction(Opcode.CALL, new LocLabel(call.getMethodName())));
         }
-        ins.add(new Instruction("call ", new LocLabel(call.getMethodName()) ));
 
         //pop all arguments on the stack (Strings aren't pushed to stack in first place)
         for (int ii = args.size() - 1; ii >= 0; ii--) {
@@ -878,25 +793,11 @@ public class AssignRegisters {
 	            ins.addAll(context.pop(new LocReg(Regs.R10)));
 	        }
         }
-        RESTORE_TEMP_REGS(ins, context);
         return ins;
     }
 
-    private static void SAVE_TEMP_REGS(List<Instruction> ins, ControlflowContext context){
-    	ins.addAll(context.push(new LocReg(Regs.R12)));
-    	ins.addAll(context.push(new LocReg(Regs.R13)));
-    	ins.addAll(context.push(new LocReg(Regs.R14)));
-    	ins.addAll(context.push(new LocReg(Regs.R15)));
-    }
-    
-    private static void RESTORE_TEMP_REGS(List<Instruction> ins, ControlflowContext context){
-    	ins.addAll(context.pop(new LocReg(Regs.R15)));
-    	ins.addAll(context.pop(new LocReg(Regs.R14)));
-    	ins.addAll(context.pop(new LocReg(Regs.R13)));
-    	ins.addAll(context.pop(new LocReg(Regs.R12)));
-    }
-    
-    private static List<Instruction> generateFieldDecl(Declaration declare, ControlflowContext context){
+
+    private List<Instruction> generateFieldDecl(Declaration declare, ControlflowContext context){
         ArrayList<Instruction> ins = new ArrayList<Instruction>();
         IR_FieldDecl decl = declare.getFieldDecl();
         String name = decl.getName();
@@ -913,7 +814,7 @@ public class AssignRegisters {
         }
         LocStack loc = context.allocLocal(size);
         LocLiteral sizeLoc= new LocLiteral(size);
-        ins.add(new Instruction("subq", sizeLoc, new LocReg(Regs.RSP)));
+        ins.add(new Instruction(Opcode.SUBQ, sizeLoc, new LocReg(Regs.RSP)));
         d.setLocation(loc);
         context.putSymbol(name, d);
         if(type == Type.INTARR || type == Type.BOOLARR){
@@ -923,75 +824,37 @@ public class AssignRegisters {
             String ll = context.genLabel();
             LocLabel jmpLabel = new LocLabel(ll);
             LocLiteral zero = new LocLiteral(0);
-            ins.add(new Instruction("movq", zero,rax));
+            ins.add(new Instruction(Opcode.MOVQ, zero,rax));
             ins.add(Instruction.labelInstruction(ll));
-            ins.add(new Instruction("movq", zero, new LocArray(loc, rax, CodegenConst.INT_SIZE)));
-            ins.add(new Instruction("addq", new LocLiteral(1), rax));
-            ins.add(new Instruction("cmpq", lenLoc, rax));
-            ins.add(new Instruction("jl", jmpLabel));
+            ins.add(new Instruction(Opcode.MOVQ, zero, new LocArray(loc, rax, CodegenConst.INT_SIZE)));
+            ins.add(new Instruction(Opcode.ADDQ, new LocLiteral(1), rax));
+            ins.add(new Instruction(Opcode.CMPQ, lenLoc, rax));
+            ins.add(new Instruction(Opcode.JL, jmpLabel));
 
         }
         else{
-            ins.add(new Instruction("movq", new LocLiteral(0), loc));
+            ins.add(new Instruction(Opcode.MOVQ, new LocLiteral(0), loc));
         }
         return ins;
     }
 
-    private static LocationMem generateVarLoc(Var var, ControlflowContext context, List<Instruction> ins) {
-    	if (!var.isArray()) {
-    		// We only assign registers to non-array variables.
-    		IR_FieldDecl decl = var.getFieldDecl();
-    		if (!usedBeforeAssignment.contains(decl) && assignedVars.contains(decl)) {
-	    		// that have been assigned previously (not just declared).
-	    		LocReg reg = fieldDeclToReg.get(var.getFieldDecl());
-		    	//System.out.println("Use: " + var.getName() + ": " + reg);
-		    	if (reg != null) {
-		    		return reg;
-		    	}
-	    	} else if (!usedBeforeAssignment.contains(decl)) {
-	    		//System.out.println("Used before assigned");
-	    		usedBeforeAssignment.add(decl);
-	    	}
+    /**
+     * Register holding a scalar variable, or null if it has to be read from memory.
+     */
+    private LocReg varRegister(Var var) {
+		// We only assign registers to non-array variables.
+		IR_FieldDecl decl = var.getFieldDecl();
+		if (splitRegs.containsKey(decl)) {
+			return splitRegs.get(decl);
+		}
+		if (!usedBeforeAssignment.contains(decl) && assignedVars.contains(decl)) {
+    		// that have been assigned previously (not just declared).
+    		return fieldDeclToReg.get(decl);
+    	} else if (!usedBeforeAssignment.contains(decl)) {
+    		//System.out.println("Used before assigned");
+    		usedBeforeAssignment.add(decl);
     	}
-        Descriptor d = context.findSymbol(var.getName());
-        switch (d.getIR().getType()) {
-        case INT:
-        case BOOL:
-            return d.getLocation();
-        case INTARR:
-        case BOOLARR:
-            // should be safe, since var is a Var, and the descriptor of a Var should have an IR_Var
-            Expression index = var.getIndex();
-            IR_FieldDecl decl = (IR_FieldDecl)d.getIR();
-            LocArray loc_array = null;
-            long len = decl.getLength().getValue();
-            if (index.getExprType() == ExpressionType.INT_LIT) {
-                IntLit index_int = (IntLit) var.getIndex();
-                loc_array = new LocArray(d.getLocation(), 
-                        new LocLiteral(index_int.getValue()), CodegenConst.INT_SIZE);
-
-                if(index_int.getValue() >= len || index_int.getValue() < 0){
-                    //statically throw error
-                    ins.add(new Instruction("jmp", new LocLabel(context.getArrayBoundLabel())));
-                }
-
-            } else {
-                // evaluate index and push index location to stack
-                ins.addAll(generateExpression(index, context));
-                //must not use r11 or r10 here since in assign, they may be used
-                LocReg rax = new LocReg(Regs.RAX);
-                // saves offset at R11
-                ins.add(new Instruction("popq", rax));
-                loc_array = new LocArray(d.getLocation(), rax, CodegenConst.INT_SIZE);
-                ins.add(new Instruction("cmpq", new LocLiteral(len), rax));
-                ins.add(new Instruction("jge", new LocLabel(context.getArrayBoundLabel())));
-                ins.add(new Instruction("cmpq", new LocLiteral(0L), rax));
-                ins.add(new Instruction("jl", new LocLabel(context.getArrayBoundLabel())));
-            }
-            return loc_array;
-        default:
-            return null;
-        }
+    	return null;
     }
 
     /**@brief registers used for function arguments.
@@ -1014,11 +877,11 @@ public class AssignRegisters {
      * @param idx
      * @return
      */
-    private static List<Instruction> setCallArg(LocationMem argSrc, int idx, ControlflowContext context){
+    private List<Instruction> setCallArg(LocationMem argSrc, int idx, ControlflowContext context){
         ArrayList<Instruction> ins=new ArrayList<Instruction>();
         if(idx<CodegenConst.N_REG_ARG){
             LocationMem argDst = argLoc(idx);
-            ins.add(new Instruction("movq", argSrc, argDst));
+            ins.add(new Instruction(Opcode.MOVQ, argSrc, argDst));
         }else{
             ins.addAll(context.push(argSrc));
         }
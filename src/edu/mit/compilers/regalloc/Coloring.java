@@ -2,10 +2,11 @@ package edu.mit.compilers.regalloc;
 
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.Comparator;
 import java.util.HashMap;
-import java.util.HashSet;
 import java.util.List;
-import java.util.Set;
 import java.util.Stack;
 
 import edu.mit.compilers.codegen.Regs;
@@ -15,6 +16,14 @@ import edu.mit.compilers.ir.IR_FieldDecl;
  * Given a set of GraphNodes representing Webs and an InterferenceGraph, this class
  * colors the nodes such that no two neighboring nodes share the same color.
  * If this coloring is not possible, then it will spill the node onto the stack.
+ * 
+ * The nodes left to remove are kept in buckets by their degree among the nodes left, 
+ * all of degree k or more in the last one, so the next node to remove is found without 
+ * looking at the others. Of the nodes of a bucket the one with the smallest id goes 
+ * first, so the registers chosen don't depend on the order nodes came into the bucket.
+ * 
+ * A web live across a method call can only have a callee-saved register, so its k is 
+ * the number of those; the others can have any register, caller-saved ones first.
  *
  */
 public class Coloring {
@@ -27,36 +36,60 @@ public class Coloring {
 	HashMap<IR_FieldDecl, Double> fieldDeclToSpillCost = new HashMap<IR_FieldDecl, Double>();
 	HashMap<GraphNode, Double> nodeToSpillCost = new HashMap<GraphNode, Double>();
 	
-	private final static List<Regs> regsToHoldVars = Arrays.asList(Regs.R12, Regs.R13, Regs.R14, Regs.R15);
-	
-	int k; // maximum number of colors
-	
-	public Coloring(InterferenceGraph graph, int k, HashMap<IR_FieldDecl, Double> fieldDeclToSpillCost) {
+	/**
+	 * The colors, in order of preference. The first CALLER_SAVED are changed by calls, 
+	 * and are not among the scratch registers AssignRegisters evaluates expressions in; 
+	 * the rest are kept by calls, saved on entry by the methods using them.
+	 */
+	final static List<Regs> regsToHoldVars = Arrays.asList(Regs.RSI, Regs.RDI, Regs.R8, Regs.R9, 
+			Regs.RBX, Regs.R12, Regs.R13, Regs.R14, Regs.R15);
+	final static int CALLER_SAVED = 4;
+	final static List<Regs> calleeSaved = regsToHoldVars.subList(CALLER_SAVED, regsToHoldVars.size());
+	
+	int k = regsToHoldVars.size(); // maximum number of colors
+	
+	/**
+	 * By node id: degree among the nodes not removed yet and the colors the node may take. 
+	 * buckets[d] holds the ids of the nodes of degree d, buckets[k] those of the nodes with 
+	 * as many neighbors as colors or more.
+	 */
+	private int[] degree;
+	private int[] colors;
+	private BitSet[] buckets;
+	
+	public Coloring(InterferenceGraph graph, HashMap<IR_FieldDecl, Double> fieldDeclToSpillCost) {
 		this.graph = graph;
-		this.k = k;
 		this.fieldDeclToSpillCost = fieldDeclToSpillCost;
 	}
 	
-	private Set<Regs> getAssignedRegisters(Set<GraphNode> neighbors) {
-		HashSet<Regs> regs = new HashSet<Regs>();
-		if (neighbors.size() == 0)
-			return regs;
-		for (GraphNode node : neighbors) {
-			//System.out.println("Register: " + node.getRegister());
-			if (!node.isRemoved() && node.hasAssignedRegister()) {
-				regs.add(node.getRegister());
+	/**
+	 * Index in regsToHoldVars of the first register node may take.
+	 */
+	static int firstColor(GraphNode node) {
+		return node.isAcrossCall() ? CALLER_SAVED : 0;
+	}
+	
+	/**
+	 * Number of registers node may take.
+	 */
+	static int colors(GraphNode node) {
+		return regsToHoldVars.size() - firstColor(node);
+	}
+	
+	private boolean[] getAssignedRegisters(GraphNode node) {
+		boolean[] regs = new boolean[Regs.values().length];
+		for (int ii = 0; ii < graph.getDegree(node); ii++) {
+			GraphNode neighbor = graph.getNeighbor(node, ii);
+			if (!neighbor.isRemoved() && neighbor.hasAssignedRegister()) {
+				regs[neighbor.getRegister().ordinal()] = true;
 			}
 		}
 		return regs;
 	}
 	
-	private boolean isGenPurposeReg(Regs reg) {
-		return regsToHoldVars.contains(reg);
-	}
-	
-	private Regs assignRegister(GraphNode node, Set<Regs> assignedRegisters) {
-		for (Regs reg : Regs.values()) {
-			if (isGenPurposeReg(reg) && !assignedRegisters.contains(reg)) {
+	private Regs assignRegister(GraphNode node, boolean[] assignedRegisters) {
+		for (Regs reg : regsToHoldVars.subList(firstColor(node), regsToHoldVars.size())) {
+			if (!assignedRegisters[reg.ordinal()]) {
 				return reg;
 			}
 		}
@@ -66,90 +99,101 @@ public class Coloring {
 	public void assignColors() {
 		while (!removedNodes.empty()) {
 			GraphNode node = removedNodes.pop();
-			//System.out.println("\n========== Variable: " + node.getWeb().getFieldDecl().getName());
-			Set<GraphNode> neighbors = graph.getAdjList().get(node);
-			//System.out.println("Neighbors size: " + neighbors.size());
-			Set<Regs> asssignedRegisters = getAssignedRegisters(neighbors);
-			//System.out.println("Assigned registers: " + asssignedRegisters);
-			Regs assignedRegister = assignRegister(node, asssignedRegisters);
+			Regs assignedRegister = assignRegister(node, getAssignedRegisters(node));
 			if (assignedRegister == null) {
 				// cannot assign an empty register; must spill instead.
-				//System.out.println("Spilling during assigning colors");
 				spillNodes.push(node);
 				node.spill();
 			} else {
-				//System.out.println("Node assigned to register: " + assignedRegister.toString());
 				node.setRegister(assignedRegister);
 				node.unmarkAsRemoved();
 			}
 		}
 	}
 	
-	private GraphNode getMaxSpillCost(List<GraphNode> nodes) {
-		double maxSpillCost = Double.MIN_VALUE;
-		GraphNode returnNode = null;
-		for (GraphNode node : nodes) {
-			if (nodeToSpillCost.get(node) > maxSpillCost) {
-				returnNode = node;
-				maxSpillCost = nodeToSpillCost.get(node);
-			}
-		}
-		return returnNode;
+	private int bucket(int id) {
+		return degree[id] >= colors[id] ? k : degree[id];
 	}
 	
-	private GraphNode getMinSpillCost(List<GraphNode> nodes) {
-		double minSpillCost = Double.MAX_VALUE;
-		GraphNode returnNode = null;
-		for (GraphNode node : nodes) {
-			if (nodeToSpillCost.get(node) < minSpillCost) {
-				returnNode = node;
-				minSpillCost = nodeToSpillCost.get(node);
+	private void link(int id) {
+		buckets[bucket(id)].set(id);
+	}
+	
+	private void unlink(int id) {
+		buckets[bucket(id)].clear(id);
+	}
+	
+	/**
+	 * Takes node out of the graph, lowering the degree of its neighbors.
+	 */
+	private void removeNode(GraphNode node) {
+		unlink(node.getId());
+		node.markAsRemoved();
+		for (int ii = 0; ii < graph.getDegree(node); ii++) {
+			GraphNode neighbor = graph.getNeighbor(node, ii);
+			if (!neighbor.isRemoved()) {
+				int id = neighbor.getId();
+				unlink(id);
+				degree[id]--;
+				link(id);
 			}
 		}
-		return returnNode;
 	}
 	
-	public Boolean removeNodes(List<GraphNode> nodesToProcess) {
-		Boolean changed = false;
-		if (nodesToProcess.size() == 0)
-			return false;
-		List<GraphNode> copyNodes = new ArrayList<GraphNode>(nodesToProcess);
-		while (!copyNodes.isEmpty()) {
-			GraphNode node = getMaxSpillCost(copyNodes);
-			copyNodes.remove(node);
-			if (graph.getNumEdges(node) < k) {
-				removedNodes.push(node);
-				node.markAsRemoved();
-				nodesToProcess.remove(node);
-				changed = true;
+	/**
+	 * The node of the lowest degree below its number of colors with the smallest id, or 
+	 * null if there is none.
+	 */
+	private GraphNode lowDegreeNode() {
+		for (int d = 0; d < k; d++) {
+			int id = buckets[d].nextSetBit(0);
+			if (id >= 0) {
+				return graph.getNode(id);
 			}
 		}
-		return changed;
+		return null;
 	}
 	
 	public List<GraphNode> run() {
-		Boolean changed = true;
-		List<GraphNode> nodesToProcess = graph.getNodes();
-		for (GraphNode node : nodesToProcess) {
+		List<GraphNode> nodes = graph.getNodes();
+		int n = nodes.size();
+		degree = new int[n];
+		colors = new int[n];
+		buckets = new BitSet[k + 1];
+		for (int d = 0; d <= k; d++) {
+			buckets[d] = new BitSet(n);
+		}
+		for (GraphNode node : nodes) {
 			nodeToSpillCost.put(node, calcSpillCost(node));
+			degree[node.getId()] = graph.getDegree(node);
+			colors[node.getId()] = colors(node);
+			link(node.getId());
 		}
-		while (nodesToProcess.size() > 0) {
-			while (changed) {
-				changed = removeNodes(nodesToProcess);
+		// spill candidates, cheapest first; removed ones are skipped as they come up
+		List<GraphNode> bySpillCost = new ArrayList<GraphNode>(nodes);
+		Collections.sort(bySpillCost, new Comparator<GraphNode>() {
+			public int compare(GraphNode a, GraphNode b) {
+				return Double.compare(nodeToSpillCost.get(a), nodeToSpillCost.get(b));
 			}
-			if (nodesToProcess.size() > 0) {
+		});
+		int nextSpill = 0;
+		for (int left = n; left > 0; left--) {
+			GraphNode node = lowDegreeNode();
+			if (node != null) {
+				removedNodes.push(node);
+			} else {
 				// must spill one node, then try again.
-				GraphNode nodeToSpill = getMinSpillCost(nodesToProcess);
-				//System.out.println("Spilling var: " + nodeToSpill.getWeb().getFieldDecl().getName());
-				spillNodes.push(nodeToSpill);
-				nodeToSpill.markAsRemoved();
-				nodeToSpill.spill();
-				nodesToProcess.remove(nodeToSpill);
-				changed = true;
+				while (bySpillCost.get(nextSpill).isRemoved()) {
+					nextSpill++;
+				}
+				node = bySpillCost.get(nextSpill);
+				spillNodes.push(node);
+				node.spill();
 			}
+			removeNode(node);
 		}
 		assignColors();
-		return graph.getNodes();
+		return nodes;
 	}
 	
 	public List<GraphNode> getSpilledNodes() {
@@ -3,15 +3,14 @@ package edu.mit.compilers.regalloc;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.HashSet;
-import java.util.Iterator;
 import java.util.LinkedHashSet;
 import java.util.List;
 
 import edu.mit.compilers.controlflow.Assignment;
-import edu.mit.compilers.controlflow.Branch;
-import edu.mit.compilers.controlflow.Branch.BranchType;
 import edu.mit.compilers.controlflow.Codeblock;
+import edu.mit.compilers.controlflow.DataflowAnalysis;
 import edu.mit.compilers.controlflow.FlowNode;
+import edu.mit.compilers.controlflow.MethodScheduler;
 import edu.mit.compilers.controlflow.START;
 import edu.mit.compilers.controlflow.Statement;
 import edu.mit.compilers.ir.IR_FieldDecl;
@@ -25,15 +24,23 @@ import edu.mit.compilers.ir.IR_FieldDecl;
 public class GenReachingDefs {
 	
 	private List<IR_FieldDecl> globals;
-	private List<IR_FieldDecl> arguments;
 	private HashMap<String, START> flowNodes;
+	private MethodScheduler scheduler;
 	
 	private HashMap<START, HashSet<Web>> websForEachMethod = new HashMap<START, HashSet<Web>>();
-	private HashMap<FlowNode, FlowNode> whileParent = new HashMap<FlowNode, FlowNode>();
+	private int iterations = 0;
 	
 	public GenReachingDefs(List<IR_FieldDecl> globals, HashMap<String, START> flowNodes){
+		this(globals, flowNodes, MethodScheduler.sequential());
+	}
+	
+	/**
+	 * @param scheduler : runs the analysis of each method, possibly in parallel.
+	 */
+	public GenReachingDefs(List<IR_FieldDecl> globals, HashMap<String, START> flowNodes, MethodScheduler scheduler){
 		this.globals = globals;
 		this.flowNodes = flowNodes;
+		this.scheduler = scheduler;
 	}
 	
 	public List<FlowNode> getAllFlowNodes(START initialNode) {
@@ -77,14 +84,15 @@ public class GenReachingDefs {
 		return newRD;
 	}
 	
-	public boolean notGlobalOrParam(IR_FieldDecl decl) {
+	public boolean notGlobalOrParam(IR_FieldDecl decl, List<IR_FieldDecl> arguments) {
 		return !globals.contains(decl) && !arguments.contains(decl);
 	}
 
-	public ReachingDefinition generateCodeblockOUT(Codeblock node, ReachingDefinition RDin, HashSet<Web> allWebs) {
+	public ReachingDefinition generateCodeblockOUT(Codeblock node, ReachingDefinition RDin, HashSet<Web> allWebs,
+			List<IR_FieldDecl> arguments) {
 		ReachingDefinition rd = new ReachingDefinition(RDin);
 		for (Statement st : node.getStatements()) {
-			if (st instanceof Assignment && notGlobalOrParam(((Assignment) st).getDestVar().getFieldDecl())) {
+			if (st instanceof Assignment && notGlobalOrParam(((Assignment) st).getDestVar().getFieldDecl(), arguments)) {
 				// Non-global and non-parameter assignment
 				//System.out.println("\n=======");
 				//System.out.println("Statement: " + st);
@@ -161,70 +169,77 @@ public class GenReachingDefs {
 	}
 	
 	public HashMap<START, HashSet<Web>> run() {
-		for (START initialNode : flowNodes.values()) {
-			arguments = initialNode.getArguments();
-			websForEachMethod.put(initialNode, new HashSet<Web>());
-			final List<FlowNode> listFlowNodes = getAllFlowNodes(initialNode); // this will not change
-			//System.out.println("Number of FlowNodes: " + listFlowNodes.size());
-			LinkedHashSet<FlowNode> changed = new LinkedHashSet<FlowNode>(); // this will change
-			initialNode.setIN(new ReachingDefinition());
-			for (FlowNode flowNode : listFlowNodes) {
-				flowNode.setOUT(new ReachingDefinition());
-				changed.add(flowNode);
-			}
-			changed.remove(initialNode);
-			
-			int loopCounter = 1;
-			while (!changed.isEmpty()) {
-				//System.out.println("\n" + loopLimit + " ===================================");
-				Iterator<FlowNode> it = changed.iterator();
-				FlowNode n = it.next();
-				it.remove();
-				//System.out.println(n.getClass());
-				
-				n.setIN(new ReachingDefinition());
-				for (FlowNode p : n.getParents()) {
-					//System.out.println("Parents class: " + p.getClass());
-					ReachingDefinition unionReachDef = union(n.getIN(), p.getOUT(), websForEachMethod.get(initialNode));
-					n.setIN(unionReachDef);
-				}
-				// Deal with issue where While doesn't have a parent (when it should be there)
-				if ((n instanceof Branch) && ((Branch) n).getType() == BranchType.WHILE) {
-					if (whileParent.containsKey(n)) {
-						//System.out.println("Substituting extra while FlowNode");
-						FlowNode p = whileParent.get(n);
-						ReachingDefinition unionReachDef = union(n.getIN(), p.getOUT(), websForEachMethod.get(initialNode));
-						n.setIN(unionReachDef);
-					}
-				}
-				//System.out.println("IN after union with parents: " + n.getIN());
-				n.getIN().setFlowNodes(n);
-				
-				ReachingDefinition OUTn;
-				if (n instanceof Codeblock) {
-					OUTn = generateCodeblockOUT((Codeblock) n, n.getIN(), websForEachMethod.get(initialNode));
-				} else {
-					OUTn = n.getIN();
-				}
-				//System.out.println("OLD OUT: " + n.getOUT());
-				//System.out.println("NEW OUT: " + OUTn);
-				if (n.getOUT().changed(OUTn)) {
-					//System.out.println("Changed!");
-					for (FlowNode s : n.getChildren()) {
-						if ((s instanceof Branch) && ((Branch) s).getType() == BranchType.WHILE) {
-							if (!((Branch) s).getParents().contains(n)) {
-								//System.out.println("Generating temp while parent");
-								whileParent.put(s, n);
-							}
-						}
-						changed.add(s);
-					}
-				}
-				n.setOUT(OUTn);
-				n.getOUT().setFlowNodes(n);
-				loopCounter++;
+		List<START> methods = new ArrayList<START>(flowNodes.values());
+		List<ReachingDefsAnalysis> analyses = scheduler.map(methods,
+				new MethodScheduler.MethodTask<START, ReachingDefsAnalysis>() {
+			@Override
+			public ReachingDefsAnalysis run(START initialNode) {
+				ReachingDefsAnalysis analysis = new ReachingDefsAnalysis(new LinkedHashSet<Web>(), initialNode.getArguments());
+				analysis.evaluations = analysis.solve(initialNode);
+				return analysis;
 			}
+		});
+		for (int i = 0; i < methods.size(); i++) {
+			websForEachMethod.put(methods.get(i), analyses.get(i).allWebs);
+			iterations += analyses.get(i).evaluations;
 		}
 		return websForEachMethod;
 	}
+
+	/**
+	 * Number of node evaluations run() needed to reach the fixpoint, summed over all methods.
+	 */
+	public int getIterations() {
+		return iterations;
+	}
+
+	/**
+	 * Forward reaching definitions on the shared DataflowAnalysis worklist.
+	 * IN is the union of the parents' OUT (merging webs of the same variable as it goes),
+	 * and only Codeblocks change the webs on the way out.
+	 */
+	private class ReachingDefsAnalysis extends DataflowAnalysis {
+		private HashSet<Web> allWebs;
+		private List<IR_FieldDecl> arguments;
+		private int evaluations;
+
+		ReachingDefsAnalysis(HashSet<Web> allWebs, List<IR_FieldDecl> arguments) {
+			this.allWebs = allWebs;
+			this.arguments = arguments;
+		}
+
+		@Override
+		protected Direction getDirection() {
+			return Direction.FORWARD;
+		}
+
+		@Override
+		protected void initialize(FlowNode node) {
+			node.setIN(new ReachingDefinition());
+			node.setOUT(new ReachingDefinition());
+		}
+
+		@Override
+		protected void meet(FlowNode n, List<FlowNode> parents, boolean boundary) {
+			n.setIN(new ReachingDefinition());
+			for (FlowNode p : parents) {
+				n.setIN(union(n.getIN(), p.getOUT(), allWebs));
+			}
+			n.getIN().setFlowNodes(n);
+		}
+
+		@Override
+		protected boolean transfer(FlowNode n) {
+			ReachingDefinition OUTn;
+			if (n instanceof Codeblock) {
+				OUTn = generateCodeblockOUT((Codeblock) n, n.getIN(), allWebs, arguments);
+			} else {
+				OUTn = n.getIN();
+			}
+			boolean changed = n.getOUT().changed(OUTn);
+			n.setOUT(OUTn);
+			n.getOUT().setFlowNodes(n);
+			return changed;
+		}
+	}
 }
@@ -11,6 +11,12 @@ public class GraphNode {
 	
 	Web web;
 	
+	/**@brief dense number in the InterferenceGraph. The nodes of one method have consecutive
+	 * ids, starting at methodStart.
+	 */
+	final int id;
+	final int methodStart;
+	
 	Boolean isGlobal = false;
 	Boolean isParam = false;
 	
@@ -18,9 +24,16 @@ public class GraphNode {
 	
 	Boolean removed = false; // used to represent that a node has been removed in coloring
 	Boolean spill = false;
+	Boolean acrossCall = false; // live while a method call is made, so only a callee-saved register keeps it
 	
-	public GraphNode(Web web) {
+	public GraphNode(Web web, int id, int methodStart) {
 		this.web = web;
+		this.id = id;
+		this.methodStart = methodStart;
+	}
+	
+	public int getId() {
+		return id;
 	}
 	
 	public Web getWeb() {
@@ -63,4 +76,12 @@ public class GraphNode {
 		return this.spill;
 	}
 	
+	public void markAcrossCall() {
+		this.acrossCall = true;
+	}
+	
+	public Boolean isAcrossCall() {
+		return this.acrossCall;
+	}
+	
 }
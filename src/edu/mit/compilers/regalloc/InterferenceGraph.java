@@ -5,6 +5,7 @@ import java.util.Arrays;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map.Entry;
@@ -17,6 +18,7 @@ import edu.mit.compilers.controlflow.Branch;
 import edu.mit.compilers.controlflow.Codeblock;
 import edu.mit.compilers.controlflow.END;
 import edu.mit.compilers.controlflow.Expression;
+import edu.mit.compilers.controlflow.ExpressionSelector;
 import edu.mit.compilers.controlflow.FlowNode;
 import edu.mit.compilers.controlflow.MethodCall;
 import edu.mit.compilers.controlflow.MethodCallStatement;
@@ -26,21 +28,56 @@ import edu.mit.compilers.controlflow.NotExpr;
 import edu.mit.compilers.controlflow.START;
 import edu.mit.compilers.controlflow.Statement;
 import edu.mit.compilers.controlflow.Ternary;
+import edu.mit.compilers.controlflow.Var;
 import edu.mit.compilers.ir.IR_FieldDecl;
+import edu.mit.compilers.ir.Ops;
 
 /**
  * Builds an InterferenceGraph given each the webs and the reaching definitions.
  * A GraphNode object is created for each Web. Edges are made between nodes 
  * such that neighboring nodes can be assigned to the same register.
  * The actual assignments are done in Coloring.
+ * 
+ * Nodes are numbered densely, a method's nodes one after the other. Each method 
+ * has its own triangular bit matrix for telling whether two of its nodes interfere, 
+ * and each node an int array of its neighbors' ids.
+ * 
+ * The nodes of webs live across a method call are marked, so Coloring only gives 
+ * them registers calls keep.
  *
  */
 public class InterferenceGraph {
 	
+	/**
+	 * Indexed by GraphNode id.
+	 */
 	private List<GraphNode> nodes = new ArrayList<GraphNode>();
 	
-	private HashMap<GraphNode, Set<GraphNode>> adjList = new HashMap<GraphNode, Set<GraphNode>>();
-	private HashSet<HashSet<GraphNode>> bitMatrix = new HashSet<HashSet<GraphNode>>();
+	/**
+	 * Neighbor ids of each node; the first degree[id] entries are used.
+	 */
+	private int[][] adjacency = new int[16][];
+	private int[] degree = new int[16];
+	private int edgeCount = 0;
+	private int acrossCallCount = 0;
+	
+	/**
+	 * The lower triangle of the bit matrix of each node's method, by ids counted from 
+	 * the method's first node: nodes i > j interfere if bit i*(i-1)/2 + j is set. 
+	 * The nodes of a method share one array.
+	 */
+	private long[][] bitMatrix = new long[16][];
+	
+	private int methodStart = 0;
+	private long[] methodBits = new long[1];
+	
+	/**
+	 * Whether to record copies of one local into another for coalescing. A copy 
+	 * then adds no edge between its two webs, since they hold the same value there.
+	 */
+	private boolean trackMoves = false;
+	private LinkedHashMap<Assignment, Web> moveSources = new LinkedHashMap<Assignment, Web>();
+	private List<GraphNode[]> moves = new ArrayList<GraphNode[]>();
 	
 	private HashMap<START, HashSet<Web>> websForEachMethod;
 	private HashMap<START, HashSet<START>> methodToMethodCalls = new HashMap<START, HashSet<START>>();
@@ -63,35 +100,72 @@ public class InterferenceGraph {
 	private List<IR_FieldDecl> getLiveVars(Bitvector liveMap) {
 		if (liveMap == null)
 			return null;
-		List<IR_FieldDecl> liveVars = new ArrayList<IR_FieldDecl>(); 
-		for (IR_FieldDecl decl : liveMap.getVectorMap().keySet()) {
-			if (liveMap.get(decl) == 1) {
-				liveVars.add(decl);
+		return liveMap.getLiveFieldDecls();
+	}
+
+	private GraphNode addNode(Web web) {
+		int id = nodes.size();
+		GraphNode node = new GraphNode(web, id, methodStart);
+		nodes.add(node);
+		if (id == degree.length) {
+			adjacency = Arrays.copyOf(adjacency, 2 * id);
+			degree = Arrays.copyOf(degree, 2 * id);
+			bitMatrix = Arrays.copyOf(bitMatrix, 2 * id);
+		}
+		adjacency[id] = new int[4];
+		long local = id - methodStart;
+		int words = (int) ((local * (local + 1) / 2 + 63) / 64);
+		if (words > methodBits.length) {
+			// the other nodes of the method still point at the old array
+			methodBits = Arrays.copyOf(methodBits, Math.max(words, 2 * methodBits.length));
+			for (int other = methodStart; other < id; other++) {
+				bitMatrix[other] = methodBits;
 			}
 		}
-		return liveVars;
+		bitMatrix[id] = methodBits;
+		return node;
 	}
-
+	
+	/**
+	 * Bit of the pair in their method's matrix, -1 if they are in different methods.
+	 */
+	private long bitIndex(GraphNode a, GraphNode b) {
+		if (a.methodStart != b.methodStart) {
+			return -1;
+		}
+		long i = Math.max(a.id, b.id) - a.methodStart;
+		long j = Math.min(a.id, b.id) - a.methodStart;
+		return i * (i - 1) / 2 + j;
+	}
+	
 	private void addEdge(GraphNode from, GraphNode to) {
-		if (!adjList.containsKey(from)) {
-			adjList.put(from, new HashSet<GraphNode>(Arrays.asList(to)));
-		} else {
-			adjList.get(from).add(to);
+		long bit = bitIndex(from, to);
+		if (bit < 0) {
+			throw new RuntimeException("Webs of different methods can't interfere: " + from.getWeb() + ", " + to.getWeb());
 		}
-		// Add reverse
-		if (!adjList.containsKey(to)) {
-			adjList.put(to, new HashSet<GraphNode>(Arrays.asList(from)));
-		} else {
-			adjList.get(to).add(from);
+		long[] bits = bitMatrix[from.id];
+		if ((bits[(int) (bit >>> 6)] & (1L << bit)) != 0) {
+			return;
+		}
+		bits[(int) (bit >>> 6)] |= 1L << bit;
+		addNeighbor(from.id, to.id);
+		addNeighbor(to.id, from.id);
+		edgeCount++;
+	}
+	
+	private void addNeighbor(int id, int neighbor) {
+		if (degree[id] == adjacency[id].length) {
+			adjacency[id] = Arrays.copyOf(adjacency[id], 2 * degree[id]);
 		}
-		bitMatrix.add(new HashSet<GraphNode>(Arrays.asList(from, to)));
+		adjacency[id][degree[id]++] = neighbor;
 	}
 	
 	private boolean addEdges(Web curWeb, GraphNode node, Statement st) {
 		boolean done = true;
 		ReachingDefinition rd = st.getReachingDefinition();
+		Web moveSource = moveSources.get(st);
 		for (Web web : rd.getAllWebs()) {
-			if (!curWeb.equals(web)) {
+			if (!curWeb.equals(web) && !web.equals(moveSource)) {
 				if (!webToNode.containsKey(web)) {
 					// This happens when the RD contains a web that has not been put in the webToNode map yet. For example:
 					// int a,b,c;
@@ -111,8 +185,9 @@ public class InterferenceGraph {
 				if (st.getLiveMap() == null){
 					throw new UnsupportedOperationException("st.getLiveMap() at line 359 is null. Why? Please either fix it so it doesn't happen, or justify the shortcut to your group members.");
 				}
-				if(st.getLiveMap().get(web.getFieldDecl()) == 1) {
-					// Variable will be live later, so we want to add an edge to that web
+				Integer live = st.getLiveMap().get(web.getFieldDecl());
+				if (live == null || live == 1) {
+					// Variable will be live later (or liveness doesn't know it), so we want to add an edge to that web
 					//System.out.println("Live web. Adding edge");
 					addEdge(node, otherNode);
 				} else {
@@ -121,39 +196,9 @@ public class InterferenceGraph {
 				
 			}
 		}
-		// if no edges are added, we must still put an empty HashSet to adjList
-		if (!adjList.containsKey(node)) {
-			adjList.put(node, new HashSet<GraphNode>());
-		}
 		return done;
 	}
 	
-	private void addEdgesForAllWebsBetweenOverlappingMethods() {
-		for (START initialNode : flowNodes.values()) {
-			//System.out.println("====== Method name: " + STARTToName.get(initialNode));
-			HashSet<Web> allWebsInOtherMethods = new HashSet<Web>();
-			for (START method : websForEachMethod.keySet()) {
-				// get all methods. All webs between them must have edges.
-				//System.out.println(STARTToName.get(method));
-				if (method != null && !method.equals(initialNode)) {
-					// not own method.
-					allWebsInOtherMethods.addAll(websForEachMethod.get(method));
-				}
-			}
-			if (!allWebsInOtherMethods.isEmpty()) {
-				for (Web web : websForEachMethod.get(initialNode)) {
-					GraphNode from = webToNode.get(web);
-					for (Web toWeb : allWebsInOtherMethods) {
-						GraphNode to = webToNode.get(toWeb);
-						if (to != null && from != null) {
-							addEdge(from, to);
-						}
-					}
-				}
-			}
-		}
-	}
-	
 	/**
 	 * Process codeBlocks sequentially.
 	 * @param listOfCodeblocks
@@ -280,6 +325,8 @@ public class InterferenceGraph {
 				// variable in this method.
 				continue;
 			}
+			methodStart = nodes.size();
+			methodBits = new long[1];
 			Set<Codeblock> listOfCodeblocks = new LinkedHashSet<Codeblock>();
 			List<FlowNode> scanning = new ArrayList<FlowNode>(); //Need to find all the Codeblocks
 			scanning.add(initialNode);
@@ -316,16 +363,18 @@ public class InterferenceGraph {
 								//System.out.println("Retrieving web for var " + varName + " to webToNode: " + curWeb);
 								node = webToNode.get(curWeb);
 							} else {
-								node = new GraphNode(curWeb);
+								node = addNode(curWeb);
 								//System.out.println("Putting web for var " + varName + " to webToNode: " + curWeb);
 								webToNode.put(curWeb, node);
-								nodes.add(node);
 							}
 							assignment.setNode(node);
 							
 							if (rd.getWebsMap().get(decl).size() != 1) {
 								throw new RuntimeException("There should only be one Web for varName: " + varName);
 							}
+							if (trackMoves) {
+								recordMove(assignment, initialNode);
+							}
 							if (!addEdges(curWeb, node, st)) {
 								// there are webs that are needed that haven't been defined yet.
 								complete = false;
@@ -334,30 +383,190 @@ public class InterferenceGraph {
 					}
 				}
 			}
+			markAcrossCalls(initialNode);
+		}
+		for (Entry<Assignment, Web> move : moveSources.entrySet()) {
+			GraphNode source = webToNode.get(move.getValue());
+			GraphNode dest = move.getKey().getNode();
+			if (source != null && source != dest && source.methodStart == dest.methodStart) {
+				moves.add(new GraphNode[]{dest, source});
+			}
 		}
-		//addEdgesForAllWebsBetweenOverlappingMethods();
+	}
+	
+	/**
+	 * Marks the nodes of the webs live across a call: the webs reaching a statement, 
+	 * branch or return that makes a call whose variable is live after it, or read by it, 
+	 * as the read can come after the call. A variable liveness has no entry for counts
+	 * as live, so a register a call can clobber is never given to it by mistake.
+	 */
+	private void markAcrossCalls(START initialNode) {
+		List<FlowNode> processing = new ArrayList<FlowNode>();
+		Set<FlowNode> seen = new HashSet<FlowNode>();
+		processing.add(initialNode);
+		seen.add(initialNode);
+		while (!processing.isEmpty()) {
+			FlowNode next = processing.remove(processing.size() - 1);
+			for (FlowNode child : next.getChildren()) {
+				if (seen.add(child)) {
+					processing.add(child);
+				}
+			}
+			Set<IR_FieldDecl> read = new HashSet<IR_FieldDecl>();
+			if (next instanceof Codeblock) {
+				ReachingDefinition before = next.getIN();
+				for (Statement st : ((Codeblock) next).getStatements()) {
+					read.clear();
+					if (st instanceof MethodCallStatement) {
+						addVarsRead(((MethodCallStatement) st).getMethodCall(), read);
+						markAcrossCall(before, read, st.getLiveMap());
+					} else if (st instanceof Assignment) {
+						Assignment assignment = (Assignment) st;
+						Var dest = assignment.getDestVar();
+						if (ExpressionSelector.hasCall(assignment.getValue()) 
+								|| (dest.isArray() && ExpressionSelector.hasCall(dest.getIndex()))) {
+							addVarsRead(assignment.getValue(), read);
+							if (dest.isArray()) {
+								addVarsRead(dest.getIndex(), read);
+							}
+							if (assignment.getOperator() != Ops.ASSIGN) {
+								read.add(dest.getFieldDecl());
+							}
+							markAcrossCall(before, read, st.getLiveMap());
+						}
+					}
+					before = st.getReachingDefinition();
+				}
+			} else if (next instanceof Branch) {
+				Expression expr = ((Branch) next).getExpr();
+				if (ExpressionSelector.hasCall(expr)) {
+					addVarsRead(expr, read);
+					markAcrossCall(next.getIN(), read, next.getLiveMap());
+				}
+			} else if (next instanceof END) {
+				Expression expr = ((END) next).getReturnExpression();
+				if (expr != null && ExpressionSelector.hasCall(expr)) {
+					addVarsRead(expr, read);
+					markAcrossCall(next.getIN(), read, null);
+				}
+			}
+		}
+	}
+	
+	private void markAcrossCall(ReachingDefinition before, Set<IR_FieldDecl> read, Bitvector live) {
+		if (before == null) {
+			return;
+		}
+		for (Web web : before.getAllWebs()) {
+			GraphNode node = webToNode.get(web);
+			if (node == null || node.isAcrossCall()) {
+				continue;
+			}
+			IR_FieldDecl decl = web.getFieldDecl();
+			Integer liveAfter = live == null ? null : live.get(decl);
+			if (read.contains(decl) || (live != null && (liveAfter == null || liveAfter == 1))) {
+				node.markAcrossCall();
+				acrossCallCount++;
+			}
+		}
+	}
+	
+	/**
+	 * Adds the variables expr reads, array indexes and call arguments included.
+	 */
+	static void addVarsRead(Expression expr, Set<IR_FieldDecl> read) {
+		if (expr instanceof Var) {
+			Var var = (Var) expr;
+			read.add(var.getFieldDecl());
+			if (var.isArray()) {
+				addVarsRead(var.getIndex(), read);
+			}
+		} else if (expr instanceof BinExpr) {
+			addVarsRead(((BinExpr) expr).getLeftSide(), read);
+			addVarsRead(((BinExpr) expr).getRightSide(), read);
+		} else if (expr instanceof NotExpr) {
+			addVarsRead(((NotExpr) expr).getUnresolvedExpression(), read);
+		} else if (expr instanceof NegateExpr) {
+			addVarsRead(((NegateExpr) expr).getExpression(), read);
+		} else if (expr instanceof Ternary) {
+			Ternary ternary = (Ternary) expr;
+			addVarsRead(ternary.getTernaryCondition(), read);
+			addVarsRead(ternary.getTrueBranch(), read);
+			addVarsRead(ternary.getFalseBranch(), read);
+		} else if (expr instanceof MethodCall) {
+			for (Expression arg : ((MethodCall) expr).getArguments()) {
+				addVarsRead(arg, read);
+			}
+		}
+	}
+	
+	/**
+	 * Notes the web copied from if assignment is a plain copy of a local scalar.
+	 */
+	private void recordMove(Assignment assignment, START initialNode) {
+		if (assignment.getOperator() != Ops.ASSIGN || !(assignment.getValue() instanceof Var)) {
+			return;
+		}
+		Var source = (Var) assignment.getValue();
+		if (source.isArray() || !notGlobalOrParam(source.getFieldDecl(), initialNode)) {
+			return;
+		}
+		HashSet<Web> sourceWebs = assignment.getReachingDefinition().getWebsMap().get(source.getFieldDecl());
+		if (sourceWebs != null && sourceWebs.size() == 1) {
+			moveSources.put(assignment, sourceWebs.iterator().next());
+		}
+	}
+	
+	/**
+	 * Has buildGraph record the copies between locals, for getMoves.
+	 */
+	public void setTrackMoves(boolean trackMoves) {
+		this.trackMoves = trackMoves;
+	}
+	
+	/**
+	 * The copies buildGraph found with setTrackMoves, as {destination, source} pairs 
+	 * of nodes in the same method.
+	 */
+	public List<GraphNode[]> getMoves() {
+		return moves;
 	}
 	
 	public List<GraphNode> getNodes() {
 		return nodes;
 	}
 	
-	public int getNumEdges(GraphNode node) {
-		if (adjList.get(node).size() == 0)
-			return 0;
-		int count = 0;
-		for (GraphNode curNode : adjList.get(node)) {
-			if (!curNode.isRemoved())
-				count++;
-		}
-		return count;
+	public GraphNode getNode(int id) {
+		return nodes.get(id);
 	}
 	
-	public HashMap<GraphNode, Set<GraphNode>> getAdjList() {
-		return adjList;
+	/**
+	 * Number of neighbors, removed or not.
+	 */
+	public int getDegree(GraphNode node) {
+		return degree[node.id];
+	}
+	
+	/**
+	 * Neighbor ii of node, for ii below getDegree(node).
+	 */
+	public GraphNode getNeighbor(GraphNode node, int ii) {
+		return nodes.get(adjacency[node.id][ii]);
 	}
 	
-	public HashSet<HashSet<GraphNode>> getBitMatrix() {
-		return bitMatrix;
+	public boolean interferes(GraphNode a, GraphNode b) {
+		long bit = bitIndex(a, b);
+		return bit >= 0 && a != b && (bitMatrix[a.id][(int) (bit >>> 6)] & (1L << bit)) != 0;
+	}
+	
+	public int getEdgeCount() {
+		return edgeCount;
+	}
+	
+	/**
+	 * Number of nodes whose webs are live across a method call.
+	 */
+	public int getAcrossCallCount() {
+		return acrossCallCount;
 	}
 }
@@ -0,0 +1,437 @@
+package edu.mit.compilers.regalloc;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Stack;
+
+import edu.mit.compilers.ir.IR_FieldDecl;
+
+/**
+ * Iterated register coalescing (George and Appel) over an InterferenceGraph built
+ * with setTrackMoves, as an alternative to Coloring.
+ *
+ * Nodes are simplified while some have fewer than k neighbors and no copies left
+ * to coalesce. The two nodes of a copy are merged when that can't make the graph
+ * harder to color: the merged node has fewer than k neighbors of degree k or more
+ * (Briggs), or every neighbor of one either has degree below k or already
+ * interferes with the other (George). When nothing else applies, the copies of a
+ * low degree node are given up (frozen), and last, a node is picked as a potential
+ * spill and simplified anyway. It is only spilled if its neighbors really do use
+ * up all k colors when the nodes are given colors back in order.
+ *
+ * The nodes merged into one get the same register, so the copies between them
+ * move a register into itself, or they are spilled together.
+ *
+ * k is per node: the number of registers it may take (see Coloring). A merged
+ * node takes the fewer of its two nodes.
+ *
+ */
+public class IteratedCoalescing {
+
+	private enum MoveState {
+		WORKLIST, ACTIVE, COALESCED, CONSTRAINED, FROZEN
+	}
+
+	InterferenceGraph graph;
+	HashMap<IR_FieldDecl, Double> fieldDeclToSpillCost;
+
+	private List<GraphNode> nodes;
+
+	/**
+	 * By node id. Adjacency starts as the graph's and gains the edges of merged nodes.
+	 */
+	private int[][] adjList;
+	private int[] adjCount;
+	private HashSet<Long> addedEdges = new HashSet<Long>();
+	private int[] degree;
+	private int[] k;
+	private double[] spillCost;
+	private int[] alias;
+	private boolean[] coalesced;
+	private boolean[] onStack;
+	private int[] color;
+	private List<List<Integer>> moveList = new ArrayList<List<Integer>>();
+
+	private LinkedHashSet<Integer> simplifyWorklist = new LinkedHashSet<Integer>();
+	private LinkedHashSet<Integer> freezeWorklist = new LinkedHashSet<Integer>();
+	private LinkedHashSet<Integer> spillWorklist = new LinkedHashSet<Integer>();
+	private Stack<Integer> selectStack = new Stack<Integer>();
+
+	/**
+	 * By move index, {destination, source} ids.
+	 */
+	private int[][] moves;
+	private MoveState[] moveState;
+	private LinkedHashSet<Integer> worklistMoves = new LinkedHashSet<Integer>();
+
+	private List<GraphNode> spillNodes = new ArrayList<GraphNode>();
+	private int coalescedMoves = 0;
+	private int constrainedMoves = 0;
+	private int frozenMoves = 0;
+
+	public IteratedCoalescing(InterferenceGraph graph, HashMap<IR_FieldDecl, Double> fieldDeclToSpillCost) {
+		this.graph = graph;
+		this.fieldDeclToSpillCost = fieldDeclToSpillCost;
+	}
+
+	public List<GraphNode> run() {
+		build();
+		makeWorklist();
+		while (!simplifyWorklist.isEmpty() || !worklistMoves.isEmpty()
+				|| !freezeWorklist.isEmpty() || !spillWorklist.isEmpty()) {
+			if (!simplifyWorklist.isEmpty()) {
+				simplify();
+			} else if (!worklistMoves.isEmpty()) {
+				coalesce();
+			} else if (!freezeWorklist.isEmpty()) {
+				freeze();
+			} else {
+				selectSpill();
+			}
+		}
+		assignColors();
+		return nodes;
+	}
+
+	public List<GraphNode> getSpilledNodes() {
+		return spillNodes;
+	}
+
+	/**
+	 * Copies whose two nodes were merged.
+	 */
+	public int getCoalescedMoves() {
+		return coalescedMoves;
+	}
+
+	/**
+	 * Copies whose two nodes interfere.
+	 */
+	public int getConstrainedMoves() {
+		return constrainedMoves;
+	}
+
+	/**
+	 * Copies given up to simplify one of their nodes.
+	 */
+	public int getFrozenMoves() {
+		return frozenMoves;
+	}
+
+	private void build() {
+		nodes = graph.getNodes();
+		int n = nodes.size();
+		adjList = new int[n][];
+		adjCount = new int[n];
+		degree = new int[n];
+		k = new int[n];
+		spillCost = new double[n];
+		alias = new int[n];
+		coalesced = new boolean[n];
+		onStack = new boolean[n];
+		color = new int[n];
+		for (GraphNode node : nodes) {
+			int id = node.getId();
+			adjCount[id] = graph.getDegree(node);
+			adjList[id] = new int[Math.max(adjCount[id], 4)];
+			for (int ii = 0; ii < adjCount[id]; ii++) {
+				adjList[id][ii] = graph.getNeighbor(node, ii).getId();
+			}
+			degree[id] = adjCount[id];
+			k[id] = Coloring.colors(node);
+			spillCost[id] = fieldDeclToSpillCost.get(node.getWeb().getFieldDecl());
+			alias[id] = id;
+			color[id] = -1;
+			moveList.add(new ArrayList<Integer>());
+		}
+		List<GraphNode[]> graphMoves = graph.getMoves();
+		moves = new int[graphMoves.size()][];
+		moveState = new MoveState[graphMoves.size()];
+		for (int m = 0; m < moves.length; m++) {
+			moves[m] = new int[]{graphMoves.get(m)[0].getId(), graphMoves.get(m)[1].getId()};
+			moveList.get(moves[m][0]).add(m);
+			moveList.get(moves[m][1]).add(m);
+			moveState[m] = MoveState.WORKLIST;
+			worklistMoves.add(m);
+		}
+	}
+
+	private void makeWorklist() {
+		for (int id = 0; id < nodes.size(); id++) {
+			if (degree[id] >= k[id]) {
+				spillWorklist.add(id);
+			} else if (moveRelated(id)) {
+				freezeWorklist.add(id);
+			} else {
+				simplifyWorklist.add(id);
+			}
+		}
+	}
+
+	private boolean interferes(int u, int v) {
+		return graph.interferes(nodes.get(u), nodes.get(v)) || addedEdges.contains(edgeKey(u, v));
+	}
+
+	private long edgeKey(int u, int v) {
+		return (long) Math.min(u, v) * nodes.size() + Math.max(u, v);
+	}
+
+	private void addEdge(int u, int v) {
+		if (u != v && !interferes(u, v)) {
+			addedEdges.add(edgeKey(u, v));
+			addNeighbor(u, v);
+			addNeighbor(v, u);
+		}
+	}
+
+	private void addNeighbor(int id, int neighbor) {
+		if (adjCount[id] == adjList[id].length) {
+			adjList[id] = Arrays.copyOf(adjList[id], 2 * adjCount[id]);
+		}
+		adjList[id][adjCount[id]++] = neighbor;
+		degree[id]++;
+	}
+
+	/**
+	 * Neighbors still in the graph: neither simplified nor merged into another node.
+	 */
+	private List<Integer> adjacent(int id) {
+		List<Integer> adjacent = new ArrayList<Integer>();
+		for (int ii = 0; ii < adjCount[id]; ii++) {
+			int neighbor = adjList[id][ii];
+			if (!onStack[neighbor] && !coalesced[neighbor]) {
+				adjacent.add(neighbor);
+			}
+		}
+		return adjacent;
+	}
+
+	/**
+	 * Copies of id that may still be coalesced.
+	 */
+	private List<Integer> nodeMoves(int id) {
+		List<Integer> nodeMoves = new ArrayList<Integer>();
+		for (int m : moveList.get(id)) {
+			if (moveState[m] == MoveState.ACTIVE || moveState[m] == MoveState.WORKLIST) {
+				nodeMoves.add(m);
+			}
+		}
+		return nodeMoves;
+	}
+
+	private boolean moveRelated(int id) {
+		return !nodeMoves(id).isEmpty();
+	}
+
+	private void simplify() {
+		int id = removeFirst(simplifyWorklist);
+		selectStack.push(id);
+		onStack[id] = true;
+		for (int neighbor : adjacent(id)) {
+			decrementDegree(neighbor);
+		}
+	}
+
+	private void decrementDegree(int id) {
+		degree[id]--;
+		if (degree[id] == k[id] - 1) {
+			// id and its neighbors may coalesce now
+			enableMoves(id);
+			for (int neighbor : adjacent(id)) {
+				enableMoves(neighbor);
+			}
+			// combine can take a node to k and back without it leaving its worklist
+			if (spillWorklist.remove(id)) {
+				if (moveRelated(id)) {
+					freezeWorklist.add(id);
+				} else {
+					simplifyWorklist.add(id);
+				}
+			}
+		}
+	}
+
+	private void enableMoves(int id) {
+		for (int m : nodeMoves(id)) {
+			if (moveState[m] == MoveState.ACTIVE) {
+				moveState[m] = MoveState.WORKLIST;
+				worklistMoves.add(m);
+			}
+		}
+	}
+
+	private int getAlias(int id) {
+		while (coalesced[id]) {
+			id = alias[id];
+		}
+		return id;
+	}
+
+	private void addWorklist(int id) {
+		if (!moveRelated(id) && degree[id] < k[id]) {
+			freezeWorklist.remove(id);
+			simplifyWorklist.add(id);
+		}
+	}
+
+	/**
+	 * Briggs: merging leaves fewer than k neighbors of significant degree, as many 
+	 * neighbors as their own k or more.
+	 */
+	private boolean briggs(int u, int v) {
+		LinkedHashSet<Integer> neighbors = new LinkedHashSet<Integer>(adjacent(u));
+		neighbors.addAll(adjacent(v));
+		int significant = 0;
+		for (int neighbor : neighbors) {
+			// a neighbor of both loses one edge in the merge
+			int d = degree[neighbor] - (interferes(neighbor, u) && interferes(neighbor, v) ? 1 : 0);
+			if (d >= k[neighbor]) {
+				significant++;
+			}
+		}
+		return significant < Math.min(k[u], k[v]);
+	}
+
+	/**
+	 * George: each neighbor of v is harmless to u, and u can't take a register v can't.
+	 */
+	private boolean george(int u, int v) {
+		if (k[u] > k[v]) {
+			return false;
+		}
+		for (int neighbor : adjacent(v)) {
+			if (degree[neighbor] >= k[neighbor] && !interferes(neighbor, u)) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	private void coalesce() {
+		int m = removeFirst(worklistMoves);
+		int u = getAlias(moves[m][0]);
+		int v = getAlias(moves[m][1]);
+		if (u == v) {
+			moveState[m] = MoveState.COALESCED;
+			coalescedMoves++;
+			addWorklist(u);
+		} else if (interferes(u, v)) {
+			moveState[m] = MoveState.CONSTRAINED;
+			constrainedMoves++;
+			addWorklist(u);
+			addWorklist(v);
+		} else if (briggs(u, v) || george(u, v) || george(v, u)) {
+			if (!george(u, v) && !briggs(u, v)) {
+				// merge u into v, the direction George allows
+				int t = u;
+				u = v;
+				v = t;
+			}
+			moveState[m] = MoveState.COALESCED;
+			coalescedMoves++;
+			combine(u, v);
+			addWorklist(u);
+		} else {
+			moveState[m] = MoveState.ACTIVE;
+		}
+	}
+
+	/**
+	 * Merges v into u.
+	 */
+	private void combine(int u, int v) {
+		if (!freezeWorklist.remove(v)) {
+			spillWorklist.remove(v);
+		}
+		coalesced[v] = true;
+		alias[v] = u;
+		spillCost[u] += spillCost[v];
+		k[u] = Math.min(k[u], k[v]);
+		moveList.get(u).addAll(moveList.get(v));
+		enableMoves(v);
+		for (int neighbor : adjacent(v)) {
+			addEdge(neighbor, u);
+			decrementDegree(neighbor);
+		}
+		if (degree[u] >= k[u] && freezeWorklist.remove(u)) {
+			spillWorklist.add(u);
+		}
+	}
+
+	private void freeze() {
+		int id = removeFirst(freezeWorklist);
+		simplifyWorklist.add(id);
+		freezeMoves(id);
+	}
+
+	private void freezeMoves(int u) {
+		for (int m : nodeMoves(u)) {
+			int x = moves[m][0];
+			int y = moves[m][1];
+			int v = getAlias(y) == getAlias(u) ? getAlias(x) : getAlias(y);
+			worklistMoves.remove(m);
+			moveState[m] = MoveState.FROZEN;
+			frozenMoves++;
+			if (nodeMoves(v).isEmpty() && degree[v] < k[v] && freezeWorklist.remove(v)) {
+				simplifyWorklist.add(v);
+			}
+		}
+	}
+
+	/**
+	 * Simplifies the node cheapest to spill for the neighbors it frees, to be
+	 * spilled later if it gets no color.
+	 */
+	private void selectSpill() {
+		int best = -1;
+		for (int id : spillWorklist) {
+			if (best < 0 || spillCost[id] / degree[id] < spillCost[best] / degree[best]) {
+				best = id;
+			}
+		}
+		spillWorklist.remove(best);
+		simplifyWorklist.add(best);
+		freezeMoves(best);
+	}
+
+	private void assignColors() {
+		while (!selectStack.empty()) {
+			int id = selectStack.pop();
+			int colors = Coloring.regsToHoldVars.size();
+			boolean[] taken = new boolean[colors];
+			for (int ii = 0; ii < adjCount[id]; ii++) {
+				int neighbor = getAlias(adjList[id][ii]);
+				if (color[neighbor] >= 0) {
+					taken[color[neighbor]] = true;
+				}
+			}
+			for (int c = colors - k[id]; c < colors && color[id] < 0; c++) {
+				if (!taken[c]) {
+					color[id] = c;
+				}
+			}
+		}
+		for (GraphNode node : nodes) {
+			int c = color[getAlias(node.getId())];
+			if (c < 0) {
+				node.setRegister(null);
+				node.spill();
+				spillNodes.add(node);
+			} else {
+				node.setRegister(Coloring.regsToHoldVars.get(c));
+			}
+		}
+	}
+
+	private static int removeFirst(LinkedHashSet<Integer> set) {
+		Iterator<Integer> it = set.iterator();
+		int first = it.next();
+		it.remove();
+		return first;
+	}
+}
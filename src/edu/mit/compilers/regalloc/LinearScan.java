@@ -0,0 +1,405 @@
+package edu.mit.compilers.regalloc;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map.Entry;
+import java.util.Set;
+
+import edu.mit.compilers.codegen.Regs;
+import edu.mit.compilers.controlflow.Assignment;
+import edu.mit.compilers.controlflow.BinExpr;
+import edu.mit.compilers.controlflow.Bitvector;
+import edu.mit.compilers.controlflow.Branch;
+import edu.mit.compilers.controlflow.Codeblock;
+import edu.mit.compilers.controlflow.END;
+import edu.mit.compilers.controlflow.Expression;
+import edu.mit.compilers.controlflow.ExpressionSelector;
+import edu.mit.compilers.controlflow.FlowNode;
+import edu.mit.compilers.controlflow.MethodCall;
+import edu.mit.compilers.controlflow.MethodCallStatement;
+import edu.mit.compilers.controlflow.NegateExpr;
+import edu.mit.compilers.controlflow.NotExpr;
+import edu.mit.compilers.controlflow.START;
+import edu.mit.compilers.controlflow.Statement;
+import edu.mit.compilers.controlflow.Ternary;
+import edu.mit.compilers.controlflow.Var;
+import edu.mit.compilers.ir.IR_FieldDecl;
+import edu.mit.compilers.ir.Ops;
+import edu.mit.compilers.ir.Type;
+
+/**
+ * Linear scan register allocation (Poletto and Sarkar), a faster alternative to
+ * building an InterferenceGraph for large programs. It needs the liveness maps of
+ * register allocation mode, but no reaching definitions or webs.
+ *
+ * The FlowNodes of each method are put in reverse postorder, and each statement,
+ * branch and return in them numbered. A local scalar's interval runs from the first
+ * to the last point reading it, defining it or with it live after, so two variables
+ * whose intervals don't overlap are never live at once. The whole variable gets one
+ * GraphNode, set on all its Assignments, so AssignRegisters uses it as it does a web.
+ * A variable live on entry to the method is left in memory, since some path reads
+ * it before assigning it, and only its stack slot holds the zero it starts with.
+ *
+ * Intervals are given registers in order of their start. When none is free, the
+ * interval cheapest to spill by CountUses among the current one and the active
+ * ones holding a register it may take is spilled, the one ending last on ties.
+ * An interval live across a call only takes callee-saved registers, as in Coloring.
+ *
+ */
+public class LinearScan {
+
+	private static class Interval {
+		final GraphNode node;
+		int start;
+		int end;
+		boolean defined = false;
+
+		Interval(GraphNode node, int start) {
+			this.node = node;
+			this.start = start;
+			this.end = start;
+		}
+	}
+
+	private List<IR_FieldDecl> globalList;
+	private HashMap<String, START> flowNodes;
+	private HashMap<IR_FieldDecl, Double> fieldDeclToSpillCost;
+
+	private List<GraphNode> nodes = new ArrayList<GraphNode>();
+	private List<GraphNode> spillNodes = new ArrayList<GraphNode>();
+	private int acrossCallCount = 0;
+	private int points = 0;
+
+	/**
+	 * The intervals of the method being scanned, in order of their start.
+	 */
+	private HashMap<IR_FieldDecl, Interval> intervals = new HashMap<IR_FieldDecl, Interval>();
+	private List<Interval> byStart = new ArrayList<Interval>();
+	private Set<IR_FieldDecl> notAllocated = new HashSet<IR_FieldDecl>();
+	private int methodStart = 0;
+	private int methodFirstPoint = 0;
+
+	public LinearScan(List<IR_FieldDecl> globals, HashMap<String, START> flowNodes,
+			HashMap<IR_FieldDecl, Double> fieldDeclToSpillCost) {
+		this.globalList = globals;
+		this.flowNodes = flowNodes;
+		this.fieldDeclToSpillCost = fieldDeclToSpillCost;
+	}
+
+	/**
+	 * Allocates the registers of every method.
+	 * @return the GraphNodes given a register.
+	 */
+	public List<GraphNode> run() {
+		List<GraphNode> assigned = new ArrayList<GraphNode>();
+		for (Entry<String, START> method : flowNodes.entrySet()) {
+			START initialNode = method.getValue();
+			List<FlowNode> order = linearize(initialNode);
+			if (callsMethod(order, method.getKey())) {
+				// There is a recursive call, so no variable of the method gets a register,
+				// as with InterferenceGraph.
+				continue;
+			}
+			intervals.clear();
+			byStart.clear();
+			notAllocated.clear();
+			notAllocated.addAll(globalList);
+			notAllocated.addAll(initialNode.getArguments());
+			methodStart = nodes.size();
+			methodFirstPoint = points;
+			for (FlowNode node : order) {
+				buildIntervals(node);
+			}
+			allocate();
+		}
+		for (GraphNode node : nodes) {
+			if (node.hasAssignedRegister()) {
+				assigned.add(node);
+			}
+		}
+		return assigned;
+	}
+
+	/**
+	 * The FlowNodes reachable from initialNode in reverse postorder, the children of each
+	 * visited last to first so a loop body and the true branch of an if come first.
+	 */
+	private List<FlowNode> linearize(START initialNode) {
+		List<FlowNode> postorder = new ArrayList<FlowNode>();
+		Set<FlowNode> seen = new HashSet<FlowNode>();
+		List<FlowNode> stack = new ArrayList<FlowNode>();
+		List<Integer> nextChild = new ArrayList<Integer>();
+		stack.add(initialNode);
+		nextChild.add(initialNode.getChildren().size() - 1);
+		seen.add(initialNode);
+		while (!stack.isEmpty()) {
+			int top = stack.size() - 1;
+			FlowNode node = stack.get(top);
+			int child = nextChild.get(top);
+			if (child < 0) {
+				postorder.add(node);
+				stack.remove(top);
+				nextChild.remove(top);
+				continue;
+			}
+			nextChild.set(top, child - 1);
+			FlowNode next = node.getChildren().get(child);
+			if (seen.add(next)) {
+				stack.add(next);
+				nextChild.add(next.getChildren().size() - 1);
+			}
+		}
+		Collections.reverse(postorder);
+		return postorder;
+	}
+
+	private boolean callsMethod(List<FlowNode> order, String name) {
+		Set<String> called = new HashSet<String>();
+		for (FlowNode node : order) {
+			if (node instanceof Codeblock) {
+				for (Statement st : ((Codeblock) node).getStatements()) {
+					if (st instanceof Assignment) {
+						addMethodsCalled(((Assignment) st).getValue(), called);
+						addMethodsCalled(((Assignment) st).getDestVar(), called);
+					} else if (st instanceof MethodCallStatement) {
+						addMethodsCalled(((MethodCallStatement) st).getMethodCall(), called);
+					}
+				}
+			} else if (node instanceof Branch) {
+				addMethodsCalled(((Branch) node).getExpr(), called);
+			} else if (node instanceof END) {
+				addMethodsCalled(((END) node).getReturnExpression(), called);
+			}
+		}
+		return called.contains(name);
+	}
+
+	private static void addMethodsCalled(Expression expr, Set<String> called) {
+		if (expr instanceof Var) {
+			if (((Var) expr).isArray()) {
+				addMethodsCalled(((Var) expr).getIndex(), called);
+			}
+		} else if (expr instanceof BinExpr) {
+			addMethodsCalled(((BinExpr) expr).getLeftSide(), called);
+			addMethodsCalled(((BinExpr) expr).getRightSide(), called);
+		} else if (expr instanceof NotExpr) {
+			addMethodsCalled(((NotExpr) expr).getUnresolvedExpression(), called);
+		} else if (expr instanceof NegateExpr) {
+			addMethodsCalled(((NegateExpr) expr).getExpression(), called);
+		} else if (expr instanceof Ternary) {
+			Ternary ternary = (Ternary) expr;
+			addMethodsCalled(ternary.getTernaryCondition(), called);
+			addMethodsCalled(ternary.getTrueBranch(), called);
+			addMethodsCalled(ternary.getFalseBranch(), called);
+		} else if (expr instanceof MethodCall) {
+			called.add(((MethodCall) expr).getMethodName());
+			for (Expression arg : ((MethodCall) expr).getArguments()) {
+				addMethodsCalled(arg, called);
+			}
+		}
+	}
+
+	/**
+	 * Numbers the points of node and extends the intervals of the variables at them.
+	 * The points of a Codeblock are consecutive, so only those live after its first and
+	 * last points and its calls are looked up: a variable live after a point in between
+	 * is also read or live after a later one, and assigned at or live after an earlier one.
+	 */
+	private void buildIntervals(FlowNode node) {
+		Set<IR_FieldDecl> read = new HashSet<IR_FieldDecl>();
+		if (node instanceof Codeblock) {
+			List<Statement> statements = ((Codeblock) node).getStatements();
+			int last = statements.size() - 1;
+			while (last >= 0 && !(statements.get(last) instanceof Assignment 
+					|| statements.get(last) instanceof MethodCallStatement)) {
+				last--;
+			}
+			boolean first = true;
+			for (int ii = 0; ii <= last; ii++) {
+				Statement st = statements.get(ii);
+				read.clear();
+				if (st instanceof Assignment) {
+					Assignment assignment = (Assignment) st;
+					Var dest = assignment.getDestVar();
+					InterferenceGraph.addVarsRead(assignment.getValue(), read);
+					boolean call = ExpressionSelector.hasCall(assignment.getValue());
+					IR_FieldDecl def = null;
+					if (dest.isArray()) {
+						InterferenceGraph.addVarsRead(dest.getIndex(), read);
+						call = call || ExpressionSelector.hasCall(dest.getIndex());
+					} else {
+						def = dest.getFieldDecl();
+						if (assignment.getOperator() != Ops.ASSIGN) {
+							read.add(def);
+						}
+					}
+					addPoint(read, def, first || ii == last || call ? st.getLiveMap() : null, call);
+					if (def != null && intervals.containsKey(def)) {
+						Interval interval = intervals.get(def);
+						interval.defined = true;
+						assignment.setNode(interval.node);
+					}
+					first = false;
+				} else if (st instanceof MethodCallStatement) {
+					InterferenceGraph.addVarsRead(((MethodCallStatement) st).getMethodCall(), read);
+					addPoint(read, null, st.getLiveMap(), true);
+					first = false;
+				} // Declarations only write the stack.
+			}
+		} else if (node instanceof Branch) {
+			Branch branch = (Branch) node;
+			InterferenceGraph.addVarsRead(branch.getExpr(), read);
+			for (Expression guard : branch.getRangeGuards()) {
+				InterferenceGraph.addVarsRead(guard, read);
+			}
+			addPoint(read, null, branch.getLiveMap(), ExpressionSelector.hasCall(branch.getExpr()));
+		} else if (node instanceof END) {
+			Expression expr = ((END) node).getReturnExpression();
+			if (expr != null) {
+				InterferenceGraph.addVarsRead(expr, read);
+				addPoint(read, null, null, ExpressionSelector.hasCall(expr));
+			}
+		}
+	}
+
+	/**
+	 * Adds the next point, where the variables read and def are accessed and those set
+	 * in live are live after. If it makes a call, the variables read or live after it,
+	 * other than one it assigns anew, are live across it.
+	 */
+	private void addPoint(Set<IR_FieldDecl> read, IR_FieldDecl def, Bitvector live, boolean call) {
+		int point = points++;
+		List<IR_FieldDecl> liveAfter = live == null ? new ArrayList<IR_FieldDecl>() : live.getLiveFieldDecls();
+		if (point == methodFirstPoint) {
+			// Live on entry, so read before it is assigned on some path. Only the stack
+			// slot its declaration zeroed holds the right value there.
+			notAllocated.addAll(read);
+			for (IR_FieldDecl decl : liveAfter) {
+				if (!decl.equals(def)) {
+					notAllocated.add(decl);
+				}
+			}
+		}
+		for (IR_FieldDecl decl : read) {
+			extend(decl, point, call);
+		}
+		for (IR_FieldDecl decl : liveAfter) {
+			extend(decl, point, call && !decl.equals(def));
+		}
+		if (def != null) {
+			extend(def, point, false);
+		}
+	}
+
+	private void extend(IR_FieldDecl decl, int point, boolean acrossCall) {
+		if (notAllocated.contains(decl) || decl.getType() == Type.INTARR || decl.getType() == Type.BOOLARR) {
+			// globals, parameters and arrays stay in memory
+			return;
+		}
+		Interval interval = intervals.get(decl);
+		if (interval == null) {
+			GraphNode node = new GraphNode(new Web(decl), nodes.size(), methodStart);
+			nodes.add(node);
+			interval = new Interval(node, point);
+			intervals.put(decl, interval);
+			byStart.add(interval);
+		}
+		interval.end = point;
+		if (acrossCall && !interval.node.isAcrossCall()) {
+			interval.node.markAcrossCall();
+			acrossCallCount++;
+		}
+	}
+
+	/**
+	 * Scans the intervals of the method in order of their start, keeping the active ones,
+	 * at most one per register, in order of their end.
+	 */
+	private void allocate() {
+		List<Interval> active = new ArrayList<Interval>();
+		boolean[] used = new boolean[Regs.values().length];
+		for (Interval current : byStart) {
+			if (!current.defined) {
+				// only read, so AssignRegisters keeps it in memory anyway
+				continue;
+			}
+			while (!active.isEmpty() && active.get(0).end < current.start) {
+				used[active.remove(0).node.getRegister().ordinal()] = false;
+			}
+			GraphNode node = current.node;
+			List<Regs> allowed = Coloring.regsToHoldVars.subList(Coloring.firstColor(node), 
+					Coloring.regsToHoldVars.size());
+			Regs free = null;
+			for (Regs reg : allowed) {
+				if (!used[reg.ordinal()]) {
+					free = reg;
+					break;
+				}
+			}
+			if (free == null) {
+				Interval victim = current;
+				for (Interval other : active) {
+					if (allowed.contains(other.node.getRegister()) && cheaperToSpill(other, victim)) {
+						victim = other;
+					}
+				}
+				if (victim == current) {
+					node.spill();
+					spillNodes.add(node);
+					continue;
+				}
+				free = victim.node.getRegister();
+				active.remove(victim);
+				victim.node.setRegister(null);
+				victim.node.spill();
+				spillNodes.add(victim.node);
+			}
+			node.setRegister(free);
+			used[free.ordinal()] = true;
+			int at = active.size();
+			while (at > 0 && active.get(at - 1).end > current.end) {
+				at--;
+			}
+			active.add(at, current);
+		}
+	}
+
+	private boolean cheaperToSpill(Interval a, Interval b) {
+		double costA = spillCost(a);
+		double costB = spillCost(b);
+		return costA < costB || (costA == costB && a.end > b.end);
+	}
+
+	private double spillCost(Interval interval) {
+		Double cost = fieldDeclToSpillCost.get(interval.node.getWeb().getFieldDecl());
+		return cost == null ? 0.0 : cost;
+	}
+
+	public List<GraphNode> getSpilledNodes() {
+		return spillNodes;
+	}
+
+	/**
+	 * Number of variables given an interval, in registers or spilled.
+	 */
+	public int getIntervalCount() {
+		return nodes.size();
+	}
+
+	/**
+	 * Number of statements, branches and returns numbered.
+	 */
+	public int getPointCount() {
+		return points;
+	}
+
+	/**
+	 * Number of intervals live across a method call.
+	 */
+	public int getAcrossCallCount() {
+		return acrossCallCount;
+	}
+}
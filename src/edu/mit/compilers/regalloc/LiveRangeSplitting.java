@@ -0,0 +1,313 @@
+package edu.mit.compilers.regalloc;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import edu.mit.compilers.codegen.LocReg;
+import edu.mit.compilers.codegen.Regs;
+import edu.mit.compilers.controlflow.Assignment;
+import edu.mit.compilers.controlflow.Branch;
+import edu.mit.compilers.controlflow.Branch.BranchType;
+import edu.mit.compilers.controlflow.Codeblock;
+import edu.mit.compilers.controlflow.Declaration;
+import edu.mit.compilers.controlflow.END;
+import edu.mit.compilers.controlflow.Expression;
+import edu.mit.compilers.controlflow.ExpressionSelector;
+import edu.mit.compilers.controlflow.FlowNode;
+import edu.mit.compilers.controlflow.MethodCallStatement;
+import edu.mit.compilers.controlflow.START;
+import edu.mit.compilers.controlflow.Statement;
+import edu.mit.compilers.controlflow.Var;
+import edu.mit.compilers.ir.IR_FieldDecl;
+import edu.mit.compilers.ir.Type;
+
+/**
+ * Splits the live ranges of the variables register allocation left in memory at the loops
+ * using them. Inside a FOR or WHILE loop, such a variable can have a register that no
+ * variable live in the loop holds. AssignRegisters loads it into the register when the loop
+ * is entered and stores it back when the loop is left, so only the rest of its range is on
+ * the stack.
+ *
+ * Loops are split outermost first. A variable split at a loop stays in its register in the
+ * loops inside it, which don't give that register to another variable. The variables used
+ * most in a loop go first, each use counting LOOP_WEIGHT times more per loop around it.
+ * A loop making a call can only use callee-saved registers. A loop without calls can use
+ * any free register, so a web spilled because it is live across a call can still have a
+ * caller-saved register in the loops between the calls.
+ *
+ */
+public class LiveRangeSplitting {
+
+	private static final double LOOP_WEIGHT = 10.0;
+
+	private List<IR_FieldDecl> globalList;
+	private HashMap<String, START> flowNodes;
+
+	private int loopsSplit = 0;
+	private int variablesSplit = 0;
+
+	/**
+	 * Of the method being split: the registers the webs of each variable have, the nodes of
+	 * the body of each loop and the number of loops each node is in.
+	 */
+	private HashMap<IR_FieldDecl, Set<Regs>> registers = new HashMap<IR_FieldDecl, Set<Regs>>();
+	private LinkedHashMap<Branch, Set<FlowNode>> bodies = new LinkedHashMap<Branch, Set<FlowNode>>();
+	private HashMap<FlowNode, Integer> depth = new HashMap<FlowNode, Integer>();
+
+	public LiveRangeSplitting(List<IR_FieldDecl> globals, HashMap<String, START> flowNodes) {
+		this.globalList = globals;
+		this.flowNodes = flowNodes;
+	}
+
+	/**
+	 * Sets the split registers of the loops of every method. Needs the registers the
+	 * allocator gave the Assignments and the liveness maps of register allocation mode.
+	 */
+	public void run() {
+		for (START initialNode : flowNodes.values()) {
+			registers.clear();
+			bodies.clear();
+			depth.clear();
+			List<Branch> loops = new ArrayList<Branch>();
+			for (FlowNode node : reachable(initialNode, null, null)) {
+				if (node instanceof Codeblock) {
+					addRegisters((Codeblock) node);
+				} else if (node instanceof Branch && isLoop((Branch) node)) {
+					loops.add((Branch) node);
+				}
+			}
+			for (Branch loop : loops) {
+				Set<FlowNode> body = reachable(loop.getTrueBranch(), loop, loop.getFalseBranch());
+				bodies.put(loop, body);
+				for (FlowNode node : body) {
+					depth.put(node, getDepth(node) + 1);
+				}
+			}
+			// a loop inside another has fewer nodes
+			Collections.sort(loops, new Comparator<Branch>() {
+				@Override
+				public int compare(Branch a, Branch b) {
+					return bodies.get(b).size() - bodies.get(a).size();
+				}
+			});
+			for (int ii = 0; ii < loops.size(); ii++) {
+				split(loops.get(ii), loops.subList(0, ii));
+			}
+		}
+	}
+
+	private void addRegisters(Codeblock block) {
+		for (Statement st : block.getStatements()) {
+			if (!(st instanceof Assignment) || ((Assignment) st).getDestVar().isArray()) {
+				continue;
+			}
+			IR_FieldDecl decl = ((Assignment) st).getDestVar().getFieldDecl();
+			if (!registers.containsKey(decl)) {
+				registers.put(decl, new HashSet<Regs>());
+			}
+			LocReg reg = ((Assignment) st).getRegister();
+			if (reg != null) {
+				registers.get(decl).add(reg.reg);
+			}
+		}
+	}
+
+	/**
+	 * Gives registers to the variables of loop that are in memory everywhere. The loops
+	 * before it are the ones already split; those whose bodies contain it keep their
+	 * variables in registers inside it.
+	 */
+	private void split(Branch loop, List<Branch> before) {
+		Set<FlowNode> body = bodies.get(loop);
+		HashMap<IR_FieldDecl, Double> uses = new LinkedHashMap<IR_FieldDecl, Double>();
+		Set<IR_FieldDecl> declared = new HashSet<IR_FieldDecl>();
+		boolean call = countUses(loop, getDepth(loop) + 1, uses, declared);
+		for (FlowNode node : body) {
+			call |= countUses(node, getDepth(node), uses, declared);
+		}
+
+		boolean[] busy = new boolean[Regs.values().length];
+		Set<IR_FieldDecl> live = new HashSet<IR_FieldDecl>(uses.keySet());
+		if (loop.getLiveMap() != null) {
+			// live somewhere in the loop without being used there means live through it
+			live.addAll(loop.getLiveMap().getLiveFieldDecls());
+		}
+		for (IR_FieldDecl decl : live) {
+			if (registers.containsKey(decl)) {
+				for (Regs reg : registers.get(decl)) {
+					busy[reg.ordinal()] = true;
+				}
+			}
+		}
+		Set<IR_FieldDecl> enclosingSplit = new HashSet<IR_FieldDecl>();
+		for (Branch outer : before) {
+			if (bodies.get(outer).contains(loop)) {
+				enclosingSplit.addAll(outer.getSplitRegisters().keySet());
+				for (Regs reg : outer.getSplitRegisters().values()) {
+					busy[reg.ordinal()] = true;
+				}
+			}
+		}
+
+		List<IR_FieldDecl> candidates = new ArrayList<IR_FieldDecl>();
+		for (IR_FieldDecl decl : uses.keySet()) {
+			boolean inMemory = !registers.containsKey(decl) || registers.get(decl).isEmpty();
+			if (inMemory && !globalList.contains(decl) && !declared.contains(decl)
+					&& !enclosingSplit.contains(decl)) {
+				candidates.add(decl);
+			}
+		}
+		final HashMap<IR_FieldDecl, Double> weights = uses;
+		Collections.sort(candidates, new Comparator<IR_FieldDecl>() {
+			@Override
+			public int compare(IR_FieldDecl a, IR_FieldDecl b) {
+				return Double.compare(weights.get(b), weights.get(a));
+			}
+		});
+		List<Regs> usable = call ? Coloring.calleeSaved : Coloring.regsToHoldVars;
+		for (IR_FieldDecl decl : candidates) {
+			Regs free = null;
+			for (Regs reg : usable) {
+				if (!busy[reg.ordinal()]) {
+					free = reg;
+					break;
+				}
+			}
+			if (free == null) {
+				break;
+			}
+			busy[free.ordinal()] = true;
+			loop.addSplitRegister(decl, free);
+			variablesSplit++;
+		}
+		if (!loop.getSplitRegisters().isEmpty()) {
+			loopsSplit++;
+		}
+	}
+
+	/**
+	 * Adds weight to the uses of the scalars node reads or assigns, and notes the variables
+	 * it declares.
+	 * @return whether node makes a method call.
+	 */
+	private boolean countUses(FlowNode node, int nodeDepth, Map<IR_FieldDecl, Double> uses,
+			Set<IR_FieldDecl> declared) {
+		double weight = Math.pow(LOOP_WEIGHT, nodeDepth);
+		Set<IR_FieldDecl> used = new LinkedHashSet<IR_FieldDecl>();
+		boolean call = false;
+		if (node instanceof Codeblock) {
+			for (Statement st : ((Codeblock) node).getStatements()) {
+				if (st instanceof Declaration) {
+					declared.add(((Declaration) st).getFieldDecl());
+				} else if (st instanceof Assignment) {
+					Assignment assignment = (Assignment) st;
+					Var dest = assignment.getDestVar();
+					InterferenceGraph.addVarsRead(assignment.getValue(), used);
+					call |= ExpressionSelector.hasCall(assignment.getValue());
+					if (dest.isArray()) {
+						InterferenceGraph.addVarsRead(dest.getIndex(), used);
+						call |= ExpressionSelector.hasCall(dest.getIndex());
+					} else {
+						used.add(dest.getFieldDecl());
+					}
+				} else if (st instanceof MethodCallStatement) {
+					InterferenceGraph.addVarsRead(((MethodCallStatement) st).getMethodCall(), used);
+					call = true;
+				}
+			}
+		} else if (node instanceof Branch) {
+			Branch branch = (Branch) node;
+			InterferenceGraph.addVarsRead(branch.getExpr(), used);
+			call |= ExpressionSelector.hasCall(branch.getExpr());
+			for (Expression guard : branch.getRangeGuards()) {
+				InterferenceGraph.addVarsRead(guard, used);
+			}
+		} else if (node instanceof END) {
+			Expression expr = ((END) node).getReturnExpression();
+			if (expr != null) {
+				InterferenceGraph.addVarsRead(expr, used);
+				call |= ExpressionSelector.hasCall(expr);
+			}
+		}
+		for (IR_FieldDecl decl : used) {
+			if (decl.getType() == Type.INTARR || decl.getType() == Type.BOOLARR) {
+				continue;
+			}
+			Double before = uses.get(decl);
+			uses.put(decl, (before == null ? 0.0 : before) + weight);
+		}
+		return call;
+	}
+
+	private int getDepth(FlowNode node) {
+		Integer nodeDepth = depth.get(node);
+		return nodeDepth == null ? 0 : nodeDepth;
+	}
+
+	/**
+	 * Whether AssignRegisters generates branch as a loop: a FOR, or a WHILE other than
+	 * the check of the bound of a limited WHILE, which is generated with it.
+	 */
+	static boolean isLoop(Branch branch) {
+		if (branch.getType() == BranchType.FOR) {
+			return true;
+		}
+		if (branch.getType() != BranchType.WHILE) {
+			return false;
+		}
+		if (!branch.getIsLimitedWhile() || branch.getParents().size() != 1) {
+			return true;
+		}
+		FlowNode incrementer = branch.getParents().get(0);
+		if (!(incrementer instanceof Codeblock) || incrementer.getParents().size() != 1) {
+			return true;
+		}
+		FlowNode start = incrementer.getParents().get(0);
+		if (!(start instanceof START) || start.getParents().isEmpty()) {
+			return true;
+		}
+		FlowNode outer = start.getParents().get(0);
+		return !(outer instanceof Branch && ((Branch) outer).getFalseBranch() == branch.getFalseBranch());
+	}
+
+	/**
+	 * The nodes reachable from first without going through either stop node.
+	 */
+	private static Set<FlowNode> reachable(FlowNode first, FlowNode stop, FlowNode otherStop) {
+		Set<FlowNode> seen = new LinkedHashSet<FlowNode>();
+		List<FlowNode> processing = new ArrayList<FlowNode>();
+		seen.add(first);
+		processing.add(first);
+		while (!processing.isEmpty()) {
+			FlowNode next = processing.remove(processing.size() - 1);
+			for (FlowNode child : next.getChildren()) {
+				if (child != stop && child != otherStop && seen.add(child)) {
+					processing.add(child);
+				}
+			}
+		}
+		return seen;
+	}
+
+	/**
+	 * Number of loops given split registers.
+	 */
+	public int getLoopsSplit() {
+		return loopsSplit;
+	}
+
+	/**
+	 * Number of variables given a register in a loop, counted once per loop.
+	 */
+	public int getVariablesSplit() {
+		return variablesSplit;
+	}
+}
@@ -4,6 +4,8 @@ import java.util.Arrays;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.Set;
 
 import edu.mit.compilers.controlflow.FlowNode;
@@ -17,17 +19,21 @@ import edu.mit.compilers.ir.IR_FieldDecl;
  * but they should immediately be merged at each iteration. Each Web represents 
  * the fact that a FieldDecl can be reached at that point in the program.
  *
+ * Webs hash by identity, so the maps and sets keep insertion order: the 
+ * interference graph lists neighbors in the order getAllWebs() gives them,
+ * and the registers chosen must not change from run to run.
+ *
  */
 public class ReachingDefinition {
 	
-	private HashMap<IR_FieldDecl, HashSet<Web>> webs = new HashMap<IR_FieldDecl, HashSet<Web>>();
+	private HashMap<IR_FieldDecl, HashSet<Web>> webs = new LinkedHashMap<IR_FieldDecl, HashSet<Web>>();
 	public ReachingDefinition() {}
 	
 	public ReachingDefinition(ReachingDefinition rd) {
 		// copy everything but the Web.
 		HashMap<IR_FieldDecl, HashSet<Web>> webMapToCopy = rd.getWebsMap();
 		for (IR_FieldDecl key : webMapToCopy.keySet()) {
-			HashSet<Web> setCopy = new HashSet<Web>(webMapToCopy.get(key));
+			HashSet<Web> setCopy = new LinkedHashSet<Web>(webMapToCopy.get(key));
 			webs.put(key, setCopy);
 		}
 	}
@@ -116,7 +122,7 @@ public class ReachingDefinition {
 			webSet = webs.get(decl);
 			webSet.add(web);
 		} else {
-			webSet = new HashSet<Web>();
+			webSet = new LinkedHashSet<Web>();
 			webSet.add(web);
 			webs.put(decl, webSet);
 		}
@@ -147,7 +153,7 @@ public class ReachingDefinition {
 	}
 	
 	public HashSet<Web> getAllWebs() {
-		HashSet<Web> allWebs = new HashSet<Web>();
+		HashSet<Web> allWebs = new LinkedHashSet<Web>();
 		for (HashSet<Web> websPerVar : webs.values()) {
 			allWebs.addAll(websPerVar);
 		}
@@ -1,5 +1,6 @@
 package edu.mit.compilers.tools;
 
+import java.util.Arrays;
 import java.util.Vector;
 
 /**
@@ -21,6 +22,12 @@ public class CLI {
 "  -o <outfile>            --output=<outfile>         write output to <outfile>\n" +
 "  -O <(opt|-opt|all)...>  --opt=<(opt|-opt|all)...>  perform the listed optimizations\n" +
 "  -d                      --debug                    print debugging information\n" +
+"                          --stats[=<file>]           report time and memory per compiler phase\n" +
+"  -j <n>                  --jobs=<n>                 optimize and generate methods on <n> threads\n" +
+"                          --unroll=<n>               unroll loops <n> times with --opt=unroll\n" +
+"                          --threads=<n>              run loops on <n> threads with --opt=parallel\n" +
+"                          --regalloc=<name>          allocate registers with <name> under --opt=regalloc\n" +
+"                          --server[=<port>]          keep running and compile for client.sh\n" +
 "\n" +
 "Long description of options:\n" +
 "  -t <stage>          <stage> is one of \"scan\", \"parse\", \"inter\", or \"assembly\".\n" +
@@ -36,6 +43,34 @@ public class CLI {
 "                      explicitly disable an optimization by prefixing its name\n" +
 "                      with '-'.\n" +
 "\n" +
+"  --stats             Print the wall time, allocated bytes and IR sizes of every\n" +
+"  --stats=<file>      compiler phase to stderr. With a file name, also write them\n" +
+"                      to <file> as JSON.\n" +
+"\n" +
+"  -j <n>              Run the per-method work of the optimizations and of code\n" +
+"  --jobs=<n>          generation on <n> threads. 0 uses all processors. The\n" +
+"                      output is the same for any <n>. Defaults to 1.\n" +
+"\n" +
+"  --unroll=<n>        Number of copies of the body the unroll optimization puts\n" +
+"                      in an unrolled loop, fewer for big bodies. Defaults to 4.\n" +
+"\n" +
+"  --threads=<n>       Number of threads the parallel optimization splits the\n" +
+"                      iterations of a loop across, from 1 to 64. 1 leaves every\n" +
+"                      loop as it is. Defaults to 4.\n" +
+"\n" +
+"  --regalloc=<name>   Register allocator of the regalloc optimization: \"color\",\n" +
+"                      graph coloring that spills whatever it can't simplify,\n" +
+"                      \"irc\", iterated register coalescing, which also removes\n" +
+"                      copies between variables, or \"linear\", linear scan over\n" +
+"                      live intervals, faster on large methods but giving each\n" +
+"                      variable one register or none. Defaults to \"color\".\n" +
+"\n" +
+"  --server            Instead of compiling, listen on a local port (any free\n" +
+"  --server=<port>     one by default) and compile the command lines sent by\n" +
+"                      client.sh. run.sh goes through the server while one is\n" +
+"                      running. Must be the first option. Stop it with\n" +
+"                      client.sh --stop.\n" +
+"\n" +
 "  -o <outfile>        Write output to <outfile>.  If this option is not given,\n" +
 "  --output=<outfile>  output will be written to a file with the same base name as\n" +
 "                      the input file and the extension changed according to the\n" +
@@ -59,36 +94,78 @@ public class CLI {
    * named in the optnames[] parameter to parse with the same index
    * should be performed.
    */
-  public static boolean opts[];
+  public boolean opts[];
 
   /**
    * Vector of String containing the command-line arguments which could
    * not otherwise be parsed.
    */
-  public static Vector<String> extras;
+  public Vector<String> extras;
 
   /**
    * Name of the file to put the output in.
    */
-  public static String outfile;
+  public String outfile;
 
   /**
    * Name of the file to get input from.  This is null if the user didn't
    * provide a file name.
    */
-  public static String infile;
+  public String infile;
 
   /**
    * The target stage.  This should be one of the integer constants
    * defined elsewhere in this package.
    */
-  public static Action target;
+  public Action target;
 
   /**
    * The debug flag.  This is true if <tt>-debug</tt> was passed on
    * the command line, requesting debugging output.
    */
-  public static boolean debug;
+  public boolean debug;
+
+  /**
+   * The stats flag.  This is true if <tt>--stats</tt> was passed, requesting
+   * per-phase timing, allocation and IR size reports.
+   */
+  public boolean stats;
+
+  /**
+   * File to write the stats to as JSON, or null if <tt>--stats</tt> was
+   * given without a file name.
+   */
+  public String statsFile;
+
+  /**
+   * Number of threads to process methods on, from <tt>-j</tt> or
+   * <tt>--jobs</tt>. 1 keeps everything on the main thread, 0 or less
+   * means one thread per available processor.
+   */
+  public int jobs = 1;
+
+  /**
+   * Number of copies of a loop body made by the unroll optimization, from
+   * <tt>--unroll</tt>.
+   */
+  public int unroll = 4;
+
+  /**
+   * Number of threads the parallel optimization runs a loop on, from
+   * <tt>--threads</tt>.
+   */
+  public int threads = 4;
+
+  /**
+   * Names of the register allocators <tt>--regalloc</tt> chooses from.
+   */
+  public static final String[] REGISTER_ALLOCATORS = {"color", "irc", "linear"};
+
+  /**
+   * Register allocator the regalloc optimization runs, from
+   * <tt>--regalloc</tt>.
+   */
+  public String regalloc = "color";
 
   /**
    * Sets up default values for all of the
@@ -96,7 +173,7 @@ public class CLI {
    * to null, the target to DEFAULT, and the extra array to a new
    * empty Vector.
    */
-  static {
+  public CLI() {
     outfile = null;
     infile = null;
     target = Action.DEFAULT;
@@ -104,10 +181,11 @@ public class CLI {
   }
 
   /**
-   * Parse the command-line arguments.  Sets all of the result fields
-   * accordingly. <BR>
+   * Parse the command-line arguments into a new CLI.  Every call
+   * returns its own set of result fields, so several compilations
+   * can be set up in one JVM. <BR>
    *
-   * <TT>-t / --target= <I>target</I></TT> sets the CLI.target field based
+   * <TT>-t / --target= <I>target</I></TT> sets the target field based
    * on the <I>target</I> specified. <BR>
    * <TT>scan</TT> or <TT>scanner</TT> specifies Action.SCAN
    * <TT>parse</TT> specifies Action.PARSE
@@ -120,8 +198,15 @@ public class CLI {
    *
    * @param args Array of arguments passed in to the program's Main
    *   function.
-   * @param optnames Ordered array of recognized optimization names.  */
-  public static void parse(String args[], String optnames[]) {
+   * @param optnames Ordered array of recognized optimization names.
+   * @return the parsed options. */
+  public static CLI parse(String args[], String optnames[]) {
+    CLI cli = new CLI();
+    cli.parseArgs(args, optnames);
+    return cli;
+  }
+
+  private void parseArgs(String args[], String optnames[]) {
     String targetStr = "";
 
     opts = new boolean[optnames.length];
@@ -129,6 +214,58 @@ public class CLI {
     for (int i = 0; i < args.length; i++) {
       if (args[i].equals("--debug") || args[i].equals("-d")) {
         debug = true;
+      } else if (args[i].equals("--stats")) {
+        stats = true;
+      } else if (args[i].startsWith("--stats=")) {
+        stats = true;
+        statsFile = args[i].substring(8);
+      } else if (args[i].startsWith("--jobs=") || args[i].equals("-j")) {
+        String jobsStr;
+        if (args[i].equals("-j")) {
+          if (i < (args.length - 1)) {
+            jobsStr = args[i + 1];
+            i++;
+          } else {
+            printUsage("No thread count specified with option " + args[i]);
+            throw new IllegalArgumentException("Incomplete option " + args[i]);
+          }
+        } else {
+          jobsStr = args[i].substring(7);
+        }
+        try {
+          jobs = Integer.parseInt(jobsStr);
+        } catch (NumberFormatException e) {
+          printUsage("Invalid thread count " + jobsStr);
+          throw new IllegalArgumentException("Invalid option " + args[i]);
+        }
+      } else if (args[i].startsWith("--unroll=")) {
+        String unrollStr = args[i].substring(9);
+        try {
+          unroll = Integer.parseInt(unrollStr);
+        } catch (NumberFormatException e) {
+          unroll = 0;
+        }
+        if (unroll < 1) {
+          printUsage("Invalid unroll factor " + unrollStr);
+          throw new IllegalArgumentException("Invalid option " + args[i]);
+        }
+      } else if (args[i].startsWith("--threads=")) {
+        String threadsStr = args[i].substring(10);
+        try {
+          threads = Integer.parseInt(threadsStr);
+        } catch (NumberFormatException e) {
+          threads = 0;
+        }
+        if (threads < 1 || threads > 64) {
+          printUsage("Invalid number of threads " + threadsStr);
+          throw new IllegalArgumentException("Invalid option " + args[i]);
+        }
+      } else if (args[i].startsWith("--regalloc=")) {
+        regalloc = args[i].substring(11);
+        if (!Arrays.asList(REGISTER_ALLOCATORS).contains(regalloc)) {
+          printUsage("Unknown register allocator " + regalloc);
+          throw new IllegalArgumentException("Invalid option " + args[i]);
+        }
       } else if (args[i].startsWith("--outfile=")) {
           outfile = args[i].substring(10);
       } else if (args[i].equals("-o")) {
@@ -0,0 +1,255 @@
+package edu.mit.compilers.tools;
+
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import edu.mit.compilers.controlflow.Codeblock;
+import edu.mit.compilers.controlflow.DataflowAnalysis;
+import edu.mit.compilers.controlflow.FlowNode;
+import edu.mit.compilers.controlflow.MethodScheduler;
+import edu.mit.compilers.controlflow.START;
+
+/**
+ * Per-phase measurements for --stats.
+ *
+ * Each phase records wall time, bytes allocated (when the JVM's ThreadMXBean can report it), and
+ * any named counters the caller adds, such as FlowNode and Statement counts before and after a pass
+ * or dataflow iteration counts. The allocation covers the compiling thread plus, once addWorkers
+ * is called, whatever the MethodScheduler's worker threads allocated in its tasks.
+ * When stats are disabled, begin/end and the counters do no measuring at all.
+ */
+public class CompilerStats {
+
+    public static class Phase {
+        private final String name;
+        private long startNanos;
+        private long startBytes;
+        private long wallNanos;
+        private long allocatedBytes = -1;
+        private Map<String, Long> counters = new LinkedHashMap<String, Long>();
+
+        private Phase(String name) {
+            this.name = name;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public long getWallNanos() {
+            return wallNanos;
+        }
+
+        /**
+         * Bytes allocated by the compiling thread and the scheduler's workers during the phase,
+         * or -1 if the JVM cannot tell.
+         */
+        public long getAllocatedBytes() {
+            return allocatedBytes;
+        }
+
+        public Map<String, Long> getCounters() {
+            return counters;
+        }
+    }
+
+    private final boolean enabled;
+    private final String inputName;
+    private List<Phase> phases = new ArrayList<Phase>();
+    private MethodScheduler workers;
+
+    /**
+     * @param enabled : if false, nothing is measured or reported.
+     * @param inputName : name of the file being compiled, used in the report.
+     */
+    public CompilerStats(boolean enabled, String inputName) {
+        this.enabled = enabled;
+        this.inputName = inputName;
+    }
+
+    /**
+     * Counts the allocation of the scheduler's worker threads along with the compiling thread's.
+     * Tasks the scheduler runs on the calling thread are already counted there.
+     */
+    public void addWorkers(MethodScheduler scheduler) {
+        if (enabled) {
+            workers = scheduler;
+            scheduler.countAllocations();
+        }
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    public List<Phase> getPhases() {
+        return phases;
+    }
+
+    public Phase begin(String name) {
+        Phase phase = new Phase(name);
+        if (enabled) {
+            phases.add(phase);
+            resetClock(phase);
+        }
+        return phase;
+    }
+
+    /**
+     * Starts the phase's time and allocation over from now, e.g. after taking its "before" counts.
+     */
+    public void resetClock(Phase phase) {
+        if (enabled) {
+            phase.startBytes = allocatedBytes();
+            phase.startNanos = System.nanoTime();
+        }
+    }
+
+    public void end(Phase phase) {
+        if (!enabled) {
+            return;
+        }
+        phase.wallNanos = System.nanoTime() - phase.startNanos;
+        long endBytes = allocatedBytes();
+        if (endBytes >= 0 && phase.startBytes >= 0) {
+            phase.allocatedBytes = endBytes - phase.startBytes;
+        }
+    }
+
+    public void count(Phase phase, String counter, long value) {
+        if (enabled) {
+            phase.counters.put(counter, value);
+        }
+    }
+
+    /**
+     * Records the number of FlowNodes and Statements reachable from the given methods,
+     * as "<prefix>Nodes" and "<prefix>Statements". Only walks the graph when stats are enabled.
+     * @param phase : phase to add the counters to.
+     * @param prefix : usually "before" or "after".
+     * @param starts : START of every method.
+     */
+    public void countFlow(Phase phase, String prefix, Collection<START> starts) {
+        if (!enabled) {
+            return;
+        }
+        long nodes = 0;
+        long statements = 0;
+        for (START start : starts) {
+            for (FlowNode node : DataflowAnalysis.computeReversePostorder(start)) {
+                nodes++;
+                if (node instanceof Codeblock) {
+                    statements += ((Codeblock) node).getStatements().size();
+                }
+            }
+        }
+        count(phase, prefix + "Nodes", nodes);
+        count(phase, prefix + "Statements", statements);
+    }
+
+    private long allocatedBytes() {
+        long bytes = threadAllocatedBytes();
+        if (bytes >= 0 && workers != null) {
+            bytes += workers.getWorkerAllocatedBytes();
+        }
+        return bytes;
+    }
+
+    /**
+     * Bytes allocated so far by the current thread, or -1 if the JVM cannot tell.
+     */
+    public static long threadAllocatedBytes() {
+        ThreadMXBean threadBean = ManagementFactory.getThreadMXBean();
+        if (threadBean instanceof com.sun.management.ThreadMXBean) {
+            com.sun.management.ThreadMXBean sunBean = (com.sun.management.ThreadMXBean) threadBean;
+            if (sunBean.isThreadAllocatedMemorySupported() && sunBean.isThreadAllocatedMemoryEnabled()) {
+                return sunBean.getThreadAllocatedBytes(Thread.currentThread().getId());
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Human readable table, one line per phase.
+     */
+    public void printReport(PrintStream out) {
+        if (!enabled) {
+            return;
+        }
+        long totalNanos = 0;
+        long totalBytes = 0;
+        out.println("Compiler stats for " + inputName);
+        out.println(String.format("%-16s %10s %14s  %s", "phase", "ms", "alloc bytes", "counters"));
+        for (Phase phase : phases) {
+            totalNanos += phase.wallNanos;
+            totalBytes += Math.max(0, phase.allocatedBytes);
+            StringBuilder counters = new StringBuilder();
+            for (Map.Entry<String, Long> counter : phase.counters.entrySet()) {
+                counters.append(counter.getKey()).append('=').append(counter.getValue()).append(' ');
+            }
+            out.println(String.format("%-16s %10.3f %14d  %s", phase.name, phase.wallNanos / 1e6,
+                    phase.allocatedBytes, counters.toString().trim()));
+        }
+        out.println(String.format("%-16s %10.3f %14d", "total", totalNanos / 1e6, totalBytes));
+    }
+
+    public String toJson() {
+        StringBuilder json = new StringBuilder();
+        json.append("{\"input\": ").append(quote(inputName)).append(", \"phases\": [");
+        for (int i = 0; i < phases.size(); i++) {
+            Phase phase = phases.get(i);
+            if (i > 0) {
+                json.append(", ");
+            }
+            json.append("{\"name\": ").append(quote(phase.name));
+            json.append(", \"wallNanos\": ").append(phase.wallNanos);
+            json.append(", \"allocatedBytes\": ").append(phase.allocatedBytes);
+            json.append(", \"counters\": {");
+            boolean first = true;
+            for (Map.Entry<String, Long> counter : phase.counters.entrySet()) {
+                if (!first) {
+                    json.append(", ");
+                }
+                first = false;
+                json.append(quote(counter.getKey())).append(": ").append(counter.getValue());
+            }
+            json.append("}}");
+        }
+        json.append("]}");
+        return json.toString();
+    }
+
+    public void writeJson(String fileName) throws IOException {
+        if (!enabled) {
+            return;
+        }
+        PrintStream ps = new PrintStream(new FileOutputStream(fileName));
+        ps.println(toJson());
+        ps.close();
+    }
+
+    private static String quote(String text) {
+        if (text == null) {
+            return "null";
+        }
+        StringBuilder quoted = new StringBuilder("\"");
+        for (char c : text.toCharArray()) {
+            if (c == '"' || c == '\\') {
+                quoted.append('\\').append(c);
+            } else if (c < 0x20) {
+                quoted.append(String.format("\\u%04x", (int) c));
+            } else {
+                quoted.append(c);
+            }
+        }
+        return quoted.append('"').toString();
+    }
+}
@@ -2,6 +2,14 @@
 
 ./build.sh
 tests/codegen/test.sh
+tests/codegen/test_jobs.sh
+tests/codegen/test_server.sh
+tests/codegen/test_sched.sh
+tests/codegen/test_irc.sh
+tests/codegen/test_linear.sh
+tests/codegen/test_licm.sh
 tests/codegen-hidden/test.sh
+tests/dataflow/test.sh
+tests/dataflow/test_jobs.sh
 tests/optimizer/test.sh
 tests/derby/test.sh
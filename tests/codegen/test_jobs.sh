@@ -0,0 +1,33 @@
+#!/bin/sh
+# Methods are optimized and generated on a pool of threads but merged back in a
+# fixed order, so the assembly must not depend on the number of threads.
+
+runcompiler() {
+    $(git rev-parse --show-toplevel)/run.sh --opt=all --target=assembly $3 -o $2 $1
+}
+
+fail=0
+
+for file in `dirname $0`/input/*.dcf; do
+  for flags in "" "--regalloc=irc" "--regalloc=linear"; do
+    echo "Running file $file $flags"
+    serial=`mktemp --suffix=.s`
+    parallel=`mktemp --suffix=.s`
+    msg=""
+    if runcompiler $file $serial "-j 1 $flags" >/dev/null 2>&1 &&
+       runcompiler $file $parallel "-j 4 $flags" >/dev/null 2>&1; then
+      if ! cmp -s $serial $parallel; then
+        msg="File $file assembly differs between -j 1 and -j 4.";
+      fi
+    else
+      msg="Program failed to generate assembly.";
+    fi
+    if [ ! -z "$msg" ]; then
+      fail=1
+      echo $msg
+    fi
+    rm -f $serial $parallel;
+  done
+done
+
+exit $fail;
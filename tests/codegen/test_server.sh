@@ -0,0 +1,57 @@
+#!/bin/bash
+# A compile through --server must give the same assembly as running the jar, and
+# the same every time, although the server keeps its JVM from one compile to the next.
+
+gitroot=$(git rev-parse --show-toplevel)
+
+runcompiler_jar() {
+    java -jar $gitroot/dist/Compiler.jar --opt=all --target=assembly -o $2 $1
+}
+
+runcompiler_server() {
+    $gitroot/client.sh --opt=all --target=assembly -o $2 $1
+}
+
+export DECAF_SERVER_FILE=`mktemp -u`
+java -jar $gitroot/dist/Compiler.jar --server >/dev/null 2>&1 &
+server=$!
+for i in `seq 100`; do
+  [ -s $DECAF_SERVER_FILE ] && break
+  sleep 0.1
+done
+if [ ! -s $DECAF_SERVER_FILE ]; then
+  echo "Server did not start."
+  kill $server
+  exit 1;
+fi
+
+fail=0
+
+for file in `dirname $0`/input/*.dcf; do
+  echo "Running file $file"
+  first=`mktemp --suffix=.s`
+  second=`mktemp --suffix=.s`
+  jar=`mktemp --suffix=.s`
+  msg=""
+  if runcompiler_server $file $first >/dev/null 2>&1 &&
+     runcompiler_server $file $second >/dev/null 2>&1 &&
+     runcompiler_jar $file $jar >/dev/null 2>&1; then
+    if ! cmp -s $first $second; then
+      msg="File $file assembly differs between two compiles on the server.";
+    elif ! cmp -s $first $jar; then
+      msg="File $file assembly differs between the server and the jar.";
+    fi
+  else
+    msg="Program failed to generate assembly.";
+  fi
+  if [ ! -z "$msg" ]; then
+    fail=1
+    echo $msg
+  fi
+  rm -f $first $second $jar;
+done
+
+$gitroot/client.sh --stop >/dev/null
+wait $server
+
+exit $fail;
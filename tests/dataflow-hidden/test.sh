@@ -17,7 +17,7 @@ for file in `dirname $0`/input/*.dcf; do
   if runcompiler $file $asm; then
     echo "Running file $file"
     binary=`tempfile`
-    if gcc -o $binary -L `dirname $0`/lib -l6035 $asm; then
+    if gcc -o $binary -L `dirname $0`/lib -l6035 $asm -lpthread; then
       output=`tempfile`
       if $binary > $output; then
         diffout=`tempfile`
@@ -16,16 +16,21 @@ for file in `dirname $0`/input/*.dcf; do
   msg=""
   if runcompiler $file $asm; then
     binary=`tempfile`
-    if gcc -o $binary -L `dirname $0`/lib -l6035 $asm; then
+    if gcc -o $binary -L `dirname $0`/lib -l6035 $asm -lpthread; then
       output=`tempfile`
       echo "Running file $file"
-      if $binary > $output; then
+      $binary > $output
+      exitcode=$?
+      if [ -f `dirname $0`/error/`basename $file`.err ]; then
+        val=$(cat `dirname $0`/error/`basename $file`.err)
+        if [ "$val" != "$exitcode" ]; then
+          msg="Program did not exit with exit status $val";
+        fi
+      else
         diffout=`tempfile`
         if ! diff -u $output `dirname $0`/output/`basename $file`.out > $diffout; then
           msg="File $file output mismatch.";
         fi
-      else
-        msg="Program failed to run.";
       fi
     else
       msg="Program failed to assemble.";